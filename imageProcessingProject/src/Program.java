@@ -1,5 +1,8 @@
 import controller.ImageProcessingController;
 import controller.ProcessingController;
+import imageasgraph.GraphFactory;
+import imageasgraph.ImageToGraphConverter;
+import java.util.Arrays;
 import view.CommandLineTextView;
 import view.GraphicalView;
 import view.View;
@@ -14,9 +17,19 @@ public class Program {
    *
    * @param args Either "-interactive" to start up a GUI, "-script" and a file path to execute a
    *             text file at given file location, or "-text" to start an in command line
-   *             interactive script
+   *             interactive script - optionally preceded by "-storage" and the way images are
+   *             stored: "linked", "raster", "mapped" for images larger than the heap, or "tiled"
+   *             for layered images with many empty or copied layers
    */
   public static void main(String[] args) {
+    if (args.length >= 2 && args[0].equals("-storage")) {
+      try {
+        ImageToGraphConverter.setGraphFactory(GraphFactory.valueOf(args[1]));
+      } catch (IllegalArgumentException e) {
+        throw new IllegalArgumentException("Invalid storage given");
+      }
+      args = Arrays.copyOfRange(args, 2, args.length);
+    }
     if (args.length == 0) {
       throw new IllegalArgumentException("No execution method specified");
     }
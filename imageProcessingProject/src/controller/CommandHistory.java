@@ -0,0 +1,625 @@
+package controller;
+
+import imageasgraph.FixedSizeGraph;
+import imageasgraph.GraphOfPixels;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import layeredimage.LayeredImage;
+import scriptlanguage.ParsedCommand;
+import scriptlanguage.ParsedCommand.PixelCommand;
+
+/**
+ * Represents the history of the commands run on a controller's images, so that they can be undone
+ * and redone. For each command only what it changed is kept: the tiles of an image or layer whose
+ * pixels it changed, as they were before, the layers of a layered image if it changed which layers
+ * there are or their order or visibility, and which images existed if it created or replaced any.
+ * Undoing a command swaps what was kept with what is there now, so the same change then redoes
+ * it. Once what is kept would take more memory than the budget allows, the oldest commands are
+ * forgotten first.
+ */
+class CommandHistory {
+  // INVARIANT: used is the sum of the cost of every entry in undoable and redoable, and is never
+  // more than budget once a command has been recorded. undoable holds the oldest entry first, and
+  // redoable holds the entry undone most recently last.
+
+  // A quarter of the heap at most, as the pixels of a command are copied before it is run
+  static final long defaultBudget = Math.min(256L << 20, Runtime.getRuntime().maxMemory() / 4);
+  private static final int tileSize = 64;
+
+  private final Map<String, GraphOfPixels> graphs;
+  private final Map<String, LayeredImage> layeredImages;
+  private final LinkedList<Entry> undoable;
+  private final LinkedList<Entry> redoable;
+  private long budget;
+  private long used;
+
+  private Map<String, GraphOfPixels> graphsBefore;
+  private Map<String, LayeredImage> layeredImagesBefore;
+  private List<LayersChange> layersBefore;
+  private PixelChange pixelsBefore;
+
+  /**
+   * Constructs an empty history of the commands run on the given images.
+   *
+   * @param graphs        The graphs the commands are run on
+   * @param layeredImages The layered images the commands are run on
+   * @param budget        The greatest number of bytes the history may keep
+   * @throws IllegalArgumentException If either map is null, or the budget is negative
+   */
+  CommandHistory(Map<String, GraphOfPixels> graphs, Map<String, LayeredImage> layeredImages,
+      long budget) throws IllegalArgumentException {
+    if (graphs == null || layeredImages == null) {
+      throw new IllegalArgumentException("Null input");
+    }
+    if (budget < 0) {
+      throw new IllegalArgumentException("Budget cannot be negative");
+    }
+    this.graphs = graphs;
+    this.layeredImages = layeredImages;
+    this.undoable = new LinkedList<Entry>();
+    this.redoable = new LinkedList<Entry>();
+    this.budget = budget;
+    this.used = 0;
+  }
+
+  /**
+   * Sets the greatest number of bytes this history may keep, forgetting the oldest commands until
+   * what is kept fits.
+   *
+   * @param budget The greatest number of bytes
+   * @throws IllegalArgumentException If the budget is negative
+   */
+  void setBudget(long budget) throws IllegalArgumentException {
+    if (budget < 0) {
+      throw new IllegalArgumentException("Budget cannot be negative");
+    }
+    this.budget = budget;
+    this.trim();
+  }
+
+  /**
+   * Returns the number of bytes this history is keeping.
+   *
+   * @return The number of bytes
+   */
+  long getUsed() {
+    return this.used;
+  }
+
+  /**
+   * Forgets every command.
+   */
+  void clear() {
+    this.undoable.clear();
+    this.redoable.clear();
+    this.used = 0;
+  }
+
+  /**
+   * Records what the given command may change, before it is executed. Only the pixels it says it
+   * may change are copied, and of everything else only references are kept. If those pixels would
+   * take more than the budget, every command is forgotten instead and they are not kept, so that
+   * the command can be neither undone nor put back if it is cancelled.
+   *
+   * @param command The command about to be executed
+   */
+  void begin(ParsedCommand command) {
+    this.graphsBefore = new HashMap<String, GraphOfPixels>(this.graphs);
+    this.layeredImagesBefore = new HashMap<String, LayeredImage>(this.layeredImages);
+    this.layersBefore = new ArrayList<LayersChange>();
+    for (LayeredImage image : this.layeredImages.values()) {
+      this.layersBefore.add(new LayersChange(image));
+    }
+    this.pixelsBefore = null;
+    if (command instanceof PixelCommand) {
+      try {
+        FixedSizeGraph target =
+            ((PixelCommand) command).getTarget(this.graphs, this.layeredImages);
+        Rectangle region = ((PixelCommand) command).getTargetRegion(target)
+            .intersection(new Rectangle(0, 0, target.getWidth(), target.getHeight()));
+        PixelChange pixels = region.isEmpty() ? null
+            : new PixelChange(target, region, this.budget);
+        if (pixels == null || pixels.fits()) {
+          this.pixelsBefore = pixels;
+        } else {
+          // The command could never be kept, and those before it could not be undone past it
+          this.clear();
+        }
+      } catch (IllegalArgumentException e) {
+        // The command will fail without changing anything, so there is nothing to record
+      }
+    }
+  }
+
+  /**
+   * Records what the command given to begin changed, once it has been executed or has failed,
+   * as one command which can be undone. Nothing is recorded if nothing changed. Any commands which
+   * were undone can no longer be redone once another command changes something.
+   */
+  void end() {
+    Entry entry = this.collect();
+    if (entry.changes.isEmpty()) {
+      return;
+    }
+    for (Entry undone : this.redoable) {
+      this.used -= undone.cost;
+    }
+    this.redoable.clear();
+    this.undoable.add(entry);
+    this.used += entry.cost;
+    if (entry.cost > this.budget) {
+      // Commands before this one could never be undone without undoing this one first
+      this.clear();
+    }
+    this.trim();
+  }
+
+  /**
+   * Puts back everything the command given to begin changed, once it has been cancelled part of
+   * the way through, without recording it, so that it is as if the command was never run.
+   */
+  void cancel() {
+    this.collect().swap(true);
+  }
+
+  /**
+   * Collects what the command given to begin changed into one entry, and stops keeping what was
+   * recorded before it.
+   *
+   * @return The entry, which has no changes if nothing changed
+   */
+  private Entry collect() {
+    Entry entry = new Entry();
+    if (!CommandHistory.sameImages(this.graphsBefore, this.graphs)
+        || !CommandHistory.sameImages(this.layeredImagesBefore, this.layeredImages)) {
+      entry.add(new ImagesChange(this, this.graphsBefore, this.layeredImagesBefore));
+    }
+    for (LayersChange before : this.layersBefore) {
+      if (before.differs()) {
+        entry.add(before);
+      }
+    }
+    if (this.pixelsBefore != null && this.pixelsBefore.keepChangedTiles()) {
+      entry.add(this.pixelsBefore);
+    }
+    this.graphsBefore = null;
+    this.layeredImagesBefore = null;
+    this.layersBefore = null;
+    this.pixelsBefore = null;
+    return entry;
+  }
+
+  /**
+   * Undoes the latest command which has not been undone.
+   *
+   * @return Whether there was a command to undo
+   */
+  boolean undo() {
+    if (this.undoable.isEmpty()) {
+      return false;
+    }
+    Entry entry = this.undoable.removeLast();
+    this.used -= entry.cost;
+    entry.swap(true);
+    this.redoable.add(entry);
+    this.used += entry.cost;
+    this.trim();
+    return true;
+  }
+
+  /**
+   * Redoes the command undone most recently.
+   *
+   * @return Whether there was a command to redo
+   */
+  boolean redo() {
+    if (this.redoable.isEmpty()) {
+      return false;
+    }
+    Entry entry = this.redoable.removeLast();
+    this.used -= entry.cost;
+    entry.swap(false);
+    this.undoable.add(entry);
+    this.used += entry.cost;
+    this.trim();
+    return true;
+  }
+
+  /**
+   * Forgets the oldest commands which can be undone, then those undone longest ago, until what is
+   * kept fits within the budget.
+   */
+  private void trim() {
+    while (this.used > this.budget && !this.undoable.isEmpty()) {
+      this.used -= this.undoable.removeFirst().cost;
+    }
+    while (this.used > this.budget && !this.redoable.isEmpty()) {
+      this.used -= this.redoable.removeFirst().cost;
+    }
+  }
+
+  /**
+   * Returns whether the given maps hold the very same images under the same names.
+   *
+   * @param before The images before
+   * @param after  The images after
+   * @return Whether the images are the same
+   */
+  private static boolean sameImages(Map<String, ?> before, Map<String, ?> after) {
+    if (!before.keySet().equals(after.keySet())) {
+      return false;
+    }
+    for (String name : before.keySet()) {
+      if (before.get(name) != after.get(name)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the number of bytes the pixels of the given graph take.
+   *
+   * @param graph The graph
+   * @return The number of bytes
+   */
+  private static long bytesOf(FixedSizeGraph graph) {
+    return 4L * graph.getWidth() * graph.getHeight();
+  }
+
+  /**
+   * Returns the number of bytes of the pixels of every layer of the given layered image.
+   *
+   * @param image The layered image
+   * @return The number of bytes
+   */
+  private static long bytesOf(LayeredImage image) {
+    long bytes = 0;
+    for (FixedSizeGraph layer : image) {
+      bytes += CommandHistory.bytesOf(layer);
+    }
+    return bytes;
+  }
+
+  /**
+   * Represents everything one command changed.
+   */
+  private static class Entry {
+
+    private final List<Change> changes = new ArrayList<Change>();
+    private long cost;
+
+    /**
+     * Adds the given change to this entry.
+     *
+     * @param change The change
+     */
+    void add(Change change) {
+      this.changes.add(change);
+      this.cost += change.getCost();
+    }
+
+    /**
+     * Swaps every change of this entry, last first when undoing and first first when redoing.
+     *
+     * @param undoing Whether the command is being undone
+     */
+    void swap(boolean undoing) {
+      this.cost = 0;
+      for (int i = 0; i < this.changes.size(); i += 1) {
+        Change change = this.changes.get(undoing ? this.changes.size() - 1 - i : i);
+        change.swap();
+        this.cost += change.getCost();
+      }
+    }
+  }
+
+  /**
+   * Represents one part of what a command changed, keeping the state it was in on the other side
+   * of that change.
+   */
+  private interface Change {
+
+    /**
+     * Swaps the kept state with the current one, so that the kept state is then the current one,
+     * and the state which was current is kept.
+     */
+    void swap();
+
+    /**
+     * Returns roughly how many bytes are kept only by this change.
+     *
+     * @return The number of bytes
+     */
+    long getCost();
+  }
+
+  /**
+   * Represents a change to which images and layered images exist under which names.
+   */
+  private static class ImagesChange implements Change {
+
+    private final CommandHistory history;
+    private Map<String, GraphOfPixels> graphs;
+    private Map<String, LayeredImage> layeredImages;
+    private long cost;
+
+    /**
+     * Constructs a change which keeps the given images.
+     *
+     * @param history       The history whose images changed
+     * @param graphs        The graphs which existed before
+     * @param layeredImages The layered images which existed before
+     */
+    ImagesChange(CommandHistory history, Map<String, GraphOfPixels> graphs,
+        Map<String, LayeredImage> layeredImages) {
+      this.history = history;
+      this.graphs = graphs;
+      this.layeredImages = layeredImages;
+      this.measure();
+    }
+
+    @Override
+    public void swap() {
+      Map<String, GraphOfPixels> currentGraphs =
+          new HashMap<String, GraphOfPixels>(this.history.graphs);
+      Map<String, LayeredImage> currentLayered =
+          new HashMap<String, LayeredImage>(this.history.layeredImages);
+      this.history.graphs.clear();
+      this.history.graphs.putAll(this.graphs);
+      this.history.layeredImages.clear();
+      this.history.layeredImages.putAll(this.layeredImages);
+      this.graphs = currentGraphs;
+      this.layeredImages = currentLayered;
+      this.measure();
+    }
+
+    @Override
+    public long getCost() {
+      return this.cost;
+    }
+
+    /**
+     * Counts the pixels of every kept image which no longer exists, as only this change keeps it.
+     */
+    private void measure() {
+      Map<Object, Boolean> current = new IdentityHashMap<Object, Boolean>();
+      for (GraphOfPixels graph : this.history.graphs.values()) {
+        current.put(graph, true);
+      }
+      for (LayeredImage image : this.history.layeredImages.values()) {
+        current.put(image, true);
+      }
+      this.cost = 0;
+      for (GraphOfPixels graph : this.graphs.values()) {
+        if (!current.containsKey(graph)) {
+          this.cost += CommandHistory.bytesOf(graph);
+        }
+      }
+      for (LayeredImage image : this.layeredImages.values()) {
+        if (!current.containsKey(image)) {
+          this.cost += CommandHistory.bytesOf(image);
+        }
+      }
+    }
+  }
+
+  /**
+   * Represents a change to which layers a layered image has, or their order or visibility.
+   */
+  private static class LayersChange implements Change {
+
+    private final LayeredImage image;
+    private List<String> names;
+    private List<FixedSizeGraph> layers;
+    private List<Boolean> visibilities;
+    private long cost;
+
+    /**
+     * Constructs a change which keeps the current layers of the given image.
+     *
+     * @param image The layered image
+     */
+    LayersChange(LayeredImage image) {
+      this.image = image;
+      this.names = image.getLayerNames();
+      this.layers = new ArrayList<FixedSizeGraph>(this.names.size());
+      this.visibilities = new ArrayList<Boolean>(this.names.size());
+      for (String name : this.names) {
+        this.layers.add(image.getLayer(name));
+        this.visibilities.add(image.getVisibility(name));
+      }
+    }
+
+    /**
+     * Returns whether the layers of the image differ from the kept ones, and if so counts the
+     * pixels of every kept layer the image no longer has.
+     *
+     * @return Whether the layers differ
+     */
+    boolean differs() {
+      LayersChange current = new LayersChange(this.image);
+      boolean differs = !this.names.equals(current.names)
+          || !this.visibilities.equals(current.visibilities);
+      for (int i = 0; i < this.layers.size() && !differs; i += 1) {
+        differs = this.layers.get(i) != current.layers.get(i);
+      }
+      if (differs) {
+        this.measure(current.layers);
+      }
+      return differs;
+    }
+
+    @Override
+    public void swap() {
+      LayersChange current = new LayersChange(this.image);
+      this.image.setLayers(this.names, this.layers, this.visibilities);
+      this.names = current.names;
+      this.layers = current.layers;
+      this.visibilities = current.visibilities;
+      this.measure(new LayersChange(this.image).layers);
+    }
+
+    @Override
+    public long getCost() {
+      return this.cost;
+    }
+
+    /**
+     * Counts the pixels of every kept layer which is not one of the given current layers.
+     *
+     * @param current The current layers
+     */
+    private void measure(List<FixedSizeGraph> current) {
+      Map<FixedSizeGraph, Boolean> kept = new IdentityHashMap<FixedSizeGraph, Boolean>();
+      for (FixedSizeGraph layer : current) {
+        kept.put(layer, true);
+      }
+      this.cost = 0;
+      for (FixedSizeGraph layer : this.layers) {
+        if (!kept.containsKey(layer)) {
+          this.cost += CommandHistory.bytesOf(layer);
+        }
+      }
+    }
+  }
+
+  /**
+   * Represents a change to the pixels of one image or layer, keeping the pixels of only the tiles
+   * which changed. A tile whose pixels are all the same, as those of a new transparent image are,
+   * is kept as just that one pixel.
+   */
+  private static class PixelChange implements Change {
+    // INVARIANT: pixels holds the kept pixels of the tile at the same index of tiles, or just one
+    // pixel if they are all the same. Both are empty if the tiles would take more than the budget.
+
+    private final FixedSizeGraph graph;
+    private final List<Rectangle> tiles;
+    private final List<int[]> pixels;
+    private boolean fits;
+
+    /**
+     * Constructs a change which keeps the current pixels of every tile of the given graph which
+     * overlaps the given region, unless they would take more than the given number of bytes, in
+     * which case none are kept.
+     *
+     * @param graph  The graph
+     * @param region The region which may be changed, within the graph
+     * @param budget The greatest number of bytes the kept pixels may take
+     */
+    PixelChange(FixedSizeGraph graph, Rectangle region, long budget) {
+      this.graph = graph;
+      this.tiles = new ArrayList<Rectangle>();
+      this.pixels = new ArrayList<int[]>();
+      this.fits = true;
+      int[] values = new int[tileSize * tileSize];
+      int right = region.x + region.width;
+      int bottom = region.y + region.height;
+      long cost = 0;
+      for (int top = region.y - region.y % tileSize; top < bottom && this.fits;
+          top += tileSize) {
+        for (int left = region.x - region.x % tileSize; left < right && this.fits;
+            left += tileSize) {
+          Rectangle tile = new Rectangle(left, top, Math.min(tileSize, graph.getWidth() - left),
+              Math.min(tileSize, graph.getHeight() - top));
+          int length = tile.width * tile.height;
+          graph.readPixels(tile.x, tile.y, tile.width, tile.height, values);
+          this.tiles.add(tile);
+          int[] kept = PixelChange.pack(values, length);
+          this.pixels.add(kept);
+          cost += 4L * kept.length;
+          this.fits = cost <= budget;
+        }
+      }
+      if (!this.fits) {
+        this.tiles.clear();
+        this.pixels.clear();
+      }
+    }
+
+    /**
+     * Returns whether the pixels this change was to keep fit within the budget it was given.
+     *
+     * @return Whether they fit, and so were kept
+     */
+    boolean fits() {
+      return this.fits;
+    }
+
+    /**
+     * Forgets every kept tile whose pixels are the same as they are now.
+     *
+     * @return Whether any tile changed
+     */
+    boolean keepChangedTiles() {
+      for (int i = this.tiles.size() - 1; i >= 0; i -= 1) {
+        int[] current = this.read(this.tiles.get(i));
+        if (Arrays.equals(this.pixels.get(i), PixelChange.pack(current, current.length))) {
+          this.tiles.remove(i);
+          this.pixels.remove(i);
+        }
+      }
+      return !this.tiles.isEmpty();
+    }
+
+    @Override
+    public void swap() {
+      for (int i = 0; i < this.tiles.size(); i += 1) {
+        Rectangle tile = this.tiles.get(i);
+        int[] current = this.read(tile);
+        int[] kept = this.pixels.get(i);
+        if (kept.length < current.length) {
+          int color = kept[0];
+          kept = new int[current.length];
+          Arrays.fill(kept, color);
+        }
+        this.graph.writePixels(tile.x, tile.y, tile.width, tile.height, kept);
+        this.pixels.set(i, PixelChange.pack(current, current.length));
+      }
+    }
+
+    @Override
+    public long getCost() {
+      long cost = 0;
+      for (int[] tile : this.pixels) {
+        cost += 4L * tile.length;
+      }
+      return cost;
+    }
+
+    /**
+     * Reads the pixels of the given tile of the graph.
+     *
+     * @param tile The tile
+     * @return It's packed pixels, in row-major order
+     */
+    private int[] read(Rectangle tile) {
+      int[] values = new int[tile.width * tile.height];
+      this.graph.readPixels(tile.x, tile.y, tile.width, tile.height, values);
+      return values;
+    }
+
+    /**
+     * Copies the given number of packed pixels at the start of the given array to be kept, as just
+     * the first of them if they are all the same.
+     *
+     * @param values The packed pixels
+     * @param length The number of them to copy
+     * @return The pixels to keep
+     */
+    private static int[] pack(int[] values, int length) {
+      for (int i = 1; i < length; i += 1) {
+        if (values[i] != values[0]) {
+          return Arrays.copyOf(values, length);
+        }
+      }
+      return new int[]{values[0]};
+    }
+  }
+}
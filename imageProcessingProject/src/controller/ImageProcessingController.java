@@ -1,5 +1,6 @@
 package controller;
 
+import java.awt.image.BufferedImage;
 import java.util.List;
 import layeredimage.ViewModel;
 
@@ -36,4 +37,29 @@ public interface ImageProcessingController {
    * @return The list of all of the names
    */
   List<String> getLayeredImageNames();
+
+  /**
+   * Undoes the latest command which changed any image and has not been undone, if the history of
+   * commands still holds it.
+   *
+   * @return Whether there was a command to undo
+   */
+  boolean undo();
+
+  /**
+   * Redoes the command undone most recently, if no command has changed any image since.
+   *
+   * @return Whether there was a command to redo
+   */
+  boolean redo();
+
+  /**
+   * Returns a quick, low resolution preview of the layered image the given command changes, as it
+   * would look after the command, without running it. Only commands which apply a mutator to a
+   * layer of a layered image can be previewed.
+   *
+   * @param command The command to be previewed
+   * @return The preview, or null if the command cannot be previewed
+   */
+  BufferedImage previewCommand(String command);
 }
@@ -1,6 +1,8 @@
 package controller;
 
 import imageasgraph.GraphOfPixels;
+import imageasgraph.Utils;
+import java.awt.image.BufferedImage;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.util.ArrayList;
@@ -8,11 +10,14 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.CancellationException;
 import layeredimage.LayeredImage;
 import layeredimage.ViewModel;
 import scriptlanguage.LanguageSyntax;
 import scriptlanguage.LanguageSyntaxImpl;
 import scriptlanguage.ParsedCommand;
+import scriptlanguage.ParsedCommand.ApplyMutatorCommand;
+import scriptlanguage.ParsedCommand.PipelineCommand;
 import view.ErrorView.TextErrorView;
 import view.View;
 
@@ -21,13 +26,17 @@ import view.View;
  */
 public class ProcessingController implements ImageProcessingController {
 
+  private static final int previewPixels = 1 << 18;
   private final View view;
   private final Readable input;
   private final Map<String, GraphOfPixels> singleImages;
   private final Map<String, LayeredImage> layeredImages;
+  private final CommandHistory history;
+  private final boolean interactive;
 
   /**
-   * Creates a controller instance using a readable input.
+   * Creates a controller instance using a readable input. No pixels are kept to undo the
+   * commands of the script unless setHistoryBudget is called first.
    *
    * @param input  The Readable input for the program
    * @param output The Appendable where information is outputted
@@ -41,10 +50,14 @@ public class ProcessingController implements ImageProcessingController {
     this.input = input;
     this.singleImages = new HashMap<String, GraphOfPixels>();
     this.layeredImages = new HashMap<String, LayeredImage>();
+    // A script is rarely undone, so no pixels are copied before it's commands unless asked to
+    this.history = new CommandHistory(this.singleImages, this.layeredImages, 0);
+    this.interactive = false;
   }
 
   /**
-   * Creates a controller instance using a String file.
+   * Creates a controller instance using a String file. No pixels are kept to undo the
+   * commands of the script unless setHistoryBudget is called first.
    *
    * @param fileInput The String input for the program representing a file
    * @param output    The Appendable where information is outputted
@@ -64,6 +77,9 @@ public class ProcessingController implements ImageProcessingController {
     this.input = newScript;
     this.singleImages = new HashMap<String, GraphOfPixels>();
     this.layeredImages = new HashMap<String, LayeredImage>();
+    // A script is rarely undone, so no pixels are copied before it's commands unless asked to
+    this.history = new CommandHistory(this.singleImages, this.layeredImages, 0);
+    this.interactive = false;
   }
 
   /**
@@ -82,6 +98,9 @@ public class ProcessingController implements ImageProcessingController {
     this.input = null;
     this.singleImages = new HashMap<String, GraphOfPixels>();
     this.layeredImages = new HashMap<String, LayeredImage>();
+    this.history = new CommandHistory(this.singleImages, this.layeredImages,
+        CommandHistory.defaultBudget);
+    this.interactive = false;
   }
 
   /**
@@ -93,6 +112,21 @@ public class ProcessingController implements ImageProcessingController {
    *                                  controller is run
    */
   public ProcessingController(View view, Readable in) throws IllegalArgumentException {
+    this(view, in, false);
+  }
+
+  /**
+   * Creates a controller instance reading commands from the given input for the given view. If the
+   * input is typed by a user as it is read, every line is run as soon as it is read, rather than
+   * holding back mutators to be run together with the lines after them.
+   *
+   * @param view        The interactive or text view for the program
+   * @param in          The input for the program
+   * @param interactive Whether the input is typed by a user as it is read
+   * @throws IllegalArgumentException If view is null
+   */
+  public ProcessingController(View view, Readable in, boolean interactive)
+      throws IllegalArgumentException {
     if (view == null) {
       throw new IllegalArgumentException("Null view provided");
     }
@@ -100,6 +134,9 @@ public class ProcessingController implements ImageProcessingController {
     this.input = in;
     this.singleImages = new HashMap<String, GraphOfPixels>();
     this.layeredImages = new HashMap<String, LayeredImage>();
+    this.history = new CommandHistory(this.singleImages, this.layeredImages,
+        CommandHistory.defaultBudget);
+    this.interactive = interactive;
   }
 
 
@@ -107,11 +144,12 @@ public class ProcessingController implements ImageProcessingController {
   public void run() {
     this.singleImages.clear();
     this.layeredImages.clear();
+    this.history.clear();
     if (this.input == null) {
       throw new IllegalArgumentException("Null input, cannot be run this way");
     }
     Scanner scanner = new Scanner(this.input);
-    this.runCommandsFromScanner(scanner);
+    this.runCommandsFromScanner(scanner, !this.interactive);
   }
 
   @Override
@@ -133,7 +171,7 @@ public class ProcessingController implements ImageProcessingController {
       return;
     }
     Scanner scanner = new Scanner(commands);
-    this.runCommandsFromScanner(scanner);
+    this.runCommandsFromScanner(scanner, true);
   }
 
   @Override
@@ -141,35 +179,170 @@ public class ProcessingController implements ImageProcessingController {
     return new ArrayList<String>(this.layeredImages.keySet());
   }
 
+  @Override
+  public boolean undo() {
+    return this.history.undo();
+  }
+
+  @Override
+  public boolean redo() {
+    return this.history.redo();
+  }
+
+  @Override
+  public BufferedImage previewCommand(String command) {
+    if (command == null) {
+      return null;
+    }
+    try {
+      ParsedCommand parsed = new LanguageSyntaxImpl().parseCommand(command);
+      if (parsed instanceof ApplyMutatorCommand) {
+        return ((ApplyMutatorCommand) parsed).preview(this.layeredImages, previewPixels);
+      }
+    } catch (IllegalArgumentException e) {
+      // A command which cannot be parsed or previewed has no preview, and is reported when run
+    }
+    return null;
+  }
+
   /**
-   * Given a scanner over a set of input, runs every command contained in that input.
+   * Sets the greatest number of bytes the history of commands which can be undone may keep. The
+   * oldest commands are forgotten first once more would be kept, and a command which changes more
+   * than this on it's own cannot be undone. It is 256 megabytes or a quarter of the most memory the
+   * program may use, whichever is less, unless set, except for a controller given a script and
+   * an output, for which it is 0 so that no pixels are copied before each command.
+   *
+   * @param bytes The greatest number of bytes
+   * @throws IllegalArgumentException If the number is negative
+   */
+  public void setHistoryBudget(long bytes) throws IllegalArgumentException {
+    this.history.setBudget(bytes);
+  }
+
+  /**
+   * Executes the given command on this controller's images, recording what it changes in the
+   * history so that it can be undone, whether it succeeds or fails part of the way through. If it
+   * is cancelled part of the way through, what it changed is put back instead.
+   *
+   * @param command The command to be executed
+   * @throws IllegalArgumentException If the command cannot be executed
+   * @throws CancellationException    If the thread running the command is interrupted before it
+   *                                  is done
+   */
+  private void execute(ParsedCommand command)
+      throws IllegalArgumentException, CancellationException {
+    this.history.begin(command);
+    try {
+      command.execute(this.singleImages, this.layeredImages);
+    } catch (CancellationException e) {
+      this.history.cancel();
+      throw e;
+    } catch (RuntimeException e) {
+      this.history.end();
+      throw e;
+    }
+    this.history.end();
+  }
+
+  /**
+   * Given a scanner over a set of input, runs every command contained in that input. If asked to,
+   * consecutive commands which apply mutators to the same image are held back and run together as
+   * one pipeline, as soon as a command which cannot join them is reached, and are undone together.
+   * Input typed by a user is not batched, as it's lines are not all there to be read at once.
+   * The lines "undo" and "redo" undo the latest command or redo the latest undone one. The view is
+   * told how many lines have been run as each is reached, and if the thread running the commands
+   * is interrupted, the command being run is undone and no more are run.
    *
    * @param scanner The scanner which is reading the input
+   * @param batched Whether mutators are held back to be run together
    */
-  private void runCommandsFromScanner(Scanner scanner) {
+  private void runCommandsFromScanner(Scanner scanner, boolean batched) {
     if (scanner == null) {
       this.view.renderException("Null scanner given for processing");
       return;
     }
     LanguageSyntax parser = new LanguageSyntaxImpl();
+    List<ApplyMutatorCommand> batch = new ArrayList<ApplyMutatorCommand>();
+    List<Integer> batchLines = new ArrayList<Integer>();
     int counter = 0;
-    while (scanner.hasNext()) {
-      String nextCommand = scanner.nextLine();
-      if (nextCommand.length() != 0 && nextCommand.charAt(0) != '#') {
-        if (nextCommand.equals("quit")) {
-          this.view.renderException("Image Processor Quit");
-          return;
-        }
+    try {
+      while (scanner.hasNext()) {
+        Utils.checkCancelled(Thread.currentThread());
+        this.view.renderProgress(counter);
+        String nextCommand = scanner.nextLine();
+        if (nextCommand.length() != 0 && nextCommand.charAt(0) != '#') {
+          if (nextCommand.equals("quit")) {
+            this.runBatch(batch, batchLines);
+            this.view.renderException("Image Processor Quit");
+            return;
+          }
+          if (nextCommand.equals("undo") || nextCommand.equals("redo")) {
+            this.runBatch(batch, batchLines);
+            boolean done = nextCommand.equals("undo") ? this.undo() : this.redo();
+            if (!done) {
+              this.view.renderException("Invalid line " + counter + ": Nothing to " + nextCommand
+                  + "\n");
+            }
+            counter += 1;
+            continue;
+          }
 
-        try {
-          ParsedCommand toExecute = parser.parseCommand(nextCommand);
-          toExecute.execute(singleImages, layeredImages);
-          toExecute.alterLanguageState(parser);
-        } catch (IllegalArgumentException e) {
-          this.view.renderException("Invalid line " + counter + ": " + e.getMessage() + "\n");
+          try {
+            ParsedCommand toExecute = parser.parseCommand(nextCommand);
+            if (batched && toExecute instanceof ApplyMutatorCommand) {
+              ApplyMutatorCommand mutatorCommand = (ApplyMutatorCommand) toExecute;
+              if (!batch.isEmpty() && !batch.get(0).hasSameTarget(mutatorCommand)) {
+                this.runBatch(batch, batchLines);
+              }
+              batch.add(mutatorCommand);
+              batchLines.add(counter);
+            } else {
+              this.runBatch(batch, batchLines);
+              this.execute(toExecute);
+            }
+            toExecute.alterLanguageState(parser);
+          } catch (IllegalArgumentException e) {
+            this.runBatch(batch, batchLines);
+            this.view.renderException("Invalid line " + counter + ": " + e.getMessage() + "\n");
+          }
         }
+        counter += 1;
+      }
+      this.runBatch(batch, batchLines);
+      this.view.renderProgress(counter);
+    } catch (CancellationException e) {
+      this.view.renderException("Cancelled at line " + counter + "\n");
+    }
+  }
+
+  /**
+   * Runs the given commands, which all apply mutators to the same image, as one pipeline, and
+   * empties the lists. If the pipeline cannot be run, which is found out before the image is
+   * changed, each command is run on it's own so any errors are shown for the lines they are from.
+   *
+   * @param batch      The commands to be run, in order
+   * @param batchLines The line each command is from
+   */
+  private void runBatch(List<ApplyMutatorCommand> batch, List<Integer> batchLines) {
+    if (batch.size() > 1) {
+      try {
+        this.execute(new PipelineCommand(batch));
+        batch.clear();
+        batchLines.clear();
+        return;
+      } catch (IllegalArgumentException e) {
+        // Falls back to running the commands one by one, below
+      }
+    }
+    for (int i = 0; i < batch.size(); i += 1) {
+      try {
+        this.execute(batch.get(i));
+      } catch (IllegalArgumentException e) {
+        this.view.renderException(
+            "Invalid line " + batchLines.get(i) + ": " + e.getMessage() + "\n");
       }
-      counter += 1;
     }
+    batch.clear();
+    batchLines.clear();
   }
 }
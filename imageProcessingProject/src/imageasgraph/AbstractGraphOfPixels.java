@@ -1,15 +1,399 @@
 package imageasgraph;
 
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import javax.imageio.ImageIO;
+import mutators.Mutator;
+import pixel.PixelAsColors;
+
 /**
  * Represents a Graph of Pixels, used alongside interface to require package-specific methods - in
- * this case, to set the first pixel of the graph.
+ * this case, to set the first pixel of the graph. Also holds the functionality shared by every way
+ * of storing a graph, such as writing it to a file.
  */
 public abstract class AbstractGraphOfPixels implements GraphOfPixels {
 
+  private static final int bandHeight = 64;
+  private static final int bufferSize = 1 << 16;
+
+  private final ChangeLog changes = new ChangeLog();
+  private boolean mutating;
+
   /**
    * If this graph is of size 0, 0, then initializes the first node to be the given one.
    *
    * @param n The node to be the first node, must be non-empty
    */
   abstract void addFirstNode(Node.AbstractNode n) throws IllegalArgumentException;
+
+  /**
+   * Asserts that this graph is not empty, and thus operations besides adding an initial node can be
+   * done on it.
+   */
+  protected void assertGraphNotEmpty() {
+    if (this.getWidth() == 0 && this.getHeight() == 0) {
+      throw new IllegalArgumentException("Graph is empty");
+    }
+  }
+
+  /**
+   * Asserts that the given rectangle lies entirely within this graph, and that the given array can
+   * hold every pixel of it.
+   *
+   * @param x      The x coordinate of the left edge of the rectangle
+   * @param y      The y coordinate of the top edge of the rectangle
+   * @param width  The width of the rectangle
+   * @param height The height of the rectangle
+   * @param pixels The array which will be read from or written to
+   * @throws IllegalArgumentException If the array is null or too short, or the rectangle is not
+   *                                  entirely within this graph
+   */
+  protected void assertValidRegion(int x, int y, int width, int height, int[] pixels)
+      throws IllegalArgumentException {
+    if (pixels == null) {
+      throw new IllegalArgumentException("Null array");
+    }
+    if (x < 0 || y < 0 || width < 0 || height < 0 || x + width > this.getWidth()
+        || y + height > this.getHeight()) {
+      throw new IllegalArgumentException("Region not in bounds");
+    }
+    if (pixels.length < width * height) {
+      throw new IllegalArgumentException("Array too short for region");
+    }
+  }
+
+  @Override
+  public long getModificationCount() {
+    return this.changes.getCount();
+  }
+
+  @Override
+  public Rectangle getChangedRegion(long since) {
+    return this.changes.changedSince(since, this.getWidth(), this.getHeight());
+  }
+
+  /**
+   * Records that the pixels in the given rectangle of this graph have changed. While a mutator is
+   * being applied nothing is recorded, as the region the mutator reports is recorded once it is
+   * done, so the threads applying it never record their changes over one another.
+   *
+   * @param x      The x coordinate of the left edge of the rectangle
+   * @param y      The y coordinate of the top edge of the rectangle
+   * @param width  The width of the rectangle
+   * @param height The height of the rectangle
+   */
+  void markModified(int x, int y, int width, int height) {
+    if (!this.mutating) {
+      this.changes.mark(x, y, width, height);
+    }
+  }
+
+  /**
+   * Records that the size of this graph has changed, which moves it's pixels to new coordinates.
+   */
+  void markResized() {
+    this.changes.forget();
+  }
+
+  /**
+   * Records the region the given mutator reports it may have changed in this graph, once it has
+   * been applied, and starts recording changes again.
+   *
+   * @param mutator The mutator which was applied
+   * @param outer   Whether a mutator was already being applied when this one was
+   */
+  private void endMutation(Mutator mutator, boolean outer) {
+    this.mutating = outer;
+    Rectangle affected = mutator.getAffectedRegion(this);
+    if (!affected.isEmpty()) {
+      this.markModified(affected.x, affected.y, affected.width, affected.height);
+    }
+  }
+
+  @Override
+  public Iterator<Node> iterator() {
+    return this.cursor();
+  }
+
+  @Override
+  public void writeToFile(OutputType fileType, String fileName) throws IllegalArgumentException {
+    if (fileType == null || fileName == null) {
+      throw new IllegalArgumentException("One or both of the arguments is null");
+    }
+    switch (fileType) {
+      case ppm:
+        this.writePPM(fileName);
+        break;
+      case rawppm:
+        this.writeRawPPM(fileName);
+        break;
+      case pgm:
+        this.writePGM(fileName);
+        break;
+      case pam:
+        this.writePAM(fileName);
+        break;
+      case png:
+        this.writePNG(fileName);
+        break;
+      case jpeg:
+        this.writeJPG(fileName);
+        break;
+      default:
+        throw new IllegalArgumentException("Unsupported fileType");
+    }
+  }
+
+  @Override
+  public void applyMutator(Mutator mutator) {
+    this.assertGraphNotEmpty();
+    if (mutator == null) {
+      throw new IllegalArgumentException("Null mutator");
+    }
+    boolean outer = this.mutating;
+    this.mutating = true;
+    try {
+      mutator.apply(this);
+    } finally {
+      this.endMutation(mutator, outer);
+    }
+  }
+
+  @Override
+  public void applyMutator(Mutator mutator, int parallelism) throws IllegalArgumentException {
+    this.assertGraphNotEmpty();
+    if (mutator == null) {
+      throw new IllegalArgumentException("Null mutator");
+    }
+    if (parallelism <= 0) {
+      throw new IllegalArgumentException("Parallelism must be positive");
+    }
+    boolean outer = this.mutating;
+    this.mutating = true;
+    try {
+      mutator.apply(this, parallelism);
+    } finally {
+      this.endMutation(mutator, outer);
+    }
+  }
+
+  /**
+   * Writes this image as a ppm file to the specified output, with each value as text on it's own
+   * line. The text is built straight into a buffer of bytes, a band of rows at a time.
+   *
+   * @param fileName The name of the file which will become the output
+   */
+  protected void writePPM(String fileName) {
+    String header = "P3\n# Generated from project\n" + this.getWidth() + " " + this.getHeight()
+        + "\n" + PixelAsColors.maxColor + "\n";
+    this.writeNetpbm(new File(fileName + ".ppm"), header, 3, false);
+  }
+
+  /**
+   * Writes this image as a binary ppm file to the specified output, with each value as one byte.
+   *
+   * @param fileName The name of the file which will become the output
+   */
+  protected void writeRawPPM(String fileName) {
+    String header = "P6\n# Generated from project\n" + this.getWidth() + " " + this.getHeight()
+        + "\n" + PixelAsColors.maxColor + "\n";
+    this.writeNetpbm(new File(fileName + ".ppm"), header, 3, true);
+  }
+
+  /**
+   * Writes this image as a binary pgm file to the specified output, with the grey value of each
+   * pixel - it's luma, as the greyscale transformation gives - as one byte.
+   *
+   * @param fileName The name of the file which will become the output
+   */
+  protected void writePGM(String fileName) {
+    String header = "P5\n# Generated from project\n" + this.getWidth() + " " + this.getHeight()
+        + "\n" + PixelAsColors.maxColor + "\n";
+    this.writeNetpbm(new File(fileName + ".pgm"), header, 1, true);
+  }
+
+  /**
+   * Writes this image as a pam file to the specified output, with the colors and opacity of each
+   * pixel as four bytes, so unlike the other netpbm formats it keeps transparency.
+   *
+   * @param fileName The name of the file which will become the output
+   */
+  protected void writePAM(String fileName) {
+    String header = "P7\nWIDTH " + this.getWidth() + "\nHEIGHT " + this.getHeight()
+        + "\nDEPTH 4\nMAXVAL " + PixelAsColors.maxColor + "\nTUPLTYPE RGB_ALPHA\nENDHDR\n";
+    this.writeNetpbm(new File(fileName + ".pam"), header, 4, true);
+  }
+
+  /**
+   * Writes this image to the given file as the given header followed by the values of every pixel,
+   * from the top row down. The pixels are read a band of rows at a time, and their values are put
+   * into a buffer of bytes which is written through the file's channel whenever it is full.
+   *
+   * @param output   The file to be written
+   * @param header   The text the file starts with
+   * @param channels The number of values written for each pixel - 1 for it's grey value, 3 for
+   *                 it's colors, or 4 for it's colors and opacity
+   * @param binary   Whether each value is written as one byte, rather than as text on it's own
+   *                 line
+   * @throws IllegalArgumentException If the file cannot be written
+   */
+  private void writeNetpbm(File output, String header, int channels, boolean binary)
+      throws IllegalArgumentException {
+    int width = this.getWidth();
+    int height = this.getHeight();
+    byte[][] text = binary ? null : AbstractGraphOfPixels.valuesAsText();
+    int[] samples = new int[channels];
+    try (FileOutputStream stream = new FileOutputStream(output);
+        FileChannel channel = stream.getChannel()) {
+      ByteBuffer buffer = ByteBuffer.allocate(bufferSize);
+      buffer.put(header.getBytes(StandardCharsets.US_ASCII));
+      int[] band = new int[width * Math.min(bandHeight, height)];
+      for (int top = 0; top < height; top += bandHeight) {
+        int rows = Math.min(bandHeight, height - top);
+        this.readPixels(0, top, width, rows, band);
+        for (int i = 0; i < width * rows; i += 1) {
+          AbstractGraphOfPixels.toSamples(band[i], samples);
+          for (int sample : samples) {
+            if (binary) {
+              if (!buffer.hasRemaining()) {
+                AbstractGraphOfPixels.writeFully(channel, buffer);
+              }
+              buffer.put((byte) sample);
+            } else {
+              if (buffer.remaining() < text[sample].length) {
+                AbstractGraphOfPixels.writeFully(channel, buffer);
+              }
+              buffer.put(text[sample]);
+            }
+          }
+        }
+      }
+      AbstractGraphOfPixels.writeFully(channel, buffer);
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Invalid file");
+    }
+  }
+
+  /**
+   * Puts the values written for the given pixel into the given array, whose length is the number
+   * of values written - 1 for it's grey value, 3 for it's colors, or 4 for it's colors and
+   * opacity. Transparent pixels have every color be 0, as they do when written any other way.
+   *
+   * @param argb    The packed opacity, red, green and blue values of the pixel
+   * @param samples The array the values are put into
+   */
+  private static void toSamples(int argb, int[] samples) {
+    int alpha = argb >>> 24;
+    int visible = alpha == 0 ? 0 : argb;
+    int r = (visible >> 16) & 0xFF;
+    int g = (visible >> 8) & 0xFF;
+    int b = visible & 0xFF;
+    if (samples.length == 1) {
+      samples[0] = Utils.clampColor(Utils.roundDouble(0.0 + 0.2126 * r + 0.7152 * g + 0.0722 * b));
+      return;
+    }
+    samples[0] = r;
+    samples[1] = g;
+    samples[2] = b;
+    if (samples.length == 4) {
+      samples[3] = alpha;
+    }
+  }
+
+  /**
+   * Returns the text written for each value a color can have, followed by a new line.
+   *
+   * @return The bytes of the text, indexed by the value
+   */
+  private static byte[][] valuesAsText() {
+    byte[][] text = new byte[PixelAsColors.maxColor + 1][];
+    for (int i = 0; i < text.length; i += 1) {
+      text[i] = (i + "\n").getBytes(StandardCharsets.US_ASCII);
+    }
+    return text;
+  }
+
+  /**
+   * Writes everything in the given buffer up to it's position to the given channel, then clears
+   * the buffer for more to be put in it.
+   *
+   * @param channel The channel to be written to
+   * @param buffer  The buffer to be written, which is being filled
+   * @throws IOException If the channel cannot be written to
+   */
+  private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    buffer.clear();
+  }
+
+  /**
+   * Writes this Graph as a PNG image file with the given string as it's name.
+   *
+   * @param fileName The name of the image file to be created
+   * @throws IllegalArgumentException If the name given is null
+   */
+  protected void writePNG(String fileName) throws IllegalArgumentException {
+    if (fileName == null) {
+      throw new IllegalArgumentException("Null fileName");
+    }
+    BufferedImage toReturn = this.createBufferedImageForOutPut();
+
+    File outPut = new File(fileName + ".png");
+
+    try {
+      ImageIO.write(toReturn, "png", outPut);
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Could not write to file");
+    }
+  }
+
+  /**
+   * Writes this Graph as a JPG image file with the given string as it's name.
+   *
+   * @param fileName The name of the image file to be created
+   * @throws IllegalArgumentException If the name given is null
+   */
+  protected void writeJPG(String fileName) throws IllegalArgumentException {
+    if (fileName == null) {
+      throw new IllegalArgumentException("Null fileName");
+    }
+    BufferedImage toReturn = this.createBufferedImageNoAlpha();
+    File outPut = new File(fileName + ".jpeg");
+
+    try {
+      ImageIO.write(toReturn, "jpeg", outPut);
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Could not write to file");
+    }
+  }
+
+  /**
+   * Creates a buffered image which represents the image that this graph does, with all the ARGB
+   * values copied over a band of rows at a time.
+   *
+   * @return The buffered image representation
+   */
+  protected BufferedImage createBufferedImageForOutPut() {
+    return ImageTransfer.toBufferedImage(this, true);
+  }
+
+  /**
+   * Creates a buffered image which represents the image that this graph does, with all the RGB
+   * values copied over a band of rows at a time.
+   *
+   * @return The buffered image representation
+   */
+  protected BufferedImage createBufferedImageNoAlpha() {
+    return ImageTransfer.toBufferedImage(this, false);
+  }
 }
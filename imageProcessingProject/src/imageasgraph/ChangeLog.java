@@ -0,0 +1,153 @@
+package imageasgraph;
+
+import java.awt.Rectangle;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Records which regions of a graph have been changed, and when, so that something which read the
+ * graph earlier can read again only the region changed since then. Changes are counted one by one,
+ * while their bounds are gathered into one open region until someone asks for the count or the
+ * changes, when that region is closed and kept along with the count at that time. Only the latest
+ * closed regions are kept, and changes older than those are known only to have happened somewhere
+ * in the graph.
+ */
+class ChangeLog {
+  // INVARIANT: records are in order of their counts, which are all at most count and more than
+  // forgottenBefore, and every change made after forgottenBefore lies within either a record with
+  // a count no lower than it's own or the open region, which spans from left, top to right, bottom
+  // exclusive and is empty when left is not below right.
+
+  private static final int maxRecords = 32;
+
+  private final Deque<Record> records;
+  private long count;
+  private long forgottenBefore;
+  private int left;
+  private int top;
+  private int right;
+  private int bottom;
+
+  /**
+   * Constructs a log of a graph which has not yet been changed.
+   */
+  ChangeLog() {
+    this.records = new ArrayDeque<Record>();
+    this.count = 0;
+    this.forgottenBefore = 0;
+    this.clearOpenRegion();
+  }
+
+  /**
+   * Empties the open region.
+   */
+  private void clearOpenRegion() {
+    this.left = Integer.MAX_VALUE;
+    this.top = Integer.MAX_VALUE;
+    this.right = Integer.MIN_VALUE;
+    this.bottom = Integer.MIN_VALUE;
+  }
+
+  /**
+   * Closes the open region, keeping it along with the current count, so that the changes made from
+   * now on are told apart from those made before.
+   */
+  private void closeOpenRegion() {
+    if (this.left < this.right) {
+      if (this.records.size() == maxRecords) {
+        this.forgottenBefore = this.records.removeFirst().count;
+      }
+      this.records.addLast(new Record(this.count,
+          new Rectangle(this.left, this.top, this.right - this.left, this.bottom - this.top)));
+      this.clearOpenRegion();
+    }
+  }
+
+  /**
+   * Returns the number of changes recorded so far. As whoever asks may later ask what changed
+   * since then, the open region is closed.
+   *
+   * @return The number of changes
+   */
+  long getCount() {
+    this.closeOpenRegion();
+    return this.count;
+  }
+
+  /**
+   * Records a change to the given rectangle of the graph. This may be called by several threads at
+   * once, in which case part of their rectangles may be lost, so whatever changes a graph from
+   * several threads must record the whole region it changed once they are done.
+   *
+   * @param x      The x coordinate of the left edge of the rectangle
+   * @param y      The y coordinate of the top edge of the rectangle
+   * @param width  The width of the rectangle
+   * @param height The height of the rectangle
+   */
+  void mark(int x, int y, int width, int height) {
+    this.count += 1;
+    this.left = Math.min(this.left, x);
+    this.top = Math.min(this.top, y);
+    this.right = Math.max(this.right, x + width);
+    this.bottom = Math.max(this.bottom, y + height);
+  }
+
+  /**
+   * Records a change to every pixel of the graph which also moved pixels to other coordinates, such
+   * as a change in the graph's size, so that every region recorded before it no longer holds.
+   */
+  void forget() {
+    this.count += 1;
+    this.forgottenBefore = this.count;
+    this.records.clear();
+    this.clearOpenRegion();
+  }
+
+  /**
+   * Returns the smallest rectangle holding every change recorded after the given number of changes
+   * had been, which may hold more than those changes. The whole graph is given if those changes are
+   * older than the records kept, and an empty rectangle if there were none.
+   *
+   * @param since  The number of changes recorded when the graph was last read
+   * @param width  The width of the graph
+   * @param height The height of the graph
+   * @return The region changed since then
+   */
+  Rectangle changedSince(long since, int width, int height) {
+    this.closeOpenRegion();
+    if (since >= this.count) {
+      return new Rectangle();
+    }
+    if (since < this.forgottenBefore) {
+      return new Rectangle(0, 0, width, height);
+    }
+    Rectangle changed = new Rectangle();
+    for (Record record : this.records) {
+      if (record.count > since) {
+        changed = changed.isEmpty() ? new Rectangle(record.region) : changed.union(record.region);
+      }
+    }
+    return changed.intersection(new Rectangle(0, 0, width, height));
+  }
+
+  /**
+   * Represents a closed region of changes, along with the number of changes recorded when it was
+   * closed.
+   */
+  private static class Record {
+
+    private final long count;
+    private final Rectangle region;
+
+    /**
+     * Constructs a new record of the given region.
+     *
+     * @param count  The number of changes recorded when the region was closed
+     * @param region The region
+     */
+    Record(long count, Rectangle region) {
+      this.count = count;
+      this.region = region;
+    }
+  }
+}
@@ -1,5 +1,6 @@
 package imageasgraph;
 
+import java.awt.Rectangle;
 import mutators.Mutator;
 
 /**
@@ -30,6 +31,16 @@ public interface FixedSizeGraph extends Iterable<Node> {
    */
   void applyMutator(Mutator mutator);
 
+  /**
+   * Applies the given mutator to every pixel in this graph of pixels, sharing the work between the
+   * given number of threads. The result is always the same as applying it on one thread.
+   *
+   * @param mutator     The mutator to be applied
+   * @param parallelism The number of threads to use
+   * @throws IllegalArgumentException If the mutator is null, or the parallelism is not positive
+   */
+  void applyMutator(Mutator mutator, int parallelism) throws IllegalArgumentException;
+
   /**
    * Returns a reference to the Node at position x,y with all public functionality, where 0,0 is the
    * top left of the graph.
@@ -42,6 +53,66 @@ public interface FixedSizeGraph extends Iterable<Node> {
    */
   Node getPixelAt(int x, int y) throws IllegalArgumentException;
 
+  /**
+   * Returns a cursor over every pixel of this graph in the same order as this graph's iterator,
+   * which can also give the coordinates of the pixel it is on.
+   *
+   * @return The cursor, starting before the top left pixel
+   */
+  PixelCursor cursor();
+
+  /**
+   * Copies the opacity, red, green and blue values of every pixel in the given rectangle of this
+   * graph into the given array, packed into one integer per pixel from the highest byte to the
+   * lowest, in row-major order. The colors kept by transparent pixels are copied as well.
+   *
+   * @param x      The x coordinate of the left edge of the rectangle
+   * @param y      The y coordinate of the top edge of the rectangle
+   * @param width  The width of the rectangle
+   * @param height The height of the rectangle
+   * @param dest   The array to copy into, of at least width times height length
+   * @throws IllegalArgumentException If the array is null or too short, or the rectangle is not
+   *                                  entirely within this graph
+   */
+  void readPixels(int x, int y, int width, int height, int[] dest)
+      throws IllegalArgumentException;
+
+  /**
+   * Sets the opacity, red, green and blue values of every pixel in the given rectangle of this
+   * graph to those packed into the given array, in the same format readPixels uses.
+   *
+   * @param x      The x coordinate of the left edge of the rectangle
+   * @param y      The y coordinate of the top edge of the rectangle
+   * @param width  The width of the rectangle
+   * @param height The height of the rectangle
+   * @param src    The array to copy from, of at least width times height length
+   * @throws IllegalArgumentException If the array is null or too short, or the rectangle is not
+   *                                  entirely within this graph
+   */
+  void writePixels(int x, int y, int width, int height, int[] src)
+      throws IllegalArgumentException;
+
+  /**
+   * Returns how many times this graph has been changed, by any of it's nodes, a mutator, a write of
+   * a region or an insertion, since it was created. The count only ever grows, so a reader which
+   * kept the count from when it last read this graph knows the graph is unchanged if the count is
+   * still the same.
+   *
+   * @return The number of changes made to this graph
+   */
+  long getModificationCount();
+
+  /**
+   * Returns the smallest rectangle holding every pixel changed since this graph's modification
+   * count was the given one, so that a reader which kept that count need only read that region
+   * again. The rectangle may hold more than the changed pixels, and is the whole graph if it's size
+   * has changed since then or the changes are too old to still be recorded.
+   *
+   * @param since The modification count when this graph was last read
+   * @return The region changed since then, which is empty if nothing has changed
+   */
+  Rectangle getChangedRegion(long since);
+
   /**
    * Returns the current height of this image.
    *
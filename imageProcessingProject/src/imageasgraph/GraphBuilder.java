@@ -0,0 +1,81 @@
+package imageasgraph;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Builds a new graph a band of rows at a time, for the readers of image files. A graph stored on
+ * the heap is built from one array of every pixel, in a single pass, while a mapped graph has each
+ * band written straight to it's file, so the whole image is never held on the heap at once.
+ */
+class GraphBuilder {
+  // INVARIANT: exactly one of argb and graph is null.
+
+  private final GraphFactory factory;
+  private final int width;
+  private final int height;
+  private final int[] argb;
+  private final AbstractGraphOfPixels graph;
+
+  /**
+   * Constructs a builder of a graph of the given size, stored in the manner the given factory
+   * represents.
+   *
+   * @param factory The factory which stores the graph
+   * @param width   The width of the graph
+   * @param height  The height of the graph
+   * @throws IllegalArgumentException If the factory is null, either dimension is not positive, or
+   *                                  the graph is too large to be stored that way
+   */
+  GraphBuilder(GraphFactory factory, int width, int height) throws IllegalArgumentException {
+    if (factory == null) {
+      throw new IllegalArgumentException("Null factory");
+    }
+    if (width <= 0 || height <= 0) {
+      throw new IllegalArgumentException("Invalid dimensions");
+    }
+    this.factory = factory;
+    this.width = width;
+    this.height = height;
+    if (factory == GraphFactory.mapped) {
+      this.argb = null;
+      this.graph = new MappedGraphOfPixels(width, height, 0);
+    } else {
+      if ((long) width * height > Integer.MAX_VALUE) {
+        throw new IllegalArgumentException("Image too large");
+      }
+      this.argb = new int[width * height];
+      this.graph = null;
+    }
+  }
+
+  /**
+   * Sets the pixels of the given rows of the graph, unless the reading of the image has been
+   * cancelled by interrupting the thread reading it.
+   *
+   * @param top  The y coordinate of the first row
+   * @param rows The number of rows
+   * @param band The packed opacity, red, green and blue values of every pixel of those rows, in
+   *             row-major order
+   * @throws CancellationException If the thread reading the image has been interrupted
+   */
+  void setRows(int top, int rows, int[] band) throws CancellationException {
+    Utils.checkCancelled(Thread.currentThread());
+    if (this.graph == null) {
+      System.arraycopy(band, 0, this.argb, top * this.width, rows * this.width);
+    } else {
+      this.graph.writePixels(0, top, this.width, rows, band);
+    }
+  }
+
+  /**
+   * Returns the built graph, once every row of it has been set.
+   *
+   * @return The graph
+   */
+  AbstractGraphOfPixels build() {
+    if (this.graph == null) {
+      return this.factory.createGraph(this.width, this.height, this.argb);
+    }
+    return this.graph;
+  }
+}
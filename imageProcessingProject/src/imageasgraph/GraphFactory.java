@@ -0,0 +1,111 @@
+package imageasgraph;
+
+import java.util.Arrays;
+
+/**
+ * Represents the ways a GraphOfPixels can be stored in memory, each of which can create new graphs
+ * for the ImageToGraphConverter. A linked graph stores every pixel as a node which references it's
+ * neighbors, while a raster graph stores the whole image as one array of packed ARGB values, using
+ * around 4 bytes per pixel. A mapped graph stores those same values in a file mapped into memory,
+ * using almost none of the heap, so it can hold images larger than the heap. A tiled graph stores
+ * the image as square tiles, storing no tile which is entirely transparent and sharing every tile
+ * of a copied graph with the original until one of them changes it.
+ */
+public enum GraphFactory {
+  linked {
+    @Override
+    AbstractGraphOfPixels createGraph(int width, int height, int[] argb)
+        throws IllegalArgumentException {
+      return new SimpleGraphOfPixels(width, height, argb);
+    }
+  },
+  raster {
+    @Override
+    AbstractGraphOfPixels createGraph(int width, int height, int[] argb)
+        throws IllegalArgumentException {
+      return new RasterGraphOfPixels(width, height, argb);
+    }
+  },
+  mapped {
+    @Override
+    AbstractGraphOfPixels createGraph(int width, int height, int[] argb)
+        throws IllegalArgumentException {
+      return new MappedGraphOfPixels(width, height, argb);
+    }
+
+    @Override
+    AbstractGraphOfPixels createFilledGraph(int width, int height, int argb)
+        throws IllegalArgumentException {
+      return new MappedGraphOfPixels(width, height, argb);
+    }
+  },
+  tiled {
+    @Override
+    AbstractGraphOfPixels createGraph(int width, int height, int[] argb)
+        throws IllegalArgumentException {
+      return new TiledGraphOfPixels(width, height, argb);
+    }
+
+    @Override
+    AbstractGraphOfPixels createFilledGraph(int width, int height, int argb)
+        throws IllegalArgumentException {
+      return new TiledGraphOfPixels(width, height, argb);
+    }
+  };
+
+  private static final int opaqueWhite = 0xFFFFFFFF;
+
+  /**
+   * Creates a new graph of the given dimensions, stored in the manner this factory represents, with
+   * every pixel being opaque white.
+   *
+   * @param width  The width of the new graph
+   * @param height The height of the new graph
+   * @return The created graph
+   * @throws IllegalArgumentException If either dimension is not positive
+   */
+  AbstractGraphOfPixels createGraph(int width, int height) throws IllegalArgumentException {
+    return this.createFilledGraph(width, height, opaqueWhite);
+  }
+
+  /**
+   * Creates a new graph of the given dimensions, stored in the manner this factory represents, with
+   * every pixel being the given packed value.
+   *
+   * @param width  The width of the new graph
+   * @param height The height of the new graph
+   * @param argb   The opacity, red, green and blue of every pixel from the highest byte to the
+   *               lowest
+   * @return The created graph
+   * @throws IllegalArgumentException If either dimension is not positive, or the graph would be too
+   *                                  large to store this way
+   */
+  AbstractGraphOfPixels createFilledGraph(int width, int height, int argb)
+      throws IllegalArgumentException {
+    if (width <= 0 || height <= 0) {
+      throw new IllegalArgumentException("Invalid dimensions");
+    }
+    if ((long) width * height > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Image too large");
+    }
+    int[] pixels = new int[width * height];
+    Arrays.fill(pixels, argb);
+    return this.createGraph(width, height, pixels);
+  }
+
+  /**
+   * Creates a new graph of the given dimensions, stored in the manner this factory represents, in a
+   * single pass over the given pixels. The graph may keep the given array as it's storage, so it
+   * must not be changed by anything else afterwards.
+   *
+   * @param width  The width of the new graph
+   * @param height The height of the new graph
+   * @param argb   The opacity, red, green and blue of every pixel from the highest byte to the
+   *               lowest, in row-major order - the colors of transparent pixels are kept
+   * @return The created graph
+   * @throws IllegalArgumentException If either dimension is not positive, or the array is null or
+   *                                  not of length width times height
+   */
+  abstract AbstractGraphOfPixels createGraph(int width, int height, int[] argb)
+      throws IllegalArgumentException;
+}
@@ -1,16 +1,20 @@
 package imageasgraph;
 
-import java.util.Iterator;
 import java.util.NoSuchElementException;
 
 /**
  * Iterates over all of the non-empty pixels in a graph object, meant to save time from just using a
- * double for loop and getting each pixel.
+ * double for loop and getting each pixel. Walks the links between nodes without allocating anything
+ * per node, and keeps track of the coordinates of the node it last returned.
  */
-class GraphIterator implements Iterator<Node> {
+class GraphIterator implements PixelCursor {
 
   private Node left;
   private Node top;
+  private int x;
+  private int y;
+  private int nextX;
+  private int nextY;
 
   /**
    * Constructs a new graph iterator, starting at the given node.
@@ -23,11 +27,15 @@ class GraphIterator implements Iterator<Node> {
     }
     this.left = topLeft;
     this.top = topLeft;
+    this.x = -1;
+    this.y = -1;
+    this.nextX = 0;
+    this.nextY = 0;
   }
 
   @Override
   public boolean hasNext() {
-    return !(this.left.equals(new Node.EmptyNode()));
+    return !(this.left instanceof Node.EmptyNode);
   }
 
   @Override
@@ -36,11 +44,26 @@ class GraphIterator implements Iterator<Node> {
       throw new NoSuchElementException("No more nodes");
     }
     Node toReturn = this.left;
+    this.x = this.nextX;
+    this.y = this.nextY;
     this.left = this.left.getRight();
-    if (this.left.equals(new Node.EmptyNode())) {
+    this.nextX += 1;
+    if (this.left instanceof Node.EmptyNode) {
       this.top = this.top.getBelow();
       this.left = this.top;
+      this.nextX = 0;
+      this.nextY += 1;
     }
     return toReturn;
   }
+
+  @Override
+  public int getX() {
+    return this.x;
+  }
+
+  @Override
+  public int getY() {
+    return this.y;
+  }
 }
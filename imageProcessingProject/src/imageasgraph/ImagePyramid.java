@@ -0,0 +1,356 @@
+package imageasgraph;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Represents a graph or image along with copies of it at lower resolutions, each half the width
+ * and height of the one before it, rounded up, down to a single pixel. Each pixel of a level is the
+ * average of the up to four pixels of the level before it that it covers, weighted by their
+ * opacities so that the colors of transparent pixels do not bleed into it. The levels are kept up
+ * to date with the graph or image as they are read, only working out again the region of each that
+ * it's changes reach. A graph reports it's own changes, while the changes to an image must be
+ * given to markChanged.
+ */
+public class ImagePyramid {
+  // INVARIANT: exactly one of graph and image is null. levels holds every level after the first,
+  // each of which holds levelWidth times levelHeight of that level packed pixels, and every level
+  // was last worked out from the graph when it's modification count was version, or from the
+  // image as it was before the changes in pending, and was width by height.
+
+  private final FixedSizeGraph graph;
+  private final BufferedImage image;
+  private final List<int[]> levels;
+  private int width;
+  private int height;
+  private long version;
+  private Rectangle pending;
+
+  /**
+   * Constructs the pyramid of the given graph. Nothing is worked out until a level is read.
+   *
+   * @param graph The graph at the full resolution
+   * @throws IllegalArgumentException If the graph is null
+   */
+  public ImagePyramid(FixedSizeGraph graph) throws IllegalArgumentException {
+    if (graph == null) {
+      throw new IllegalArgumentException("Null graph");
+    }
+    this.graph = graph;
+    this.image = null;
+    this.levels = new ArrayList<int[]>();
+    this.width = -1;
+    this.height = -1;
+    this.version = -1;
+    this.pending = new Rectangle();
+  }
+
+  /**
+   * Constructs the pyramid of the given image, whose changes must be given to markChanged. Nothing
+   * is worked out until a level is read.
+   *
+   * @param image The image at the full resolution
+   * @throws IllegalArgumentException If the image is null
+   */
+  public ImagePyramid(BufferedImage image) throws IllegalArgumentException {
+    if (image == null) {
+      throw new IllegalArgumentException("Null image");
+    }
+    this.graph = null;
+    this.image = image;
+    this.levels = new ArrayList<int[]>();
+    this.width = -1;
+    this.height = -1;
+    this.version = -1;
+    this.pending = new Rectangle();
+  }
+
+  /**
+   * Records that the given region of the image of this pyramid has changed, so that the levels
+   * are worked out again there before they are next read.
+   *
+   * @param region The changed region
+   * @throws IllegalArgumentException If the region is null, or this is the pyramid of a graph,
+   *                                  which reports it's own changes
+   */
+  public void markChanged(Rectangle region) throws IllegalArgumentException {
+    if (region == null) {
+      throw new IllegalArgumentException("Null region");
+    }
+    if (this.image == null) {
+      throw new IllegalArgumentException("The changes to a graph are already known");
+    }
+    if (!region.isEmpty()) {
+      this.pending = this.pending.isEmpty() ? new Rectangle(region) : this.pending.union(region);
+    }
+  }
+
+  /**
+   * Returns whether this is the pyramid of the given image.
+   *
+   * @param image The image
+   * @return Whether the image is the one at the full resolution of this pyramid
+   */
+  public boolean isOf(BufferedImage image) {
+    return image != null && this.image == image;
+  }
+
+  /**
+   * Returns the width of the graph or image at the full resolution.
+   *
+   * @return The width
+   */
+  private int sourceWidth() {
+    return this.graph == null ? this.image.getWidth() : this.graph.getWidth();
+  }
+
+  /**
+   * Returns the height of the graph or image at the full resolution.
+   *
+   * @return The height
+   */
+  private int sourceHeight() {
+    return this.graph == null ? this.image.getHeight() : this.graph.getHeight();
+  }
+
+  /**
+   * Returns the number of levels of this pyramid, from the graph itself down to a single pixel.
+   *
+   * @return The number of levels
+   */
+  public int getNumLevels() {
+    int levels = 1;
+    int size = Math.max(this.sourceWidth(), this.sourceHeight());
+    while (size > 1) {
+      size = (size + 1) / 2;
+      levels += 1;
+    }
+    return levels;
+  }
+
+  /**
+   * Returns the width of the given level.
+   *
+   * @param level The level, where 0 is the graph itself
+   * @return The width of the level
+   * @throws IllegalArgumentException If there is no such level
+   */
+  public int getLevelWidth(int level) throws IllegalArgumentException {
+    this.checkLevel(level);
+    return ImagePyramid.shrink(this.sourceWidth(), level);
+  }
+
+  /**
+   * Returns the height of the given level.
+   *
+   * @param level The level, where 0 is the graph itself
+   * @return The height of the level
+   * @throws IllegalArgumentException If there is no such level
+   */
+  public int getLevelHeight(int level) throws IllegalArgumentException {
+    this.checkLevel(level);
+    return ImagePyramid.shrink(this.sourceHeight(), level);
+  }
+
+  /**
+   * Returns the level with the most pixels which has no more than the given number of pixels, or
+   * the last level if even it has more.
+   *
+   * @param maxPixels The greatest number of pixels
+   * @return The level
+   */
+  public int chooseLevel(long maxPixels) {
+    int level = 0;
+    while (level < this.getNumLevels() - 1
+        && (long) this.getLevelWidth(level) * this.getLevelHeight(level) > maxPixels) {
+      level += 1;
+    }
+    return level;
+  }
+
+  /**
+   * Copies the packed pixels of the given rectangle of the given level into the given array, in
+   * row-major order, bringing the level up to date with the graph first.
+   *
+   * @param level The level, where 0 is the graph itself
+   * @param x     The x coordinate of the left edge of the rectangle
+   * @param y     The y coordinate of the top edge of the rectangle
+   * @param w     The width of the rectangle
+   * @param h     The height of the rectangle
+   * @param dest  The array to copy into, of at least w times h length
+   * @throws IllegalArgumentException If there is no such level, the array is null or too short,
+   *                                  or the rectangle is not entirely within the level
+   */
+  public void readLevel(int level, int x, int y, int w, int h, int[] dest)
+      throws IllegalArgumentException {
+    this.checkLevel(level);
+    if (dest == null) {
+      throw new IllegalArgumentException("Null array");
+    }
+    if (x < 0 || y < 0 || w < 0 || h < 0 || x + w > this.getLevelWidth(level)
+        || y + h > this.getLevelHeight(level)) {
+      throw new IllegalArgumentException("Region not in bounds");
+    }
+    if (dest.length < w * h) {
+      throw new IllegalArgumentException("Array too short for region");
+    }
+    this.update();
+    this.read(level, x, y, w, h, dest);
+  }
+
+  /**
+   * Creates a new graph holding the pixels of the given level, which can be changed without
+   * changing this pyramid.
+   *
+   * @param level The level, where 0 is the graph itself
+   * @return The new graph
+   * @throws IllegalArgumentException If there is no such level
+   */
+  public GraphOfPixels copyLevel(int level) throws IllegalArgumentException {
+    int w = this.getLevelWidth(level);
+    int h = this.getLevelHeight(level);
+    int[] pixels = new int[w * h];
+    this.readLevel(level, 0, 0, w, h, pixels);
+    return GraphFactory.raster.createGraph(w, h, pixels);
+  }
+
+  /**
+   * Checks that this pyramid has the given level.
+   *
+   * @param level The level
+   * @throws IllegalArgumentException If there is no such level
+   */
+  private void checkLevel(int level) throws IllegalArgumentException {
+    if (level < 0 || level >= this.getNumLevels()) {
+      throw new IllegalArgumentException("No such level");
+    }
+  }
+
+  /**
+   * Returns the given length at the given level, halving it once for each level and rounding up.
+   *
+   * @param length The length at the full resolution
+   * @param level  The level
+   * @return The length at that level
+   */
+  private static int shrink(int length, int level) {
+    for (int i = 0; i < level; i += 1) {
+      length = (length + 1) / 2;
+    }
+    return length;
+  }
+
+  /**
+   * Works out again every region of every level below the full resolution that has changed since
+   * the levels were last worked out, or every level if the size has changed.
+   */
+  private void update() {
+    long current = this.graph == null ? 0 : this.graph.getModificationCount();
+    Rectangle changed;
+    if (this.width != this.sourceWidth() || this.height != this.sourceHeight()) {
+      this.width = this.sourceWidth();
+      this.height = this.sourceHeight();
+      this.levels.clear();
+      for (int level = 1; level < this.getNumLevels(); level += 1) {
+        this.levels.add(new int[this.getLevelWidth(level) * this.getLevelHeight(level)]);
+      }
+      changed = new Rectangle(0, 0, this.width, this.height);
+    } else if (this.graph == null) {
+      changed = this.pending.intersection(new Rectangle(0, 0, this.width, this.height));
+    } else {
+      changed = this.graph.getChangedRegion(this.version);
+    }
+    this.version = current;
+    this.pending = new Rectangle();
+    for (int level = 1; level < this.getNumLevels() && !changed.isEmpty(); level += 1) {
+      // Each pixel of this level covers two of the level before it in each direction
+      int left = changed.x / 2;
+      int top = changed.y / 2;
+      int right = Math.min((changed.x + changed.width + 1) / 2, this.getLevelWidth(level));
+      int bottom = Math.min((changed.y + changed.height + 1) / 2, this.getLevelHeight(level));
+      changed = new Rectangle(left, top, right - left, bottom - top);
+      this.shrinkRegion(level, changed);
+    }
+  }
+
+  /**
+   * Works out the given region of the given level from the level before it.
+   *
+   * @param level  The level to be worked out, which is not the graph itself
+   * @param region The region of that level
+   */
+  private void shrinkRegion(int level, Rectangle region) {
+    int sourceWidth = this.getLevelWidth(level - 1);
+    int sourceHeight = this.getLevelHeight(level - 1);
+    int levelWidth = this.getLevelWidth(level);
+    int[] pixels = this.levels.get(level - 1);
+    int sourceLeft = 2 * region.x;
+    int sourceColumns = Math.min(2 * region.width, sourceWidth - sourceLeft);
+    int[] rows = new int[2 * sourceColumns];
+    for (int y = region.y; y < region.y + region.height; y += 1) {
+      int sourceRows = Math.min(2, sourceHeight - 2 * y);
+      this.read(level - 1, sourceLeft, 2 * y, sourceColumns, sourceRows, rows);
+      for (int x = region.x; x < region.x + region.width; x += 1) {
+        int column = 2 * (x - region.x);
+        int columns = Math.min(2, sourceColumns - column);
+        long alpha = 0;
+        long red = 0;
+        long green = 0;
+        long blue = 0;
+        for (int row = 0; row < sourceRows; row += 1) {
+          for (int i = column; i < column + columns; i += 1) {
+            int argb = rows[row * sourceColumns + i];
+            int a = argb >>> 24;
+            alpha += a;
+            red += (long) a * ((argb >> 16) & 0xFF);
+            green += (long) a * ((argb >> 8) & 0xFF);
+            blue += (long) a * (argb & 0xFF);
+          }
+        }
+        int count = sourceRows * columns;
+        int argb = 0;
+        if (alpha != 0) {
+          argb = (int) ((alpha + count / 2) / count) << 24
+              | (int) ((red + alpha / 2) / alpha) << 16
+              | (int) ((green + alpha / 2) / alpha) << 8
+              | (int) ((blue + alpha / 2) / alpha);
+        }
+        pixels[y * levelWidth + x] = argb;
+      }
+    }
+  }
+
+  /**
+   * Copies the given rectangle of the given level into the given array, in row-major order,
+   * without bringing the level up to date.
+   *
+   * @param level The level, where 0 is the graph itself
+   * @param x     The x coordinate of the left edge of the rectangle
+   * @param y     The y coordinate of the top edge of the rectangle
+   * @param w     The width of the rectangle
+   * @param h     The height of the rectangle
+   * @param dest  The array to copy into
+   */
+  private void read(int level, int x, int y, int w, int h, int[] dest) {
+    if (level == 0 && this.graph != null) {
+      this.graph.readPixels(x, y, w, h, dest);
+      return;
+    }
+    if (level == 0 && this.image.getType() == BufferedImage.TYPE_INT_ARGB) {
+      // Each pixel is stored as one packed int, so it is read without conversion
+      this.image.getRaster().getDataElements(x, y, w, h, dest);
+      return;
+    }
+    if (level == 0) {
+      this.image.getRGB(x, y, w, h, dest, 0, w);
+      return;
+    }
+    int[] pixels = this.levels.get(level - 1);
+    int levelWidth = this.getLevelWidth(level);
+    for (int row = 0; row < h; row += 1) {
+      System.arraycopy(pixels, (y + row) * levelWidth + x, dest, row * w, w);
+    }
+  }
+}
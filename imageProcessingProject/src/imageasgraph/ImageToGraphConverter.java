@@ -2,24 +2,62 @@ package imageasgraph;
 
 import imageinput.ImageProgram;
 import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferInt;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Scanner;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
 import pixel.PixelAsColors;
-import pixel.SimplePixel;
 
 /**
  * Contains methods which can convert a given image, of various types, into an image as a graph of
- * pixel nodes - used to create GraphOfPixels as a builder class.
+ * pixel nodes - used to create GraphOfPixels as a builder class. The way the created graphs are
+ * stored in memory can be selected by setting the GraphFactory this converter uses.
  */
 public class ImageToGraphConverter {
 
+  private static final int bandPixels = 1 << 16;
+
+  private static GraphFactory graphFactory = GraphFactory.linked;
+
+  /**
+   * Sets the way every graph created by this converter from now on will be stored in memory.
+   *
+   * @param factory The factory which will create new graphs
+   * @throws IllegalArgumentException If the given factory is null
+   */
+  public static void setGraphFactory(GraphFactory factory) throws IllegalArgumentException {
+    if (factory == null) {
+      throw new IllegalArgumentException("Null factory");
+    }
+    ImageToGraphConverter.graphFactory = factory;
+  }
+
+  /**
+   * Returns the factory currently used to create every graph made by this converter.
+   *
+   * @return The current factory
+   */
+  public static GraphFactory getGraphFactory() {
+    return ImageToGraphConverter.graphFactory;
+  }
+
   /**
    * Converts the given image program to a graph of pixel nodes.
    *
@@ -38,13 +76,12 @@ public class ImageToGraphConverter {
    * Creates an empty(ish) graph, with only one white node at the top left.
    */
   public static GraphOfPixels createEmptyGraph() {
-    AbstractGraphOfPixels toReturn = new SimpleGraphOfPixels();
-    toReturn.addFirstNode(new Node.PixelNode(new SimplePixel(255, 255, 255)));
-    return toReturn;
+    return ImageToGraphConverter.graphFactory.createGraph(1, 1);
   }
 
   /**
-   * Creates a copy of the given GraphOfPixels.
+   * Creates a copy of the given GraphOfPixels. A tiled graph copied while this converter creates
+   * tiled graphs shares it's tiles with the copy until either one changes them.
    *
    * @param original The graph of pixels to copy
    * @return The copy of the given graph
@@ -55,28 +92,22 @@ public class ImageToGraphConverter {
     if (original == null) {
       throw new IllegalArgumentException("Null graph");
     }
-    AbstractGraphOfPixels toReturn = new SimpleGraphOfPixels();
-    toReturn.addFirstNode(new Node.PixelNode(new SimplePixel(0, 0, 0)));
-    for (int col = 0; col < original.getWidth() - 1; col += 1) {
-      toReturn.insertColumn(col);
-    }
-    for (int row = 0; row < original.getHeight() - 1; row += 1) {
-      toReturn.insertRow(row);
+    if (ImageToGraphConverter.graphFactory == GraphFactory.tiled
+        && original instanceof TiledGraphOfPixels) {
+      return ((TiledGraphOfPixels) original).copy();
     }
-    Iterator<Node> copyNodes = toReturn.iterator();
-    Iterator<Node> originalNodes = original.iterator();
-    while (copyNodes.hasNext()) {
-      Node copyNext = copyNodes.next();
-      Node originalNext = originalNodes
-          .next(); // Can do this because both iterators should be same length
-      int storedOpacity = originalNext.getOpacity();
-      originalNext.setOpacity(255); // Done so transparent pixels are not copied as black
-      copyNext.updateColors(new SimplePixel(originalNext.getRed(), originalNext.getGreen(),
-          originalNext.getBlue()));
-      copyNext.setOpacity(storedOpacity);
-      originalNext.setOpacity(storedOpacity);
+    int width = original.getWidth();
+    int height = original.getHeight();
+    GraphBuilder builder = new GraphBuilder(ImageToGraphConverter.graphFactory, width, height);
+    int rows = Math.max(1, bandPixels / width);
+    int[] band = new int[rows * width];
+    // The stored values are copied, so transparent pixels keep their colors rather than being black
+    for (int top = 0; top < height; top += rows) {
+      int bandRows = Math.min(rows, height - top);
+      original.readPixels(0, top, width, bandRows, band);
+      builder.setRows(top, bandRows, band);
     }
-    return toReturn;
+    return builder.build();
   }
 
   /**
@@ -96,6 +127,10 @@ public class ImageToGraphConverter {
     switch (inputType) {
       case ppm:
         return ImageToGraphConverter.convertPPM(fileName);
+      case pgm:
+        return ImageToGraphConverter.convertPGM(fileName);
+      case pam:
+        return ImageToGraphConverter.convertPAM(fileName);
       case jpeg:
       case png:
         return ImageToGraphConverter.convertComplexImage(fileName);
@@ -122,6 +157,9 @@ public class ImageToGraphConverter {
       throw new IllegalArgumentException("Invalid fileType for this constructor");
     }
     File newFile = new File(fileName);
+    if (ImageToGraphConverter.graphFactory == GraphFactory.mapped) {
+      return ImageToGraphConverter.decodeToMappedGraph(newFile);
+    }
 
     BufferedImage newImage;
     try {
@@ -130,95 +168,347 @@ public class ImageToGraphConverter {
       throw new IllegalArgumentException("Could not read file.");
     }
 
-    GraphOfPixels toReturn = ImageToGraphConverter.createEmptyGraph();
-
-    for (int col = 0; col < newImage.getWidth() - 1; col += 1) {
-      toReturn.insertColumn(col);
+    if (newImage == null) {
+      throw new IllegalArgumentException("Could not read file.");
     }
-    for (int row = 0; row < newImage.getHeight() - 1; row += 1) {
-      toReturn.insertRow(row);
+    return ImageToGraphConverter.convertBufferedImage(newImage, true);
+  }
+
+  /**
+   * Converts the given image to a graph of pixel nodes, reading it a band of rows at a time - as
+   * raw samples where the type of the image allows, rather than through getRGB for every pixel.
+   *
+   * @param image The image to be converted
+   * @return The converted graph of pixel nodes
+   * @throws IllegalArgumentException If the given image is null
+   */
+  public static GraphOfPixels convertBufferedImage(BufferedImage image)
+      throws IllegalArgumentException {
+    if (image == null) {
+      throw new IllegalArgumentException("Null image");
     }
+    return ImageToGraphConverter.convertBufferedImage(image, false);
+  }
 
-    ArrayList<int[]> newPixelData = new ArrayList<int[]>();
-    for (int y = 0; y < newImage.getHeight(); y += 1) {
-      for (int x = 0; x < newImage.getWidth(); x += 1) {
-        int argb = newImage.getRGB(x, y);
-        int alpha = (argb >> 24) & 0xFF;
-        int red = (argb >> 16) & 0xFF;
-        int green = (argb >> 8) & 0xFF;
-        int blue = argb & 0xFF;
-        int[] pixelValues = {
-            alpha, red, green, blue
-        };
-        newPixelData.add(pixelValues);
+  /**
+   * Converts the given image to a graph of pixel nodes. If the image will not be used again, a
+   * raster graph may take the image's own array of packed ARGB values, copying nothing.
+   *
+   * @param image    The image to be converted
+   * @param mayShare Whether the graph may share the image's array
+   * @return The converted graph of pixel nodes
+   */
+  private static GraphOfPixels convertBufferedImage(BufferedImage image, boolean mayShare) {
+    int width = image.getWidth();
+    int height = image.getHeight();
+    if (mayShare && ImageToGraphConverter.graphFactory == GraphFactory.raster
+        && image.getType() == BufferedImage.TYPE_INT_ARGB
+        && image.getRaster().getDataBuffer() instanceof DataBufferInt
+        && image.getRaster().getSampleModel() instanceof SinglePixelPackedSampleModel
+        && ((SinglePixelPackedSampleModel) image.getRaster().getSampleModel())
+        .getScanlineStride() == width) {
+      DataBufferInt buffer = (DataBufferInt) image.getRaster().getDataBuffer();
+      if (buffer.getOffset() == 0 && buffer.getNumBanks() == 1
+          && buffer.getData().length == width * height) {
+        return ImageToGraphConverter.graphFactory.createGraph(width, height, buffer.getData());
       }
     }
-
-    int data = 0;
-    for (Node n : toReturn) {
-      int[] currentPixelData = newPixelData.get(data);
-      n.setOpacity(currentPixelData[0]);
-      n.updateColors(
-          new SimplePixel(currentPixelData[1], currentPixelData[2], currentPixelData[3]));
-      data += 1;
+    GraphBuilder builder = new GraphBuilder(ImageToGraphConverter.graphFactory, width, height);
+    int rows = Math.max(1, bandPixels / width);
+    int[] band = new int[rows * width];
+    for (int top = 0; top < height; top += rows) {
+      int bandRows = Math.min(rows, height - top);
+      ImageTransfer.readRows(image, top, bandRows, band);
+      builder.setRows(top, bandRows, band);
     }
+    return builder.build();
+  }
+
+  /**
+   * Decodes the given png or jpg file into a mapped graph without holding the image on the heap.
+   * The image reader decodes into samples held in a mapped file, in whatever layout it would
+   * decode into an image on the heap, and they are then converted into the graph a band of rows
+   * at a time.
+   *
+   * @param file The file to be decoded
+   * @return The decoded graph
+   * @throws IllegalArgumentException If the file cannot be read, or it's samples are laid out in
+   *                                  a way which is not supported
+   */
+  private static GraphOfPixels decodeToMappedGraph(File file) throws IllegalArgumentException {
+    try (ImageInputStream stream = ImageIO.createImageInputStream(file)) {
+      Iterator<ImageReader> readers = stream == null ? null : ImageIO.getImageReaders(stream);
+      if (readers == null || !readers.hasNext()) {
+        throw new IllegalArgumentException("Could not read file.");
+      }
+      ImageReader reader = readers.next();
+      try {
+        reader.setInput(stream, true, true);
+        int width = reader.getWidth(0);
+        int height = reader.getHeight(0);
+        ImageTypeSpecifier type = reader.getImageTypes(0).next();
+        SampleModel model = type.getSampleModel(width, height);
+        int banks = 1;
+        long stride;
+        if (model instanceof ComponentSampleModel) {
+          for (int bank : ((ComponentSampleModel) model).getBankIndices()) {
+            banks = Math.max(banks, bank + 1);
+          }
+          stride = ((ComponentSampleModel) model).getScanlineStride();
+        } else if (model instanceof SinglePixelPackedSampleModel) {
+          stride = ((SinglePixelPackedSampleModel) model).getScanlineStride();
+        } else if (model instanceof MultiPixelPackedSampleModel) {
+          stride = ((MultiPixelPackedSampleModel) model).getScanlineStride();
+        } else {
+          throw new IllegalArgumentException("Unsupported image");
+        }
+        if (stride * height > Integer.MAX_VALUE) {
+          throw new IllegalArgumentException("Image too large");
+        }
+        DataBuffer samples = new MappedDataBuffer(model.getDataType(), (int) stride * height,
+            banks);
+        ColorModel colors = type.getColorModel();
+        BufferedImage decoded = new BufferedImage(colors,
+            Raster.createWritableRaster(model, samples, null), colors.isAlphaPremultiplied(),
+            null);
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setDestination(decoded);
+        reader.read(0, param);
 
-    return toReturn;
+        return ImageToGraphConverter.convertBufferedImage(decoded, false);
+      } finally {
+        reader.dispose();
+      }
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Could not read file.");
+    }
   }
 
 
   /**
-   * Converts the ppm file as specified by the given string to a graph of pixel nodes.
+   * Converts the ppm file as specified by the given string to a graph of pixel nodes. The file is
+   * streamed through a fixed size buffer and it's values parsed straight into the array the graph
+   * is built from, so nothing is held per pixel beyond that array. A text ppm file may have
+   * comments start anywhere, not only at the start of a line, and it's values outside of 0 to 255
+   * are clamped. A binary ppm file has it's values read in bulk, a row at a time.
    *
    * @param fileName The name of the ppm file to be converted
    * @return The converted graph of pixel nodes
-   * @throws IllegalArgumentException If the fileName cannot be found or if it is null
+   * @throws IllegalArgumentException If the fileName cannot be found, it is null, or the file is
+   *                                  not a valid ppm file
    */
   public static GraphOfPixels convertPPM(String fileName) throws IllegalArgumentException {
     if (fileName == null) {
       throw new IllegalArgumentException("Null fileName");
     }
-    Scanner sc;
-
-    try {
-      sc = new Scanner(new FileInputStream(fileName));
-    } catch (FileNotFoundException e) {
-      throw new IllegalArgumentException("File not found");
+    FileInputStream input = ImageToGraphConverter.openFile(fileName);
+    try (FileChannel channel = input.getChannel()) {
+      PPMTokenizer tokenizer = new PPMTokenizer(channel);
+      String magic = tokenizer.nextToken();
+      if (magic.equals("P6")) {
+        return ImageToGraphConverter.convertNetpbm(tokenizer, 3, true);
+      }
+      if (!magic.equals("P3")) {
+        throw new IllegalArgumentException("Invalid ppm file");
+      }
+      int width = tokenizer.nextInt();
+      int height = tokenizer.nextInt();
+      tokenizer.nextInt(); // The maximum value, which values have never been scaled by
+      GraphBuilder builder = new GraphBuilder(ImageToGraphConverter.graphFactory, width, height);
+      int[] row = new int[width];
+      for (int y = 0; y < height; y += 1) {
+        for (int x = 0; x < width; x += 1) {
+          int r = Utils.clampColor(tokenizer.nextInt());
+          int g = Utils.clampColor(tokenizer.nextInt());
+          int b = Utils.clampColor(tokenizer.nextInt());
+          row[x] = 0xFF000000 | r << 16 | g << 8 | b;
+        }
+        builder.setRows(y, 1, row);
+      }
+      return builder.build();
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Could not read file.");
     }
-    StringBuilder builder = new StringBuilder();
+  }
 
-    while (sc.hasNextLine()) {
-      String s = sc.nextLine();
-      if (s.charAt(0) != '#') {
-        builder.append(s + System.lineSeparator());
+  /**
+   * Converts the pgm file as specified by the given string to a graph of grey pixels, reading
+   * either a text or a binary pgm file. Values are scaled from the file's maximum value to 0 to
+   * 255.
+   *
+   * @param fileName The name of the pgm file to be converted
+   * @return The converted graph of pixel nodes
+   * @throws IllegalArgumentException If the fileName cannot be found, it is null, or the file is
+   *                                  not a valid pgm file
+   */
+  public static GraphOfPixels convertPGM(String fileName) throws IllegalArgumentException {
+    if (fileName == null) {
+      throw new IllegalArgumentException("Null fileName");
+    }
+    FileInputStream input = ImageToGraphConverter.openFile(fileName);
+    try (FileChannel channel = input.getChannel()) {
+      PPMTokenizer tokenizer = new PPMTokenizer(channel);
+      String magic = tokenizer.nextToken();
+      if (!magic.equals("P2") && !magic.equals("P5")) {
+        throw new IllegalArgumentException("Invalid pgm file");
       }
+      return ImageToGraphConverter.convertNetpbm(tokenizer, 1, magic.equals("P5"));
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Could not read file.");
     }
+  }
 
-    sc = new Scanner(builder.toString());
-
-    String token;
+  /**
+   * Converts the pam file as specified by the given string to a graph of pixel nodes. The file may
+   * have a depth of 1 for grey pixels, 2 for grey pixels with opacity, 3 for colors, or 4 for
+   * colors with opacity - the tuple type is not needed, as the depth alone tells them apart. Values
+   * are scaled from the file's maximum value to 0 to 255.
+   *
+   * @param fileName The name of the pam file to be converted
+   * @return The converted graph of pixel nodes
+   * @throws IllegalArgumentException If the fileName cannot be found, it is null, or the file is
+   *                                  not a valid pam file
+   */
+  public static GraphOfPixels convertPAM(String fileName) throws IllegalArgumentException {
+    if (fileName == null) {
+      throw new IllegalArgumentException("Null fileName");
+    }
+    FileInputStream input = ImageToGraphConverter.openFile(fileName);
+    try (FileChannel channel = input.getChannel()) {
+      PPMTokenizer tokenizer = new PPMTokenizer(channel);
+      if (!tokenizer.nextToken().equals("P7")) {
+        throw new IllegalArgumentException("Invalid pam file");
+      }
+      int width = -1;
+      int height = -1;
+      int depth = -1;
+      int maxValue = -1;
+      String key = tokenizer.nextToken();
+      while (!key.equals("ENDHDR")) {
+        switch (key) {
+          case "WIDTH":
+            width = tokenizer.nextInt();
+            break;
+          case "HEIGHT":
+            height = tokenizer.nextInt();
+            break;
+          case "DEPTH":
+            depth = tokenizer.nextInt();
+            break;
+          case "MAXVAL":
+            maxValue = tokenizer.nextInt();
+            break;
+          case "TUPLTYPE":
+            tokenizer.nextToken();
+            break;
+          default:
+            throw new IllegalArgumentException("Invalid pam file");
+        }
+        key = tokenizer.nextToken();
+      }
+      if (depth < 1 || depth > 4) {
+        throw new IllegalArgumentException("Invalid pam file");
+      }
+      return ImageToGraphConverter.readSamples(tokenizer, width, height, depth, maxValue, true);
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Could not read file.");
+    }
+  }
 
-    token = sc.next();
-    if (!token.equals("P3")) {
-      throw new IllegalArgumentException("Invalid ppm file");
+  /**
+   * Opens the file of the given name to be read.
+   *
+   * @param fileName The name of the file
+   * @return The stream of the file's bytes
+   * @throws IllegalArgumentException If the file cannot be found
+   */
+  private static FileInputStream openFile(String fileName) throws IllegalArgumentException {
+    try {
+      return new FileInputStream(fileName);
+    } catch (FileNotFoundException e) {
+      throw new IllegalArgumentException("File not found");
     }
-    int width = sc.nextInt();
-    int height = sc.nextInt();
-    int maxValue = sc.nextInt();
+  }
 
-    ArrayList<ArrayList<PixelAsColors>> toReturn = new ArrayList<ArrayList<PixelAsColors>>();
+  /**
+   * Reads the rest of a ppm or pgm file, after it's first token, into a graph - it's width, height
+   * and maximum value, followed by the values of every pixel.
+   *
+   * @param tokenizer The tokenizer reading the file
+   * @param channels  The number of values each pixel has, 3 for a ppm file or 1 for a pgm file
+   * @param binary    Whether the values are bytes, rather than text
+   * @return The converted graph of pixel nodes
+   * @throws IllegalArgumentException If the rest of the file is not valid
+   */
+  private static GraphOfPixels convertNetpbm(PPMTokenizer tokenizer, int channels, boolean binary)
+      throws IllegalArgumentException {
+    int width = tokenizer.nextInt();
+    int height = tokenizer.nextInt();
+    int maxValue = tokenizer.nextInt();
+    return ImageToGraphConverter.readSamples(tokenizer, width, height, channels, maxValue, binary);
+  }
 
-    for (int i = 0; i < height; i++) {
-      ArrayList<PixelAsColors> current = new ArrayList<PixelAsColors>();
-      for (int j = 0; j < width; j++) {
-        int r = sc.nextInt();
-        int g = sc.nextInt();
-        int b = sc.nextInt();
-        current.add(new SimplePixel(r, g, b));
+  /**
+   * Reads the values of every pixel of a netpbm file into a graph, a row at a time, scaling each
+   * from the given maximum value to 0 to 255. Binary values are one byte each if the maximum value
+   * is below 256, or two bytes with the highest first otherwise, and each row of them is read in
+   * bulk. Each pixel has 1 value for it's grey value, 2 for it's grey value and opacity, 3 for it's
+   * colors, or 4 for it's colors and opacity.
+   *
+   * @param tokenizer The tokenizer reading the file, which has read everything before the values
+   * @param width     The width of the image
+   * @param height    The height of the image
+   * @param channels  The number of values each pixel has
+   * @param maxValue  The value which is scaled to 255
+   * @param binary    Whether the values are bytes, rather than text
+   * @return The converted graph of pixel nodes
+   * @throws IllegalArgumentException If the size or maximum value are invalid, or there are too
+   *                                  few values
+   */
+  private static GraphOfPixels readSamples(PPMTokenizer tokenizer, int width, int height,
+      int channels, int maxValue, boolean binary) throws IllegalArgumentException {
+    int bytesPerSample = maxValue < 256 ? 1 : 2;
+    if (maxValue <= 0 || maxValue > 65535
+        || (long) width * channels * bytesPerSample > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Invalid image file");
+    }
+    GraphBuilder builder = new GraphBuilder(ImageToGraphConverter.graphFactory, width, height);
+    int[] scale = new int[maxValue + 1];
+    for (int i = 0; i <= maxValue; i += 1) {
+      scale[i] = maxValue == PixelAsColors.maxColor ? i
+          : Utils.clampColor(Utils.roundDouble(i * (double) PixelAsColors.maxColor / maxValue));
+    }
+    int[] pixels = new int[width];
+    int[] samples = new int[width * channels];
+    byte[] row = binary ? new byte[samples.length * bytesPerSample] : null;
+    for (int y = 0; y < height; y += 1) {
+      if (binary) {
+        tokenizer.readBytes(row, row.length);
+      }
+      for (int i = 0; i < samples.length; i += 1) {
+        int sample;
+        if (!binary) {
+          sample = tokenizer.nextInt();
+        } else if (bytesPerSample == 1) {
+          sample = row[i] & 0xFF;
+        } else {
+          sample = (row[2 * i] & 0xFF) << 8 | (row[2 * i + 1] & 0xFF);
+        }
+        samples[i] = scale[Math.max(0, Math.min(maxValue, sample))];
       }
-      toReturn.add(current);
+      for (int x = 0; x < width; x += 1) {
+        int i = x * channels;
+        int alpha = PixelAsColors.maxColor;
+        if (channels == 2 || channels == 4) {
+          alpha = samples[i + channels - 1];
+        }
+        pixels[x] = channels < 3
+            ? ImageToGraphConverter.packARGB(alpha, samples[i], samples[i], samples[i])
+            : ImageToGraphConverter.packARGB(alpha, samples[i], samples[i + 1], samples[i + 2]);
+      }
+      builder.setRows(y, 1, pixels);
     }
-    return convertFromDoubleArray(toReturn);
+    return builder.build();
   }
 
   /**
@@ -234,21 +524,8 @@ public class ImageToGraphConverter {
     if (width <= 0 || height <= 0) {
       throw new IllegalArgumentException("Invalid dimensions");
     }
-    AbstractGraphOfPixels toReturn = new SimpleGraphOfPixels();
-    toReturn.addFirstNode(new Node.PixelNode(new SimplePixel(0, 0, 0)));
-    /*
-    Creates a graph of the same size as the input, with all white nodes.
-     */
-    for (int col = 0; col < width - 1; col += 1) {
-      toReturn.insertColumn(col);
-    }
-    for (int row = 0; row < height - 1; row += 1) {
-      toReturn.insertRow(row);
-    }
-    for (Node n : toReturn) {
-      n.setOpacity(0);
-    }
-    return toReturn;
+    // White, but with no opacity
+    return ImageToGraphConverter.graphFactory.createFilledGraph(width, height, 0x00FFFFFF);
   }
 
   /**
@@ -283,31 +560,33 @@ public class ImageToGraphConverter {
         }
       }
     }
-    AbstractGraphOfPixels toReturn = new SimpleGraphOfPixels();
-    toReturn.addFirstNode(new Node.PixelNode(new SimplePixel(toConvert.get(0).get(0))));
-    /*
-    Creates a graph of the same size as the input, with all white nodes.
-     */
-    for (int col = 0; col < toConvert.get(0).size() - 1; col += 1) {
-      toReturn.insertColumn(col);
-    }
-    for (int row = 0; row < toConvert.size() - 1; row += 1) {
-      toReturn.insertRow(row);
-    }
     /*
-    Updates the colors of the newly created graphs to match the input.
+    Packs the colors of the input into one array, which the graph is built from in a single pass.
      */
-    int col = 0;
-    int row = 0;
-    for (Node n : toReturn) {
-      n.updateColors(toConvert.get(row).get(col));
-      col += 1;
-      if (col == toReturn.getWidth()) {
-        row += 1;
-        col = 0;
+    int[] argb = new int[rowWidth * toConvert.size()];
+    int index = 0;
+    for (ArrayList<PixelAsColors> row : toConvert) {
+      for (PixelAsColors pixel : row) {
+        argb[index] = ImageToGraphConverter.packARGB(PixelAsColors.maxColor,
+            Utils.clampColor(pixel.getRed()), Utils.clampColor(pixel.getGreen()),
+            Utils.clampColor(pixel.getBlue()));
+        index += 1;
       }
     }
-    return toReturn;
+    return ImageToGraphConverter.graphFactory.createGraph(rowWidth, toConvert.size(), argb);
+  }
+
+  /**
+   * Packs the given opacity and colors into a single integer, from the highest byte to the lowest.
+   *
+   * @param alpha The opacity of the pixel
+   * @param red   The red value of the pixel
+   * @param green The green value of the pixel
+   * @param blue  The blue value of the pixel
+   * @return The packed ARGB value
+   */
+  private static int packARGB(int alpha, int red, int green, int blue) {
+    return alpha << 24 | red << 16 | green << 8 | blue;
   }
 
 }
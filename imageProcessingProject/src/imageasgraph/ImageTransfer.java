@@ -0,0 +1,122 @@
+package imageasgraph;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+
+/**
+ * Contains methods which move pixels between graphs and BufferedImages a band of rows at a time,
+ * rather than a pixel at a time. Images of the common types are read and written as their raw
+ * samples, skipping the conversion through a color model that getRGB and setRGB make for every
+ * pixel, and a raster graph can be seen as an image without copying it's pixels at all.
+ */
+public class ImageTransfer {
+
+  private static final int bandPixels = 1 << 16;
+
+  /**
+   * Creates a new image with a copy of the pixels of the given graph, where transparent pixels
+   * have every value be 0.
+   *
+   * @param graph     The graph to be copied
+   * @param keepAlpha Whether the image keeps the opacity of each pixel, rather than having none
+   * @return The created image
+   * @throws IllegalArgumentException If the graph is null or empty
+   */
+  public static BufferedImage toBufferedImage(FixedSizeGraph graph, boolean keepAlpha)
+      throws IllegalArgumentException {
+    if (graph == null) {
+      throw new IllegalArgumentException("Null graph");
+    }
+    int width = graph.getWidth();
+    int height = graph.getHeight();
+    if (width == 0 || height == 0) {
+      throw new IllegalArgumentException("Empty graph");
+    }
+    BufferedImage image = new BufferedImage(width, height,
+        keepAlpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+    WritableRaster raster = image.getRaster();
+    int rows = Math.max(1, bandPixels / width);
+    int[] band = new int[rows * width];
+    for (int top = 0; top < height; top += rows) {
+      int bandRows = Math.min(rows, height - top);
+      graph.readPixels(0, top, width, bandRows, band);
+      for (int i = 0; i < bandRows * width; i += 1) {
+        if ((band[i] >>> 24) == 0) {
+          band[i] = 0;
+        } else if (!keepAlpha) {
+          band[i] &= 0x00FFFFFF;
+        }
+      }
+      // Pixels of both types are stored as one packed int, so they are written without conversion
+      raster.setDataElements(0, top, width, bandRows, band);
+    }
+    return image;
+  }
+
+  /**
+   * Returns an image showing the pixels of the given graph, for display. An image of a raster
+   * graph shares that graph's array rather than copying it, so it shows later changes to the graph
+   * until the graph's size changes; the graph itself is never written to, so the colors hidden
+   * under it's transparent pixels are still given by getRGB, where toBufferedImage gives 0. They
+   * are never seen when the image is drawn. Any other graph is copied, as toBufferedImage does.
+   *
+   * @param graph The graph to be shown
+   * @return The image showing the graph
+   * @throws IllegalArgumentException If the graph is null or empty
+   */
+  public static BufferedImage viewOf(FixedSizeGraph graph) throws IllegalArgumentException {
+    if (graph instanceof RasterGraphOfPixels && graph.getWidth() > 0) {
+      return ((RasterGraphOfPixels) graph).asImage();
+    }
+    return ImageTransfer.toBufferedImage(graph, true);
+  }
+
+  /**
+   * Puts the packed opacity, red, green and blue values of the given rows of the given image into
+   * the given array, in row-major order. Images whose samples are 8 bit opacity and colors that
+   * are not premultiplied are read as their raw samples, giving exactly what getRGB would without
+   * converting each pixel through a color model; any other image is read through getRGB.
+   *
+   * @param image The image to be read
+   * @param top   The y coordinate of the first row
+   * @param rows  The number of rows
+   * @param dest  The array the values are put into
+   */
+  static void readRows(BufferedImage image, int top, int rows, int[] dest) {
+    int width = image.getWidth();
+    int count = width * rows;
+    WritableRaster raster = image.getRaster();
+    switch (image.getType()) {
+      case BufferedImage.TYPE_INT_ARGB:
+        raster.getDataElements(0, top, width, rows, dest);
+        break;
+      case BufferedImage.TYPE_INT_RGB:
+        raster.getDataElements(0, top, width, rows, dest);
+        for (int i = 0; i < count; i += 1) {
+          dest[i] |= 0xFF000000;
+        }
+        break;
+      case BufferedImage.TYPE_3BYTE_BGR: {
+        // The samples of each pixel are given in the order of it's bands, red, green then blue
+        byte[] samples = (byte[]) raster.getDataElements(0, top, width, rows, null);
+        for (int i = 0; i < count; i += 1) {
+          dest[i] = 0xFF000000 | (samples[3 * i] & 0xFF) << 16
+              | (samples[3 * i + 1] & 0xFF) << 8 | (samples[3 * i + 2] & 0xFF);
+        }
+        break;
+      }
+      case BufferedImage.TYPE_4BYTE_ABGR: {
+        // The samples of each pixel are given as red, green, blue then opacity
+        byte[] samples = (byte[]) raster.getDataElements(0, top, width, rows, null);
+        for (int i = 0; i < count; i += 1) {
+          dest[i] = (samples[4 * i + 3] & 0xFF) << 24 | (samples[4 * i] & 0xFF) << 16
+              | (samples[4 * i + 1] & 0xFF) << 8 | (samples[4 * i + 2] & 0xFF);
+        }
+        break;
+      }
+      default:
+        image.getRGB(0, top, width, rows, dest, 0, width);
+        break;
+    }
+  }
+}
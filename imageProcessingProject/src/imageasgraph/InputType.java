@@ -1,10 +1,11 @@
 package imageasgraph;
 
 /**
- * Represents the valid type of image files that can read and made into graphs.
+ * Represents the valid type of image files that can read and made into graphs. A ppm file may be
+ * either text or binary, and a pgm file either, which is told by the start of the file.
  */
 public enum InputType {
-  ppm, jpeg, png;
+  ppm, jpeg, png, pgm, pam;
 
   /**
    * Given a file extension as a String, converts it to corresponding input type.
@@ -25,6 +26,10 @@ public enum InputType {
         return InputType.jpeg;
       case "png":
         return InputType.png;
+      case "pgm":
+        return InputType.pgm;
+      case "pam":
+        return InputType.pam;
       default:
         throw new IllegalArgumentException("Unsupported InputType");
     }
@@ -0,0 +1,78 @@
+package imageasgraph;
+
+import java.awt.image.DataBuffer;
+
+/**
+ * Represents the samples of a decoded image held in a file mapped into memory rather than in
+ * arrays on the heap, so that an image reader can decode an image larger than the heap into it.
+ * Each sample is read and written on it's own through the mapped file, which is slower than an
+ * array but never needs more than the pages being used to be in memory.
+ */
+class MappedDataBuffer extends DataBuffer {
+  // INVARIANT: storage holds size samples for each of the banks, one bank after the other, each
+  // sample taking elementSize bytes.
+
+  private final MappedStorage storage;
+  private final int elementSize;
+
+  /**
+   * Constructs a new buffer of samples of the given type, each of which starts as 0.
+   *
+   * @param dataType The type of every sample, which must be bytes, shorts or ints
+   * @param size     The number of samples in each bank
+   * @param numBanks The number of banks
+   * @throws IllegalArgumentException If the type is not supported, or the file cannot be created
+   */
+  MappedDataBuffer(int dataType, int size, int numBanks) throws IllegalArgumentException {
+    super(dataType, size, numBanks);
+    if (dataType != TYPE_BYTE && dataType != TYPE_USHORT && dataType != TYPE_SHORT
+        && dataType != TYPE_INT) {
+      throw new IllegalArgumentException("Unsupported image");
+    }
+    this.elementSize = DataBuffer.getDataTypeSize(dataType) / 8;
+    this.storage = new MappedStorage((long) this.elementSize * size * numBanks);
+  }
+
+  /**
+   * Returns the index in storage of the first byte of the given sample.
+   *
+   * @param bank The bank of the sample
+   * @param i    The index of the sample in it's bank
+   * @return The index of the sample's bytes
+   */
+  private long indexOf(int bank, int i) {
+    return ((long) bank * this.size + i) * this.elementSize;
+  }
+
+  @Override
+  public int getElem(int bank, int i) {
+    long index = this.indexOf(bank, i);
+    switch (this.dataType) {
+      case TYPE_BYTE:
+        return this.storage.getByte(index) & 0xFF;
+      case TYPE_USHORT:
+        return this.storage.getShort(index) & 0xFFFF;
+      case TYPE_SHORT:
+        return this.storage.getShort(index);
+      default:
+        return this.storage.getInt(index);
+    }
+  }
+
+  @Override
+  public void setElem(int bank, int i, int val) {
+    long index = this.indexOf(bank, i);
+    switch (this.dataType) {
+      case TYPE_BYTE:
+        this.storage.putByte(index, (byte) val);
+        break;
+      case TYPE_USHORT:
+      case TYPE_SHORT:
+        this.storage.putShort(index, (short) val);
+        break;
+      default:
+        this.storage.putInt(index, val);
+        break;
+    }
+  }
+}
@@ -0,0 +1,403 @@
+package imageasgraph;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import pixel.PixelAsColors;
+
+/**
+ * Represents an image as a Graph of Pixels whose packed ARGB values are stored, in row-major order,
+ * in a temporary file mapped into memory rather than on the heap. The operating system pages the
+ * pixels in and out of memory as they are used, so images far larger than the heap can be loaded,
+ * mutated and blended. Nodes given out by this graph are views onto the file, so they stay valid
+ * until the size of the graph changes. Mutators applied on several threads only keep the rows of
+ * one band per thread on the heap, as they do on any graph.
+ */
+public class MappedGraphOfPixels extends AbstractGraphOfPixels {
+  // INVARIANT: storage holds 4 bytes for each of the width times height pixels, each of which
+  // stores the opacity, red, green and blue components of a pixel from the highest byte to the
+  // lowest, even when the opacity of that pixel is 0. storage is null only when the graph is empty.
+
+  private static final int opaqueWhite = 0xFFFFFFFF;
+  private static final int fillPixels = 1 << 14;
+
+  private MappedStorage storage;
+  private int width;
+  private int height;
+
+  MappedGraphOfPixels() {
+    this.storage = null;
+    this.width = 0;
+    this.height = 0;
+  }
+
+  /**
+   * Creates a new mapped graph of the given size, where every pixel is the given value. A value of
+   * 0 costs nothing, as a new file already holds only 0s.
+   *
+   * @param width  The width of the new graph
+   * @param height The height of the new graph
+   * @param argb   The packed opacity, red, green and blue values of every pixel
+   * @throws IllegalArgumentException If either dimension is not positive, or the file cannot be
+   *                                  created
+   */
+  MappedGraphOfPixels(int width, int height, int argb) throws IllegalArgumentException {
+    if (width <= 0 || height <= 0) {
+      throw new IllegalArgumentException("Invalid dimensions");
+    }
+    this.storage = new MappedStorage(4L * width * height);
+    this.width = width;
+    this.height = height;
+    if (argb != 0) {
+      int[] fill = new int[fillPixels];
+      Arrays.fill(fill, argb);
+      long total = (long) width * height;
+      for (long start = 0; start < total; start += fillPixels) {
+        this.storage.putInts(4 * start, fill, 0, (int) Math.min(fillPixels, total - start));
+      }
+    }
+  }
+
+  /**
+   * Creates a new mapped graph of the given size which stores a copy of the given pixels.
+   *
+   * @param width  The width of the new graph
+   * @param height The height of the new graph
+   * @param argb   The opacity, red, green and blue of every pixel from the highest byte to the
+   *               lowest, in row-major order
+   * @throws IllegalArgumentException If either dimension is not positive, the array is null or not
+   *                                  of length width times height, or the file cannot be created
+   */
+  MappedGraphOfPixels(int width, int height, int[] argb) throws IllegalArgumentException {
+    this(width, height, 0);
+    if (argb == null || argb.length != (long) width * height) {
+      throw new IllegalArgumentException("Invalid pixel data");
+    }
+    this.storage.putInts(0, argb, 0, argb.length);
+  }
+
+  /**
+   * Returns the index in storage of the first byte of the pixel at the given coordinates.
+   *
+   * @param x The x coordinate of the pixel
+   * @param y The y coordinate of the pixel
+   * @return The index of the pixel's bytes
+   */
+  private long indexOf(int x, int y) {
+    return 4 * ((long) y * this.width + x);
+  }
+
+  @Override
+  public Node getPixelAt(int x, int y) throws IllegalArgumentException {
+    this.assertGraphNotEmpty();
+    if (x >= width || y >= height || x < 0 || y < 0) {
+      throw new IllegalArgumentException("Invalid coordinates");
+    }
+    return new MappedNode(this, (long) y * width + x);
+  }
+
+  @Override
+  public void readPixels(int x, int y, int width, int height, int[] dest)
+      throws IllegalArgumentException {
+    this.assertValidRegion(x, y, width, height, dest);
+    for (int row = 0; row < height; row += 1) {
+      this.storage.getInts(this.indexOf(x, y + row), dest, row * width, width);
+    }
+  }
+
+  @Override
+  public void writePixels(int x, int y, int width, int height, int[] src)
+      throws IllegalArgumentException {
+    this.assertValidRegion(x, y, width, height, src);
+    for (int row = 0; row < height; row += 1) {
+      this.storage.putInts(this.indexOf(x, y + row), src, row * width, width);
+    }
+    this.markModified(x, y, width, height);
+  }
+
+  @Override
+  public void insertRow(int below) throws IllegalArgumentException {
+    this.assertGraphNotEmpty();
+    if (below >= this.height || below < 0) {
+      throw new IllegalArgumentException("Index not in bounds");
+    }
+    MappedStorage newStorage = new MappedStorage(4L * this.width * (this.height + 1));
+    int[] row = new int[this.width];
+    for (int y = 0; y < this.height; y += 1) {
+      int newY = y > below ? y + 1 : y;
+      this.storage.getInts(this.indexOf(0, y), row, 0, this.width);
+      newStorage.putInts(4L * newY * this.width, row, 0, this.width);
+    }
+    Arrays.fill(row, opaqueWhite);
+    newStorage.putInts(4L * (below + 1) * this.width, row, 0, this.width);
+    this.storage = newStorage;
+    this.height += 1;
+    this.markResized();
+  }
+
+  @Override
+  public void insertColumn(int after) throws IllegalArgumentException {
+    this.assertGraphNotEmpty();
+    if (after >= this.width || after < 0) {
+      throw new IllegalArgumentException("Index not in bounds");
+    }
+    int newWidth = this.width + 1;
+    MappedStorage newStorage = new MappedStorage(4L * newWidth * this.height);
+    int[] row = new int[newWidth];
+    for (int y = 0; y < this.height; y += 1) {
+      this.storage.getInts(this.indexOf(0, y), row, 0, after + 1);
+      row[after + 1] = opaqueWhite;
+      this.storage.getInts(this.indexOf(after + 1, y), row, after + 2, this.width - after - 1);
+      newStorage.putInts(4L * y * newWidth, row, 0, newWidth);
+    }
+    this.storage = newStorage;
+    this.width = newWidth;
+    this.markResized();
+  }
+
+  @Override
+  void addFirstNode(Node.AbstractNode n) throws IllegalArgumentException {
+    if (n instanceof Node.EmptyNode) {
+      throw new IllegalArgumentException("Starting node cannot be empty");
+    }
+    if (width != 0 || height != 0) {
+      throw new IllegalArgumentException("This graph already has a starting node");
+    }
+    this.storage = new MappedStorage(4);
+    this.storage.putInt(0,
+        n.getOpacity() << 24 | n.getRed() << 16 | n.getGreen() << 8 | n.getBlue());
+    this.width = 1;
+    this.height = 1;
+    this.markResized();
+  }
+
+  @Override
+  public int getHeight() {
+    return height;
+  }
+
+  @Override
+  public int getWidth() {
+    return width;
+  }
+
+  @Override
+  public PixelCursor cursor() {
+    return new MappedIterator(this);
+  }
+
+  /**
+   * Iterates over every pixel of a mapped graph in row-major order, the same order as a
+   * GraphIterator would over a graph of linked nodes.
+   */
+  private static class MappedIterator implements PixelCursor {
+
+    private final MappedGraphOfPixels graph;
+    private long index;
+
+    /**
+     * Constructs a new iterator over the pixels of the given graph, starting from the top left.
+     *
+     * @param graph The graph to be iterated over
+     */
+    MappedIterator(MappedGraphOfPixels graph) {
+      this.graph = graph;
+      this.index = 0;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return this.index < (long) this.graph.width * this.graph.height;
+    }
+
+    @Override
+    public Node next() {
+      if (!this.hasNext()) {
+        throw new NoSuchElementException("No more nodes");
+      }
+      Node toReturn = new MappedNode(this.graph, this.index);
+      this.index += 1;
+      return toReturn;
+    }
+
+    @Override
+    public int getX() {
+      return this.index == 0 ? -1 : (int) ((this.index - 1) % this.graph.width);
+    }
+
+    @Override
+    public int getY() {
+      return this.index == 0 ? -1 : (int) ((this.index - 1) / this.graph.width);
+    }
+  }
+
+  /**
+   * Represents a single pixel of a mapped graph as a Node, reading and writing the packed value
+   * stored for it in that graph's file.
+   */
+  private static class MappedNode implements Node {
+
+    private final MappedGraphOfPixels graph;
+    private final long index;
+
+    /**
+     * Constructs a view onto the pixel at the given index of the given graph.
+     *
+     * @param graph The graph the pixel belongs to
+     * @param index The index of the pixel, in row-major order
+     */
+    MappedNode(MappedGraphOfPixels graph, long index) {
+      this.graph = graph;
+      this.index = index;
+    }
+
+    /**
+     * Returns the packed value stored for this pixel.
+     *
+     * @return The packed opacity, red, green and blue values
+     */
+    private int getARGB() {
+      return this.graph.storage.getInt(4 * this.index);
+    }
+
+    /**
+     * Sets the packed value stored for this pixel, and records in this node's graph that it has
+     * changed.
+     *
+     * @param argb The packed opacity, red, green and blue values
+     */
+    private void setARGB(int argb) {
+      this.graph.storage.putInt(4 * this.index, argb);
+      this.graph.markModified((int) (this.index % this.graph.width),
+          (int) (this.index / this.graph.width), 1, 1);
+    }
+
+    /**
+     * Returns the node at the given coordinates of this node's graph, or an empty node if those
+     * coordinates are outside of the graph.
+     *
+     * @param x The x coordinate of the node
+     * @param y The y coordinate of the node
+     * @return The node at those coordinates
+     */
+    private Node nodeAt(int x, int y) {
+      if (x < 0 || y < 0 || x >= this.graph.width || y >= this.graph.height) {
+        return Node.EmptyNode.sentinel;
+      }
+      return new MappedNode(this.graph, (long) y * this.graph.width + x);
+    }
+
+    @Override
+    public int getBlue() {
+      if (this.isTransparent()) {
+        return 0;
+      }
+      return this.getARGB() & 0xFF;
+    }
+
+    @Override
+    public int getGreen() {
+      if (this.isTransparent()) {
+        return 0;
+      }
+      return (this.getARGB() >> 8) & 0xFF;
+    }
+
+    @Override
+    public int getRed() {
+      if (this.isTransparent()) {
+        return 0;
+      }
+      return (this.getARGB() >> 16) & 0xFF;
+    }
+
+    @Override
+    public void updateColors(PixelAsColors newColors) throws IllegalArgumentException {
+      if (newColors == null) {
+        throw new IllegalArgumentException("Null input");
+      }
+      this.setRGB(Utils.clampColor(newColors.getRed()), Utils.clampColor(newColors.getGreen()),
+          Utils.clampColor(newColors.getBlue()));
+    }
+
+    @Override
+    public void editColors(int deltaRed, int deltaGreen, int deltaBlue) {
+      int argb = this.getARGB();
+      this.setRGB(Utils.clampColor(((argb >> 16) & 0xFF) + deltaRed),
+          Utils.clampColor(((argb >> 8) & 0xFF) + deltaGreen),
+          Utils.clampColor((argb & 0xFF) + deltaBlue));
+    }
+
+    /**
+     * Sets the red, green and blue values stored for this pixel, leaving its opacity as it is.
+     *
+     * @param r The new red value, already within bounds
+     * @param g The new green value, already within bounds
+     * @param b The new blue value, already within bounds
+     */
+    private void setRGB(int r, int g, int b) {
+      this.setARGB(this.getARGB() & 0xFF000000 | r << 16 | g << 8 | b);
+    }
+
+    @Override
+    public Node getLeft() {
+      return this.getNearby(-1, 0);
+    }
+
+    @Override
+    public Node getRight() {
+      return this.getNearby(1, 0);
+    }
+
+    @Override
+    public Node getAbove() {
+      return this.getNearby(0, 1);
+    }
+
+    @Override
+    public Node getBelow() {
+      return this.getNearby(0, -1);
+    }
+
+    @Override
+    public Node getNearby(int deltaX, int deltaY) {
+      int x = (int) (this.index % this.graph.width);
+      int y = (int) (this.index / this.graph.width);
+      return this.nodeAt(x + deltaX, y - deltaY);
+    }
+
+    @Override
+    public boolean isTransparent() {
+      return this.getOpacity() == 0;
+    }
+
+    @Override
+    public int getOpacity() {
+      return this.getARGB() >>> 24;
+    }
+
+    @Override
+    public void setOpacity(int newOpacity) throws IllegalArgumentException {
+      if (newOpacity < PixelAsColors.minColor || newOpacity > PixelAsColors.maxColor) {
+        throw new IllegalArgumentException("Invalid opacity given.");
+      }
+      this.setARGB(newOpacity << 24 | (this.getARGB() & 0x00FFFFFF));
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof MappedNode)) {
+        return false;
+      }
+      MappedNode that = (MappedNode) obj;
+      return this.graph == that.graph && this.index == that.index;
+    }
+
+    @Override
+    public int hashCode() {
+      return System.identityHashCode(this.graph) * 31 + Long.hashCode(this.index);
+    }
+  }
+}
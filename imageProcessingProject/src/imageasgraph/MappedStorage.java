@@ -0,0 +1,184 @@
+package imageasgraph;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * Represents a block of bytes stored in a temporary file which is mapped into memory, so that it
+ * can be far larger than the heap - the operating system pages it in and out of memory as it is
+ * used, rather than the JVM holding all of it. Since one mapping can only reach 2GB, the file is
+ * mapped as a list of segments, and every index is a long. The file is deleted as soon as it has
+ * been mapped wherever the system allows, so nothing is left behind once the storage is no longer
+ * used. The temporary file is created in the directory given by the java.io.tmpdir property.
+ */
+class MappedStorage {
+  // INVARIANT: segments together map every byte of the file in order, each of them but the last
+  // holding exactly segmentSize bytes, and every one of them using the native byte order.
+
+  private static final int segmentShift = 30;
+  private static final long segmentSize = 1L << segmentShift;
+  private static final int segmentMask = (int) segmentSize - 1;
+
+  private final ByteBuffer[] segments;
+  private final long size;
+
+  /**
+   * Creates a new storage of the given number of bytes, each of which starts as 0.
+   *
+   * @param size The number of bytes to be stored
+   * @throws IllegalArgumentException If the size is not positive, or the file cannot be created
+   *                                  or mapped
+   */
+  MappedStorage(long size) throws IllegalArgumentException {
+    if (size <= 0) {
+      throw new IllegalArgumentException("Invalid size");
+    }
+    this.size = size;
+    this.segments = new ByteBuffer[(int) ((size + segmentSize - 1) >> segmentShift)];
+    File file;
+    try {
+      file = File.createTempFile("graph", ".pixels");
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Could not create file.");
+    }
+    try (RandomAccessFile access = new RandomAccessFile(file, "rw");
+        FileChannel channel = access.getChannel()) {
+      access.setLength(size);
+      for (int i = 0; i < this.segments.length; i += 1) {
+        long start = (long) i << segmentShift;
+        this.segments[i] = channel.map(MapMode.READ_WRITE, start,
+            Math.min(segmentSize, size - start)).order(ByteOrder.nativeOrder());
+      }
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Could not map file.");
+    } finally {
+      // The mapping stays valid once the file is gone, on the systems which allow deleting it
+      if (!file.delete()) {
+        file.deleteOnExit();
+      }
+    }
+  }
+
+  /**
+   * Returns the byte at the given index.
+   *
+   * @param index The index of the byte
+   * @return The byte at that index
+   */
+  byte getByte(long index) {
+    return this.segments[(int) (index >> segmentShift)].get((int) index & segmentMask);
+  }
+
+  /**
+   * Sets the byte at the given index.
+   *
+   * @param index The index of the byte
+   * @param value The new value of the byte
+   */
+  void putByte(long index, byte value) {
+    this.segments[(int) (index >> segmentShift)].put((int) index & segmentMask, value);
+  }
+
+  /**
+   * Returns the two bytes starting at the given index, which must be a multiple of 2.
+   *
+   * @param index The index of the first byte
+   * @return The bytes as a short
+   */
+  short getShort(long index) {
+    return this.segments[(int) (index >> segmentShift)].getShort((int) index & segmentMask);
+  }
+
+  /**
+   * Sets the two bytes starting at the given index, which must be a multiple of 2.
+   *
+   * @param index The index of the first byte
+   * @param value The new value of the bytes
+   */
+  void putShort(long index, short value) {
+    this.segments[(int) (index >> segmentShift)].putShort((int) index & segmentMask, value);
+  }
+
+  /**
+   * Returns the four bytes starting at the given index, which must be a multiple of 4.
+   *
+   * @param index The index of the first byte
+   * @return The bytes as an int
+   */
+  int getInt(long index) {
+    return this.segments[(int) (index >> segmentShift)].getInt((int) index & segmentMask);
+  }
+
+  /**
+   * Sets the four bytes starting at the given index, which must be a multiple of 4.
+   *
+   * @param index The index of the first byte
+   * @param value The new value of the bytes
+   */
+  void putInt(long index, int value) {
+    this.segments[(int) (index >> segmentShift)].putInt((int) index & segmentMask, value);
+  }
+
+  /**
+   * Returns a view of the ints of the segment holding the given index, positioned at that index.
+   * Each call gives a new view, so threads never share one.
+   *
+   * @param index The index of a byte, which must be a multiple of 4
+   * @return The view, which reaches to the end of that segment
+   * @throws IllegalArgumentException If the index is not within this storage
+   */
+  private IntBuffer intsAt(long index) throws IllegalArgumentException {
+    if (index < 0 || index >= this.size) {
+      throw new IllegalArgumentException("Index out of bounds");
+    }
+    ByteBuffer segment = this.segments[(int) (index >> segmentShift)].duplicate();
+    segment.order(ByteOrder.nativeOrder());
+    segment.position((int) index & segmentMask);
+    return segment.slice().order(ByteOrder.nativeOrder()).asIntBuffer();
+  }
+
+  /**
+   * Copies the given number of ints, starting at the given index, into the given array.
+   *
+   * @param index  The index of the first byte, which must be a multiple of 4
+   * @param dest   The array the ints are copied into
+   * @param offset The index of the array the first int is copied to
+   * @param length The number of ints to be copied
+   */
+  void getInts(long index, int[] dest, int offset, int length) {
+    while (length > 0) {
+      IntBuffer ints = this.intsAt(index);
+      int count = Math.min(length, ints.remaining());
+      ints.get(dest, offset, count);
+      index += 4L * count;
+      offset += count;
+      length -= count;
+    }
+  }
+
+  /**
+   * Copies the given number of ints from the given array into this storage, starting at the given
+   * index.
+   *
+   * @param index  The index of the first byte, which must be a multiple of 4
+   * @param src    The array the ints are copied from
+   * @param offset The index of the array the first int is copied from
+   * @param length The number of ints to be copied
+   */
+  void putInts(long index, int[] src, int offset, int length) {
+    while (length > 0) {
+      IntBuffer ints = this.intsAt(index);
+      int count = Math.min(length, ints.remaining());
+      ints.put(src, offset, count);
+      index += 4L * count;
+      offset += count;
+      length -= count;
+    }
+  }
+}
@@ -118,6 +118,9 @@ public interface Node {
     private final AbstractNode[] neighbors;
     private final PixelAsColors pixel;
     private int opacity;
+    private AbstractGraphOfPixels owner;
+    private int x;
+    private int y;
 
     /**
      * Constructs a new PixelNode, and initializes all of it's neighbors to be empty and it's pixel
@@ -131,10 +134,10 @@ public interface Node {
       }
       this.pixel = new SimplePixel(p);
       this.neighbors = new AbstractNode[4];
-      this.neighbors[0] = new EmptyNode();
-      this.neighbors[1] = new EmptyNode();
-      this.neighbors[2] = new EmptyNode();
-      this.neighbors[3] = new EmptyNode();
+      this.neighbors[0] = EmptyNode.sentinel;
+      this.neighbors[1] = EmptyNode.sentinel;
+      this.neighbors[2] = EmptyNode.sentinel;
+      this.neighbors[3] = EmptyNode.sentinel;
       this.opacity = PixelAsColors.maxColor;
     }
 
@@ -153,13 +156,36 @@ public interface Node {
       }
       this.pixel = new SimplePixel(p);
       this.neighbors = new AbstractNode[4];
-      this.neighbors[0] = new EmptyNode();
-      this.neighbors[1] = new EmptyNode();
-      this.neighbors[2] = new EmptyNode();
-      this.neighbors[3] = new EmptyNode();
+      this.neighbors[0] = EmptyNode.sentinel;
+      this.neighbors[1] = EmptyNode.sentinel;
+      this.neighbors[2] = EmptyNode.sentinel;
+      this.neighbors[3] = EmptyNode.sentinel;
       this.opacity = opacity;
     }
 
+    /**
+     * Sets the graph this node belongs to and it's coordinates in that graph, where the graph is
+     * told whenever the pixel of this node changes. A node which belongs to no graph tells nothing.
+     *
+     * @param owner The graph this node belongs to
+     * @param x     The x coordinate of this node in that graph
+     * @param y     The y coordinate of this node in that graph
+     */
+    void setPosition(AbstractGraphOfPixels owner, int x, int y) {
+      this.owner = owner;
+      this.x = x;
+      this.y = y;
+    }
+
+    /**
+     * Tells the graph this node belongs to, if any, that it's pixel has changed.
+     */
+    private void markModified() {
+      if (this.owner != null) {
+        this.owner.markModified(this.x, this.y, 1, 1);
+      }
+    }
+
     @Override
     public int getBlue() {
       if (this.isTransparent()) {
@@ -190,11 +216,13 @@ public interface Node {
         throw new IllegalArgumentException("Null input");
       }
       this.pixel.setRGB(newColors.getRed(), newColors.getGreen(), newColors.getBlue());
+      this.markModified();
     }
 
     @Override
     public void editColors(int deltaRed, int deltaGreen, int deltaBlue) {
       this.pixel.editRGB(deltaRed, deltaGreen, deltaBlue);
+      this.markModified();
     }
 
     @Override
@@ -288,6 +316,19 @@ public interface Node {
       }
 
       this.opacity = newOpacity;
+      this.markModified();
+    }
+
+    @Override
+    int getStoredARGB() {
+      return this.opacity << 24 | this.pixel.getRed() << 16 | this.pixel.getGreen() << 8
+          | this.pixel.getBlue();
+    }
+
+    @Override
+    void setStoredARGB(int argb) {
+      this.pixel.setRGB((argb >> 16) & 0xFF, (argb >> 8) & 0xFF, argb & 0xFF);
+      this.opacity = argb >>> 24;
     }
   }
 
@@ -298,6 +339,10 @@ public interface Node {
    */
   class EmptyNode extends AbstractNode {
 
+    // Empty nodes hold no state, so this one instance is shared by every graph rather than
+    // allocating a new one for every edge or comparison.
+    static final EmptyNode sentinel = new EmptyNode();
+
     @Override
     public int getBlue() {
       return 0;
@@ -418,6 +463,16 @@ public interface Node {
       return this;
     }
 
+    @Override
+    int getStoredARGB() {
+      return 0;
+    }
+
+    @Override
+    void setStoredARGB(int argb) {
+      //This will never have effect due to this being an empty node.
+    }
+
     @Override
     public boolean equals(Object obj) {
       if (this == obj) {
@@ -502,6 +557,22 @@ public interface Node {
      */
     abstract AbstractNode getBelowAsUpdatable();
 
+    /**
+     * Returns the opacity, red, green and blue values stored by this node packed into one integer,
+     * from the highest byte to the lowest, including the colors kept by a transparent node.
+     *
+     * @return The packed ARGB value of this node
+     */
+    abstract int getStoredARGB();
+
+    /**
+     * Sets the opacity, red, green and blue values stored by this node to those packed into the
+     * given integer, from the highest byte to the lowest.
+     *
+     * @param argb The packed ARGB value this node will store
+     */
+    abstract void setStoredARGB(int argb);
+
     @Override
     public Node getNearby(int deltaX, int deltaY) {
       if (deltaX == 0 && deltaY == 0) {
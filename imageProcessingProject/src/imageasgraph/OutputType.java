@@ -1,10 +1,11 @@
 package imageasgraph;
 
 /**
- * Represents a type of image file supported as a possible output format for a GraphOfPixels.
+ * Represents a type of image file supported as a possible output format for a GraphOfPixels. A ppm
+ * is written as text, and a rawppm is written as a binary ppm file with the same extension.
  */
 public enum OutputType {
-  ppm, jpeg, png;
+  ppm, jpeg, png, rawppm, pgm, pam;
 
   /**
    * Given a file extension as a String, converts it to corresponding output type.
@@ -25,6 +26,12 @@ public enum OutputType {
         return jpeg;
       case "png":
         return png;
+      case "rawppm":
+        return rawppm;
+      case "pgm":
+        return pgm;
+      case "pam":
+        return pam;
       default:
         throw new IllegalArgumentException("Unsupported OutputType");
     }
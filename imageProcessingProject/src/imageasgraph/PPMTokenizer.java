@@ -0,0 +1,238 @@
+package imageasgraph;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Reads the whitespace separated tokens of a PPM file - or of the other netpbm formats, PGM and
+ * PAM - straight from a channel of bytes, through a buffer of fixed size, so a file of any size can
+ * be read without holding more than one buffer of it at once. A comment starts at any '#' - on it's
+ * own line or after other tokens - and runs to the end of that line. The binary samples which
+ * follow the header of some files can be read in bulk once the header's tokens have been read.
+ */
+class PPMTokenizer {
+  // INVARIANT: the bytes of buffer from position up to limit are the next unread bytes of the
+  // channel, and ended is true once the channel has no more bytes.
+
+  private static final int bufferSize = 1 << 16;
+
+  private final ReadableByteChannel channel;
+  private final byte[] buffer;
+  private int position;
+  private int limit;
+  private boolean ended;
+
+  /**
+   * Constructs a tokenizer which reads from the given channel.
+   *
+   * @param channel The channel to be read from
+   * @throws IllegalArgumentException If the channel is null
+   */
+  PPMTokenizer(ReadableByteChannel channel) throws IllegalArgumentException {
+    if (channel == null) {
+      throw new IllegalArgumentException("Null channel given.");
+    }
+    this.channel = channel;
+    this.buffer = new byte[bufferSize];
+    this.position = 0;
+    this.limit = 0;
+    this.ended = false;
+  }
+
+  /**
+   * Returns the next byte of the channel, reading more of it into the buffer if needed.
+   *
+   * @return The next byte, from 0 to 255, or -1 if there are no more
+   * @throws IOException If the channel cannot be read
+   */
+  private int read() throws IOException {
+    if (this.position == this.limit) {
+      if (this.ended) {
+        return -1;
+      }
+      ByteBuffer wrapped = ByteBuffer.wrap(this.buffer);
+      int count = 0;
+      while (count == 0) {
+        count = this.channel.read(wrapped);
+      }
+      if (count < 0) {
+        this.ended = true;
+        return -1;
+      }
+      this.position = 0;
+      this.limit = count;
+    }
+    int next = this.buffer[this.position] & 0xFF;
+    this.position += 1;
+    return next;
+  }
+
+  /**
+   * Returns whether the given byte separates tokens.
+   *
+   * @param b The byte to be checked
+   * @return Whether it is whitespace
+   */
+  private static boolean isWhitespace(int b) {
+    return b == ' ' || b == '\n' || b == '\r' || b == '\t' || b == 0x0B || b == '\f';
+  }
+
+  /**
+   * Skips the rest of the current line, after the start of a comment.
+   *
+   * @throws IOException If the channel cannot be read
+   */
+  private void skipComment() throws IOException {
+    int b = this.read();
+    while (b != '\n' && b != '\r' && b != -1) {
+      b = this.read();
+    }
+  }
+
+  /**
+   * Skips any whitespace and comments, and returns the first byte of the next token.
+   *
+   * @return The first byte of the next token, or -1 if there are no more tokens
+   * @throws IOException If the channel cannot be read
+   */
+  private int startToken() throws IOException {
+    int b = this.read();
+    while (b != -1 && (PPMTokenizer.isWhitespace(b) || b == '#')) {
+      if (b == '#') {
+        this.skipComment();
+      }
+      b = this.read();
+    }
+    return b;
+  }
+
+  /**
+   * Returns whether the given byte ends the token it follows, skipping the comment it starts if it
+   * is a '#'.
+   *
+   * @param b The byte after the last one read of a token
+   * @return Whether the token is finished
+   * @throws IOException If the channel cannot be read
+   */
+  private boolean endsToken(int b) throws IOException {
+    if (b == '#') {
+      this.skipComment();
+      return true;
+    }
+    return b == -1 || PPMTokenizer.isWhitespace(b);
+  }
+
+  /**
+   * Reads the given number of bytes, starting straight after the whitespace which ended the last
+   * token. Large reads go from the channel straight into the given array.
+   *
+   * @param destination The array the bytes are put into, from it's start
+   * @param length      The number of bytes to be read
+   * @throws IllegalArgumentException If the channel ends before that many bytes are read, or it
+   *                                  cannot be read
+   * @throws CancellationException    If the reading thread is interrupted
+   */
+  void readBytes(byte[] destination, int length) throws IllegalArgumentException {
+    int copied = 0;
+    try {
+      while (copied < length) {
+        if (this.position < this.limit) {
+          int count = Math.min(this.limit - this.position, length - copied);
+          System.arraycopy(this.buffer, this.position, destination, copied, count);
+          this.position += count;
+          copied += count;
+        } else if (this.ended) {
+          throw new IllegalArgumentException("Invalid image file");
+        } else if (length - copied >= bufferSize) {
+          int count = this.channel.read(ByteBuffer.wrap(destination, copied, length - copied));
+          if (count < 0) {
+            this.ended = true;
+          } else {
+            copied += count;
+          }
+        } else if (this.read() != -1) {
+          // Refilled the buffer, so puts back the byte read to do so
+          this.position -= 1;
+        }
+      }
+    } catch (IOException e) {
+      throw PPMTokenizer.failure(e);
+    }
+  }
+
+  /**
+   * Returns the exception to throw for the given failure to read the channel, which was cancelled
+   * if the channel was closed because the reading thread was interrupted.
+   *
+   * @param e The failure
+   * @return The exception to be thrown
+   */
+  private static RuntimeException failure(IOException e) {
+    if (e instanceof ClosedByInterruptException) {
+      return new CancellationException("Cancelled");
+    }
+    return new IllegalArgumentException("Could not read file.");
+  }
+
+  /**
+   * Reads the next token as text.
+   *
+   * @return The next token
+   * @throws IllegalArgumentException If there are no more tokens, or the channel cannot be read
+   * @throws CancellationException    If the reading thread is interrupted
+   */
+  String nextToken() throws IllegalArgumentException {
+    try {
+      int b = this.startToken();
+      if (b == -1) {
+        throw new IllegalArgumentException("Invalid image file");
+      }
+      StringBuilder token = new StringBuilder();
+      while (!this.endsToken(b)) {
+        token.append((char) b);
+        b = this.read();
+      }
+      return token.toString();
+    } catch (IOException e) {
+      throw PPMTokenizer.failure(e);
+    }
+  }
+
+  /**
+   * Reads the next token as an integer, without creating any objects.
+   *
+   * @return The value of the next token
+   * @throws IllegalArgumentException If there are no more tokens, the next token is not an
+   *                                  integer, or the channel cannot be read
+   * @throws CancellationException    If the reading thread is interrupted
+   */
+  int nextInt() throws IllegalArgumentException {
+    try {
+      int b = this.startToken();
+      boolean negative = b == '-';
+      if (b == '-' || b == '+') {
+        b = this.read();
+      }
+      if (b < '0' || b > '9') {
+        throw new IllegalArgumentException("Invalid image file");
+      }
+      long value = 0;
+      while (!this.endsToken(b)) {
+        if (b < '0' || b > '9') {
+          throw new IllegalArgumentException("Invalid image file");
+        }
+        value = value * 10 + (b - '0');
+        if (value > Integer.MAX_VALUE) {
+          throw new IllegalArgumentException("Invalid image file");
+        }
+        b = this.read();
+      }
+      return negative ? (int) -value : (int) value;
+    } catch (IOException e) {
+      throw PPMTokenizer.failure(e);
+    }
+  }
+}
@@ -0,0 +1,25 @@
+package imageasgraph;
+
+import java.util.Iterator;
+
+/**
+ * Iterates over every pixel of a graph in row-major order, from the top left to the bottom right,
+ * while keeping track of the coordinates of the pixel it is on - so that code which needs to know
+ * where each pixel is does not have to count columns and rows itself.
+ */
+public interface PixelCursor extends Iterator<Node> {
+
+  /**
+   * Returns the x coordinate of the node most recently returned by next.
+   *
+   * @return The x coordinate of the current node, or -1 if next has not been called yet
+   */
+  int getX();
+
+  /**
+   * Returns the y coordinate of the node most recently returned by next.
+   *
+   * @return The y coordinate of the current node, or -1 if next has not been called yet
+   */
+  int getY();
+}
@@ -0,0 +1,390 @@
+package imageasgraph;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import pixel.PixelAsColors;
+
+/**
+ * Represents an image as a Graph of Pixels which is stored as one contiguous array of packed ARGB
+ * values, in row-major order, rather than as a grid of linked nodes. Nodes given out by this graph
+ * are views onto that array, so they stay valid until the size of the graph changes.
+ */
+public class RasterGraphOfPixels extends AbstractGraphOfPixels {
+  // INVARIANT: The length of pixels is always equal to width times height, and every value of it
+  // stores the opacity, red, green and blue components of a pixel from the highest byte to the
+  // lowest, even when the opacity of that pixel is 0.
+
+  private static final int opaqueWhite = 0xFFFFFFFF;
+
+  private int[] pixels;
+  private int width;
+  private int height;
+
+  RasterGraphOfPixels() {
+    this.pixels = new int[0];
+    this.width = 0;
+    this.height = 0;
+  }
+
+  /**
+   * Creates a new raster graph of the given size, where every pixel is opaque white.
+   *
+   * @param width  The width of the new graph
+   * @param height The height of the new graph
+   * @throws IllegalArgumentException If either dimension is not positive
+   */
+  RasterGraphOfPixels(int width, int height) throws IllegalArgumentException {
+    if (width <= 0 || height <= 0) {
+      throw new IllegalArgumentException("Invalid dimensions");
+    }
+    this.pixels = new int[width * height];
+    Arrays.fill(this.pixels, opaqueWhite);
+    this.width = width;
+    this.height = height;
+  }
+
+  /**
+   * Creates a new raster graph of the given size which stores it's pixels in the given array, so
+   * the array must not be changed by anything else afterwards.
+   *
+   * @param width  The width of the new graph
+   * @param height The height of the new graph
+   * @param argb   The opacity, red, green and blue of every pixel from the highest byte to the
+   *               lowest, in row-major order
+   * @throws IllegalArgumentException If either dimension is not positive, or the array is null or
+   *                                  not of length width times height
+   */
+  RasterGraphOfPixels(int width, int height, int[] argb) throws IllegalArgumentException {
+    if (width <= 0 || height <= 0) {
+      throw new IllegalArgumentException("Invalid dimensions");
+    }
+    if (argb == null || argb.length != width * height) {
+      throw new IllegalArgumentException("Invalid pixel data");
+    }
+    this.pixels = argb;
+    this.width = width;
+    this.height = height;
+  }
+
+  @Override
+  public Node getPixelAt(int x, int y) throws IllegalArgumentException {
+    this.assertGraphNotEmpty();
+    if (x >= width || y >= height || x < 0 || y < 0) {
+      throw new IllegalArgumentException("Invalid coordinates");
+    }
+    return new RasterNode(this, y * width + x);
+  }
+
+  @Override
+  public void readPixels(int x, int y, int width, int height, int[] dest)
+      throws IllegalArgumentException {
+    this.assertValidRegion(x, y, width, height, dest);
+    for (int row = 0; row < height; row += 1) {
+      System.arraycopy(this.pixels, (y + row) * this.width + x, dest, row * width, width);
+    }
+  }
+
+  @Override
+  public void writePixels(int x, int y, int width, int height, int[] src)
+      throws IllegalArgumentException {
+    this.assertValidRegion(x, y, width, height, src);
+    for (int row = 0; row < height; row += 1) {
+      System.arraycopy(src, row * width, this.pixels, (y + row) * this.width + x, width);
+    }
+    this.markModified(x, y, width, height);
+  }
+
+  @Override
+  public void insertRow(int below) throws IllegalArgumentException {
+    this.assertGraphNotEmpty();
+    if (below >= this.height || below < 0) {
+      throw new IllegalArgumentException("Index not in bounds");
+    }
+    int[] newPixels = new int[this.width * (this.height + 1)];
+    int split = (below + 1) * this.width;
+    System.arraycopy(this.pixels, 0, newPixels, 0, split);
+    Arrays.fill(newPixels, split, split + this.width, opaqueWhite);
+    System.arraycopy(this.pixels, split, newPixels, split + this.width,
+        this.pixels.length - split);
+    this.pixels = newPixels;
+    this.height += 1;
+    this.markResized();
+  }
+
+  @Override
+  public void insertColumn(int after) throws IllegalArgumentException {
+    this.assertGraphNotEmpty();
+    if (after >= this.width || after < 0) {
+      throw new IllegalArgumentException("Index not in bounds");
+    }
+    int newWidth = this.width + 1;
+    int[] newPixels = new int[newWidth * this.height];
+    for (int row = 0; row < this.height; row += 1) {
+      int oldStart = row * this.width;
+      int newStart = row * newWidth;
+      System.arraycopy(this.pixels, oldStart, newPixels, newStart, after + 1);
+      newPixels[newStart + after + 1] = opaqueWhite;
+      System.arraycopy(this.pixels, oldStart + after + 1, newPixels, newStart + after + 2,
+          this.width - after - 1);
+    }
+    this.pixels = newPixels;
+    this.width = newWidth;
+    this.markResized();
+  }
+
+  @Override
+  void addFirstNode(Node.AbstractNode n) throws IllegalArgumentException {
+    if (n instanceof Node.EmptyNode) {
+      throw new IllegalArgumentException("Starting node cannot be empty");
+    }
+    if (width != 0 || height != 0) {
+      throw new IllegalArgumentException("This graph already has a starting node");
+    }
+    this.pixels = new int[]{
+        n.getOpacity() << 24 | n.getRed() << 16 | n.getGreen() << 8 | n.getBlue()};
+    this.width = 1;
+    this.height = 1;
+    this.markResized();
+  }
+
+  /**
+   * Returns an image of type TYPE_INT_ARGB which shares this graph's array rather than copying it,
+   * so it shows later changes to this graph until the size of this graph changes. The image only
+   * reads the array, so the colors hidden under transparent pixels are left as they are.
+   *
+   * @return The image sharing this graph's pixels
+   */
+  BufferedImage asImage() {
+    this.assertGraphNotEmpty();
+    WritableRaster raster = Raster.createPackedRaster(
+        new DataBufferInt(this.pixels, this.pixels.length), this.width, this.height, this.width,
+        new int[]{0x00FF0000, 0x0000FF00, 0x000000FF, 0xFF000000}, null);
+    return new BufferedImage(ColorModel.getRGBdefault(), raster, false, null);
+  }
+
+  @Override
+  public int getHeight() {
+    return height;
+  }
+
+  @Override
+  public int getWidth() {
+    return width;
+  }
+
+  @Override
+  public PixelCursor cursor() {
+    return new RasterIterator(this);
+  }
+
+  /**
+   * Iterates over every pixel of a raster graph in row-major order, the same order as a
+   * GraphIterator would over a graph of linked nodes.
+   */
+  private static class RasterIterator implements PixelCursor {
+
+    private final RasterGraphOfPixels graph;
+    private int index;
+
+    /**
+     * Constructs a new iterator over the pixels of the given graph, starting from the top left.
+     *
+     * @param graph The graph to be iterated over
+     */
+    RasterIterator(RasterGraphOfPixels graph) {
+      this.graph = graph;
+      this.index = 0;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return this.index < this.graph.pixels.length;
+    }
+
+    @Override
+    public Node next() {
+      if (!this.hasNext()) {
+        throw new NoSuchElementException("No more nodes");
+      }
+      Node toReturn = new RasterNode(this.graph, this.index);
+      this.index += 1;
+      return toReturn;
+    }
+
+    @Override
+    public int getX() {
+      return this.index == 0 ? -1 : (this.index - 1) % this.graph.width;
+    }
+
+    @Override
+    public int getY() {
+      return this.index == 0 ? -1 : (this.index - 1) / this.graph.width;
+    }
+  }
+
+  /**
+   * Represents a single pixel of a raster graph as a Node, reading and writing the packed value
+   * stored for it in that graph's array.
+   */
+  private static class RasterNode implements Node {
+
+    private final RasterGraphOfPixels graph;
+    private final int index;
+
+    /**
+     * Constructs a view onto the pixel at the given index of the given graph's array.
+     *
+     * @param graph The graph the pixel belongs to
+     * @param index The index of the pixel in the graph's array
+     */
+    RasterNode(RasterGraphOfPixels graph, int index) {
+      this.graph = graph;
+      this.index = index;
+    }
+
+    /**
+     * Returns the node at the given coordinates of this node's graph, or an empty node if those
+     * coordinates are outside of the graph.
+     *
+     * @param x The x coordinate of the node
+     * @param y The y coordinate of the node
+     * @return The node at those coordinates
+     */
+    private Node nodeAt(int x, int y) {
+      if (x < 0 || y < 0 || x >= this.graph.width || y >= this.graph.height) {
+        return Node.EmptyNode.sentinel;
+      }
+      return new RasterNode(this.graph, y * this.graph.width + x);
+    }
+
+    /**
+     * Records in this node's graph that this pixel has changed.
+     */
+    private void markModified() {
+      this.graph.markModified(this.index % this.graph.width, this.index / this.graph.width, 1, 1);
+    }
+
+    @Override
+    public int getBlue() {
+      if (this.isTransparent()) {
+        return 0;
+      }
+      return this.graph.pixels[this.index] & 0xFF;
+    }
+
+    @Override
+    public int getGreen() {
+      if (this.isTransparent()) {
+        return 0;
+      }
+      return (this.graph.pixels[this.index] >> 8) & 0xFF;
+    }
+
+    @Override
+    public int getRed() {
+      if (this.isTransparent()) {
+        return 0;
+      }
+      return (this.graph.pixels[this.index] >> 16) & 0xFF;
+    }
+
+    @Override
+    public void updateColors(PixelAsColors newColors) throws IllegalArgumentException {
+      if (newColors == null) {
+        throw new IllegalArgumentException("Null input");
+      }
+      this.setRGB(Utils.clampColor(newColors.getRed()), Utils.clampColor(newColors.getGreen()),
+          Utils.clampColor(newColors.getBlue()));
+    }
+
+    @Override
+    public void editColors(int deltaRed, int deltaGreen, int deltaBlue) {
+      int argb = this.graph.pixels[this.index];
+      this.setRGB(Utils.clampColor(((argb >> 16) & 0xFF) + deltaRed),
+          Utils.clampColor(((argb >> 8) & 0xFF) + deltaGreen),
+          Utils.clampColor((argb & 0xFF) + deltaBlue));
+    }
+
+    /**
+     * Sets the red, green and blue values stored for this pixel, leaving its opacity as it is.
+     *
+     * @param r The new red value, already within bounds
+     * @param g The new green value, already within bounds
+     * @param b The new blue value, already within bounds
+     */
+    private void setRGB(int r, int g, int b) {
+      int alpha = this.graph.pixels[this.index] & 0xFF000000;
+      this.graph.pixels[this.index] = alpha | r << 16 | g << 8 | b;
+      this.markModified();
+    }
+
+    @Override
+    public Node getLeft() {
+      return this.getNearby(-1, 0);
+    }
+
+    @Override
+    public Node getRight() {
+      return this.getNearby(1, 0);
+    }
+
+    @Override
+    public Node getAbove() {
+      return this.getNearby(0, 1);
+    }
+
+    @Override
+    public Node getBelow() {
+      return this.getNearby(0, -1);
+    }
+
+    @Override
+    public Node getNearby(int deltaX, int deltaY) {
+      int x = this.index % this.graph.width;
+      int y = this.index / this.graph.width;
+      return this.nodeAt(x + deltaX, y - deltaY);
+    }
+
+    @Override
+    public boolean isTransparent() {
+      return this.getOpacity() == 0;
+    }
+
+    @Override
+    public int getOpacity() {
+      return this.graph.pixels[this.index] >>> 24;
+    }
+
+    @Override
+    public void setOpacity(int newOpacity) throws IllegalArgumentException {
+      if (newOpacity < PixelAsColors.minColor || newOpacity > PixelAsColors.maxColor) {
+        throw new IllegalArgumentException("Invalid opacity given.");
+      }
+      this.graph.pixels[this.index] =
+          newOpacity << 24 | (this.graph.pixels[this.index] & 0x00FFFFFF);
+      this.markModified();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof RasterNode)) {
+        return false;
+      }
+      RasterNode that = (RasterNode) obj;
+      return this.graph == that.graph && this.index == that.index;
+    }
+
+    @Override
+    public int hashCode() {
+      return System.identityHashCode(this.graph) * 31 + this.index;
+    }
+  }
+}
@@ -1,99 +1,76 @@
 package imageasgraph;
 
-import java.awt.image.BufferedImage;
-import java.io.File;
-import java.io.FileWriter;
-import java.io.IOException;
-import java.io.PrintWriter;
-import java.util.Iterator;
-import javax.imageio.ImageIO;
-import mutators.Mutator;
+import java.util.ArrayList;
+import java.util.List;
 import pixel.PixelAsColors;
 import pixel.SimplePixel;
 
 /**
- * Represents an image as a Graph of Pixels.
+ * Represents an image as a Graph of Pixels. Alongside the links between nodes, keeps an index of
+ * every row of nodes so that any pixel can be reached in constant time.
  */
 public class SimpleGraphOfPixels extends AbstractGraphOfPixels {
+  // INVARIANT: rows holds one list per row of this graph, from top to bottom, and each of those
+  // lists holds the nodes of that row from left to right, so rows.get(y).get(x) is always the node
+  // found by moving x nodes right and y nodes down from topLeft.
 
   private Node.AbstractNode topLeft;
+  private final List<ArrayList<Node.AbstractNode>> rows;
   private int width;
   private int height;
 
   SimpleGraphOfPixels() {
-    this.topLeft = new Node.EmptyNode();
+    this.topLeft = Node.EmptyNode.sentinel;
+    this.rows = new ArrayList<ArrayList<Node.AbstractNode>>();
     this.width = 0;
     this.height = 0;
   }
 
   /**
-   * Asserts that this graph is not empty, and thus operations besides adding an initial node can be
-   * done on it.
-   */
-  private void assertGraphNotEmpty() {
-    if (width == 0 && height == 0) {
-      throw new IllegalArgumentException("Graph is empty");
-    }
-  }
-
-  @Override
-  public void writeToFile(OutputType fileType, String fileName) throws IllegalArgumentException {
-    if (fileType == null || fileName == null) {
-      throw new IllegalArgumentException("One or both of the arguments is null");
-    }
-    switch (fileType) {
-      case ppm:
-        this.writePPM(fileName);
-        break;
-      case png:
-        this.writePNG(fileName);
-        break;
-      case jpeg:
-        this.writeJPG(fileName);
-        break;
-      default:
-        throw new IllegalArgumentException("Unsupported fileType");
-    }
-  }
-
-  /**
-   * Writes this image as a ppm file to the specified output.
+   * Creates a new graph of the given size whose pixels hold the given packed ARGB values, wiring
+   * every node to it's neighbors in a single pass over the rows from top to bottom.
    *
-   * @param fileName The name of the file which will become the output
+   * @param width  The width of the new graph
+   * @param height The height of the new graph
+   * @param argb   The opacity, red, green and blue of every pixel from the highest byte to the
+   *               lowest, in row-major order
+   * @throws IllegalArgumentException If either dimension is not positive, or the array is null or
+   *                                  not of length width times height
    */
-  protected void writePPM(String fileName) {
-    File output = new File(fileName + ".ppm");
-    FileWriter writer;
-    PrintWriter printer = null;
-    try {
-      writer = new FileWriter(output);
-      printer = new PrintWriter(writer);
-      printer.append("P3\n");
-      printer.append("# Generated from project\n");
-      printer.append(this.width + " ");
-      printer.append(this.height + "\n");
-      printer.append(PixelAsColors.maxColor + "\n");
-      for (Node currentNode : this) {
-        printer.append(currentNode.getRed() + "\n");
-        printer.append(currentNode.getGreen() + "\n");
-        printer.append(currentNode.getBlue() + "\n");
-      }
-    } catch (IOException e) {
-      throw new IllegalArgumentException("Invalid file");
-    } finally {
-      if (printer != null) {
-        printer.close();
+  SimpleGraphOfPixels(int width, int height, int[] argb) throws IllegalArgumentException {
+    if (width <= 0 || height <= 0) {
+      throw new IllegalArgumentException("Invalid dimensions");
+    }
+    if (argb == null || argb.length != width * height) {
+      throw new IllegalArgumentException("Invalid pixel data");
+    }
+    this.rows = new ArrayList<ArrayList<Node.AbstractNode>>(height);
+    ArrayList<Node.AbstractNode> previousRow = null;
+    for (int y = 0; y < height; y += 1) {
+      ArrayList<Node.AbstractNode> currentRow = new ArrayList<Node.AbstractNode>(width);
+      for (int x = 0; x < width; x += 1) {
+        int value = argb[y * width + x];
+        Node.PixelNode toAdd = new Node.PixelNode(new SimplePixel((value >> 16) & 0xFF,
+            (value >> 8) & 0xFF, value & 0xFF), value >>> 24);
+        toAdd.setPosition(this, x, y);
+        if (x > 0) {
+          Node.AbstractNode left = currentRow.get(x - 1);
+          toAdd.updateLeft(left);
+          left.updateRight(toAdd);
+        }
+        if (previousRow != null) {
+          Node.AbstractNode above = previousRow.get(x);
+          toAdd.updateAbove(above);
+          above.updateBelow(toAdd);
+        }
+        currentRow.add(toAdd);
       }
+      this.rows.add(currentRow);
+      previousRow = currentRow;
     }
-  }
-
-  @Override
-  public void applyMutator(Mutator mutator) {
-    this.assertGraphNotEmpty();
-    if (mutator == null) {
-      throw new IllegalArgumentException("Null mutator");
-    }
-    mutator.apply(this);
+    this.topLeft = this.rows.get(0).get(0);
+    this.width = width;
+    this.height = height;
   }
 
   @Override
@@ -102,14 +79,32 @@ public class SimpleGraphOfPixels extends AbstractGraphOfPixels {
     if (x >= width || y >= height || x < 0 || y < 0) {
       throw new IllegalArgumentException("Invalid coordinates");
     }
-    Node toReturn = this.topLeft;
-    for (int row = 0; row < y; row += 1) {
-      toReturn = toReturn.getBelow();
+    return this.rows.get(y).get(x);
+  }
+
+  @Override
+  public void readPixels(int x, int y, int width, int height, int[] dest)
+      throws IllegalArgumentException {
+    this.assertValidRegion(x, y, width, height, dest);
+    for (int row = 0; row < height; row += 1) {
+      List<Node.AbstractNode> current = this.rows.get(y + row);
+      for (int col = 0; col < width; col += 1) {
+        dest[row * width + col] = current.get(x + col).getStoredARGB();
+      }
     }
-    for (int column = 0; column < x; column += 1) {
-      toReturn = toReturn.getRight();
+  }
+
+  @Override
+  public void writePixels(int x, int y, int width, int height, int[] src)
+      throws IllegalArgumentException {
+    this.assertValidRegion(x, y, width, height, src);
+    for (int row = 0; row < height; row += 1) {
+      List<Node.AbstractNode> current = this.rows.get(y + row);
+      for (int col = 0; col < width; col += 1) {
+        current.get(x + col).setStoredARGB(src[row * width + col]);
+      }
     }
-    return toReturn;
+    this.markModified(x, y, width, height);
   }
 
   @Override
@@ -118,14 +113,13 @@ public class SimpleGraphOfPixels extends AbstractGraphOfPixels {
     if (below >= this.height || below < 0) {
       throw new IllegalArgumentException("Index not in bounds");
     }
-    Node.AbstractNode currentTop = this.topLeft;
-    for (int row = 0; row < below; row += 1) {
-      currentTop = currentTop.getBelowAsUpdatable();
-    }
-    Node.AbstractNode currentLeft = new Node.EmptyNode();
+    Node.AbstractNode currentTop = this.rows.get(below).get(0);
+    Node.AbstractNode currentLeft = Node.EmptyNode.sentinel;
     PixelAsColors white = new SimplePixel(255, 255, 255);
+    ArrayList<Node.AbstractNode> newRow = new ArrayList<Node.AbstractNode>(this.width);
     for (int col = 0; col < this.width; col += 1) {
       Node.AbstractNode toAdd = new Node.PixelNode(new SimplePixel(white));
+      newRow.add(toAdd);
       toAdd.updateAbove(currentTop);
       toAdd.updateBelow(currentTop.getBelowAsUpdatable());
       toAdd.updateLeft(currentLeft);
@@ -135,8 +129,11 @@ public class SimpleGraphOfPixels extends AbstractGraphOfPixels {
       currentLeft = toAdd;
       currentTop = currentTop.getRightAsUpdatable();
     }
-    currentLeft.updateRight(new Node.EmptyNode());
+    currentLeft.updateRight(Node.EmptyNode.sentinel);
+    this.rows.add(below + 1, newRow);
     this.height += 1;
+    this.placeNodes(this.width, below + 1);
+    this.markResized();
   }
 
   @Override
@@ -146,14 +143,12 @@ public class SimpleGraphOfPixels extends AbstractGraphOfPixels {
     if (after >= this.width || after < 0) {
       throw new IllegalArgumentException("Index not in bounds");
     }
-    Node.AbstractNode currentLeft = this.topLeft;
-    for (int col = 0; col < after; col += 1) {
-      currentLeft = currentLeft.getRightAsUpdatable();
-    }
-    Node.AbstractNode currentTop = new Node.EmptyNode();
+    Node.AbstractNode currentLeft = this.rows.get(0).get(after);
+    Node.AbstractNode currentTop = Node.EmptyNode.sentinel;
     PixelAsColors white = new SimplePixel(255, 255, 255);
     for (int row = 0; row < this.height; row += 1) {
       Node.AbstractNode toAdd = new Node.PixelNode(new SimplePixel(white));
+      this.rows.get(row).add(after + 1, toAdd);
       toAdd.updateAbove(currentTop);
       toAdd.updateLeft(currentLeft);
       toAdd.updateRight(currentLeft.getRightAsUpdatable());
@@ -163,21 +158,47 @@ public class SimpleGraphOfPixels extends AbstractGraphOfPixels {
       currentLeft = currentLeft.getBelowAsUpdatable();
       currentTop = toAdd;
     }
-    currentTop.updateBelow(new Node.EmptyNode());
+    currentTop.updateBelow(Node.EmptyNode.sentinel);
     this.width += 1;
+    this.placeNodes(after + 1, this.height);
+    this.markResized();
   }
 
   @Override
   void addFirstNode(Node.AbstractNode n) throws IllegalArgumentException {
-    if (n.equals(new Node.EmptyNode())) {
+    if (n instanceof Node.EmptyNode) {
       throw new IllegalArgumentException("Starting node cannot be empty");
     }
     if (width != 0 || height != 0) {
       throw new IllegalArgumentException("This graph already has a starting node");
     }
     this.topLeft = n;
+    ArrayList<Node.AbstractNode> firstRow = new ArrayList<Node.AbstractNode>();
+    firstRow.add(n);
+    this.rows.add(firstRow);
     this.width = 1;
     this.height = 1;
+    this.placeNodes(0, 0);
+    this.markResized();
+  }
+
+  /**
+   * Gives every node which may have moved, those in the given column or right of it and those in
+   * the given row or below it, it's current coordinates, so that the changes made through it are
+   * recorded in the right place.
+   *
+   * @param fromX The first column whose nodes may have moved
+   * @param fromY The first row whose nodes may have moved
+   */
+  private void placeNodes(int fromX, int fromY) {
+    for (int y = 0; y < this.height; y += 1) {
+      List<Node.AbstractNode> current = this.rows.get(y);
+      for (int x = y >= fromY ? 0 : fromX; x < this.width; x += 1) {
+        if (current.get(x) instanceof Node.PixelNode) {
+          ((Node.PixelNode) current.get(x)).setPosition(this, x, y);
+        }
+      }
+    }
   }
 
   @Override
@@ -191,95 +212,7 @@ public class SimpleGraphOfPixels extends AbstractGraphOfPixels {
   }
 
   @Override
-  public Iterator<Node> iterator() {
+  public PixelCursor cursor() {
     return new GraphIterator(this.topLeft);
   }
-
-  /**
-   * Writes this Graph as a PNG image file with the given string as it's name.
-   *
-   * @param fileName The name of the image file to be created
-   * @throws IllegalArgumentException If the name given is null
-   */
-  protected void writePNG(String fileName) throws IllegalArgumentException {
-    if (fileName == null) {
-      throw new IllegalArgumentException("Null fileName");
-    }
-    BufferedImage toReturn = this.createBufferedImageForOutPut();
-
-    File outPut = new File(fileName + ".png");
-
-    try {
-      ImageIO.write(toReturn, "png", outPut);
-    } catch (IOException e) {
-      throw new IllegalArgumentException("Could not write to file");
-    }
-  }
-
-  /**
-   * Writes this Graph as a JPG image file with the given string as it's name.
-   *
-   * @param fileName The name of the image file to be created
-   * @throws IllegalArgumentException If the name given is null
-   */
-  protected void writeJPG(String fileName) throws IllegalArgumentException {
-    if (fileName == null) {
-      throw new IllegalArgumentException("Null fileName");
-    }
-    BufferedImage toReturn = this.createBufferedImageNoAlpha();
-    File outPut = new File(fileName + ".jpeg");
-
-    try {
-      ImageIO.write(toReturn, "jpeg", outPut);
-    } catch (IOException e) {
-      throw new IllegalArgumentException("Could not write to file");
-    }
-  }
-
-  /**
-   * Creates a buffered image which represents the image that this graph does, with all the ARGB
-   * values copied over.
-   *
-   * @return The buffered image representation
-   */
-  protected BufferedImage createBufferedImageForOutPut() {
-    BufferedImage toReturn = new BufferedImage(this.getWidth(), this.getHeight(),
-        BufferedImage.TYPE_INT_ARGB);
-    int col = 0;
-    int row = 0;
-    for (Node n : this) {
-      int rgb = (n.getOpacity() << 24 | n.getRed() << 16 | n.getGreen() << 8 | n.getBlue());
-      toReturn.setRGB(col, row, rgb);
-      col += 1;
-      if (col == this.getWidth()) {
-        col = 0;
-        row += 1;
-      }
-    }
-    return toReturn;
-  }
-
-  /**
-   * Creates a buffered image which represents the image that this graph does, with all the RGB
-   * values copied over.
-   *
-   * @return The buffered image representation
-   */
-  protected BufferedImage createBufferedImageNoAlpha() {
-    BufferedImage toReturn = new BufferedImage(this.getWidth(), this.getHeight(),
-        BufferedImage.TYPE_INT_RGB);
-    int col = 0;
-    int row = 0;
-    for (Node n : this) {
-      int rgb = (n.getRed() << 16 | n.getGreen() << 8 | n.getBlue());
-      toReturn.setRGB(col, row, rgb);
-      col += 1;
-      if (col == this.getWidth()) {
-        col = 0;
-        row += 1;
-      }
-    }
-    return toReturn;
-  }
-
 }
@@ -0,0 +1,532 @@
+package imageasgraph;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import pixel.PixelAsColors;
+
+/**
+ * Represents an image as a Graph of Pixels which is stored as a grid of square tiles of packed ARGB
+ * values, each tile being stored on it's own. A tile whose every pixel is transparent white, as
+ * every pixel of a new transparent graph is, is not stored at all, and a copy of a tiled graph
+ * shares every tile with the original until either one changes it, at which point that graph takes
+ * a copy of just that tile - so empty layers, and layers copied from others, cost almost nothing
+ * until they are drawn on. Nodes given out by this graph stay valid until the size of the graph
+ * changes.
+ */
+public class TiledGraphOfPixels extends AbstractGraphOfPixels {
+  // INVARIANT: tiles holds one entry for each tile of the graph, in row-major order, where each
+  // tile covers tileSize by tileSize pixels from the top left, those past the edges of the graph
+  // being unused. A null tile has every pixel be emptyPixel. A tile which is not owned may be
+  // shared with other graphs, so it is never changed - it is copied first, and the copy is owned.
+
+  private static final int tileShift = 6;
+  private static final int tileSize = 1 << tileShift;
+  private static final int tileMask = tileSize - 1;
+  private static final int emptyPixel = 0x00FFFFFF;
+  private static final int opaqueWhite = 0xFFFFFFFF;
+
+  private int width;
+  private int height;
+  private int tilesAcross;
+  private int[][] tiles;
+  private boolean[] owned;
+
+  /**
+   * Creates a new tiled graph of the given size, where every pixel is the given packed value. If
+   * that value is transparent white no tile is stored, and otherwise every tile shares one array
+   * until it is changed.
+   *
+   * @param width  The width of the new graph
+   * @param height The height of the new graph
+   * @param argb   The opacity, red, green and blue of every pixel from the highest byte to the
+   *               lowest
+   * @throws IllegalArgumentException If either dimension is not positive
+   */
+  TiledGraphOfPixels(int width, int height, int argb) throws IllegalArgumentException {
+    if (width <= 0 || height <= 0) {
+      throw new IllegalArgumentException("Invalid dimensions");
+    }
+    this.setSize(width, height);
+    if (argb != emptyPixel) {
+      int[] filled = new int[tileSize * tileSize];
+      Arrays.fill(filled, argb);
+      Arrays.fill(this.tiles, filled);
+    }
+  }
+
+  /**
+   * Creates a new tiled graph of the given size from the given pixels, which are copied into it's
+   * tiles, so the array may be changed afterwards.
+   *
+   * @param width  The width of the new graph
+   * @param height The height of the new graph
+   * @param argb   The opacity, red, green and blue of every pixel from the highest byte to the
+   *               lowest, in row-major order
+   * @throws IllegalArgumentException If either dimension is not positive, or the array is null or
+   *                                  not of length width times height
+   */
+  TiledGraphOfPixels(int width, int height, int[] argb) throws IllegalArgumentException {
+    if (width <= 0 || height <= 0) {
+      throw new IllegalArgumentException("Invalid dimensions");
+    }
+    if (argb == null || argb.length != width * height) {
+      throw new IllegalArgumentException("Invalid pixel data");
+    }
+    this.setSize(width, height);
+    this.writeTiles(0, 0, width, height, argb);
+  }
+
+  /**
+   * Creates a new tiled graph which shares every tile of the given one.
+   *
+   * @param original The graph to be copied
+   */
+  private TiledGraphOfPixels(TiledGraphOfPixels original) {
+    this.width = original.width;
+    this.height = original.height;
+    this.tilesAcross = original.tilesAcross;
+    this.tiles = original.tiles.clone();
+    this.owned = new boolean[this.tiles.length];
+  }
+
+  /**
+   * Returns a copy of this graph which shares every tile with it, taking no time or memory for the
+   * pixels themselves. Neither graph owns a shared tile from then on, so whichever graph changes it
+   * first takes it's own copy of it, and the other is never changed.
+   *
+   * @return The copy
+   */
+  synchronized TiledGraphOfPixels copy() {
+    Arrays.fill(this.owned, false);
+    return new TiledGraphOfPixels(this);
+  }
+
+  /**
+   * Sets the size of this graph to the given one, with every tile being null.
+   *
+   * @param width  The new width
+   * @param height The new height
+   */
+  private void setSize(int width, int height) {
+    this.width = width;
+    this.height = height;
+    this.tilesAcross = (width + tileMask) >> tileShift;
+    int tilesDown = (height + tileMask) >> tileShift;
+    this.tiles = new int[this.tilesAcross * tilesDown][];
+    this.owned = new boolean[this.tiles.length];
+  }
+
+  /**
+   * Returns the tile of the given index as an array this graph may change, copying it first if it
+   * may be shared or creating it if it is null. This is synchronized, as several threads applying
+   * a mutator may write different rows of the same tile, and must all write to the same copy.
+   *
+   * @param tile The index of the tile
+   * @return The tile
+   */
+  private synchronized int[] ownTile(int tile) {
+    if (!this.owned[tile]) {
+      int[] copy;
+      if (this.tiles[tile] == null) {
+        copy = new int[tileSize * tileSize];
+        Arrays.fill(copy, emptyPixel);
+      } else {
+        copy = this.tiles[tile].clone();
+      }
+      this.tiles[tile] = copy;
+      this.owned[tile] = true;
+    }
+    return this.tiles[tile];
+  }
+
+  /**
+   * Sets the tile of the given index to be null, so that every pixel of it is transparent white.
+   *
+   * @param tile The index of the tile
+   */
+  private synchronized void clearTile(int tile) {
+    this.tiles[tile] = null;
+    this.owned[tile] = false;
+  }
+
+  /**
+   * Returns the packed value of the pixel at the given coordinates.
+   *
+   * @param x The x coordinate of the pixel
+   * @param y The y coordinate of the pixel
+   * @return The packed value
+   */
+  private int getArgb(int x, int y) {
+    int[] tile = this.tiles[(y >> tileShift) * this.tilesAcross + (x >> tileShift)];
+    if (tile == null) {
+      return emptyPixel;
+    }
+    return tile[(y & tileMask) << tileShift | (x & tileMask)];
+  }
+
+  /**
+   * Sets the packed value of the pixel at the given coordinates, and records that it has changed.
+   *
+   * @param x    The x coordinate of the pixel
+   * @param y    The y coordinate of the pixel
+   * @param argb The new packed value
+   */
+  private void setArgb(int x, int y, int argb) {
+    this.ownTile((y >> tileShift) * this.tilesAcross + (x >> tileShift))
+        [(y & tileMask) << tileShift | (x & tileMask)] = argb;
+    this.markModified(x, y, 1, 1);
+  }
+
+  @Override
+  public Node getPixelAt(int x, int y) throws IllegalArgumentException {
+    this.assertGraphNotEmpty();
+    if (x >= width || y >= height || x < 0 || y < 0) {
+      throw new IllegalArgumentException("Invalid coordinates");
+    }
+    return new TiledNode(this, x, y);
+  }
+
+  @Override
+  public void readPixels(int x, int y, int width, int height, int[] dest)
+      throws IllegalArgumentException {
+    this.assertValidRegion(x, y, width, height, dest);
+    for (int row = 0; row < height; row += 1) {
+      int tileRow = ((y + row) >> tileShift) * this.tilesAcross;
+      int offset = ((y + row) & tileMask) << tileShift;
+      for (int column = x; column < x + width; ) {
+        int span = Math.min(tileSize - (column & tileMask), x + width - column);
+        int[] tile = this.tiles[tileRow + (column >> tileShift)];
+        int start = row * width + column - x;
+        if (tile == null) {
+          Arrays.fill(dest, start, start + span, emptyPixel);
+        } else {
+          System.arraycopy(tile, offset | (column & tileMask), dest, start, span);
+        }
+        column += span;
+      }
+    }
+  }
+
+  @Override
+  public void writePixels(int x, int y, int width, int height, int[] src)
+      throws IllegalArgumentException {
+    this.assertValidRegion(x, y, width, height, src);
+    this.writeTiles(x, y, width, height, src);
+    this.markModified(x, y, width, height);
+  }
+
+  /**
+   * Writes the given pixels into the given rectangle of this graph, a tile at a time. A tile which
+   * is entirely written with transparent white is made null rather than stored.
+   *
+   * @param x      The x coordinate of the left edge of the rectangle
+   * @param y      The y coordinate of the top edge of the rectangle
+   * @param width  The width of the rectangle
+   * @param height The height of the rectangle
+   * @param src    The packed pixels of the rectangle, in row-major order
+   */
+  private void writeTiles(int x, int y, int width, int height, int[] src) {
+    for (int top = y & ~tileMask; top < y + height; top += tileSize) {
+      int fromY = Math.max(top, y);
+      int toY = Math.min(top + tileSize, y + height);
+      for (int left = x & ~tileMask; left < x + width; left += tileSize) {
+        int fromX = Math.max(left, x);
+        int toX = Math.min(left + tileSize, x + width);
+        int tile = (top >> tileShift) * this.tilesAcross + (left >> tileShift);
+        boolean whole = fromX == left && fromY == top
+            && toX == Math.min(left + tileSize, this.width)
+            && toY == Math.min(top + tileSize, this.height);
+        if (whole && TiledGraphOfPixels.isEmpty(src, fromX - x, fromY - y, width, toX - fromX,
+            toY - fromY)) {
+          this.clearTile(tile);
+          continue;
+        }
+        int[] pixels = this.ownTile(tile);
+        for (int row = fromY; row < toY; row += 1) {
+          System.arraycopy(src, (row - y) * width + fromX - x, pixels,
+              (row & tileMask) << tileShift | (fromX & tileMask), toX - fromX);
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns whether every pixel in the given rectangle of the given pixels is transparent white.
+   *
+   * @param src    The packed pixels, in row-major order
+   * @param x      The x coordinate of the left edge of the rectangle
+   * @param y      The y coordinate of the top edge of the rectangle
+   * @param stride The width of the pixels
+   * @param width  The width of the rectangle
+   * @param height The height of the rectangle
+   * @return Whether every pixel is transparent white
+   */
+  private static boolean isEmpty(int[] src, int x, int y, int stride, int width, int height) {
+    for (int row = y; row < y + height; row += 1) {
+      for (int i = row * stride + x; i < row * stride + x + width; i += 1) {
+        if (src[i] != emptyPixel) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public void insertRow(int below) throws IllegalArgumentException {
+    this.assertGraphNotEmpty();
+    if (below >= this.height || below < 0) {
+      throw new IllegalArgumentException("Index not in bounds");
+    }
+    int[] oldPixels = new int[this.width * this.height];
+    this.readPixels(0, 0, this.width, this.height, oldPixels);
+    int[] newPixels = new int[this.width * (this.height + 1)];
+    int split = (below + 1) * this.width;
+    System.arraycopy(oldPixels, 0, newPixels, 0, split);
+    Arrays.fill(newPixels, split, split + this.width, opaqueWhite);
+    System.arraycopy(oldPixels, split, newPixels, split + this.width, oldPixels.length - split);
+    this.setSize(this.width, this.height + 1);
+    this.writeTiles(0, 0, this.width, this.height, newPixels);
+    this.markResized();
+  }
+
+  @Override
+  public void insertColumn(int after) throws IllegalArgumentException {
+    this.assertGraphNotEmpty();
+    if (after >= this.width || after < 0) {
+      throw new IllegalArgumentException("Index not in bounds");
+    }
+    int[] oldPixels = new int[this.width * this.height];
+    this.readPixels(0, 0, this.width, this.height, oldPixels);
+    int newWidth = this.width + 1;
+    int[] newPixels = new int[newWidth * this.height];
+    for (int row = 0; row < this.height; row += 1) {
+      int oldStart = row * this.width;
+      int newStart = row * newWidth;
+      System.arraycopy(oldPixels, oldStart, newPixels, newStart, after + 1);
+      newPixels[newStart + after + 1] = opaqueWhite;
+      System.arraycopy(oldPixels, oldStart + after + 1, newPixels, newStart + after + 2,
+          this.width - after - 1);
+    }
+    this.setSize(newWidth, this.height);
+    this.writeTiles(0, 0, this.width, this.height, newPixels);
+    this.markResized();
+  }
+
+  @Override
+  void addFirstNode(Node.AbstractNode n) throws IllegalArgumentException {
+    if (n instanceof Node.EmptyNode) {
+      throw new IllegalArgumentException("Starting node cannot be empty");
+    }
+    throw new IllegalArgumentException("This graph already has a starting node");
+  }
+
+  @Override
+  public int getHeight() {
+    return height;
+  }
+
+  @Override
+  public int getWidth() {
+    return width;
+  }
+
+  @Override
+  public PixelCursor cursor() {
+    return new TiledIterator(this);
+  }
+
+  /**
+   * Iterates over every pixel of a tiled graph in row-major order, the same order as a
+   * GraphIterator would over a graph of linked nodes.
+   */
+  private static class TiledIterator implements PixelCursor {
+
+    private final TiledGraphOfPixels graph;
+    private int x;
+    private int y;
+
+    /**
+     * Constructs a new iterator over the pixels of the given graph, starting from the top left.
+     *
+     * @param graph The graph to be iterated over
+     */
+    TiledIterator(TiledGraphOfPixels graph) {
+      this.graph = graph;
+      this.x = -1;
+      this.y = 0;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return this.y < this.graph.height - 1
+          || (this.y == this.graph.height - 1 && this.x < this.graph.width - 1);
+    }
+
+    @Override
+    public Node next() {
+      if (!this.hasNext()) {
+        throw new NoSuchElementException("No more nodes");
+      }
+      this.x += 1;
+      if (this.x == this.graph.width) {
+        this.x = 0;
+        this.y += 1;
+      }
+      return new TiledNode(this.graph, this.x, this.y);
+    }
+
+    @Override
+    public int getX() {
+      return this.x;
+    }
+
+    @Override
+    public int getY() {
+      return this.x == -1 ? -1 : this.y;
+    }
+  }
+
+  /**
+   * Represents a single pixel of a tiled graph as a Node, reading and writing the packed value
+   * stored for it in the tile which holds it.
+   */
+  private static class TiledNode implements Node {
+
+    private final TiledGraphOfPixels graph;
+    private final int x;
+    private final int y;
+
+    /**
+     * Constructs a view onto the pixel at the given coordinates of the given graph.
+     *
+     * @param graph The graph the pixel belongs to
+     * @param x     The x coordinate of the pixel
+     * @param y     The y coordinate of the pixel
+     */
+    TiledNode(TiledGraphOfPixels graph, int x, int y) {
+      this.graph = graph;
+      this.x = x;
+      this.y = y;
+    }
+
+    @Override
+    public int getBlue() {
+      if (this.isTransparent()) {
+        return 0;
+      }
+      return this.graph.getArgb(this.x, this.y) & 0xFF;
+    }
+
+    @Override
+    public int getGreen() {
+      if (this.isTransparent()) {
+        return 0;
+      }
+      return (this.graph.getArgb(this.x, this.y) >> 8) & 0xFF;
+    }
+
+    @Override
+    public int getRed() {
+      if (this.isTransparent()) {
+        return 0;
+      }
+      return (this.graph.getArgb(this.x, this.y) >> 16) & 0xFF;
+    }
+
+    @Override
+    public void updateColors(PixelAsColors newColors) throws IllegalArgumentException {
+      if (newColors == null) {
+        throw new IllegalArgumentException("Null input");
+      }
+      this.setRGB(Utils.clampColor(newColors.getRed()), Utils.clampColor(newColors.getGreen()),
+          Utils.clampColor(newColors.getBlue()));
+    }
+
+    @Override
+    public void editColors(int deltaRed, int deltaGreen, int deltaBlue) {
+      int argb = this.graph.getArgb(this.x, this.y);
+      this.setRGB(Utils.clampColor(((argb >> 16) & 0xFF) + deltaRed),
+          Utils.clampColor(((argb >> 8) & 0xFF) + deltaGreen),
+          Utils.clampColor((argb & 0xFF) + deltaBlue));
+    }
+
+    /**
+     * Sets the red, green and blue values stored for this pixel, leaving its opacity as it is.
+     *
+     * @param r The new red value, already within bounds
+     * @param g The new green value, already within bounds
+     * @param b The new blue value, already within bounds
+     */
+    private void setRGB(int r, int g, int b) {
+      int alpha = this.graph.getArgb(this.x, this.y) & 0xFF000000;
+      this.graph.setArgb(this.x, this.y, alpha | r << 16 | g << 8 | b);
+    }
+
+    @Override
+    public Node getLeft() {
+      return this.getNearby(-1, 0);
+    }
+
+    @Override
+    public Node getRight() {
+      return this.getNearby(1, 0);
+    }
+
+    @Override
+    public Node getAbove() {
+      return this.getNearby(0, 1);
+    }
+
+    @Override
+    public Node getBelow() {
+      return this.getNearby(0, -1);
+    }
+
+    @Override
+    public Node getNearby(int deltaX, int deltaY) {
+      int x = this.x + deltaX;
+      int y = this.y - deltaY;
+      if (x < 0 || y < 0 || x >= this.graph.width || y >= this.graph.height) {
+        return Node.EmptyNode.sentinel;
+      }
+      return new TiledNode(this.graph, x, y);
+    }
+
+    @Override
+    public boolean isTransparent() {
+      return this.getOpacity() == 0;
+    }
+
+    @Override
+    public int getOpacity() {
+      return this.graph.getArgb(this.x, this.y) >>> 24;
+    }
+
+    @Override
+    public void setOpacity(int newOpacity) throws IllegalArgumentException {
+      if (newOpacity < PixelAsColors.minColor || newOpacity > PixelAsColors.maxColor) {
+        throw new IllegalArgumentException("Invalid opacity given.");
+      }
+      this.graph.setArgb(this.x, this.y,
+          newOpacity << 24 | (this.graph.getArgb(this.x, this.y) & 0x00FFFFFF));
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof TiledNode)) {
+        return false;
+      }
+      TiledNode that = (TiledNode) obj;
+      return this.graph == that.graph && this.x == that.x && this.y == that.y;
+    }
+
+    @Override
+    public int hashCode() {
+      return (System.identityHashCode(this.graph) * 31 + this.x) * 31 + this.y;
+    }
+  }
+}
@@ -1,10 +1,18 @@
 package imageasgraph;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import pixel.PixelAsColors;
+
 /**
  * Holds useful utility commands.
  */
 public class Utils {
 
+  private static final Map<Integer, ForkJoinPool> pools = new HashMap<Integer, ForkJoinPool>();
+
   /**
    * Rounds a double into an integer, rounding up at 0.5 or higher.
    *
@@ -18,4 +26,62 @@ public class Utils {
       return (int) Math.ceil(toRound);
     }
   }
+
+  /**
+   * Clamps the given color component so it is within the bounds a pixel can hold.
+   *
+   * @param c The color component to be clamped
+   * @return The clamped component
+   */
+  public static int clampColor(int c) {
+    if (c < PixelAsColors.minColor) {
+      return PixelAsColors.minColor;
+    } else if (c > PixelAsColors.maxColor) {
+      return PixelAsColors.maxColor;
+    }
+    return c;
+  }
+
+  /**
+   * Stops work done for the given thread part of the way through, if that thread has been
+   * interrupted because the work is no longer wanted. Long work checks this between steps, on
+   * whichever thread does each step, so that it can be cancelled by interrupting the thread which
+   * asked for it.
+   *
+   * @param requester The thread the work is being done for
+   * @throws CancellationException If the thread has been interrupted
+   */
+  public static void checkCancelled(Thread requester) throws CancellationException {
+    if (requester.isInterrupted()) {
+      throw new CancellationException("Cancelled");
+    }
+  }
+
+  /**
+   * Returns a fork/join pool of the given number of threads, shared by all work which asks for
+   * that many, so that threads are not started and stopped for every command. The common pool is
+   * used if it has that many threads, and otherwise a pool is made the first time it is asked for
+   * and kept. The threads of every pool stop on their own once idle, and never keep the program
+   * running, so the pools are never shut down.
+   *
+   * @param parallelism The number of threads
+   * @return The pool
+   * @throws IllegalArgumentException If the parallelism is not positive
+   */
+  public static ForkJoinPool getPool(int parallelism) throws IllegalArgumentException {
+    if (parallelism <= 0) {
+      throw new IllegalArgumentException("Parallelism must be positive");
+    }
+    if (parallelism == ForkJoinPool.getCommonPoolParallelism()) {
+      return ForkJoinPool.commonPool();
+    }
+    synchronized (Utils.pools) {
+      ForkJoinPool pool = Utils.pools.get(parallelism);
+      if (pool == null) {
+        pool = new ForkJoinPool(parallelism);
+        Utils.pools.put(parallelism, pool);
+      }
+      return pool;
+    }
+  }
 }
@@ -0,0 +1,184 @@
+package layeredimage;
+
+import imageasgraph.AbstractGraphOfPixels;
+import imageasgraph.FixedSizeGraph;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Keeps the blended image of a layered image between requests to show it, along with which visible
+ * layer each pixel of it was taken from, so that it is only blended again where it may have
+ * changed. A pixel taken from a layer above every changed layer cannot have changed, so only the
+ * pixels taken from the highest changed layer or below it are blended again, from that layer down,
+ * and the rest of the stack is never read. Whether a layer has changed is known from the
+ * modification count of it's graph, so this works however the layer was changed, and when the same
+ * layers are shown in the same order only the region their graphs report as changed is blended.
+ */
+class CompositeCache {
+  // INVARIANT: shown holds the pixels of image, and both shown and owners hold width times height
+  // values. For each pixel, owners holds the index in layers of the highest layer whose pixel there
+  // is not transparent, and shown holds that pixel, or owners holds none and shown holds 0 if every
+  // layer is transparent there. versions holds the modification count of each graph of layers at
+  // the time shown was last blended. changed is the region of shown which the last call to update
+  // may have changed.
+
+  private static final int bandPixels = 1 << 16;
+  private static final int none = Integer.MAX_VALUE;
+
+  private final int width;
+  private final int height;
+  private final BufferedImage image;
+  private final int[] shown;
+  private final int[] owners;
+  private List<AbstractGraphOfPixels> layers;
+  private long[] versions;
+  private Rectangle changed;
+
+  /**
+   * Constructs a new cache for a layered image of the given size, which has not yet blended any
+   * layers.
+   *
+   * @param width  The width of the layered image
+   * @param height The height of the layered image
+   */
+  CompositeCache(int width, int height) {
+    this.width = width;
+    this.height = height;
+    this.image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+    this.shown = ((DataBufferInt) this.image.getRaster().getDataBuffer()).getData();
+    this.owners = new int[width * height];
+    Arrays.fill(this.owners, none);
+    this.layers = new ArrayList<AbstractGraphOfPixels>();
+    this.versions = new long[0];
+    this.changed = new Rectangle();
+  }
+
+  /**
+   * Returns the image of the given layers blended as a BasicBlend would, where transparent pixels
+   * have every value be 0, blending again only the pixels which may have changed since the last
+   * call. The same image is returned by every call, and is changed by later calls, so it must not
+   * be changed by anything else.
+   *
+   * @param visible The visible layers of the layered image, from the top layer down
+   * @return The blended image, or null if a layer is not the size of the layered image or cannot
+   *         say whether it has changed
+   */
+  BufferedImage update(List<FixedSizeGraph> visible) {
+    int count = visible.size();
+    List<AbstractGraphOfPixels> newLayers = new ArrayList<AbstractGraphOfPixels>(count);
+    long[] newVersions = new long[count];
+    for (int i = 0; i < count; i += 1) {
+      FixedSizeGraph layer = visible.get(i);
+      if (!(layer instanceof AbstractGraphOfPixels) || layer.getWidth() != this.width
+          || layer.getHeight() != this.height) {
+        return null;
+      }
+      newLayers.add((AbstractGraphOfPixels) layer);
+      newVersions[i] = newLayers.get(i).getModificationCount();
+    }
+    // Every layer above the first one that was added, removed, moved, shown, hidden or changed
+    // still gives the same pixels at the same index
+    int first = 0;
+    while (first < count && first < this.layers.size()
+        && this.layers.get(first) == newLayers.get(first)
+        && this.versions[first] == newVersions[first]) {
+      first += 1;
+    }
+    this.changed = new Rectangle();
+    if (first < count || first < this.layers.size()) {
+      this.changed = this.changedRegion(first, newLayers, newVersions);
+      this.blendFrom(first, newLayers, this.changed);
+      this.layers = newLayers;
+      this.versions = newVersions;
+    }
+    return this.image;
+  }
+
+  /**
+   * Returns the region of the image which the last call to update may have changed.
+   *
+   * @return The changed region, which is empty if nothing changed
+   */
+  Rectangle getChangedRegion() {
+    return new Rectangle(this.changed);
+  }
+
+  /**
+   * Returns the region which may look different once the given layers are blended, from the given
+   * index down. If the layers from that index down are the same ones in the same order as last
+   * time, that is the region each changed layer reports changing, and otherwise it is the whole
+   * image.
+   *
+   * @param first    The index of the highest layer which may have changed
+   * @param layers   The visible layers, from the top layer down
+   * @param versions The modification count of each of those layers
+   * @return The region to be blended again
+   */
+  private Rectangle changedRegion(int first, List<AbstractGraphOfPixels> layers,
+      long[] versions) {
+    Rectangle whole = new Rectangle(0, 0, this.width, this.height);
+    if (layers.size() != this.layers.size()) {
+      return whole;
+    }
+    Rectangle region = new Rectangle();
+    for (int i = first; i < layers.size(); i += 1) {
+      if (layers.get(i) != this.layers.get(i)) {
+        return whole;
+      }
+      if (versions[i] != this.versions[i]) {
+        Rectangle layerRegion = layers.get(i).getChangedRegion(this.versions[i]);
+        region = region.isEmpty() ? layerRegion : region.union(layerRegion);
+      }
+    }
+    return region;
+  }
+
+  /**
+   * Blends again every pixel of the given region which was taken from the layer at the given index
+   * or below it, or from no layer, reading the given layers from that index down, a band of rows at
+   * a time. A band stops reading layers as soon as every one of it's pixels is resolved.
+   *
+   * @param first  The index of the highest layer which may have changed
+   * @param layers The visible layers, from the top layer down
+   * @param region The region to be blended again
+   */
+  private void blendFrom(int first, List<AbstractGraphOfPixels> layers, Rectangle region) {
+    if (region.isEmpty()) {
+      return;
+    }
+    int rows = Math.max(1, bandPixels / region.width);
+    int[] band = new int[rows * region.width];
+    for (int top = region.y; top < region.y + region.height; top += rows) {
+      int bandRows = Math.min(rows, region.y + region.height - top);
+      int unresolved = 0;
+      for (int row = 0; row < bandRows; row += 1) {
+        int start = (top + row) * this.width + region.x;
+        for (int i = start; i < start + region.width; i += 1) {
+          if (this.owners[i] >= first) {
+            this.owners[i] = none;
+            this.shown[i] = 0;
+            unresolved += 1;
+          }
+        }
+      }
+      for (int layer = first; layer < layers.size() && unresolved > 0; layer += 1) {
+        layers.get(layer).readPixels(region.x, top, region.width, bandRows, band);
+        for (int row = 0; row < bandRows; row += 1) {
+          int start = (top + row) * this.width + region.x;
+          for (int col = 0; col < region.width; col += 1) {
+            int argb = band[row * region.width + col];
+            if (this.owners[start + col] == none && (argb >>> 24) != 0) {
+              this.owners[start + col] = layer;
+              this.shown[start + col] = argb;
+              unresolved -= 1;
+            }
+          }
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,318 @@
+package layeredimage;
+
+import imageasgraph.FixedSizeGraph;
+import imageasgraph.GraphOfPixels;
+import imageasgraph.ImageToGraphConverter;
+import imageasgraph.OutputType;
+import imageasgraph.Utils;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Contains methods which read and write the png files of the layers of a layered-image file, or
+ * read the layers of a single layered image file, with several layers decoded or encoded at once,
+ * as each layer is stored independently of the others. No more threads are used than there are
+ * layers, and each method only returns once every layer is done, so whoever calls it sees every
+ * result in order, as if the layers were done one by one.
+ */
+class LayerIO {
+
+  /**
+   * Returns the number of threads layers are read and written with unless told otherwise, which is
+   * the number of processors available.
+   *
+   * @return The default number of threads
+   */
+  static int defaultParallelism() {
+    return Runtime.getRuntime().availableProcessors();
+  }
+
+  /**
+   * Reads each of the given png files as a graph, using at most the given number of threads.
+   *
+   * @param fileNames   The names of the files, including their extensions
+   * @param parallelism The greatest number of threads to use
+   * @return The graph read from each file, in the same order
+   * @throws IllegalArgumentException If the parallelism is not positive, or any file cannot be read
+   * @throws CancellationException    If the calling thread is interrupted before all are done
+   */
+  static List<GraphOfPixels> readLayers(List<String> fileNames, int parallelism)
+      throws IllegalArgumentException, CancellationException {
+    List<ReadLayer> tasks = new ArrayList<ReadLayer>(fileNames.size());
+    for (String fileName : fileNames) {
+      tasks.add(new ReadLayer(fileName));
+    }
+    return LayerIO.runAll(tasks, parallelism);
+  }
+
+  /**
+   * Reads every layer of the given layered image file as a graph, using at most the given number
+   * of threads.
+   *
+   * @param file        The opened file
+   * @param parallelism The greatest number of threads to use
+   * @return The graph of each layer, from the top layer down
+   * @throws IllegalArgumentException If the parallelism is not positive, or any layer cannot be
+   *                                  read
+   * @throws CancellationException    If the calling thread is interrupted before all are done
+   */
+  static List<GraphOfPixels> readLayers(LayeredImageFile file, int parallelism)
+      throws IllegalArgumentException, CancellationException {
+    List<ReadFileLayer> tasks = new ArrayList<ReadFileLayer>(file.getNumLayers());
+    for (int i = 0; i < file.getNumLayers(); i += 1) {
+      tasks.add(new ReadFileLayer(file, i));
+    }
+    return LayerIO.runAll(tasks, parallelism);
+  }
+
+  /**
+   * Writes each of the given graphs as a png file of the corresponding name, using at most the
+   * given number of threads.
+   *
+   * @param images      The graphs to be written
+   * @param fileNames   The names of the files, without their extensions
+   * @param parallelism The greatest number of threads to use
+   * @throws IllegalArgumentException If the parallelism is not positive, or any file cannot be
+   *                                  written
+   * @throws CancellationException    If the calling thread is interrupted before all are done
+   */
+  static void writeLayers(List<FixedSizeGraph> images, List<String> fileNames, int parallelism)
+      throws IllegalArgumentException, CancellationException {
+    List<WriteLayer> tasks = new ArrayList<WriteLayer>(images.size());
+    for (int i = 0; i < images.size(); i += 1) {
+      tasks.add(new WriteLayer(images.get(i), fileNames.get(i)));
+    }
+    LayerIO.runAll(tasks, parallelism);
+  }
+
+  /**
+   * Runs each of the given tasks, in order on the calling thread if only one thread is to be used
+   * or there is only one task, and otherwise on the shared pool of that many threads, returning
+   * once all are done. If the calling thread is interrupted, every task not yet started is skipped
+   * and every running one is interrupted, as the threads of the pool would never see the calling
+   * thread's interrupt.
+   *
+   * @param tasks       The tasks to be run
+   * @param parallelism The greatest number of threads to use
+   * @param <T>         The type of result each task gives
+   * @return The result of each task, in the same order
+   * @throws IllegalArgumentException If the parallelism is not positive, or any task throws one
+   * @throws CancellationException    If the calling thread is interrupted before every task is done
+   */
+  private static <T> List<T> runAll(List<? extends Callable<T>> tasks, int parallelism)
+      throws IllegalArgumentException, CancellationException {
+    if (parallelism <= 0) {
+      throw new IllegalArgumentException("Parallelism must be positive");
+    }
+    Thread requester = Thread.currentThread();
+    List<T> results = new ArrayList<T>(tasks.size());
+    if (parallelism == 1 || tasks.size() <= 1) {
+      for (Callable<T> task : tasks) {
+        Utils.checkCancelled(requester);
+        try {
+          results.add(task.call());
+        } catch (RuntimeException e) {
+          throw e;
+        } catch (Exception e) {
+          throw new IllegalArgumentException("Could not read or write layer");
+        }
+      }
+      return results;
+    }
+    Utils.checkCancelled(requester);
+    ForkJoinPool pool = Utils.getPool(parallelism);
+    List<CancellableTask<T>> started = new ArrayList<CancellableTask<T>>(tasks.size());
+    List<Future<T>> futures = new ArrayList<Future<T>>(tasks.size());
+    for (Callable<T> task : tasks) {
+      started.add(new CancellableTask<T>(task, requester));
+      futures.add(pool.submit(started.get(started.size() - 1)));
+    }
+    boolean cancelled = false;
+    try {
+      for (Future<T> result : futures) {
+        // Waiting is interrupted at most once, after which every task is told to stop
+        while (true) {
+          try {
+            results.add(result.get());
+            break;
+          } catch (InterruptedException e) {
+            cancelled = true;
+            for (CancellableTask<T> task : started) {
+              task.cancel();
+            }
+          }
+        }
+      }
+    } catch (ExecutionException e) {
+      if (cancelled) {
+        throw new CancellationException("Cancelled");
+      }
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IllegalArgumentException("Could not read or write layer");
+    } finally {
+      if (cancelled) {
+        // Waiting for the tasks cleared the interrupt, which the caller should still see
+        requester.interrupt();
+      }
+    }
+    if (cancelled) {
+      // Every task finished before it could be stopped, but the caller no longer wants them
+      throw new CancellationException("Cancelled");
+    }
+    return results;
+  }
+
+  /**
+   * Represents a task run on a thread of a pool for another thread, which is skipped if that thread
+   * has been interrupted by the time it starts, and which can be stopped part of the way through by
+   * interrupting the thread of the pool running it.
+   *
+   * @param <T> The type of result the task gives
+   */
+  private static class CancellableTask<T> implements Callable<T> {
+    // INVARIANT: worker is the thread running the task while it runs, and null otherwise.
+
+    private final Callable<T> task;
+    private final Thread requester;
+    private boolean cancelled;
+    private Thread worker;
+
+    /**
+     * Constructs the running of the given task for the given thread.
+     *
+     * @param task      The task
+     * @param requester The thread the task is run for
+     */
+    CancellableTask(Callable<T> task, Thread requester) {
+      this.task = task;
+      this.requester = requester;
+      this.cancelled = false;
+      this.worker = null;
+    }
+
+    /**
+     * Stops this task, by interrupting the thread running it if it has started, or by skipping it
+     * once it starts if it has not.
+     */
+    synchronized void cancel() {
+      this.cancelled = true;
+      if (this.worker != null) {
+        this.worker.interrupt();
+      }
+    }
+
+    /**
+     * Records that the current thread has started running this task, unless it has been cancelled.
+     *
+     * @throws CancellationException If the task has been cancelled
+     */
+    private synchronized void start() throws CancellationException {
+      if (this.cancelled) {
+        throw new CancellationException("Cancelled");
+      }
+      Utils.checkCancelled(this.requester);
+      this.worker = Thread.currentThread();
+    }
+
+    /**
+     * Records that the current thread has stopped running this task, clearing any interrupt
+     * meant for it so that the thread's next task does not see it.
+     */
+    private synchronized void finish() {
+      this.worker = null;
+      if (this.cancelled) {
+        Thread.interrupted();
+      }
+    }
+
+    @Override
+    public T call() throws Exception {
+      this.start();
+      try {
+        return this.task.call();
+      } finally {
+        this.finish();
+      }
+    }
+  }
+
+  /**
+   * Represents the reading of one layer from it's png file.
+   */
+  private static class ReadLayer implements Callable<GraphOfPixels> {
+
+    private final String fileName;
+
+    /**
+     * Constructs the reading of the file of the given name.
+     *
+     * @param fileName The name of the file, including it's extension
+     */
+    ReadLayer(String fileName) {
+      this.fileName = fileName;
+    }
+
+    @Override
+    public GraphOfPixels call() throws IllegalArgumentException {
+      return ImageToGraphConverter.convertComplexImage(this.fileName);
+    }
+  }
+
+  /**
+   * Represents the reading of one layer from a layered image file.
+   */
+  private static class ReadFileLayer implements Callable<GraphOfPixels> {
+
+    private final LayeredImageFile file;
+    private final int layerIndex;
+
+    /**
+     * Constructs the reading of the layer at the given position of the given file.
+     *
+     * @param file       The opened file
+     * @param layerIndex The position of the layer
+     */
+    ReadFileLayer(LayeredImageFile file, int layerIndex) {
+      this.file = file;
+      this.layerIndex = layerIndex;
+    }
+
+    @Override
+    public GraphOfPixels call() throws IllegalArgumentException {
+      return this.file.readLayer(this.layerIndex);
+    }
+  }
+
+  /**
+   * Represents the writing of one layer to it's png file.
+   */
+  private static class WriteLayer implements Callable<FixedSizeGraph> {
+
+    private final FixedSizeGraph image;
+    private final String fileName;
+
+    /**
+     * Constructs the writing of the given graph to the file of the given name.
+     *
+     * @param image    The graph to be written
+     * @param fileName The name of the file, without it's extension
+     */
+    WriteLayer(FixedSizeGraph image, String fileName) {
+      this.image = image;
+      this.fileName = fileName;
+    }
+
+    @Override
+    public FixedSizeGraph call() throws IllegalArgumentException {
+      this.image.writeToFile(OutputType.png, this.fileName);
+      return this.image;
+    }
+  }
+}
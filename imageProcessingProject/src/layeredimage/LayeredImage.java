@@ -2,7 +2,10 @@ package layeredimage;
 
 import imageasgraph.FixedSizeGraph;
 import imageasgraph.OutputType;
+import java.awt.image.BufferedImage;
+import java.util.List;
 import layeredimage.blend.Blend;
+import mutators.Mutator;
 
 /**
  * Represents an image which is stored as multiple layered images, and which can access and mutate
@@ -83,6 +86,19 @@ public interface LayeredImage extends ViewModel {
    */
   void removeLayer(String layerName) throws IllegalArgumentException;
 
+  /**
+   * Replaces every layer of this LayeredImage with the given ones, which keep the given graphs
+   * rather than copies of them, so that an earlier set of layers can be returned to.
+   *
+   * @param layerNames   The names of the layers, from the top layer down
+   * @param layers       The graph of each layer
+   * @param visibilities Whether each layer is visible
+   * @throws IllegalArgumentException If any input or element is null, the lists differ in size, or
+   *                                  any name is repeated or is more than one word
+   */
+  void setLayers(List<String> layerNames, List<FixedSizeGraph> layers,
+      List<Boolean> visibilities) throws IllegalArgumentException;
+
   /**
    * Loads the specified image file as a new layer, at the top of the image, with the specified
    * name.
@@ -134,6 +150,44 @@ public interface LayeredImage extends ViewModel {
    */
   void saveAsLayeredImage(String fileName) throws IllegalArgumentException;
 
+  /**
+   * Saves a copy of this Layered image as a layered-image file, with the given name, encoding up to
+   * the given number of it's layers at once. The file is the same as one saved with one thread.
+   *
+   * @param fileName    The name of the file to be outputted
+   * @param parallelism The greatest number of threads to encode layers with
+   * @throws IllegalArgumentException If the given filename is null, or the parallelism is not
+   *                                  positive
+   */
+  void saveAsLayeredImage(String fileName, int parallelism) throws IllegalArgumentException;
+
+  /**
+   * Saves a copy of this Layered image as a single layered image file, with the given name, from
+   * which one layer or a thumbnail of the image can later be read without reading the rest.
+   *
+   * @param fileName The name of the file to be outputted
+   * @throws IllegalArgumentException If the given filename is null, or the file cannot be written
+   */
+  void saveAsLayeredFile(String fileName) throws IllegalArgumentException;
+
+  /**
+   * Returns a quick, low resolution preview of this image as it would look if the given mutator
+   * were applied to the given layer, without changing that layer. The preview is the largest
+   * level of an image pyramid of the layers that has no more than the given number of pixels,
+   * blended as a BasicBlend would, and the pyramid of each layer is kept so that later previews
+   * only shrink again the parts of it's layer that have changed.
+   *
+   * @param layerName The name of the layer the mutator would be applied to
+   * @param mutator   The mutator to be previewed
+   * @param maxPixels The greatest number of pixels the preview may have, unless even a single
+   *                  pixel image would have more
+   * @return The preview, with the opacity of each pixel
+   * @throws IllegalArgumentException If either input is null, the layer does not exist, or
+   *                                  maxPixels is not positive
+   */
+  BufferedImage getPreview(String layerName, Mutator mutator, int maxPixels)
+      throws IllegalArgumentException;
+
   /**
    * Gets the common width of all layers.
    *
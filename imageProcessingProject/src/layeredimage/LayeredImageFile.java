@@ -0,0 +1,598 @@
+package layeredimage;
+
+import imageasgraph.FixedSizeGraph;
+import imageasgraph.GraphOfPixels;
+import imageasgraph.ImageToGraphConverter;
+import imageasgraph.Utils;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Represents a layered image stored in a single file, whose header and table of layers are read
+ * when it is opened, while the pixels of a layer are only read when asked for - so one layer, one
+ * region of a layer, or a small thumbnail of the whole image can be read without decoding anything
+ * else. Every layer is stored as square tiles, each compressed on it's own, so a region only needs
+ * the tiles it overlaps. Unlike the png files of a layered-image directory, the file holds the
+ * exact value of every pixel, including the colors hidden under transparent pixels.
+ *
+ * <p>A file holds, in order and with every number big-endian: the int 0x4C594946, the version 1,
+ * the width and height of the image, the size of the tiles and the number of layers; the width,
+ * height, offset and length of the thumbnail; then for each layer, from the top layer down, it's
+ * name in modified UTF-8, it's visibility as a byte, it's width and height, and the offset and
+ * length of each of it's tiles in row-major order. The thumbnail and tiles follow, each as it's
+ * packed pixels, one row at a time, with each byte but those of the first pixel of a row having
+ * the same byte of the pixel to it's left subtracted, compressed with deflate.
+ */
+public class LayeredImageFile {
+  // INVARIANT: names, visibilities, layerWidths, layerHeights, offsets and lengths each hold one
+  // entry for each layer of the file, from the top layer down, and offsets and lengths hold the
+  // position and length of each of that layer's tiles in row-major order.
+
+  private static final int magic = 0x4C594946;
+  private static final int version = 1;
+  private static final int defaultTileSize = 256;
+  private static final int thumbnailSize = 128;
+
+  private final String fileName;
+  private final int width;
+  private final int height;
+  private final int tileSize;
+  private final int thumbnailWidth;
+  private final int thumbnailHeight;
+  private final long thumbnailOffset;
+  private final int thumbnailLength;
+  private final List<String> names;
+  private final List<Boolean> visibilities;
+  private final int[] layerWidths;
+  private final int[] layerHeights;
+  private final long[][] offsets;
+  private final int[][] lengths;
+
+  /**
+   * Opens the layered image file of the given name, reading it's header and table of layers but
+   * none of their pixels.
+   *
+   * @param fileName The name of the file
+   * @throws IllegalArgumentException If the file name is null, or the file cannot be read or is
+   *                                  not a layered image file
+   */
+  public LayeredImageFile(String fileName) throws IllegalArgumentException {
+    if (fileName == null) {
+      throw new IllegalArgumentException("Null fileName");
+    }
+    this.fileName = fileName;
+    try (DataInputStream in = new DataInputStream(
+        new BufferedInputStream(new FileInputStream(fileName)))) {
+      if (in.readInt() != magic) {
+        throw new IllegalArgumentException("Not a layered image file");
+      }
+      if (in.readInt() != version) {
+        throw new IllegalArgumentException("Unsupported layered image file version");
+      }
+      this.width = in.readInt();
+      this.height = in.readInt();
+      this.tileSize = in.readInt();
+      int layerCount = in.readInt();
+      if (this.width <= 0 || this.height <= 0 || this.tileSize <= 0 || layerCount < 0) {
+        throw new IllegalArgumentException("Invalid layered image file");
+      }
+      this.thumbnailWidth = in.readInt();
+      this.thumbnailHeight = in.readInt();
+      this.thumbnailOffset = in.readLong();
+      this.thumbnailLength = in.readInt();
+      this.names = new ArrayList<String>(layerCount);
+      this.visibilities = new ArrayList<Boolean>(layerCount);
+      this.layerWidths = new int[layerCount];
+      this.layerHeights = new int[layerCount];
+      this.offsets = new long[layerCount][];
+      this.lengths = new int[layerCount][];
+      for (int i = 0; i < layerCount; i += 1) {
+        this.names.add(in.readUTF());
+        this.visibilities.add(in.readBoolean());
+        this.layerWidths[i] = in.readInt();
+        this.layerHeights[i] = in.readInt();
+        if (this.layerWidths[i] <= 0 || this.layerHeights[i] <= 0) {
+          throw new IllegalArgumentException("Invalid layered image file");
+        }
+        int tiles = this.tilesAcross(i) * this.tilesDown(i);
+        this.offsets[i] = new long[tiles];
+        this.lengths[i] = new int[tiles];
+        for (int tile = 0; tile < tiles; tile += 1) {
+          this.offsets[i][tile] = in.readLong();
+          this.lengths[i][tile] = in.readInt();
+        }
+      }
+    } catch (EOFException e) {
+      throw new IllegalArgumentException("Invalid layered image file");
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Could not read file.");
+    }
+  }
+
+  /**
+   * Returns whether the file of the given name exists and is a layered image file, rather than a
+   * layered-image directory or any other file.
+   *
+   * @param fileName The name of the file
+   * @return Whether it is a layered image file
+   */
+  public static boolean isLayeredImageFile(String fileName) {
+    if (fileName == null) {
+      return false;
+    }
+    try (DataInputStream in = new DataInputStream(new FileInputStream(fileName))) {
+      return in.readInt() == magic;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Returns the width of the image.
+   *
+   * @return The width
+   */
+  public int getWidth() {
+    return this.width;
+  }
+
+  /**
+   * Returns the height of the image.
+   *
+   * @return The height
+   */
+  public int getHeight() {
+    return this.height;
+  }
+
+  /**
+   * Returns the number of layers in the image.
+   *
+   * @return The number of layers
+   */
+  public int getNumLayers() {
+    return this.names.size();
+  }
+
+  /**
+   * Returns the name of the layer at the given position, where 0 is the top layer.
+   *
+   * @param layerIndex The position of the layer
+   * @return The name of the layer
+   * @throws IllegalArgumentException If there is no layer at that position
+   */
+  public String getLayerName(int layerIndex) throws IllegalArgumentException {
+    this.assertValidIndex(layerIndex);
+    return this.names.get(layerIndex);
+  }
+
+  /**
+   * Returns whether the layer at the given position is visible.
+   *
+   * @param layerIndex The position of the layer
+   * @return The visibility of the layer
+   * @throws IllegalArgumentException If there is no layer at that position
+   */
+  public boolean getVisibility(int layerIndex) throws IllegalArgumentException {
+    this.assertValidIndex(layerIndex);
+    return this.visibilities.get(layerIndex);
+  }
+
+  /**
+   * Reads every pixel of the layer at the given position, and none of the other layers.
+   *
+   * @param layerIndex The position of the layer
+   * @return A new graph of the layer
+   * @throws IllegalArgumentException If there is no layer at that position, or the file cannot be
+   *                                  read
+   */
+  public GraphOfPixels readLayer(int layerIndex) throws IllegalArgumentException {
+    this.assertValidIndex(layerIndex);
+    return this.readRegion(layerIndex, 0, 0, this.layerWidths[layerIndex],
+        this.layerHeights[layerIndex]);
+  }
+
+  /**
+   * Reads the given rectangle of the layer at the given position, reading only the tiles which
+   * overlap it.
+   *
+   * @param layerIndex The position of the layer
+   * @param x          The x coordinate of the left edge of the rectangle
+   * @param y          The y coordinate of the top edge of the rectangle
+   * @param width      The width of the rectangle
+   * @param height     The height of the rectangle
+   * @return A new graph of the rectangle
+   * @throws IllegalArgumentException If there is no layer at that position, the rectangle is
+   *                                  empty or not within the layer, or the file cannot be read
+   */
+  public GraphOfPixels readRegion(int layerIndex, int x, int y, int width, int height)
+      throws IllegalArgumentException {
+    this.assertValidIndex(layerIndex);
+    if (width <= 0 || height <= 0 || x < 0 || y < 0
+        || x > this.layerWidths[layerIndex] - width
+        || y > this.layerHeights[layerIndex] - height) {
+      throw new IllegalArgumentException("Region not in bounds");
+    }
+    GraphOfPixels region = ImageToGraphConverter.createTransparentGraph(width, height);
+    try (RandomAccessFile file = new RandomAccessFile(this.fileName, "r")) {
+      int across = this.tilesAcross(layerIndex);
+      for (int tileY = y / this.tileSize; tileY * this.tileSize < y + height; tileY += 1) {
+        for (int tileX = x / this.tileSize; tileX * this.tileSize < x + width; tileX += 1) {
+          int left = tileX * this.tileSize;
+          int top = tileY * this.tileSize;
+          int tileWidth = Math.min(this.tileSize, this.layerWidths[layerIndex] - left);
+          int tileHeight = Math.min(this.tileSize, this.layerHeights[layerIndex] - top);
+          int tile = tileY * across + tileX;
+          int[] pixels = LayeredImageFile.decode(file, this.offsets[layerIndex][tile],
+              this.lengths[layerIndex][tile], tileWidth, tileHeight);
+          LayeredImageFile.copyOverlap(pixels, left, top, tileWidth, tileHeight, region, x, y);
+        }
+      }
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Could not read file.");
+    }
+    return region;
+  }
+
+  /**
+   * Reads the thumbnail of the image, a copy of it as blended by a basic blend shrunk to fit
+   * within 128 by 128 pixels, without reading any layer.
+   *
+   * @return A new graph of the thumbnail
+   * @throws IllegalArgumentException If the file cannot be read
+   */
+  public GraphOfPixels readThumbnail() throws IllegalArgumentException {
+    GraphOfPixels thumbnail = ImageToGraphConverter
+        .createTransparentGraph(this.thumbnailWidth, this.thumbnailHeight);
+    try (RandomAccessFile file = new RandomAccessFile(this.fileName, "r")) {
+      thumbnail.writePixels(0, 0, this.thumbnailWidth, this.thumbnailHeight,
+          LayeredImageFile.decode(file, this.thumbnailOffset, this.thumbnailLength,
+              this.thumbnailWidth, this.thumbnailHeight));
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Could not read file.");
+    }
+    return thumbnail;
+  }
+
+  /**
+   * Writes a layered image file of the given name holding the given layers, along with a
+   * thumbnail shrunk from the given blended image. The file is written under another name in the
+   * same directory, then moved over any file of the given name at once, so a write which fails or
+   * is cancelled part of the way through leaves the old file as it was.
+   *
+   * @param fileName     The name of the file
+   * @param width        The width of the image
+   * @param height       The height of the image
+   * @param names        The names of the layers, from the top layer down
+   * @param visibilities The visibility of each layer
+   * @param layers       The graph of each layer
+   * @param blended      The blended image, of the same size as the image
+   * @throws IllegalArgumentException If any input is null, the lists differ in size, or the file
+   *                                  cannot be written
+   * @throws CancellationException    If the thread writing the file is interrupted
+   */
+  static void write(String fileName, int width, int height, List<String> names,
+      List<Boolean> visibilities, List<FixedSizeGraph> layers, FixedSizeGraph blended)
+      throws IllegalArgumentException, CancellationException {
+    if (fileName == null || names == null || visibilities == null || layers == null
+        || blended == null) {
+      throw new IllegalArgumentException("Null input");
+    }
+    if (names.size() != visibilities.size() || names.size() != layers.size()) {
+      throw new IllegalArgumentException("Every layer needs a name and visibility");
+    }
+    int[] thumbnail = LayeredImageFile.shrink(blended);
+    int thumbnailWidth = thumbnail[thumbnail.length - 2];
+    int thumbnailHeight = thumbnail[thumbnail.length - 1];
+    File target = new File(fileName).getAbsoluteFile();
+    File temp;
+    try {
+      temp = File.createTempFile(target.getName() + ".save", ".tmp", target.getParentFile());
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Could not write to file");
+    }
+    boolean written = false;
+    try {
+      try (RandomAccessFile file = new RandomAccessFile(temp, "rw")) {
+        // The table is written once to find where the tiles start, then again once their offsets
+        // and lengths are known
+        long[][] offsets = new long[layers.size()][];
+        int[][] lengths = new int[layers.size()][];
+        for (int i = 0; i < layers.size(); i += 1) {
+          int tiles = LayeredImageFile.tilesIn(layers.get(i).getWidth())
+              * LayeredImageFile.tilesIn(layers.get(i).getHeight());
+          offsets[i] = new long[tiles];
+          lengths[i] = new int[tiles];
+        }
+        long[] thumbnailPlace = new long[2];
+        byte[] table = LayeredImageFile.table(width, height, names, visibilities, layers,
+            thumbnailWidth, thumbnailHeight, thumbnailPlace, offsets, lengths);
+        file.seek(table.length);
+        thumbnailPlace[0] = table.length;
+        thumbnailPlace[1] = LayeredImageFile.writeChunk(file, thumbnail, thumbnailWidth,
+            thumbnailHeight);
+        for (int i = 0; i < layers.size(); i += 1) {
+          FixedSizeGraph layer = layers.get(i);
+          int tile = 0;
+          for (int top = 0; top < layer.getHeight(); top += defaultTileSize) {
+            for (int left = 0; left < layer.getWidth(); left += defaultTileSize) {
+              int tileWidth = Math.min(defaultTileSize, layer.getWidth() - left);
+              int tileHeight = Math.min(defaultTileSize, layer.getHeight() - top);
+              Utils.checkCancelled(Thread.currentThread());
+              int[] pixels = new int[tileWidth * tileHeight];
+              layer.readPixels(left, top, tileWidth, tileHeight, pixels);
+              offsets[i][tile] = file.getFilePointer();
+              lengths[i][tile] = LayeredImageFile.writeChunk(file, pixels, tileWidth, tileHeight);
+              tile += 1;
+            }
+          }
+        }
+        file.seek(0);
+        file.write(LayeredImageFile.table(width, height, names, visibilities, layers,
+            thumbnailWidth, thumbnailHeight, thumbnailPlace, offsets, lengths));
+      }
+      // The file is only moved once closed, as some systems cannot move a file which is open
+      Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE,
+          StandardCopyOption.REPLACE_EXISTING);
+      written = true;
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Could not write to file");
+    } finally {
+      if (!written) {
+        temp.delete();
+      }
+    }
+  }
+
+  /**
+   * Returns the header and table of layers of a file holding the given layers.
+   *
+   * @param width           The width of the image
+   * @param height          The height of the image
+   * @param names           The names of the layers, from the top layer down
+   * @param visibilities    The visibility of each layer
+   * @param layers          The graph of each layer
+   * @param thumbnailWidth  The width of the thumbnail
+   * @param thumbnailHeight The height of the thumbnail
+   * @param thumbnailPlace  The offset and length of the thumbnail
+   * @param offsets         The offset of each tile of each layer
+   * @param lengths         The length of each tile of each layer
+   * @return The bytes of the header and table
+   * @throws IOException If they cannot be written
+   */
+  private static byte[] table(int width, int height, List<String> names,
+      List<Boolean> visibilities, List<FixedSizeGraph> layers, int thumbnailWidth,
+      int thumbnailHeight, long[] thumbnailPlace, long[][] offsets, int[][] lengths)
+      throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(magic);
+    out.writeInt(version);
+    out.writeInt(width);
+    out.writeInt(height);
+    out.writeInt(defaultTileSize);
+    out.writeInt(names.size());
+    out.writeInt(thumbnailWidth);
+    out.writeInt(thumbnailHeight);
+    out.writeLong(thumbnailPlace[0]);
+    out.writeInt((int) thumbnailPlace[1]);
+    for (int i = 0; i < names.size(); i += 1) {
+      out.writeUTF(names.get(i));
+      out.writeBoolean(visibilities.get(i));
+      out.writeInt(layers.get(i).getWidth());
+      out.writeInt(layers.get(i).getHeight());
+      for (int tile = 0; tile < offsets[i].length; tile += 1) {
+        out.writeLong(offsets[i][tile]);
+        out.writeInt(lengths[i][tile]);
+      }
+    }
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Writes the given pixels at the current position of the given file, as a chunk of filtered and
+   * compressed bytes.
+   *
+   * @param file   The file
+   * @param pixels The packed pixels, in row-major order
+   * @param width  The width of the pixels
+   * @param height The height of the pixels
+   * @return The number of bytes written
+   * @throws IOException If the file cannot be written
+   */
+  private static int writeChunk(RandomAccessFile file, int[] pixels, int width, int height)
+      throws IOException {
+    byte[] raw = new byte[4 * width * height];
+    for (int i = 0; i < width * height; i += 1) {
+      raw[4 * i] = (byte) (pixels[i] >>> 24);
+      raw[4 * i + 1] = (byte) (pixels[i] >>> 16);
+      raw[4 * i + 2] = (byte) (pixels[i] >>> 8);
+      raw[4 * i + 3] = (byte) pixels[i];
+    }
+    // Going backwards, every byte is subtracted from before the byte it subtracts changes
+    for (int row = 0; row < height; row += 1) {
+      int start = 4 * row * width;
+      for (int i = start + 4 * width - 1; i >= start + 4; i -= 1) {
+        raw[i] -= raw[i - 4];
+      }
+    }
+    Deflater deflater = new Deflater();
+    try {
+      deflater.setInput(raw);
+      deflater.finish();
+      byte[] buffer = new byte[1 << 16];
+      int written = 0;
+      while (!deflater.finished()) {
+        int count = deflater.deflate(buffer);
+        file.write(buffer, 0, count);
+        written += count;
+      }
+      return written;
+    } finally {
+      deflater.end();
+    }
+  }
+
+  /**
+   * Reads the chunk of the given length at the given offset of the given file, as packed pixels.
+   *
+   * @param file   The file
+   * @param offset The offset of the chunk
+   * @param length The length of the chunk
+   * @param width  The width of the pixels
+   * @param height The height of the pixels
+   * @return The packed pixels, in row-major order
+   * @throws IOException              If the file cannot be read
+   * @throws IllegalArgumentException If the chunk is not valid
+   */
+  private static int[] decode(RandomAccessFile file, long offset, int length, int width,
+      int height) throws IOException, IllegalArgumentException {
+    byte[] compressed = new byte[length];
+    file.seek(offset);
+    file.readFully(compressed);
+    byte[] raw = new byte[4 * width * height];
+    Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(compressed);
+      int read = 0;
+      while (read < raw.length && !inflater.finished()) {
+        int count = inflater.inflate(raw, read, raw.length - read);
+        if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          break;
+        }
+        read += count;
+      }
+      if (read != raw.length) {
+        throw new IllegalArgumentException("Invalid layered image file");
+      }
+    } catch (DataFormatException e) {
+      throw new IllegalArgumentException("Invalid layered image file");
+    } finally {
+      inflater.end();
+    }
+    int[] pixels = new int[width * height];
+    for (int row = 0; row < height; row += 1) {
+      int start = 4 * row * width;
+      for (int i = start + 4; i < start + 4 * width; i += 1) {
+        raw[i] += raw[i - 4];
+      }
+    }
+    for (int i = 0; i < pixels.length; i += 1) {
+      pixels[i] = (raw[4 * i] & 0xFF) << 24 | (raw[4 * i + 1] & 0xFF) << 16
+          | (raw[4 * i + 2] & 0xFF) << 8 | (raw[4 * i + 3] & 0xFF);
+    }
+    return pixels;
+  }
+
+  /**
+   * Writes the part of the given tile which overlaps the given region into that region.
+   *
+   * @param pixels     The packed pixels of the tile
+   * @param left       The x coordinate of the left edge of the tile in the layer
+   * @param top        The y coordinate of the top edge of the tile in the layer
+   * @param tileWidth  The width of the tile
+   * @param tileHeight The height of the tile
+   * @param region     The graph of the region
+   * @param x          The x coordinate of the left edge of the region in the layer
+   * @param y          The y coordinate of the top edge of the region in the layer
+   */
+  private static void copyOverlap(int[] pixels, int left, int top, int tileWidth,
+      int tileHeight, GraphOfPixels region, int x, int y) {
+    int fromX = Math.max(left, x);
+    int fromY = Math.max(top, y);
+    int toX = Math.min(left + tileWidth, x + region.getWidth());
+    int toY = Math.min(top + tileHeight, y + region.getHeight());
+    int overlapWidth = toX - fromX;
+    int[] overlap = new int[overlapWidth * (toY - fromY)];
+    for (int row = fromY; row < toY; row += 1) {
+      System.arraycopy(pixels, (row - top) * tileWidth + fromX - left, overlap,
+          (row - fromY) * overlapWidth, overlapWidth);
+    }
+    region.writePixels(fromX - x, fromY - y, overlapWidth, toY - fromY, overlap);
+  }
+
+  /**
+   * Returns the pixels of the given image shrunk to fit within the size of a thumbnail, keeping
+   * it's proportions, taking the pixel nearest the middle of the area each pixel covers. The
+   * width and height of the thumbnail are put in the last two values of the returned array.
+   *
+   * @param image The image
+   * @return The packed pixels of the thumbnail, in row-major order, followed by it's size
+   */
+  private static int[] shrink(FixedSizeGraph image) {
+    int width = image.getWidth();
+    int height = image.getHeight();
+    double scale = Math.min(1.0, (double) thumbnailSize / Math.max(width, height));
+    int thumbnailWidth = Math.max(1, (int) Math.round(width * scale));
+    int thumbnailHeight = Math.max(1, (int) Math.round(height * scale));
+    int[] thumbnail = new int[thumbnailWidth * thumbnailHeight + 2];
+    int[] row = new int[width];
+    for (int y = 0; y < thumbnailHeight; y += 1) {
+      image.readPixels(0, (int) ((y + 0.5) * height / thumbnailHeight), width, 1, row);
+      for (int x = 0; x < thumbnailWidth; x += 1) {
+        thumbnail[y * thumbnailWidth + x] = row[(int) ((x + 0.5) * width / thumbnailWidth)];
+      }
+    }
+    thumbnail[thumbnail.length - 2] = thumbnailWidth;
+    thumbnail[thumbnail.length - 1] = thumbnailHeight;
+    return thumbnail;
+  }
+
+  /**
+   * Returns the number of tiles needed to cover the given length.
+   *
+   * @param length The length
+   * @return The number of tiles
+   */
+  private static int tilesIn(int length) {
+    return (length + defaultTileSize - 1) / defaultTileSize;
+  }
+
+  /**
+   * Returns the number of columns of tiles in the layer at the given position.
+   *
+   * @param layerIndex The position of the layer
+   * @return The number of columns of tiles
+   */
+  private int tilesAcross(int layerIndex) {
+    return (this.layerWidths[layerIndex] + this.tileSize - 1) / this.tileSize;
+  }
+
+  /**
+   * Returns the number of rows of tiles in the layer at the given position.
+   *
+   * @param layerIndex The position of the layer
+   * @return The number of rows of tiles
+   */
+  private int tilesDown(int layerIndex) {
+    return (this.layerHeights[layerIndex] + this.tileSize - 1) / this.tileSize;
+  }
+
+  /**
+   * Asserts that there is a layer at the given position.
+   *
+   * @param layerIndex The position
+   * @throws IllegalArgumentException If there is no layer at that position
+   */
+  private void assertValidIndex(int layerIndex) throws IllegalArgumentException {
+    if (layerIndex < 0 || layerIndex >= this.names.size()) {
+      throw new IllegalArgumentException("Invalid layer index");
+    }
+  }
+}
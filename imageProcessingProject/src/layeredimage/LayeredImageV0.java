@@ -2,9 +2,11 @@ package layeredimage;
 
 import imageasgraph.FixedSizeGraph;
 import imageasgraph.GraphOfPixels;
+import imageasgraph.ImagePyramid;
 import imageasgraph.ImageToGraphConverter;
-import imageasgraph.Node;
+import imageasgraph.ImageTransfer;
 import imageasgraph.OutputType;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.FileInputStream;
@@ -18,6 +20,7 @@ import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -25,16 +28,23 @@ import java.util.Map;
 import java.util.Scanner;
 import layeredimage.blend.BasicBlend;
 import layeredimage.blend.Blend;
+import mutators.Mutator;
 
 /**
  * An implementation of a Layered Image that represents multiple images on multiple layers of a
- * structure that can be manipulated or processed individually.
+ * structure that can be manipulated or processed individually. The blended image shown in a GUI is
+ * kept between requests, and only blended again where it's layers have changed.
  */
 public class LayeredImageV0 implements LayeredImage {
 
   protected final Map<String, LayerData> layers;
   protected final int width;
   protected final int height;
+  private final CompositeCache composite;
+  private BufferedImage lastShown;
+  private Rectangle lastChanged;
+  private Map<FixedSizeGraph, ImagePyramid> pyramids;
+  private ImagePyramid shownPyramid;
 
   /**
    * Creates a new, empty LayeredImageV0.
@@ -50,19 +60,50 @@ public class LayeredImageV0 implements LayeredImage {
     this.layers = new HashMap<String, LayerData>();
     this.width = width;
     this.height = height;
+    this.composite = new CompositeCache(width, height);
   }
 
   /**
-   * Creates a new LayeredImageV0 by loading a LayeredImage file of the given name.
+   * Creates a new LayeredImageV0 by loading a LayeredImage file of the given name, decoding as many
+   * of it's layers at once as there are processors available.
    *
    * @param fileName The name of the file to be loaded
    * @throws IllegalArgumentException If fileName is null, or if it references an invalid file
    */
   public LayeredImageV0(String fileName) throws IllegalArgumentException {
+    this(fileName, LayerIO.defaultParallelism());
+  }
+
+  /**
+   * Creates a new LayeredImageV0 by loading a LayeredImage file of the given name, decoding up to
+   * the given number of it's layers at once. The file may be either a layered-image directory or a
+   * single layered image file.
+   *
+   * @param fileName    The name of the file to be loaded
+   * @param parallelism The greatest number of threads to decode layers with
+   * @throws IllegalArgumentException If fileName is null, if it references an invalid file, or the
+   *                                  parallelism is not positive
+   */
+  public LayeredImageV0(String fileName, int parallelism) throws IllegalArgumentException {
     this.layers = new HashMap<String, LayerData>();
     if (fileName == null) {
       throw new IllegalArgumentException("Null fileName");
     }
+    if (parallelism <= 0) {
+      throw new IllegalArgumentException("Parallelism must be positive");
+    }
+    if (new File(fileName).isFile()) {
+      LayeredImageFile file = new LayeredImageFile(fileName);
+      this.width = file.getWidth();
+      this.height = file.getHeight();
+      this.composite = new CompositeCache(this.width, this.height);
+      List<GraphOfPixels> images = LayerIO.readLayers(file, parallelism);
+      for (int i = 0; i < images.size(); i += 1) {
+        this.layers.put(file.getLayerName(i),
+            new LayerData(images.get(i), i, file.getVisibility(i)));
+      }
+      return;
+    }
     Scanner sc;
 
     File toRead = new File(fileName);
@@ -76,20 +117,32 @@ public class LayeredImageV0 implements LayeredImage {
       throw new IllegalArgumentException("File not found");
     }
 
-    this.width = sc.nextInt();
-    this.height = sc.nextInt();
-
-    while (sc.hasNext()) {
-      String key = sc.next();
-      int position = sc.nextInt();
-      boolean visible = sc.nextBoolean();
-
-      LayerData toAdd = new LayerData(
-          ImageToGraphConverter.convertComplexImage(relativePath + "/" + key + ".png"), position,
-          visible);
-      this.layers.put(key, toAdd);
+    List<String> keys = new ArrayList<String>();
+    List<Integer> positions = new ArrayList<Integer>();
+    List<Boolean> visibilities = new ArrayList<Boolean>();
+    List<String> layerFiles = new ArrayList<String>();
+    try {
+      this.width = sc.nextInt();
+      this.height = sc.nextInt();
+      while (sc.hasNext()) {
+        String key = sc.next();
+        keys.add(key);
+        positions.add(sc.nextInt());
+        visibilities.add(sc.nextBoolean());
+        layerFiles.add(relativePath + "/" + key + ".png");
+      }
+    } finally {
+      sc.close();
     }
+    this.composite = new CompositeCache(this.width, this.height);
 
+    // Every layer is listed before any is decoded, so that they can all be decoded at once
+    List<GraphOfPixels> images = LayerIO.readLayers(layerFiles, parallelism);
+    for (int i = 0; i < keys.size(); i += 1) {
+      LayerData toAdd = new LayerData(images.get(i), positions.get(i), visibilities.get(i));
+      toAdd.setSaved(relativePath + "/" + keys.get(i));
+      this.layers.put(keys.get(i), toAdd);
+    }
   }
 
   /**
@@ -251,6 +304,30 @@ public class LayeredImageV0 implements LayeredImage {
     }
   }
 
+  @Override
+  public void setLayers(List<String> layerNames, List<FixedSizeGraph> layers,
+      List<Boolean> visibilities) throws IllegalArgumentException {
+    if (layerNames == null || layers == null || visibilities == null) {
+      throw new IllegalArgumentException("Null input");
+    }
+    if (layerNames.size() != layers.size() || layerNames.size() != visibilities.size()) {
+      throw new IllegalArgumentException("Every layer needs a name and visibility");
+    }
+    Map<String, LayerData> replaced = new HashMap<String, LayerData>();
+    for (int i = 0; i < layerNames.size(); i += 1) {
+      String layerName = layerNames.get(i);
+      if (layerName == null || visibilities.get(i) == null) {
+        throw new IllegalArgumentException("Null input");
+      }
+      if (replaced.containsKey(layerName) || layerName.split("\\s+").length != 1) {
+        throw new IllegalArgumentException("Invalid layerName");
+      }
+      replaced.put(layerName, new LayerData(layers.get(i), i, visibilities.get(i)));
+    }
+    this.layers.clear();
+    this.layers.putAll(replaced);
+  }
+
   @Override
   public void loadImageAsLayer(String layerName, String fileName) throws IllegalArgumentException {
     this.assertLayerNameDoesntExist(layerName);
@@ -302,17 +379,39 @@ public class LayeredImageV0 implements LayeredImage {
 
   @Override
   public void saveAsLayeredImage(String fileName) throws IllegalArgumentException {
+    this.saveAsLayeredImage(fileName, LayerIO.defaultParallelism());
+  }
+
+  @Override
+  public void saveAsLayeredImage(String fileName, int parallelism)
+      throws IllegalArgumentException {
     if (fileName == null) {
       throw new IllegalArgumentException("Null input.");
     }
+    if (parallelism <= 0) {
+      throw new IllegalArgumentException("Parallelism must be positive");
+    }
     try {
       Files.createDirectories(Paths.get(fileName));
     } catch (IOException e) {
       throw new IllegalArgumentException("Could not create directory.");
     }
 
+    // A layer unchanged since it was loaded from or saved to the same file is not written again
+    List<LayerData> toWrite = new ArrayList<LayerData>();
+    List<FixedSizeGraph> images = new ArrayList<FixedSizeGraph>();
+    List<String> layerFiles = new ArrayList<String>();
     for (String key : this.layers.keySet()) {
-      this.layers.get(key).getImage().writeToFile(OutputType.png, fileName + "/" + key);
+      LayerData info = this.layers.get(key);
+      if (!info.isSaved(fileName + "/" + key)) {
+        toWrite.add(info);
+        images.add(info.getImage());
+        layerFiles.add(fileName + "/" + key);
+      }
+    }
+    LayerIO.writeLayers(images, layerFiles, parallelism);
+    for (int i = 0; i < toWrite.size(); i += 1) {
+      toWrite.get(i).setSaved(layerFiles.get(i));
     }
 
     File output = new File(fileName + "/layerdata.txt");
@@ -335,23 +434,150 @@ public class LayeredImageV0 implements LayeredImage {
     }
   }
 
+  @Override
+  public void saveAsLayeredFile(String fileName) throws IllegalArgumentException {
+    if (fileName == null) {
+      throw new IllegalArgumentException("Null input.");
+    }
+    List<String> names = this.getLayerNames();
+    List<Boolean> visibilities = new ArrayList<Boolean>(names.size());
+    List<FixedSizeGraph> images = new ArrayList<FixedSizeGraph>(names.size());
+    for (String name : names) {
+      visibilities.add(this.layers.get(name).getVisibility());
+      images.add(this.layers.get(name).getImage());
+    }
+    LayeredImageFile.write(fileName, this.width, this.height, names, visibilities, images,
+        new BasicBlend().blend(this));
+  }
+
   @Override
   public BufferedImage getImageRepresentation() {
-    FixedSizeGraph basicBlended = new BasicBlend().blend(this);
-    BufferedImage toReturn = new BufferedImage(basicBlended.getWidth(), basicBlended.getHeight(),
-        BufferedImage.TYPE_INT_ARGB);
-    int col = 0;
-    int row = 0;
-    for (Node n : basicBlended) {
-      int rgb = (n.getOpacity() << 24 | n.getRed() << 16 | n.getGreen() << 8 | n.getBlue());
-      toReturn.setRGB(col, row, rgb);
-      col += 1;
-      if (col == basicBlended.getWidth()) {
-        col = 0;
-        row += 1;
+    FixedSizeGraph[] ordered = new FixedSizeGraph[this.layers.size()];
+    for (LayerData info : this.layers.values()) {
+      if (info.getVisibility()) {
+        ordered[info.getPos()] = info.getImage();
       }
     }
-    return toReturn;
+    List<FixedSizeGraph> visible = new ArrayList<FixedSizeGraph>(ordered.length);
+    for (FixedSizeGraph layer : ordered) {
+      if (layer != null) {
+        visible.add(layer);
+      }
+    }
+    BufferedImage shown = this.composite.update(visible);
+    if (shown != null && shown == this.lastShown) {
+      this.lastChanged = this.composite.getChangedRegion();
+      if (this.shownPyramid != null) {
+        this.shownPyramid.markChanged(this.lastChanged);
+      }
+      return shown;
+    }
+    if (shown == null) {
+      // Layers of another size are left to a BasicBlend, whose graph is new and used nowhere else,
+      // so the image may share it's pixels
+      shown = ImageTransfer.viewOf(new BasicBlend().blend(this));
+    }
+    this.lastShown = shown;
+    this.lastChanged = new Rectangle(0, 0, shown.getWidth(), shown.getHeight());
+    this.shownPyramid = null;
+    return shown;
+  }
+
+  @Override
+  public ImagePyramid getImagePyramid() {
+    if (this.lastShown == null) {
+      this.getImageRepresentation();
+    }
+    if (this.shownPyramid == null) {
+      this.shownPyramid = new ImagePyramid(this.lastShown);
+    }
+    return this.shownPyramid;
+  }
+
+  @Override
+  public BufferedImage getPreview(String layerName, Mutator mutator, int maxPixels)
+      throws IllegalArgumentException {
+    this.assertLayerNameExists(layerName);
+    if (mutator == null) {
+      throw new IllegalArgumentException("Null mutator");
+    }
+    if (maxPixels <= 0) {
+      throw new IllegalArgumentException("maxPixels must be positive");
+    }
+    FixedSizeGraph target = this.layers.get(layerName).getImage();
+    FixedSizeGraph[] ordered = new FixedSizeGraph[this.layers.size()];
+    for (LayerData info : this.layers.values()) {
+      if (info.getVisibility()) {
+        ordered[info.getPos()] = info.getImage();
+      }
+    }
+    // The map uses the identity of each layer's graph, so that the pyramids of layers which no
+    // longer exist, or are not read, are dropped along with them. Only the previewed layer and
+    // the visible layers of it's size, whose levels line up with it's own, are read
+    Map<FixedSizeGraph, ImagePyramid> kept = new IdentityHashMap<FixedSizeGraph, ImagePyramid>();
+    kept.put(target, this.keptPyramid(target));
+    for (FixedSizeGraph graph : ordered) {
+      if (graph != null && graph.getWidth() == target.getWidth()
+          && graph.getHeight() == target.getHeight()) {
+        kept.put(graph, this.keptPyramid(graph));
+      }
+    }
+    this.pyramids = kept;
+
+    ImagePyramid targetPyramid = this.pyramids.get(target);
+    int level = targetPyramid.chooseLevel(maxPixels);
+    int w = targetPyramid.getLevelWidth(level);
+    int h = targetPyramid.getLevelHeight(level);
+    GraphOfPixels mutated = targetPyramid.copyLevel(level);
+    mutated.applyMutator(mutator);
+
+    int[] blended = new int[w * h];
+    int[] layer = new int[w * h];
+    for (FixedSizeGraph graph : ordered) {
+      ImagePyramid pyramid = graph == null ? null : this.pyramids.get(graph);
+      if (pyramid == null) {
+        continue;
+      }
+      if (graph == target) {
+        mutated.readPixels(0, 0, w, h, layer);
+      } else {
+        pyramid.readLevel(level, 0, 0, w, h, layer);
+      }
+      for (int i = 0; i < w * h; i += 1) {
+        if ((blended[i] >>> 24) == 0 && (layer[i] >>> 24) != 0) {
+          blended[i] = layer[i];
+        }
+      }
+    }
+    BufferedImage preview = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+    preview.getRaster().setDataElements(0, 0, w, h, blended);
+    return preview;
+  }
+
+  /**
+   * Returns the pyramid kept from an earlier preview for the given layer's graph, or a new one if
+   * none was kept.
+   *
+   * @param graph The graph of the layer
+   * @return The pyramid of the graph
+   */
+  private ImagePyramid keptPyramid(FixedSizeGraph graph) {
+    ImagePyramid pyramid = null;
+    if (this.pyramids != null) {
+      pyramid = this.pyramids.get(graph);
+    }
+    if (pyramid == null) {
+      pyramid = new ImagePyramid(graph);
+    }
+    return pyramid;
+  }
+
+  @Override
+  public Rectangle getChangedRegion() {
+    if (this.lastChanged == null) {
+      return new Rectangle(0, 0, this.width, this.height);
+    }
+    return new Rectangle(this.lastChanged);
   }
 
   @Override
@@ -416,6 +642,9 @@ public class LayeredImageV0 implements LayeredImage {
     private final FixedSizeGraph image;
     private int pos;
     private boolean visibility;
+    private File savedFile;
+    private long savedTime;
+    private long savedCount;
 
     /**
      * Constructs a new LayerData about the given image, at the given position, that is initially
@@ -499,6 +728,31 @@ public class LayeredImageV0 implements LayeredImage {
       this.visibility = newVisibility;
     }
 
+    /**
+     * Records that the image of this layer is now held, as it is, in the png file of the given
+     * name.
+     *
+     * @param fileName The name of the file, without it's extension
+     */
+    void setSaved(String fileName) {
+      this.savedFile = new File(fileName + ".png").getAbsoluteFile();
+      this.savedTime = this.savedFile.lastModified();
+      this.savedCount = this.image.getModificationCount();
+    }
+
+    /**
+     * Returns whether the png file of the given name still holds the image of this layer, as it was
+     * last saved to or loaded from that file and neither the file nor the image has changed since.
+     *
+     * @param fileName The name of the file, without it's extension
+     * @return Whether the file holds this layer's image
+     */
+    boolean isSaved(String fileName) {
+      File file = new File(fileName + ".png").getAbsoluteFile();
+      return file.equals(this.savedFile) && file.lastModified() == this.savedTime
+          && this.savedTime != 0 && this.image.getChangedRegion(this.savedCount).isEmpty();
+    }
+
 
   }
 }
@@ -1,6 +1,8 @@
 package layeredimage;
 
 import imageasgraph.FixedSizeGraph;
+import imageasgraph.ImagePyramid;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.util.List;
 
@@ -23,4 +25,23 @@ public interface ViewModel extends Iterable<FixedSizeGraph> {
    * @return The conversion of the blended layers from a graph of pixels to a BufferedImage
    */
   BufferedImage getImageRepresentation();
+
+  /**
+   * Returns the region of the image given by the latest call to getImageRepresentation which may
+   * differ from what the call before it gave, so that a GUI need only draw that region again. The
+   * whole image is given if the two calls gave different images.
+   *
+   * @return The changed region, which is empty if nothing changed
+   */
+  Rectangle getChangedRegion();
+
+  /**
+   * Returns an image pyramid of the image given by the latest call to getImageRepresentation, so
+   * that a GUI can show it at a lower resolution without shrinking all of it. The same pyramid is
+   * given while the same image is shown, and only the regions of it's levels under the changed
+   * region are worked out again when they are next read.
+   *
+   * @return The pyramid of the shown image
+   */
+  ImagePyramid getImagePyramid();
 }
@@ -3,6 +3,14 @@ package layeredimage.blend;
 import imageasgraph.FixedSizeGraph;
 import imageasgraph.GraphOfPixels;
 import imageasgraph.ImageToGraphConverter;
+import imageasgraph.Utils;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import layeredimage.LayeredImage;
 
 /**
@@ -33,12 +41,103 @@ public abstract class AbstractBlend implements Blend {
     return toReturn;
   }
 
+  /**
+   * Blends each of the given bands of rows and writes it into the given output, using the given
+   * number of threads. The bands only read, and are all written to the output by the calling
+   * thread, in order, since a graph is not safe to change from several threads at once.
+   *
+   * @param output      The output image for the blended layers
+   * @param bands       The bands which make up the output, each of which gives it's blended rows
+   * @param parallelism The number of threads to use
+   * @throws CancellationException If the calling thread is interrupted while waiting for the
+   *                               bands, which leaves it interrupted
+   */
+  protected static void blendBands(GraphOfPixels output, List<? extends Band> bands,
+      int parallelism) throws CancellationException {
+    if (parallelism == 1 || bands.size() == 1) {
+      for (Band band : bands) {
+        output.writePixels(0, band.top, output.getWidth(), band.rows, band.call());
+      }
+      return;
+    }
+    ForkJoinPool pool = Utils.getPool(parallelism);
+    try {
+      for (int first = 0; first < bands.size(); first += parallelism) {
+        List<Band> window = new ArrayList<Band>(
+            bands.subList(first, Math.min(bands.size(), first + parallelism)));
+        List<Future<int[]>> results = pool.invokeAll(window);
+        for (int i = 0; i < window.size(); i += 1) {
+          output.writePixels(0, window.get(i).top, output.getWidth(), window.get(i).rows,
+              results.get(i).get());
+        }
+      }
+    } catch (InterruptedException e) {
+      // Waiting cleared the interrupt, which the caller should still see
+      Thread.currentThread().interrupt();
+      throw new CancellationException("Cancelled");
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IllegalArgumentException("Blend failed");
+    }
+  }
+
   /**
    * Gets all valid blend types for combing the layers of a LayeredImage.
    *
    * @return A List of String represents valid blend methods
    */
   public static String[] getBlendTypes() {
-    return new String[]{"basic"};
+    BlendMode[] modes = BlendMode.values();
+    String[] types = new String[modes.length + 1];
+    types[0] = "basic";
+    for (int i = 0; i < modes.length; i += 1) {
+      types[i + 1] = modes[i].name();
+    }
+    return types;
+  }
+
+  /**
+   * Creates a blend of the given type, one of those given by getBlendTypes, which uses the given
+   * number of threads.
+   *
+   * @param blendType   The type of blend
+   * @param parallelism The number of threads to use
+   * @return The created blend
+   * @throws IllegalArgumentException If the type is null or not supported, or the parallelism is
+   *                                  not positive
+   */
+  public static Blend createBlend(String blendType, int parallelism)
+      throws IllegalArgumentException {
+    if ("basic".equals(blendType)) {
+      return new BasicBlend(parallelism);
+    }
+    return new ModeBlend(BlendMode.convertString(blendType), parallelism);
+  }
+
+  /**
+   * Represents the blending of one band of whole rows of an image, which only reads the layers
+   * and the output, and gives back the blended rows packed as readPixels gives them, so that bands
+   * can be blended on any thread.
+   */
+  protected abstract static class Band implements Callable<int[]> {
+
+    protected final int top;
+    protected final int rows;
+
+    /**
+     * Constructs the blending of the given rows.
+     *
+     * @param top  The y coordinate of the first row of the band
+     * @param rows The number of rows in the band
+     */
+    protected Band(int top, int rows) {
+      this.top = top;
+      this.rows = rows;
+    }
+
+    @Override
+    public abstract int[] call();
   }
 }
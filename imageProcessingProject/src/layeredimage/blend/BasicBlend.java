@@ -3,23 +3,87 @@ package layeredimage.blend;
 import imageasgraph.FixedSizeGraph;
 import imageasgraph.GraphOfPixels;
 import imageasgraph.Node;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import layeredimage.LayeredImage;
 import pixel.SimplePixel;
 
 /**
  * Blends the layers of an image together in a basic way, showing all colors at 100% opacity unless
- * they have 0 opacity, from the top layer down.
+ * they have 0 opacity, from the top layer down. The image is blended a square tile at a time, from
+ * the top layer down, and a tile stops going down through the layers as soon as every pixel of it
+ * shows something, so layers hidden beneath opaque ones are never read. Tiles of a layer known to
+ * be entirely transparent are skipped without being read, and bands of tiles can be blended by
+ * several threads at once.
  */
 public class BasicBlend extends AbstractBlend {
 
+  private static final int tileSize = 64;
+
+  private final int parallelism;
+
+  /**
+   * Constructs a blend which blends on the calling thread.
+   */
+  public BasicBlend() {
+    this.parallelism = 1;
+  }
+
+  /**
+   * Constructs a blend which shares the bands of tiles of an image between the given number of
+   * threads. The result is always the same as blending on one thread.
+   *
+   * @param parallelism The number of threads to use
+   * @throws IllegalArgumentException If the parallelism is not positive
+   */
+  public BasicBlend(int parallelism) throws IllegalArgumentException {
+    if (parallelism <= 0) {
+      throw new IllegalArgumentException("Parallelism must be positive");
+    }
+    this.parallelism = parallelism;
+  }
+
   @Override
   protected void combineLayers(LayeredImage original, GraphOfPixels output)
       throws IllegalArgumentException {
     if (original == null || output == null) {
       throw new IllegalArgumentException("One or more inputs are null");
     }
+    List<FixedSizeGraph> visible = new ArrayList<FixedSizeGraph>();
+    int layerCounter = 0;
+    for (FixedSizeGraph layer : original) {
+      if (original.getVisibility(layerCounter)) {
+        if (layer.getWidth() != output.getWidth() || layer.getHeight() != output.getHeight()) {
+          this.combineInOrder(original, output);
+          return;
+        }
+        visible.add(layer);
+      }
+      layerCounter += 1;
+    }
+    if (visible.isEmpty()) {
+      return;
+    }
+    TileCoverage[] coverage = new TileCoverage[visible.size()];
+    for (int i = 0; i < coverage.length; i += 1) {
+      coverage[i] = TileCoverage.of(visible.get(i), tileSize);
+    }
+    List<BandBlend> bands = new ArrayList<BandBlend>();
+    for (int top = 0; top < output.getHeight(); top += tileSize) {
+      bands.add(new BandBlend(visible, coverage, output, top));
+    }
+    AbstractBlend.blendBands(output, bands, this.parallelism);
+  }
 
+  /**
+   * Blends the given layers into the given output by walking every layer in full alongside the
+   * output, which is only needed when some layer is not the size of the output.
+   *
+   * @param original The original source of all of the layers
+   * @param output   The output image for the blended layers
+   */
+  private void combineInOrder(LayeredImage original, GraphOfPixels output) {
     int layerCounter = 0;
     for (FixedSizeGraph layer : original) {
       if (original.getVisibility(layerCounter)) {
@@ -40,6 +104,106 @@ public class BasicBlend extends AbstractBlend {
       }
       layerCounter += 1;
     }
+  }
+
+  /**
+   * Represents the blending of one band of tiles of an image, a tile at a time.
+   */
+  private static class BandBlend extends Band {
+
+    private final List<FixedSizeGraph> layers;
+    private final TileCoverage[] coverage;
+    private final FixedSizeGraph output;
+
+    /**
+     * Constructs the blending of the band of tiles starting at the given row.
+     *
+     * @param layers   The visible layers, from the top layer down, all the size of the output
+     * @param coverage What is known about the tiles of each of those layers
+     * @param output   The output image, whose pixels which are not transparent are kept
+     * @param top      The y coordinate of the first row of the band
+     */
+    BandBlend(List<FixedSizeGraph> layers, TileCoverage[] coverage, FixedSizeGraph output,
+        int top) {
+      super(top, Math.min(tileSize, output.getHeight() - top));
+      this.layers = layers;
+      this.coverage = coverage;
+      this.output = output;
+    }
 
+    /**
+     * Returns the blended rows of this band, packed as readPixels gives them. Each pixel which is
+     * transparent in the output is given the first pixel below it which is not transparent, and
+     * is cleared to 0 if every layer is transparent there.
+     *
+     * @return The blended rows
+     */
+    @Override
+    public int[] call() {
+      int width = this.output.getWidth();
+      int[] blended = new int[width * this.rows];
+      this.output.readPixels(0, this.top, width, this.rows, blended);
+      int[] tile = new int[tileSize * this.rows];
+      for (int left = 0; left < width; left += tileSize) {
+        int tileWidth = Math.min(tileSize, width - left);
+        int unresolved = 0;
+        for (int row = 0; row < this.rows; row += 1) {
+          for (int i = row * width + left; i < row * width + left + tileWidth; i += 1) {
+            if ((blended[i] >>> 24) == 0) {
+              blended[i] = 0;
+              unresolved += 1;
+            }
+          }
+        }
+        for (int layer = 0; layer < this.layers.size() && unresolved > 0; layer += 1) {
+          unresolved = this.blendTile(layer, left, tileWidth, tile, blended, unresolved);
+        }
+      }
+      return blended;
+    }
+
+    /**
+     * Gives every transparent pixel of the given tile of the band the pixel of the given layer
+     * beneath it, unless the layer is known to be transparent across the whole tile, and records
+     * what is learned about that tile of the layer.
+     *
+     * @param layer      The index of the layer
+     * @param left       The x coordinate of the left edge of the tile
+     * @param tileWidth  The width of the tile
+     * @param tile       An array to read the layer's tile into
+     * @param blended    The blended rows of the band so far
+     * @param unresolved The number of transparent pixels in the tile
+     * @return The number of transparent pixels left in the tile
+     */
+    private int blendTile(int layer, int left, int tileWidth, int[] tile, int[] blended,
+        int unresolved) {
+      int tileX = left / tileSize;
+      int tileY = this.top / tileSize;
+      byte state = this.coverage[layer].getState(tileX, tileY);
+      if (state == TileCoverage.transparent) {
+        return unresolved;
+      }
+      this.layers.get(layer).readPixels(left, this.top, tileWidth, this.rows, tile);
+      int width = this.output.getWidth();
+      int shown = 0;
+      for (int row = 0; row < this.rows; row += 1) {
+        int start = row * width + left;
+        for (int col = 0; col < tileWidth; col += 1) {
+          int argb = tile[row * tileWidth + col];
+          if ((argb >>> 24) != 0) {
+            shown += 1;
+            if (blended[start + col] == 0) {
+              blended[start + col] = argb;
+              unresolved -= 1;
+            }
+          }
+        }
+      }
+      if (state == TileCoverage.unknown) {
+        this.coverage[layer].setState(tileX, tileY, shown == 0 ? TileCoverage.transparent
+            : shown == tileWidth * this.rows ? TileCoverage.opaque : TileCoverage.mixed);
+      }
+      return unresolved;
+    }
   }
 }
@@ -0,0 +1,112 @@
+package layeredimage.blend;
+
+/**
+ * Represents a way of mixing the color of a layer with the color of the layers beneath it, where
+ * both are not transparent. Each mode mixes every color value on it's own, and the mixed color is
+ * then composited over the layers beneath according to the opacities of both, so that a partly
+ * transparent layer lets the layers beneath show through it. An over mode simply takes the color
+ * of the layer, which is plain alpha compositing.
+ */
+public enum BlendMode {
+  over {
+    @Override
+    int mix(int backdrop, int source) {
+      return source;
+    }
+  },
+  multiply {
+    @Override
+    int mix(int backdrop, int source) {
+      return BlendMode.product(backdrop, source);
+    }
+  },
+  screen {
+    @Override
+    int mix(int backdrop, int source) {
+      return backdrop + source - BlendMode.product(backdrop, source);
+    }
+  },
+  overlay {
+    @Override
+    int mix(int backdrop, int source) {
+      if (backdrop < 128) {
+        return BlendMode.product(source, 2 * backdrop);
+      }
+      int doubled = 2 * backdrop - 255;
+      return source + doubled - BlendMode.product(source, doubled);
+    }
+  },
+  darken {
+    @Override
+    int mix(int backdrop, int source) {
+      return Math.min(backdrop, source);
+    }
+  },
+  lighten {
+    @Override
+    int mix(int backdrop, int source) {
+      return Math.max(backdrop, source);
+    }
+  },
+  add {
+    @Override
+    int mix(int backdrop, int source) {
+      return Math.min(255, backdrop + source);
+    }
+  };
+
+  /**
+   * Mixes one color value of a layer with the same value of the layers beneath it.
+   *
+   * @param backdrop The value of the layers beneath, from 0 to 255
+   * @param source   The value of the layer, from 0 to 255
+   * @return The mixed value, from 0 to 255
+   */
+  abstract int mix(int backdrop, int source);
+
+  /**
+   * Returns every value this mode mixes, indexed by the backdrop value times 256 plus the source
+   * value, so that a blend can look each one up rather than compute it.
+   *
+   * @return The table of mixed values
+   */
+  byte[] createTable() {
+    byte[] table = new byte[256 * 256];
+    for (int backdrop = 0; backdrop < 256; backdrop += 1) {
+      for (int source = 0; source < 256; source += 1) {
+        table[backdrop << 8 | source] = (byte) this.mix(backdrop, source);
+      }
+    }
+    return table;
+  }
+
+  /**
+   * Given the name of a blend mode as a String, converts it to the corresponding mode.
+   *
+   * @param toConvert The name of the mode
+   * @return The mode of that name
+   * @throws IllegalArgumentException If null input or the name is not that of a mode
+   */
+  public static BlendMode convertString(String toConvert) throws IllegalArgumentException {
+    if (toConvert == null) {
+      throw new IllegalArgumentException("Null input");
+    }
+    for (BlendMode mode : BlendMode.values()) {
+      if (mode.name().equals(toConvert)) {
+        return mode;
+      }
+    }
+    throw new IllegalArgumentException("Unsupported blend type");
+  }
+
+  /**
+   * Returns the product of the two given values, each scaled from 0 to 255, rounded.
+   *
+   * @param first  The first value
+   * @param second The second value
+   * @return The rounded product, from 0 to 255
+   */
+  private static int product(int first, int second) {
+    return (first * second + 127) / 255;
+  }
+}
@@ -0,0 +1,229 @@
+package layeredimage.blend;
+
+import imageasgraph.FixedSizeGraph;
+import imageasgraph.GraphOfPixels;
+import java.util.ArrayList;
+import java.util.List;
+import layeredimage.LayeredImage;
+
+/**
+ * Blends the layers of an image together by compositing each visible layer over the layers beneath
+ * it, from the bottom layer up, according to the opacity of both, mixing their colors with a blend
+ * mode. Unlike a basic blend, a layer which is partly transparent lets what is beneath it show
+ * through. The image is blended a band of rows at a time, reading each layer's band as packed
+ * values and compositing it over the band beneath in one pass, and as an over blend is not changed
+ * by anything beneath an opaque pixel, it only reads layers until every pixel of a band is covered.
+ * Parts of the image outside a layer of another size are transparent in that layer.
+ */
+public class ModeBlend extends AbstractBlend {
+
+  private static final int bandPixels = 1 << 14;
+
+  private final BlendMode mode;
+  private final byte[] table;
+  private final int parallelism;
+
+  /**
+   * Constructs a blend with the given mode which blends on the calling thread.
+   *
+   * @param mode The mode which mixes the colors of each layer with those beneath
+   * @throws IllegalArgumentException If the mode is null
+   */
+  public ModeBlend(BlendMode mode) throws IllegalArgumentException {
+    this(mode, 1);
+  }
+
+  /**
+   * Constructs a blend with the given mode which shares the bands of an image between the given
+   * number of threads. The result is always the same as blending on one thread.
+   *
+   * @param mode        The mode which mixes the colors of each layer with those beneath
+   * @param parallelism The number of threads to use
+   * @throws IllegalArgumentException If the mode is null or the parallelism is not positive
+   */
+  public ModeBlend(BlendMode mode, int parallelism) throws IllegalArgumentException {
+    if (mode == null) {
+      throw new IllegalArgumentException("Null mode");
+    }
+    if (parallelism <= 0) {
+      throw new IllegalArgumentException("Parallelism must be positive");
+    }
+    this.mode = mode;
+    this.table = mode.createTable();
+    this.parallelism = parallelism;
+  }
+
+  @Override
+  protected void combineLayers(LayeredImage original, GraphOfPixels output)
+      throws IllegalArgumentException {
+    if (original == null || output == null) {
+      throw new IllegalArgumentException("One or more inputs are null");
+    }
+    List<FixedSizeGraph> visible = new ArrayList<FixedSizeGraph>();
+    int layerCounter = 0;
+    for (FixedSizeGraph layer : original) {
+      if (original.getVisibility(layerCounter)) {
+        visible.add(layer);
+      }
+      layerCounter += 1;
+    }
+    if (visible.isEmpty()) {
+      return;
+    }
+    int rows = Math.max(1, bandPixels / output.getWidth());
+    List<ModeBand> bands = new ArrayList<ModeBand>();
+    for (int top = 0; top < output.getHeight(); top += rows) {
+      bands.add(new ModeBand(this, visible, output.getWidth(), top,
+          Math.min(rows, output.getHeight() - top)));
+    }
+    AbstractBlend.blendBands(output, bands, this.parallelism);
+  }
+
+  /**
+   * Composites the given packed pixels of a layer over the given packed pixels beneath it, in
+   * place. Where the layer is transparent the pixel beneath is kept, and where nothing is beneath
+   * the pixel of the layer is taken. Elsewhere each color is the mix of both weighted by how much
+   * of the pixel both cover, plus each one's own color weighted by how much only it covers, and the
+   * opacity is that of the layer plus that of what is beneath where the layer does not cover it.
+   *
+   * @param backdrop The pixels beneath, which are replaced by the composited pixels
+   * @param source   The pixels of the layer
+   */
+  private void composite(int[] backdrop, int[] source) {
+    boolean over = this.mode == BlendMode.over;
+    byte[] table = this.table;
+    for (int i = 0; i < backdrop.length; i += 1) {
+      int s = source[i];
+      int sourceAlpha = s >>> 24;
+      if (sourceAlpha == 0) {
+        continue;
+      }
+      int b = backdrop[i];
+      int backdropAlpha = b >>> 24;
+      if (backdropAlpha == 0 || (over && sourceAlpha == 255)) {
+        backdrop[i] = s;
+        continue;
+      }
+      int sourceRed = s >> 16 & 0xFF;
+      int sourceGreen = s >> 8 & 0xFF;
+      int sourceBlue = s & 0xFF;
+      int backdropRed = b >> 16 & 0xFF;
+      int backdropGreen = b >> 8 & 0xFF;
+      int backdropBlue = b & 0xFF;
+      int mixedRed = sourceRed;
+      int mixedGreen = sourceGreen;
+      int mixedBlue = sourceBlue;
+      if (!over) {
+        mixedRed = table[backdropRed << 8 | sourceRed] & 0xFF;
+        mixedGreen = table[backdropGreen << 8 | sourceGreen] & 0xFF;
+        mixedBlue = table[backdropBlue << 8 | sourceBlue] & 0xFF;
+      }
+      int argb;
+      if (backdropAlpha == 255) {
+        // Over an opaque pixel only the mix and the pixel beneath are weighted, by 255 in all
+        int beneath = 255 - sourceAlpha;
+        argb = 0xFF000000
+            | (sourceAlpha * mixedRed + beneath * backdropRed + 127) / 255 << 16
+            | (sourceAlpha * mixedGreen + beneath * backdropGreen + 127) / 255 << 8
+            | (sourceAlpha * mixedBlue + beneath * backdropBlue + 127) / 255;
+      } else {
+        // Each weight is scaled by 255 squared, so their total is the opacity scaled by 255
+        int sourceOnly = sourceAlpha * (255 - backdropAlpha);
+        int both = sourceAlpha * backdropAlpha;
+        int backdropOnly = (255 - sourceAlpha) * backdropAlpha;
+        int total = sourceOnly + both + backdropOnly;
+        // One division per pixel, rather than one per color, as dividing is slow
+        double reciprocal = 1.0 / total;
+        argb = (total + 127) / 255 << 24
+            | (int) ((sourceOnly * sourceRed + both * mixedRed + backdropOnly * backdropRed)
+            * reciprocal + 0.5) << 16
+            | (int) ((sourceOnly * sourceGreen + both * mixedGreen + backdropOnly * backdropGreen)
+            * reciprocal + 0.5) << 8
+            | (int) ((sourceOnly * sourceBlue + both * mixedBlue + backdropOnly * backdropBlue)
+            * reciprocal + 0.5);
+      }
+      backdrop[i] = argb;
+    }
+  }
+
+  /**
+   * Represents the blending of one band of rows of an image.
+   */
+  private static class ModeBand extends Band {
+
+    private final ModeBlend blend;
+    private final List<FixedSizeGraph> layers;
+    private final int width;
+
+    /**
+     * Constructs the blending of the given rows of the given layers.
+     *
+     * @param blend  The blend this band is a part of
+     * @param layers The visible layers, from the top layer down
+     * @param width  The width of the image
+     * @param top    The y coordinate of the first row of the band
+     * @param rows   The number of rows in the band
+     */
+    ModeBand(ModeBlend blend, List<FixedSizeGraph> layers, int width, int top, int rows) {
+      super(top, rows);
+      this.blend = blend;
+      this.layers = layers;
+      this.width = width;
+    }
+
+    /**
+     * Returns the blended rows of this band, where pixels no layer covers have every value be 0.
+     *
+     * @return The blended rows
+     */
+    @Override
+    public int[] call() {
+      List<int[]> read = new ArrayList<int[]>();
+      boolean[] covered = new boolean[this.width * this.rows];
+      int uncovered = covered.length;
+      for (int i = 0; i < this.layers.size() && uncovered > 0; i += 1) {
+        int[] pixels = this.readBand(this.layers.get(i));
+        read.add(pixels);
+        if (this.blend.mode == BlendMode.over) {
+          for (int j = 0; j < pixels.length; j += 1) {
+            if (!covered[j] && pixels[j] >>> 24 == 255) {
+              covered[j] = true;
+              uncovered -= 1;
+            }
+          }
+        }
+      }
+      int[] blended = new int[this.width * this.rows];
+      for (int i = read.size() - 1; i >= 0; i -= 1) {
+        this.blend.composite(blended, read.get(i));
+      }
+      return blended;
+    }
+
+    /**
+     * Reads the rows of this band from the given layer, where the parts of the band outside the
+     * layer are transparent.
+     *
+     * @param layer The layer to be read
+     * @return The packed pixels of the band
+     */
+    private int[] readBand(FixedSizeGraph layer) {
+      int[] pixels = new int[this.width * this.rows];
+      int readWidth = Math.min(this.width, layer.getWidth());
+      int readRows = Math.min(this.rows, layer.getHeight() - this.top);
+      if (readWidth <= 0 || readRows <= 0) {
+        return pixels;
+      }
+      if (readWidth == this.width) {
+        layer.readPixels(0, this.top, readWidth, readRows, pixels);
+        return pixels;
+      }
+      int[] part = new int[readWidth * readRows];
+      layer.readPixels(0, this.top, readWidth, readRows, part);
+      for (int row = 0; row < readRows; row += 1) {
+        System.arraycopy(part, row * readWidth, pixels, row * this.width, readWidth);
+      }
+      return pixels;
+    }
+  }
+}
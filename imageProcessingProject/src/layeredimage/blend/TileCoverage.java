@@ -0,0 +1,111 @@
+package layeredimage.blend;
+
+import imageasgraph.FixedSizeGraph;
+import java.awt.Rectangle;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Remembers, for each square tile of a layer, whether every pixel of it is transparent, none of
+ * them are, or it holds both, so that blending can skip reading a tile which shows nothing. What is
+ * known about a layer is kept between blends for as long as the layer exists, and only the tiles
+ * within the region the layer reports as changed since are forgotten. A tile is only learned about
+ * once it has been read.
+ */
+class TileCoverage {
+  // INVARIANT: states holds one state for each tile of a layer of the given width and height, in
+  // row-major order, which is correct for that layer as of the modification count given by count,
+  // or is unknown.
+
+  static final byte unknown = 0;
+  static final byte mixed = 1;
+  static final byte transparent = 2;
+  static final byte opaque = 3;
+
+  private static final Map<FixedSizeGraph, TileCoverage> known =
+      new WeakHashMap<FixedSizeGraph, TileCoverage>();
+
+  private final int width;
+  private final int height;
+  private final int tileSize;
+  private final int tilesAcross;
+  private final byte[] states;
+  private long count;
+
+  /**
+   * Constructs a new coverage of a layer of the given size, where nothing is yet known.
+   *
+   * @param width    The width of the layer
+   * @param height   The height of the layer
+   * @param tileSize The width and height of every tile but those on the right and bottom edges
+   */
+  private TileCoverage(int width, int height, int tileSize) {
+    this.width = width;
+    this.height = height;
+    this.tileSize = tileSize;
+    this.tilesAcross = (width + tileSize - 1) / tileSize;
+    this.states = new byte[this.tilesAcross * ((height + tileSize - 1) / tileSize)];
+  }
+
+  /**
+   * Returns what is known about the tiles of the given layer, forgetting whatever it's changes
+   * since it was last asked about may have made wrong.
+   *
+   * @param layer    The layer
+   * @param tileSize The width and height of every tile but those on the right and bottom edges
+   * @return The coverage of the layer
+   */
+  static synchronized TileCoverage of(FixedSizeGraph layer, int tileSize) {
+    TileCoverage coverage = known.get(layer);
+    long count = layer.getModificationCount();
+    if (coverage == null || coverage.width != layer.getWidth()
+        || coverage.height != layer.getHeight() || coverage.tileSize != tileSize) {
+      coverage = new TileCoverage(layer.getWidth(), layer.getHeight(), tileSize);
+      known.put(layer, coverage);
+    } else if (coverage.count != count) {
+      coverage.forget(layer.getChangedRegion(coverage.count));
+    }
+    coverage.count = count;
+    return coverage;
+  }
+
+  /**
+   * Forgets the state of every tile which holds part of the given region.
+   *
+   * @param region The region which has changed
+   */
+  private void forget(Rectangle region) {
+    if (region.isEmpty()) {
+      return;
+    }
+    int right = (region.x + region.width - 1) / this.tileSize;
+    int bottom = (region.y + region.height - 1) / this.tileSize;
+    for (int tileY = region.y / this.tileSize; tileY <= bottom; tileY += 1) {
+      for (int tileX = region.x / this.tileSize; tileX <= right; tileX += 1) {
+        this.states[tileY * this.tilesAcross + tileX] = unknown;
+      }
+    }
+  }
+
+  /**
+   * Returns what is known about the tile at the given tile coordinates.
+   *
+   * @param tileX The column of the tile
+   * @param tileY The row of the tile
+   * @return The state of the tile
+   */
+  byte getState(int tileX, int tileY) {
+    return this.states[tileY * this.tilesAcross + tileX];
+  }
+
+  /**
+   * Records what has been learned about the tile at the given tile coordinates by reading it.
+   *
+   * @param tileX The column of the tile
+   * @param tileY The row of the tile
+   * @param state The state of the tile
+   */
+  void setState(int tileX, int tileY, byte state) {
+    this.states[tileY * this.tilesAcross + tileX] = state;
+  }
+}
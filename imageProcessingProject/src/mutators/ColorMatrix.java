@@ -0,0 +1,84 @@
+package mutators;
+
+import imageasgraph.Utils;
+
+/**
+ * Applies a matrix to the red, green and blue values of every pixel of a graph, where each new
+ * color is the sum of the old colors each multiplied by the matching value of that color's row of
+ * the matrix - plus, for a matrix with a fourth column, that column's value as an offset.
+ * The matrix is kept as primitive doubles, so applying it creates nothing per pixel.
+ */
+public class ColorMatrix extends PointOperation {
+  // INVARIANT: coefficients holds 3 rows of 4 values, the last of each being it's offset, which is
+  // 0 if the matrix was given without offsets.
+
+  private final double[] coefficients;
+  private final boolean hasOffsets;
+
+  /**
+   * Constructs a new color matrix from the given rows, which are for red, green and blue in that
+   * order.
+   *
+   * @param matrix The rows of the matrix, each of 3 values, or of 4 values where the last is an
+   *               offset added to that color
+   * @throws IllegalArgumentException If the matrix or any row of it is null, there are not 3 rows,
+   *                                  or the rows are not all of length 3 or all of length 4
+   */
+  public ColorMatrix(double[][] matrix) throws IllegalArgumentException {
+    if (matrix == null) {
+      throw new IllegalArgumentException("Null matrix given.");
+    }
+    if (matrix.length != 3) {
+      throw new IllegalArgumentException("Color matrix must have 3 rows.");
+    }
+    for (double[] row : matrix) {
+      if (row == null) {
+        throw new IllegalArgumentException("Null matrix row given.");
+      }
+    }
+    int columns = matrix[0].length;
+    if (columns != 3 && columns != 4) {
+      throw new IllegalArgumentException("Color matrix must have 3 or 4 columns.");
+    }
+    this.coefficients = new double[12];
+    for (int row = 0; row < 3; row += 1) {
+      if (matrix[row].length != columns) {
+        throw new IllegalArgumentException("Color matrix rows must all be the same length.");
+      }
+      System.arraycopy(matrix[row], 0, this.coefficients, row * 4, columns);
+    }
+    this.hasOffsets = columns == 4;
+  }
+
+  @Override
+  public int applyToColors(int rgb) {
+    int red = (rgb >> 16) & 0xFF;
+    int green = (rgb >> 8) & 0xFF;
+    int blue = rgb & 0xFF;
+    return this.applyToRow(0, red, green, blue) << 16
+        | this.applyToRow(1, red, green, blue) << 8
+        | this.applyToRow(2, red, green, blue);
+  }
+
+  /**
+   * Computes the new value of one color, summing in the same order a matrix multiplication of a
+   * MatrixImpl does, so transformations give the same results they always have.
+   *
+   * @param row   The row of the matrix for the color being computed
+   * @param red   The old red value
+   * @param green The old green value
+   * @param blue  The old blue value
+   * @return The new value of the color, rounded and clamped
+   */
+  private int applyToRow(int row, int red, int green, int blue) {
+    int start = row * 4;
+    double value = 0.0;
+    value += this.coefficients[start] * red;
+    value += this.coefficients[start + 1] * green;
+    value += this.coefficients[start + 2] * blue;
+    if (this.hasOffsets) {
+      value += this.coefficients[start + 3];
+    }
+    return Utils.clampColor(Utils.roundDouble(value));
+  }
+}
@@ -0,0 +1,566 @@
+package mutators;
+
+import imageasgraph.FixedSizeGraph;
+import imageasgraph.Utils;
+
+/**
+ * Applies a square kernel of any odd size to every pixel of a graph, where the center of the kernel
+ * lines up with the pixel being changed and the first row of it lines up with the pixels furthest
+ * above. Pixels outside of the graph and transparent pixels count as having every color be 0, and
+ * the opacity of every pixel is left as it was.
+ *
+ * <p>The graph is processed in bands of whole rows, each read in once along with the rows around
+ * it that the kernel reaches, and each band's results are only written back once the next band has
+ * been read, so every pixel is computed from the original colors. Kernels which are the product of
+ * a single column and a single row, such as a gaussian blur, are detected and applied as a pass
+ * along each row followed by a pass down each column, which costs 2k rather than k squared
+ * multiplications per pixel for a kernel k pixels wide.
+ */
+public class Convolution extends RowOperation {
+  // INVARIANT: weights holds the kernel in row-major order from the top left, and if separable is
+  // true, every weight equals the product of the matching values of columnWeights and rowWeights.
+
+  private static final int minBandHeight = 64;
+  private static final double separableTolerance = 1e-12;
+
+  private final int radius;
+  private final int size;
+  private final double[] weights;
+  private final boolean separable;
+  private final double[] rowWeights;
+  private final double[] columnWeights;
+
+  /**
+   * Constructs a convolution which applies the given kernel.
+   *
+   * @param kernel The kernel to be applied, as rows from top to bottom, which must be square and
+   *               of odd size
+   * @throws IllegalArgumentException If the kernel or any row of it is null, or it is not square or
+   *                                  is of even size
+   */
+  public Convolution(double[][] kernel) throws IllegalArgumentException {
+    if (kernel == null) {
+      throw new IllegalArgumentException("Null kernel given.");
+    }
+    this.size = kernel.length;
+    if (this.size % 2 == 0) {
+      throw new IllegalArgumentException("Kernel must be square and of odd size.");
+    }
+    this.radius = this.size / 2;
+    this.weights = new double[this.size * this.size];
+    for (int row = 0; row < this.size; row += 1) {
+      if (kernel[row] == null) {
+        throw new IllegalArgumentException("Null kernel row given.");
+      }
+      if (kernel[row].length != this.size) {
+        throw new IllegalArgumentException("Kernel must be square and of odd size.");
+      }
+      System.arraycopy(kernel[row], 0, this.weights, row * this.size, this.size);
+    }
+    this.rowWeights = new double[this.size];
+    this.columnWeights = new double[this.size];
+    this.separable = this.factor();
+  }
+
+  /**
+   * Tries to split the kernel into a column and a row whose product it is, filling in the column
+   * and row weights if it can.
+   *
+   * @return Whether the kernel could be split
+   */
+  private boolean factor() {
+    int pivot = 0;
+    for (int i = 1; i < this.weights.length; i += 1) {
+      if (Math.abs(this.weights[i]) > Math.abs(this.weights[pivot])) {
+        pivot = i;
+      }
+    }
+    double pivotValue = this.weights[pivot];
+    if (pivotValue == 0.0) {
+      return false;
+    }
+    int pivotRow = pivot / this.size;
+    int pivotColumn = pivot % this.size;
+    for (int i = 0; i < this.size; i += 1) {
+      this.rowWeights[i] = this.weights[pivotRow * this.size + i];
+      this.columnWeights[i] = this.weights[i * this.size + pivotColumn] / pivotValue;
+    }
+    double tolerance = separableTolerance * Math.max(1.0, Math.abs(pivotValue));
+    for (int row = 0; row < this.size; row += 1) {
+      for (int col = 0; col < this.size; col += 1) {
+        double product = this.columnWeights[row] * this.rowWeights[col];
+        if (Math.abs(this.weights[row * this.size + col] - product) > tolerance) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns whether this convolution's kernel is applied as one pass along rows and one down
+   * columns.
+   *
+   * @return Whether the kernel is separable
+   */
+  public boolean isSeparable() {
+    return this.separable;
+  }
+
+  /**
+   * Returns the number of pixels this convolution's kernel reaches out in each direction.
+   *
+   * @return The radius of the kernel
+   */
+  public int getRadius() {
+    return this.radius;
+  }
+
+  /**
+   * Applies this convolution to every pixel of the given graph, on the calling thread.
+   *
+   * @param graph The graph to be changed
+   * @throws IllegalArgumentException If the graph is null
+   */
+  public void apply(FixedSizeGraph graph) throws IllegalArgumentException {
+    this.apply(graph, 1);
+  }
+
+  /**
+   * Applies this convolution to every pixel of the given graph, sharing the bands of the graph
+   * between the given number of threads. Every band is computed from the original colors whatever
+   * the parallelism, so the result is always the same as applying it on one thread.
+   *
+   * @param graph       The graph to be changed
+   * @param parallelism The number of threads to use
+   * @throws IllegalArgumentException If the graph is null, the parallelism is not positive, or the
+   *                                  rows a band needs are too many to keep in an array
+   */
+  public void apply(FixedSizeGraph graph, int parallelism) throws IllegalArgumentException {
+    if (graph == null) {
+      throw new IllegalArgumentException("Null graph given.");
+    }
+    if (parallelism <= 0) {
+      throw new IllegalArgumentException("Parallelism must be positive.");
+    }
+    int width = graph.getWidth();
+    int height = graph.getHeight();
+    if (width == 0 || height == 0) {
+      return;
+    }
+    int bandHeight = Math.max(minBandHeight, this.radius);
+    if ((long) (bandHeight + 2 * this.radius) * width > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Graph too wide for the kernel.");
+    }
+    if (parallelism == 1) {
+      this.applyInOrder(graph, bandHeight);
+    } else {
+      // Bands may finish in any order, so each is only written once those around it are computed
+      new ConvolveJob(this, graph, bandHeight).runWithheld(graph, bandHeight, parallelism);
+    }
+  }
+
+  /**
+   * Applies this convolution to the given graph one band at a time, from top to bottom, only
+   * keeping the results of two bands at once, and stopping between bands if the calling thread is
+   * interrupted.
+   *
+   * @param graph      The graph to be changed
+   * @param bandHeight The number of rows in each band
+   */
+  private void applyInOrder(FixedSizeGraph graph, int bandHeight) {
+    int width = graph.getWidth();
+    int height = graph.getHeight();
+    int inputHeight = Math.min(height, bandHeight + 2 * this.radius);
+    int[] input = new int[inputHeight * width];
+    double[][] passed = this.separable ? new double[3][inputHeight * width] : null;
+    int[][] outputs = {new int[bandHeight * width], new int[bandHeight * width]};
+    int current = 0;
+    int pendingTop = -1;
+    int pendingRows = 0;
+
+    for (int bandTop = 0; bandTop < height; bandTop += bandHeight) {
+      Utils.checkCancelled(Thread.currentThread());
+      int rows = Math.min(bandHeight, height - bandTop);
+      this.convolveBand(graph, bandTop, rows, input, passed, outputs[current], 0);
+      // Only now that the rows this band needs have been read can the band above be replaced
+      if (pendingTop >= 0) {
+        graph.writePixels(0, pendingTop, width, pendingRows, outputs[1 - current]);
+      }
+      pendingTop = bandTop;
+      pendingRows = rows;
+      current = 1 - current;
+    }
+    graph.writePixels(0, pendingTop, width, pendingRows, outputs[1 - current]);
+  }
+
+  /**
+   * Reads in the given band of the graph along with the rows around it that the kernel reaches,
+   * and puts the results of applying this convolution to the band into the given array.
+   *
+   * @param graph  The graph the band is in
+   * @param top    The y coordinate of the first row of the band
+   * @param rows   The number of rows in the band
+   * @param input  An array which can hold every row the band needs
+   * @param passed Arrays which can hold the red, green and blue values of every row the band
+   *               needs, if this convolution is separable
+   * @param output The array the new colors of the band are put into
+   * @param offset The index of output the first pixel of the band is put at
+   */
+  private void convolveBand(FixedSizeGraph graph, int top, int rows, int[] input,
+      double[][] passed, int[] output, int offset) {
+    int width = graph.getWidth();
+    int inputTop = Math.max(0, top - this.radius);
+    int inputRows = Math.min(graph.getHeight(), top + rows + this.radius) - inputTop;
+    graph.readPixels(0, inputTop, width, inputRows, input);
+    for (int i = 0; i < inputRows * width; i += 1) {
+      if ((input[i] >>> 24) == 0) {
+        input[i] = 0;
+      }
+    }
+    if (this.separable) {
+      this.passRows(input, inputRows, width, passed);
+      this.passColumns(input, passed, inputTop, inputRows, top, rows, width, output, offset);
+    } else {
+      this.applyWholeKernel(input, inputTop, inputRows, top, rows, width, output, offset);
+    }
+  }
+
+  /**
+   * Applies the whole kernel to every pixel of a band, reading from the rows of input around it.
+   *
+   * @param input     The visible colors of the rows the band needs
+   * @param inputTop  The y coordinate of the first row of input
+   * @param inputRows The number of rows of input
+   * @param bandTop   The y coordinate of the first row of the band
+   * @param rows      The number of rows in the band
+   * @param width     The width of the graph
+   * @param output    The array the new colors of the band are put into
+   * @param offset    The index of output the first pixel of the band is put at
+   */
+  private void applyWholeKernel(int[] input, int inputTop, int inputRows, int bandTop, int rows,
+      int width, int[] output, int offset) {
+    for (int y = 0; y < rows; y += 1) {
+      int inputRow = bandTop + y - inputTop;
+      for (int x = 0; x < width; x += 1) {
+        double red = 0.0;
+        double green = 0.0;
+        double blue = 0.0;
+        // Goes through the columns of the kernel from left to right, and each from top to bottom,
+        // which is the order filters have always summed in, so results do not change by rounding.
+        for (int col = 0; col < this.size; col += 1) {
+          int sampleX = x + col - this.radius;
+          if (sampleX < 0 || sampleX >= width) {
+            continue;
+          }
+          for (int row = 0; row < this.size; row += 1) {
+            int sampleRow = inputRow + row - this.radius;
+            if (sampleRow < 0 || sampleRow >= inputRows) {
+              continue;
+            }
+            double weight = this.weights[row * this.size + col];
+            int argb = input[sampleRow * width + sampleX];
+            red += weight * ((argb >> 16) & 0xFF);
+            green += weight * ((argb >> 8) & 0xFF);
+            blue += weight * (argb & 0xFF);
+          }
+        }
+        output[offset + y * width + x] =
+            Convolution.pack(input[inputRow * width + x], red, green, blue);
+      }
+    }
+  }
+
+  /**
+   * Applies the row of the kernel along every row of input.
+   *
+   * @param input     The visible colors of the rows the band needs
+   * @param inputRows The number of rows of input
+   * @param width     The width of the graph
+   * @param passed    The arrays the red, green and blue results are put into
+   */
+  private void passRows(int[] input, int inputRows, int width, double[][] passed) {
+    for (int y = 0; y < inputRows; y += 1) {
+      this.passRow(input, y * width, width, passed[0], passed[1], passed[2]);
+    }
+  }
+
+  /**
+   * Applies the row of the kernel along one row of input.
+   *
+   * @param input The visible colors of the row, and possibly others
+   * @param start The index of input the row starts at, which is also the index of the results the
+   *              red, green and blue results of the row start at
+   * @param width The width of the graph
+   * @param red   The array the red results are put into
+   * @param green The array the green results are put into
+   * @param blue  The array the blue results are put into
+   */
+  private void passRow(int[] input, int start, int width, double[] red, double[] green,
+      double[] blue) {
+    for (int x = 0; x < width; x += 1) {
+      double redSum = 0.0;
+      double greenSum = 0.0;
+      double blueSum = 0.0;
+      int from = Math.max(0, this.radius - x);
+      int to = Math.min(this.size, width - x + this.radius);
+      for (int col = from; col < to; col += 1) {
+        double weight = this.rowWeights[col];
+        int argb = input[start + x + col - this.radius];
+        redSum += weight * ((argb >> 16) & 0xFF);
+        greenSum += weight * ((argb >> 8) & 0xFF);
+        blueSum += weight * (argb & 0xFF);
+      }
+      red[start + x] = redSum;
+      green[start + x] = greenSum;
+      blue[start + x] = blueSum;
+    }
+  }
+
+  /**
+   * Applies the column of the kernel down every column of a band, reading from the results of
+   * passing the row of the kernel along the rows around it.
+   *
+   * @param input     The visible colors of the rows the band needs, for their opacity
+   * @param passed    The red, green and blue results of passing along the rows
+   * @param inputTop  The y coordinate of the first row of input
+   * @param inputRows The number of rows of input
+   * @param bandTop   The y coordinate of the first row of the band
+   * @param rows      The number of rows in the band
+   * @param width     The width of the graph
+   * @param output    The array the new colors of the band are put into
+   * @param offset    The index of output the first pixel of the band is put at
+   */
+  private void passColumns(int[] input, double[][] passed, int inputTop, int inputRows,
+      int bandTop, int rows, int width, int[] output, int offset) {
+    for (int y = 0; y < rows; y += 1) {
+      int inputRow = bandTop + y - inputTop;
+      int from = Math.max(0, this.radius - inputRow);
+      int to = Math.min(this.size, inputRows - inputRow + this.radius);
+      for (int x = 0; x < width; x += 1) {
+        double red = 0.0;
+        double green = 0.0;
+        double blue = 0.0;
+        for (int row = from; row < to; row += 1) {
+          double weight = this.columnWeights[row];
+          int index = (inputRow + row - this.radius) * width + x;
+          red += weight * passed[0][index];
+          green += weight * passed[1][index];
+          blue += weight * passed[2][index];
+        }
+        output[offset + y * width + x] =
+            Convolution.pack(input[inputRow * width + x], red, green, blue);
+      }
+    }
+  }
+
+  /**
+   * Rounds and clamps the given colors, and packs them alongside the opacity of the given pixel.
+   *
+   * @param original The packed value of the pixel being changed
+   * @param red      The new red value, before rounding
+   * @param green    The new green value, before rounding
+   * @param blue     The new blue value, before rounding
+   * @return The packed ARGB value of the changed pixel
+   */
+  private static int pack(int original, double red, double green, double blue) {
+    return original & 0xFF000000
+        | Utils.clampColor(Utils.roundDouble(red)) << 16
+        | Utils.clampColor(Utils.roundDouble(green)) << 8
+        | Utils.clampColor(Utils.roundDouble(blue));
+  }
+
+  @Override
+  RowStage createStage(int width, int height, int outputTop, int outputEnd, RowStage next) {
+    return new ConvolutionStage(this, width, height, outputTop, outputEnd, next);
+  }
+
+  /**
+   * Represents a convolution as a step of a chain, which keeps the last rows it was given in a
+   * rolling buffer of as many rows as the kernel is tall, and produces each row as soon as the last
+   * row the kernel reaches below it has been given. Rows are summed in the same order as when the
+   * whole band is in memory, so results are the same either way.
+   */
+  private static class ConvolutionStage extends RowStage {
+    // INVARIANT: the row with y coordinate y, if it is one of the last rows given, is kept in slot
+    // y modulo the size of the kernel of each rolling buffer.
+
+    private final Convolution convolution;
+    private final int width;
+    private final int height;
+    private final int outputTop;
+    private final int outputEnd;
+    private final RowStage next;
+    private final int[][] originals;
+    private final int[][] visible;
+    private final double[][][] passed;
+    private final int[] output;
+    private int received;
+
+    /**
+     * Constructs a step which applies the given convolution.
+     *
+     * @param convolution The convolution to be applied
+     * @param width       The width of every row
+     * @param height      The height of the whole graph the rows come from
+     * @param outputTop   The y coordinate of the first row to be produced
+     * @param outputEnd   The y coordinate just past the last row to be produced
+     * @param next        The step the produced rows are passed on to
+     */
+    ConvolutionStage(Convolution convolution, int width, int height, int outputTop,
+        int outputEnd, RowStage next) {
+      this.convolution = convolution;
+      this.width = width;
+      this.height = height;
+      this.outputTop = outputTop;
+      this.outputEnd = outputEnd;
+      this.next = next;
+      int size = convolution.size;
+      this.originals = new int[size][width];
+      this.visible = new int[size][width];
+      this.passed = convolution.separable ? new double[size][3][width] : null;
+      this.output = new int[width];
+      this.received = 0;
+    }
+
+    @Override
+    void push(int y, int[] row) {
+      int slot = y % this.convolution.size;
+      System.arraycopy(row, 0, this.originals[slot], 0, this.width);
+      int[] visibleRow = this.visible[slot];
+      for (int x = 0; x < this.width; x += 1) {
+        visibleRow[x] = (row[x] >>> 24) == 0 ? 0 : row[x];
+      }
+      if (this.passed != null) {
+        double[][] passedRow = this.passed[slot];
+        this.convolution.passRow(visibleRow, 0, this.width, passedRow[0], passedRow[1],
+            passedRow[2]);
+      }
+      this.received = y + 1;
+      int ready = y - this.convolution.radius;
+      if (ready >= this.outputTop && ready < this.outputEnd) {
+        this.produce(ready);
+      }
+    }
+
+    @Override
+    void finish() {
+      // Only rows near the bottom of the graph are left, which reach no further rows
+      for (int y = Math.max(this.outputTop, this.received - this.convolution.radius);
+          y < this.outputEnd; y += 1) {
+        this.produce(y);
+      }
+      this.next.finish();
+    }
+
+    /**
+     * Computes the row with the given y coordinate from the rows around it, and passes it on.
+     *
+     * @param y The y coordinate of the row
+     */
+    private void produce(int y) {
+      if (this.passed != null) {
+        this.passColumns(y);
+      } else {
+        this.applyWholeKernel(y);
+      }
+      this.next.push(y, this.output);
+    }
+
+    /**
+     * Applies the whole kernel to every pixel of the given row.
+     *
+     * @param y The y coordinate of the row
+     */
+    private void applyWholeKernel(int y) {
+      int size = this.convolution.size;
+      int radius = this.convolution.radius;
+      int[] original = this.originals[y % size];
+      for (int x = 0; x < this.width; x += 1) {
+        double red = 0.0;
+        double green = 0.0;
+        double blue = 0.0;
+        for (int col = 0; col < size; col += 1) {
+          int sampleX = x + col - radius;
+          if (sampleX < 0 || sampleX >= this.width) {
+            continue;
+          }
+          for (int row = 0; row < size; row += 1) {
+            int sampleY = y + row - radius;
+            if (sampleY < 0 || sampleY >= this.height) {
+              continue;
+            }
+            double weight = this.convolution.weights[row * size + col];
+            int argb = this.visible[sampleY % size][sampleX];
+            red += weight * ((argb >> 16) & 0xFF);
+            green += weight * ((argb >> 8) & 0xFF);
+            blue += weight * (argb & 0xFF);
+          }
+        }
+        this.output[x] = Convolution.pack(original[x], red, green, blue);
+      }
+    }
+
+    /**
+     * Applies the column of the kernel down every column of the given row, reading from the
+     * results of passing the row of the kernel along the rows around it.
+     *
+     * @param y The y coordinate of the row
+     */
+    private void passColumns(int y) {
+      int size = this.convolution.size;
+      int radius = this.convolution.radius;
+      int[] original = this.originals[y % size];
+      int from = Math.max(0, radius - y);
+      int to = Math.min(size, this.height - y + radius);
+      for (int x = 0; x < this.width; x += 1) {
+        double red = 0.0;
+        double green = 0.0;
+        double blue = 0.0;
+        for (int row = from; row < to; row += 1) {
+          double weight = this.convolution.columnWeights[row];
+          double[][] passedRow = this.passed[(y + row - radius) % size];
+          red += weight * passedRow[0][x];
+          green += weight * passedRow[1][x];
+          blue += weight * passedRow[2][x];
+        }
+        this.output[x] = Convolution.pack(original[x], red, green, blue);
+      }
+    }
+  }
+
+  /**
+   * Represents applying a convolution to the bands of a graph, each with it's own scratch arrays
+   * so bands can be computed at the same time, with each result put into the array of it's band.
+   */
+  private static class ConvolveJob extends RowBandJob {
+
+    private final Convolution convolution;
+    private final FixedSizeGraph graph;
+    private final int bandHeight;
+
+    /**
+     * Constructs the job of applying the given convolution to the given graph.
+     *
+     * @param convolution The convolution to be applied
+     * @param graph       The graph it is applied to, which is only read from by the bands
+     * @param bandHeight  The greatest number of rows in any band
+     */
+    ConvolveJob(Convolution convolution, FixedSizeGraph graph, int bandHeight) {
+      this.convolution = convolution;
+      this.graph = graph;
+      this.bandHeight = bandHeight;
+    }
+
+    @Override
+    void applyToBand(int top, int rows) {
+      int width = this.graph.getWidth();
+      int inputRows = Math.min(this.graph.getHeight(),
+          this.bandHeight + 2 * this.convolution.radius);
+      int inputSize = inputRows * width;
+      double[][] passed = this.convolution.separable ? new double[3][inputSize] : null;
+      this.convolution.convolveBand(this.graph, top, rows, new int[inputSize], passed,
+          this.getOutput(top), 0);
+    }
+  }
+}
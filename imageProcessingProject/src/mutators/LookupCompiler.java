@@ -0,0 +1,70 @@
+package mutators;
+
+import java.util.ArrayList;
+import java.util.List;
+import mutators.Mutator.AbstractLookupTransformation;
+import mutators.Mutator.LookupTransform;
+
+/**
+ * Compiles chains of mutators, collapsing each run of consecutive lookup table transformations into
+ * one transformation with a single composed table, so that a chain such as brighten, gamma and
+ * invert reads and writes each pixel once however long it is.
+ */
+public class LookupCompiler {
+
+  /**
+   * Returns a list of mutators with the same effect as applying the given ones in order, where
+   * every run of two or more consecutive lookup table transformations is replaced by one. Other
+   * mutators are kept as they are, in the same order.
+   *
+   * @param mutators The mutators to be compiled, in the order they are applied
+   * @return The compiled mutators
+   * @throws IllegalArgumentException If the list or any of it's mutators are null
+   */
+  public static List<Mutator> compile(List<Mutator> mutators) throws IllegalArgumentException {
+    if (mutators == null) {
+      throw new IllegalArgumentException("Null mutators given.");
+    }
+    List<Mutator> compiled = new ArrayList<Mutator>();
+    LookupTable pending = null;
+    Mutator pendingMutator = null;
+    for (Mutator m : mutators) {
+      if (m == null) {
+        throw new IllegalArgumentException("Null mutator given.");
+      }
+      if (m instanceof AbstractLookupTransformation) {
+        LookupTable table = ((AbstractLookupTransformation) m).getTable();
+        if (pending == null) {
+          pending = table;
+          pendingMutator = m;
+        } else {
+          pending = pending.then(table);
+          pendingMutator = null;
+        }
+        continue;
+      }
+      LookupCompiler.addPending(compiled, pending, pendingMutator);
+      pending = null;
+      pendingMutator = null;
+      compiled.add(m);
+    }
+    LookupCompiler.addPending(compiled, pending, pendingMutator);
+    return compiled;
+  }
+
+  /**
+   * Adds the run of lookup table transformations being collapsed, if there is one, to the given
+   * list - as the only transformation in the run if there was just one, so it is not rebuilt.
+   *
+   * @param compiled       The list of compiled mutators
+   * @param pending        The composed table of the run, or null if there is no run
+   * @param pendingMutator The only transformation in the run, or null if it had more than one
+   */
+  private static void addPending(List<Mutator> compiled, LookupTable pending,
+      Mutator pendingMutator) {
+    if (pending == null) {
+      return;
+    }
+    compiled.add(pendingMutator == null ? new LookupTransform(pending) : pendingMutator);
+  }
+}
@@ -0,0 +1,146 @@
+package mutators;
+
+/**
+ * Changes the red, green and blue values of a pixel by looking each of them up in a table of the
+ * 256 values a color can have, so that any change which treats each color on it's own - brightness,
+ * gamma, levels, inverting or any other curve - costs the same single lookup per color. Tables can
+ * be composed into one, so a chain of such changes still costs one lookup.
+ */
+public class LookupTable extends PointOperation {
+  // INVARIANT: red, green and blue each hold 256 values, all from 0 to 255, where the value at an
+  // index is what that color becomes when it is that index. transparentColors is what a transparent
+  // pixel becomes, which is only not what black becomes once tables have been composed.
+
+  private static final int numValues = 256;
+
+  private final int[] red;
+  private final int[] green;
+  private final int[] blue;
+  private final int transparentColors;
+
+  /**
+   * Constructs a new lookup table which changes every color the same way.
+   *
+   * @param table The value each color becomes, indexed by it's current value
+   * @throws IllegalArgumentException If the table is null, does not have 256 values, or any of it's
+   *                                  values are not from 0 to 255
+   */
+  public LookupTable(int[] table) throws IllegalArgumentException {
+    this(table, table, table);
+  }
+
+  /**
+   * Constructs a new lookup table which changes each color with it's own table.
+   *
+   * @param red   The value red becomes, indexed by it's current value
+   * @param green The value green becomes, indexed by it's current value
+   * @param blue  The value blue becomes, indexed by it's current value
+   * @throws IllegalArgumentException If any table is null, does not have 256 values, or any of it's
+   *                                  values are not from 0 to 255
+   */
+  public LookupTable(int[] red, int[] green, int[] blue) throws IllegalArgumentException {
+    this(LookupTable.copyTable(red), LookupTable.copyTable(green), LookupTable.copyTable(blue),
+        -1);
+  }
+
+  /**
+   * Constructs a new lookup table from the given tables, which are not copied.
+   *
+   * @param red               The value red becomes, indexed by it's current value
+   * @param green             The value green becomes, indexed by it's current value
+   * @param blue              The value blue becomes, indexed by it's current value
+   * @param transparentColors The packed colors transparent pixels are given, or -1 if they are
+   *                          given what the tables give black
+   */
+  private LookupTable(int[] red, int[] green, int[] blue, int transparentColors) {
+    this.red = red;
+    this.green = green;
+    this.blue = blue;
+    this.transparentColors = transparentColors >= 0 ? transparentColors
+        : red[0] << 16 | green[0] << 8 | blue[0];
+  }
+
+  /**
+   * Returns a copy of the given table, so that later changes to the given one have no effect.
+   *
+   * @param table The table to be copied
+   * @return The copy
+   * @throws IllegalArgumentException If the table is null, does not have 256 values, or any of it's
+   *                                  values are not from 0 to 255
+   */
+  private static int[] copyTable(int[] table) throws IllegalArgumentException {
+    if (table == null) {
+      throw new IllegalArgumentException("Null table given.");
+    }
+    if (table.length != numValues) {
+      throw new IllegalArgumentException("Table must have 256 values.");
+    }
+    for (int value : table) {
+      if (value < 0 || value >= numValues) {
+        throw new IllegalArgumentException("Table values must be from 0 to 255.");
+      }
+    }
+    return table.clone();
+  }
+
+  /**
+   * Returns the value the given color becomes when this table is applied.
+   *
+   * @param channel The color to look up, 0 for red, 1 for green and 2 for blue
+   * @param value   The current value of that color
+   * @return The value it becomes
+   * @throws IllegalArgumentException If the channel is not 0, 1 or 2, or the value is not from 0 to
+   *                                  255
+   */
+  public int lookup(int channel, int value) throws IllegalArgumentException {
+    if (value < 0 || value >= numValues) {
+      throw new IllegalArgumentException("Value must be from 0 to 255.");
+    }
+    switch (channel) {
+      case 0:
+        return this.red[value];
+      case 1:
+        return this.green[value];
+      case 2:
+        return this.blue[value];
+      default:
+        throw new IllegalArgumentException("Invalid channel");
+    }
+  }
+
+  /**
+   * Returns a single table which has the same effect as applying this table, then the given one.
+   * Transparent pixels are seen as black by every table, so they are given what the given table
+   * gives them.
+   *
+   * @param next The table applied after this one
+   * @return The composed table
+   * @throws IllegalArgumentException If the given table is null
+   */
+  public LookupTable then(LookupTable next) throws IllegalArgumentException {
+    if (next == null) {
+      throw new IllegalArgumentException("Null table given.");
+    }
+    int[] newRed = new int[numValues];
+    int[] newGreen = new int[numValues];
+    int[] newBlue = new int[numValues];
+    for (int i = 0; i < numValues; i += 1) {
+      newRed[i] = next.red[this.red[i]];
+      newGreen[i] = next.green[this.green[i]];
+      newBlue[i] = next.blue[this.blue[i]];
+    }
+    return new LookupTable(newRed, newGreen, newBlue, next.transparentColors);
+  }
+
+  @Override
+  public int applyToColors(int rgb) {
+    return this.red[(rgb >> 16) & 0xFF] << 16
+        | this.green[(rgb >> 8) & 0xFF] << 8
+        | this.blue[rgb & 0xFF];
+  }
+
+  @Override
+  protected int applyToTransparent() {
+    return this.transparentColors;
+  }
+}
@@ -1,14 +1,9 @@
 package mutators;
 
 import imageasgraph.GraphOfPixels;
-import imageasgraph.Node;
 import imageasgraph.Utils;
-import java.util.ArrayList;
-import java.util.Arrays;
-import mutators.matrices.Matrix;
-import mutators.matrices.MatrixImpl;
-import pixel.PixelAsColors;
-import pixel.SimplePixel;
+import java.awt.Rectangle;
+import java.util.concurrent.CancellationException;
 
 /**
  * Represents an operation to be done on a GraphOfPixels, which changes it in some way.
@@ -24,41 +19,47 @@ public interface Mutator {
   void apply(GraphOfPixels graph) throws IllegalArgumentException;
 
   /**
-   * Represents a filter applied to sharpen a pixel.
+   * Applies this mutation to the given graph, sharing the work between the given number of
+   * threads. The result is always the same as applying it on one thread. A mutation may stop part
+   * of the way through if the calling thread is interrupted, leaving only some pixels changed.
+   *
+   * @param graph       The graph to be mutated
+   * @param parallelism The number of threads to use
+   * @throws IllegalArgumentException If the given graph is null, or the parallelism is not
+   *                                  positive
+   * @throws CancellationException    If the calling thread is interrupted before it is done
    */
-  class SharpenFilter extends AbstractFilter {
-
-    private static final Matrix kernel =
-        new MatrixImpl(new ArrayList<Double>(Arrays.asList(
-            -0.125, -0.125, -0.125, -0.125, -0.125,
-            -0.125, 0.25, 0.25, 0.25, -0.125,
-            -0.125, 0.25, 1.0, 0.25, -0.125,
-            -0.125, 0.25, 0.25, 0.25, -0.125,
-            -0.125, -0.125, -0.125, -0.125, -0.125)),
-            5, 5);
+  void apply(GraphOfPixels graph, int parallelism)
+      throws IllegalArgumentException, CancellationException;
 
+  /**
+   * Returns the smallest rectangle holding every pixel of the given graph which applying this
+   * mutation to it may change, so that a graph can record the region it's mutators changed at once
+   * rather than pixel by pixel.
+   *
+   * @param graph The graph this mutation would be applied to
+   * @return The region which may be changed
+   * @throws IllegalArgumentException If the given graph is null
+   */
+  Rectangle getAffectedRegion(GraphOfPixels graph) throws IllegalArgumentException;
 
-    @Override
-    protected PixelAsColors applyToPixel(Node n) throws IllegalArgumentException {
-      if (n == null) {
-        throw new IllegalArgumentException("Given node is null.");
-      }
+  /**
+   * Represents a filter applied to sharpen a pixel.
+   */
+  class SharpenFilter extends AbstractFilter {
 
-      double newRed = 0.0;
-      double newGreen = 0.0;
-      double newBlue = 0.0;
-
-      for (int i = -2; i <= 2; i += 1) {
-        for (int j = 2; j >= -2; j -= 1) {
-          double kernelValue = kernel.getValue(i + 2, Math.abs(j - 2));
-          newRed += kernelValue * n.getNearby(i, j).getRed();
-          newGreen += kernelValue * n.getNearby(i, j).getGreen();
-          newBlue += kernelValue * n.getNearby(i, j).getBlue();
-        }
-      }
+    private static final double[][] kernel = {
+        {-0.125, -0.125, -0.125, -0.125, -0.125},
+        {-0.125, 0.25, 0.25, 0.25, -0.125},
+        {-0.125, 0.25, 1.0, 0.25, -0.125},
+        {-0.125, 0.25, 0.25, 0.25, -0.125},
+        {-0.125, -0.125, -0.125, -0.125, -0.125}};
 
-      return new SimplePixel(Utils.roundDouble(newRed), Utils.roundDouble(newGreen),
-          Utils.roundDouble(newBlue));
+    /**
+     * Constructs a new filter which sharpens every pixel of a graph it is applied to.
+     */
+    public SharpenFilter() {
+      super(kernel);
     }
   }
 
@@ -74,35 +75,35 @@ public interface Mutator {
    */
   class BlurFilter extends AbstractFilter {
 
-    private static final Matrix kernel =
-        new MatrixImpl(new ArrayList<Double>(Arrays.asList(
-            0.0625, 0.125, 0.0625,
-            0.125, 0.25, 0.125,
-            0.0625, 0.125, 0.0625)),
-            3, 3);
-
+    private static final double[][] kernel = {
+        {0.0625, 0.125, 0.0625},
+        {0.125, 0.25, 0.125},
+        {0.0625, 0.125, 0.0625}};
 
-    @Override
-    protected PixelAsColors applyToPixel(Node n) throws IllegalArgumentException {
-      if (n == null) {
-        throw new IllegalArgumentException("Given node is null.");
-      }
+    /**
+     * Constructs a new filter which blurs every pixel of a graph it is applied to.
+     */
+    public BlurFilter() {
+      super(kernel);
+    }
+  }
 
-      double newRed = 0.0;
-      double newGreen = 0.0;
-      double newBlue = 0.0;
-
-      for (int i = -1; i <= 1; i += 1) {
-        for (int j = 1; j >= -1; j -= 1) {
-          double kernelValue = kernel.getValue(i + 1, Math.abs(j - 1));
-          newRed += kernelValue * n.getNearby(i, j).getRed();
-          newGreen += kernelValue * n.getNearby(i, j).getGreen();
-          newBlue += kernelValue * n.getNearby(i, j).getBlue();
-        }
-      }
+  /**
+   * Represents a filter which applies any given kernel to every pixel of a graph.
+   */
+  class KernelFilter extends AbstractFilter {
 
-      return new SimplePixel(Utils.roundDouble(newRed), Utils.roundDouble(newGreen),
-          Utils.roundDouble(newBlue));
+    /**
+     * Constructs a new filter which applies the given kernel, where the center of the kernel lines
+     * up with the pixel being changed and the first row of it lines up with the pixels furthest
+     * above.
+     *
+     * @param kernel The kernel to be applied, as rows from top to bottom, which must be square and
+     *               of odd size
+     * @throws IllegalArgumentException If the kernel is null, not square, or of even size
+     */
+    public KernelFilter(double[][] kernel) throws IllegalArgumentException {
+      super(kernel);
     }
   }
 
@@ -111,32 +112,52 @@ public interface Mutator {
    */
   abstract class AbstractFilter implements Filter {
 
+    private final Convolution convolution;
+
+    /**
+     * Constructs a filter which applies the given kernel to every pixel, where the center of the
+     * kernel lines up with the pixel being changed and the first row of it lines up with the pixels
+     * furthest above.
+     *
+     * @param kernel The kernel to be applied, as rows from top to bottom, which must be square and
+     *               of odd size
+     * @throws IllegalArgumentException If the kernel is null, not square, or of even size
+     */
+    protected AbstractFilter(double[][] kernel) throws IllegalArgumentException {
+      this.convolution = new Convolution(kernel);
+    }
+
     /**
-     * Applies this filter to the given pixel.
+     * Returns the convolution this filter applies, so that it can be streamed in a pipeline.
      *
-     * @param n represents a node in the graph for an image in a pixel
-     * @return PixelAsColors representing new color of pixel
-     * @throws IllegalArgumentException if node given is null
+     * @return The convolution of this filter
      */
-    protected abstract PixelAsColors applyToPixel(Node n) throws IllegalArgumentException;
+    Convolution getConvolution() {
+      return this.convolution;
+    }
 
     @Override
     public void apply(GraphOfPixels graph) throws IllegalArgumentException {
       if (graph == null) {
         throw new IllegalArgumentException("Null graph given.");
       }
+      this.convolution.apply(graph);
+    }
 
-      ArrayList<PixelAsColors> updatedColors = new ArrayList<PixelAsColors>();
-
-      for (Node n : graph) {
-        updatedColors.add(this.applyToPixel(n));
+    @Override
+    public void apply(GraphOfPixels graph, int parallelism) throws IllegalArgumentException {
+      if (graph == null) {
+        throw new IllegalArgumentException("Null graph given.");
       }
+      this.convolution.apply(graph, parallelism);
+    }
 
-      int counter = 0;
-      for (Node n : graph) {
-        n.updateColors(updatedColors.get(counter));
-        counter += 1;
+    @Override
+    public Rectangle getAffectedRegion(GraphOfPixels graph) throws IllegalArgumentException {
+      if (graph == null) {
+        throw new IllegalArgumentException("Null graph given.");
       }
+      return new Rectangle(0, 0, graph.getWidth(), graph.getHeight());
     }
   }
 
@@ -145,18 +166,17 @@ public interface Mutator {
    */
   class SepiaTransform extends AbstractColorTransformation {
 
-    private static final Matrix baseMatrix =
-        new MatrixImpl(new ArrayList<Double>(Arrays.asList(
-            0.393, 0.769, 0.189,
-            0.349, 0.686, 0.168,
-            0.272, 0.534, 0.131)),
-            3, 3);
+    private static final double[][] matrix = {
+        {0.393, 0.769, 0.189},
+        {0.349, 0.686, 0.168},
+        {0.272, 0.534, 0.131}};
 
-    @Override
-    protected Matrix generateNewColorMatrix(Matrix rgb) throws IllegalArgumentException {
-      return baseMatrix.matrixMultiply(rgb);
+    /**
+     * Constructs a new transformation which gives every pixel of a graph a sepia tone.
+     */
+    public SepiaTransform() {
+      super(matrix);
     }
-
   }
 
   /**
@@ -164,16 +184,37 @@ public interface Mutator {
    */
   class GreyscaleTransform extends AbstractColorTransformation {
 
-    private static final Matrix baseMatrix =
-        new MatrixImpl(new ArrayList<Double>(Arrays.asList(
-            0.2126, 0.7152, 0.0722,
-            0.2126, 0.7152, 0.0722,
-            0.2126, 0.7152, 0.0722)),
-            3, 3);
+    private static final double[][] matrix = {
+        {0.2126, 0.7152, 0.0722},
+        {0.2126, 0.7152, 0.0722},
+        {0.2126, 0.7152, 0.0722}};
 
-    @Override
-    protected Matrix generateNewColorMatrix(Matrix rgb) throws IllegalArgumentException {
-      return baseMatrix.matrixMultiply(rgb);
+    /**
+     * Constructs a new transformation which turns every pixel of a graph grey.
+     */
+    public GreyscaleTransform() {
+      super(matrix);
+    }
+  }
+
+  /**
+   * Represents a color transformation which applies any given color matrix to every pixel of a
+   * graph.
+   */
+  class ColorMatrixTransform extends AbstractColorTransformation {
+
+    /**
+     * Constructs a new transformation which applies the given matrix, where each new color is the
+     * sum of the old colors multiplied by the values of that color's row, plus that row's offset if
+     * it has one.
+     *
+     * @param matrix The rows for red, green and blue in that order, each of 3 values, or of 4
+     *               values where the last is an offset
+     * @throws IllegalArgumentException If the matrix is null, does not have 3 rows, or it's rows
+     *                                  are not all of length 3 or all of length 4
+     */
+    public ColorMatrixTransform(double[][] matrix) throws IllegalArgumentException {
+      super(matrix);
     }
   }
 
@@ -182,45 +223,273 @@ public interface Mutator {
    */
   abstract class AbstractColorTransformation implements ColorTransformation {
 
+    private final ColorMatrix colorMatrix;
+
+    /**
+     * Constructs a transformation which applies the given color matrix to every pixel.
+     *
+     * @param matrix The rows for red, green and blue in that order, each of 3 values, or of 4
+     *               values where the last is an offset
+     * @throws IllegalArgumentException If the matrix is null, does not have 3 rows, or it's rows
+     *                                  are not all of length 3 or all of length 4
+     */
+    protected AbstractColorTransformation(double[][] matrix) throws IllegalArgumentException {
+      this.colorMatrix = new ColorMatrix(matrix);
+    }
+
+    /**
+     * Returns the color matrix this transformation applies, so that it can be fused with others in
+     * a pipeline.
+     *
+     * @return The color matrix of this transformation
+     */
+    ColorMatrix getColorMatrix() {
+      return this.colorMatrix;
+    }
+
+    /**
+     * Applies this color transformation to the given colors.
+     *
+     * @param rgb The red, green and blue values of a pixel, packed into one integer
+     * @return The transformed red, green and blue values, packed the same way
+     */
+    protected int applyToColors(int rgb) {
+      return this.colorMatrix.applyToColors(rgb);
+    }
+
+    @Override
+    public void apply(GraphOfPixels graph) throws IllegalArgumentException {
+      this.apply(graph, 1);
+    }
+
+    @Override
+    public void apply(GraphOfPixels graph, int parallelism) throws IllegalArgumentException {
+      if (graph == null) {
+        throw new IllegalArgumentException("Null graph given.");
+      }
+      this.colorMatrix.apply(graph, parallelism);
+    }
+
+    @Override
+    public Rectangle getAffectedRegion(GraphOfPixels graph) throws IllegalArgumentException {
+      if (graph == null) {
+        throw new IllegalArgumentException("Null graph given.");
+      }
+      return new Rectangle(0, 0, graph.getWidth(), graph.getHeight());
+    }
+  }
+
+  /**
+   * Represents a color transformation which changes each color by looking it up in any given
+   * table, such as a curve.
+   */
+  class LookupTransform extends AbstractLookupTransformation {
+
+    /**
+     * Constructs a new transformation which changes every color of every pixel by the given table.
+     *
+     * @param table The table to be applied
+     * @throws IllegalArgumentException If the table is null
+     */
+    public LookupTransform(LookupTable table) throws IllegalArgumentException {
+      super(table);
+    }
+  }
+
+  /**
+   * Represents a color transformation which changes the brightness of each color by a set amount,
+   * the same way Node.editColors does.
+   */
+  class BrightenTransform extends AbstractLookupTransformation {
+
+    /**
+     * Constructs a new transformation which changes every color by the same amount.
+     *
+     * @param delta The amount to change each color by, which may be negative to darken
+     */
+    public BrightenTransform(int delta) {
+      this(delta, delta, delta);
+    }
+
+    /**
+     * Constructs a new transformation which changes each color by it's own amount.
+     *
+     * @param deltaRed   The amount to change red by
+     * @param deltaGreen The amount to change green by
+     * @param deltaBlue  The amount to change blue by
+     */
+    public BrightenTransform(int deltaRed, int deltaGreen, int deltaBlue) {
+      super(new LookupTable(BrightenTransform.shiftTable(deltaRed),
+          BrightenTransform.shiftTable(deltaGreen), BrightenTransform.shiftTable(deltaBlue)));
+    }
+
+    /**
+     * Creates a table which changes a color by the given amount, clamping the result.
+     *
+     * @param delta The amount to change the color by
+     * @return The table
+     */
+    private static int[] shiftTable(int delta) {
+      int[] table = new int[256];
+      for (int i = 0; i < 256; i += 1) {
+        // Widened so that very large changes cannot overflow before being clamped
+        table[i] = (int) Math.max(Math.min((long) i + delta, 255), 0);
+      }
+      return table;
+    }
+  }
+
+  /**
+   * Represents a color transformation which applies a gamma curve to each color, where each
+   * value becomes 255 times the value over 255 to the power of 1 over gamma, so that a gamma above
+   * 1 brightens and a gamma below 1 darkens.
+   */
+  class GammaTransform extends AbstractLookupTransformation {
+
+    /**
+     * Constructs a new transformation which applies the given gamma to every color.
+     *
+     * @param gamma The gamma to be applied
+     * @throws IllegalArgumentException If the gamma is not a positive number
+     */
+    public GammaTransform(double gamma) throws IllegalArgumentException {
+      super(new LookupTable(GammaTransform.gammaTable(gamma)));
+    }
+
+    /**
+     * Creates a table which applies the given gamma to a color.
+     *
+     * @param gamma The gamma to be applied
+     * @return The table
+     * @throws IllegalArgumentException If the gamma is not a positive number
+     */
+    private static int[] gammaTable(double gamma) throws IllegalArgumentException {
+      if (!(gamma > 0) || Double.isInfinite(gamma)) {
+        throw new IllegalArgumentException("Gamma must be a positive number");
+      }
+      int[] table = new int[256];
+      for (int i = 0; i < 256; i += 1) {
+        table[i] = Utils.clampColor(Utils.roundDouble(255 * Math.pow(i / 255.0, 1 / gamma)));
+      }
+      return table;
+    }
+  }
+
+  /**
+   * Represents a color transformation which inverts each color, so it becomes 255 minus what it
+   * was.
+   */
+  class InvertTransform extends AbstractLookupTransformation {
+
+    /**
+     * Constructs a new transformation which inverts every color.
+     */
+    public InvertTransform() {
+      super(new LookupTable(InvertTransform.invertTable()));
+    }
+
     /**
-     * Gets a new Matrix representing the new transformed colors of a pixel.
+     * Creates a table which inverts a color.
      *
-     * @param rgb represents the original colors of the pixel
-     * @return the transformed colors of the pixel
-     * @throws IllegalArgumentException if rgb is null.
+     * @return The table
      */
-    protected abstract Matrix generateNewColorMatrix(Matrix rgb) throws IllegalArgumentException;
+    private static int[] invertTable() {
+      int[] table = new int[256];
+      for (int i = 0; i < 256; i += 1) {
+        table[i] = 255 - i;
+      }
+      return table;
+    }
+  }
+
+  /**
+   * Represents a color transformation which stretches each color so that the given black point
+   * becomes 0 and the given white point becomes 255, with anything outside of them clamped.
+   */
+  class LevelsTransform extends AbstractLookupTransformation {
+
+    /**
+     * Constructs a new transformation which stretches every color between the given points.
+     *
+     * @param black The value which becomes 0
+     * @param white The value which becomes 255
+     * @throws IllegalArgumentException If the points are not from 0 to 255, or black is not below
+     *                                  white
+     */
+    public LevelsTransform(int black, int white) throws IllegalArgumentException {
+      super(new LookupTable(LevelsTransform.levelsTable(black, white)));
+    }
 
     /**
-     * Applies this color transformation to the given pixel.
+     * Creates a table which stretches a color between the given points.
      *
-     * @param n represents a node in the graph for an image in a pixel
+     * @param black The value which becomes 0
+     * @param white The value which becomes 255
+     * @return The table
+     * @throws IllegalArgumentException If the points are not from 0 to 255, or black is not below
+     *                                  white
      */
-    protected void applyToPixel(Node n) throws IllegalArgumentException {
-      if (n == null) {
-        throw new IllegalArgumentException("Null node given.");
+    private static int[] levelsTable(int black, int white) throws IllegalArgumentException {
+      if (black < 0 || white > 255 || black >= white) {
+        throw new IllegalArgumentException("Invalid black and white points");
       }
-      ArrayList<Double> nodeRGB = new ArrayList<Double>(
-          Arrays.asList(n.getRed() + 0.0, n.getGreen() + 0.0, n.getBlue() + 0.0));
-      Matrix ogRGB = new MatrixImpl(nodeRGB, 1, 3);
+      int[] table = new int[256];
+      for (int i = 0; i < 256; i += 1) {
+        table[i] = Utils.clampColor(Utils.roundDouble((i - black) * 255.0 / (white - black)));
+      }
+      return table;
+    }
+  }
+
+  /**
+   * Represents an abstraction of color transformations which change each color on it's own, by
+   * looking it up in a table.
+   */
+  abstract class AbstractLookupTransformation implements ColorTransformation {
 
-      Matrix newRGB = this.generateNewColorMatrix(ogRGB);
+    private final LookupTable table;
+
+    /**
+     * Constructs a transformation which applies the given table to every pixel.
+     *
+     * @param table The table to be applied
+     * @throws IllegalArgumentException If the table is null
+     */
+    protected AbstractLookupTransformation(LookupTable table) throws IllegalArgumentException {
+      if (table == null) {
+        throw new IllegalArgumentException("Null table given.");
+      }
+      this.table = table;
+    }
 
-      n.updateColors(new SimplePixel(
-          Utils.roundDouble(newRGB.getValue(0, 0)),
-          Utils.roundDouble(newRGB.getValue(0, 1)),
-          Utils.roundDouble(newRGB.getValue(0, 2))));
+    /**
+     * Returns the table this transformation applies, so that it can be composed with others.
+     *
+     * @return The table of this transformation
+     */
+    public LookupTable getTable() {
+      return this.table;
     }
 
     @Override
     public void apply(GraphOfPixels graph) throws IllegalArgumentException {
+      this.apply(graph, 1);
+    }
+
+    @Override
+    public void apply(GraphOfPixels graph, int parallelism) throws IllegalArgumentException {
       if (graph == null) {
         throw new IllegalArgumentException("Null graph given.");
       }
+      this.table.apply(graph, parallelism);
+    }
 
-      for (Node n : graph) {
-        this.applyToPixel(n);
+    @Override
+    public Rectangle getAffectedRegion(GraphOfPixels graph) throws IllegalArgumentException {
+      if (graph == null) {
+        throw new IllegalArgumentException("Null graph given.");
       }
+      return new Rectangle(0, 0, graph.getWidth(), graph.getHeight());
     }
   }
 
@@ -0,0 +1,311 @@
+package mutators;
+
+import imageasgraph.FixedSizeGraph;
+import imageasgraph.GraphOfPixels;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import mutators.Mutator.AbstractColorTransformation;
+import mutators.Mutator.AbstractFilter;
+import mutators.Mutator.AbstractLookupTransformation;
+
+/**
+ * Represents an ordered list of mutators applied as one, with the same result as applying each of
+ * them in turn but in as few passes over the image as possible. Consecutive color transformations
+ * are fused into one operation on each pixel, and filters are streamed - each row is passed from
+ * one step to the next as soon as it is ready, with each filter only holding the rows it's kernel
+ * reaches - so a whole run of filters and color transformations reads and writes each pixel once.
+ * Mutators which cannot be streamed are applied on their own, between the runs around them.
+ */
+public class MutatorPipeline implements Mutator {
+  // INVARIANT: segments holds, in order, lists of streamed operations and mutators applied on their
+  // own, where no two lists are next to each other and no list is empty.
+
+  private static final int bandHeight = 64;
+
+  private final List<Mutator> mutators;
+  private final List<Segment> segments;
+
+  /**
+   * Constructs a pipeline which applies the given mutators in order.
+   *
+   * @param mutators The mutators to be applied, in order
+   * @throws IllegalArgumentException If the list or any of it's mutators are null
+   */
+  public MutatorPipeline(List<Mutator> mutators) throws IllegalArgumentException {
+    if (mutators == null) {
+      throw new IllegalArgumentException("Null mutators given.");
+    }
+    this.mutators = new ArrayList<Mutator>();
+    for (Mutator m : mutators) {
+      if (m == null) {
+        throw new IllegalArgumentException("Null mutator given.");
+      }
+      if (m instanceof MutatorPipeline) {
+        this.mutators.addAll(((MutatorPipeline) m).mutators);
+      } else {
+        this.mutators.add(m);
+      }
+    }
+    this.segments = new ArrayList<Segment>();
+    List<RowOperation> operations = new ArrayList<RowOperation>();
+    List<PointOperation> points = new ArrayList<PointOperation>();
+    for (Mutator m : this.mutators) {
+      RowOperation operation = MutatorPipeline.operationOf(m);
+      if (operation instanceof PointOperation) {
+        points.add((PointOperation) operation);
+        continue;
+      }
+      MutatorPipeline.addPoints(operations, points);
+      if (operation != null) {
+        operations.add(operation);
+      } else {
+        this.addOperations(operations);
+        this.segments.add(new Segment(null, m));
+      }
+    }
+    MutatorPipeline.addPoints(operations, points);
+    this.addOperations(operations);
+  }
+
+  /**
+   * Returns the operation the given mutator applies, if it can be streamed.
+   *
+   * @param mutator The mutator to be streamed
+   * @return The operation of the mutator, or null if it cannot be streamed
+   */
+  private static RowOperation operationOf(Mutator mutator) {
+    if (mutator instanceof AbstractFilter) {
+      return ((AbstractFilter) mutator).getConvolution();
+    }
+    if (mutator instanceof AbstractColorTransformation) {
+      return ((AbstractColorTransformation) mutator).getColorMatrix();
+    }
+    if (mutator instanceof AbstractLookupTransformation) {
+      return ((AbstractLookupTransformation) mutator).getTable();
+    }
+    return null;
+  }
+
+  /**
+   * Fuses the given run of point operations into one, if there are any, and adds it to the given
+   * list of operations, leaving the run empty.
+   *
+   * @param operations The operations of the segment being built
+   * @param points     The point operations to be fused
+   */
+  private static void addPoints(List<RowOperation> operations, List<PointOperation> points) {
+    if (points.size() == 1) {
+      operations.add(points.get(0));
+    } else if (points.size() > 1) {
+      operations.add(new PointSequence(points));
+    }
+    points.clear();
+  }
+
+  /**
+   * Adds the given operations to this pipeline as one streamed segment, if there are any, leaving
+   * the list empty.
+   *
+   * @param operations The operations of the segment
+   */
+  private void addOperations(List<RowOperation> operations) {
+    if (!operations.isEmpty()) {
+      this.segments.add(new Segment(new ArrayList<RowOperation>(operations), null));
+      operations.clear();
+    }
+  }
+
+  /**
+   * Returns the mutators this pipeline applies, in order.
+   *
+   * @return An unmodifiable list of the mutators
+   */
+  public List<Mutator> getMutators() {
+    return Collections.unmodifiableList(this.mutators);
+  }
+
+  /**
+   * Returns the number of passes over the image this pipeline makes, which is the number of
+   * streamed runs plus the number of mutators applied on their own.
+   *
+   * @return The number of passes
+   */
+  public int getNumPasses() {
+    return this.segments.size();
+  }
+
+  @Override
+  public void apply(GraphOfPixels graph) throws IllegalArgumentException {
+    this.apply(graph, 1);
+  }
+
+  @Override
+  public void apply(GraphOfPixels graph, int parallelism) throws IllegalArgumentException {
+    if (graph == null) {
+      throw new IllegalArgumentException("Null graph given.");
+    }
+    if (parallelism <= 0) {
+      throw new IllegalArgumentException("Parallelism must be positive.");
+    }
+    for (Segment segment : this.segments) {
+      if (segment.mutator != null) {
+        segment.mutator.apply(graph, parallelism);
+      } else {
+        MutatorPipeline.stream(segment.operations, graph, parallelism);
+      }
+    }
+  }
+
+  @Override
+  public Rectangle getAffectedRegion(GraphOfPixels graph) throws IllegalArgumentException {
+    if (graph == null) {
+      throw new IllegalArgumentException("Null graph given.");
+    }
+    Rectangle affected = new Rectangle();
+    for (Mutator mutator : this.mutators) {
+      Rectangle region = mutator.getAffectedRegion(graph);
+      affected = affected.isEmpty() ? region : affected.union(region);
+    }
+    return affected;
+  }
+
+  /**
+   * Streams the rows of the given graph through the given operations. On one thread the whole
+   * graph is streamed at once, and each row is written back as it leaves the last operation, which
+   * is always after every row that needs it has been read. On several threads each band is
+   * streamed on it's own, along with the rows around it that the operations reach, and if any
+   * operation reaches other rows each band is only written once the bands around it are done.
+   *
+   * @param operations  The operations to be applied, in order
+   * @param graph       The graph to be changed
+   * @param parallelism The number of threads to use
+   */
+  private static void stream(List<RowOperation> operations, FixedSizeGraph graph,
+      int parallelism) {
+    int width = graph.getWidth();
+    int height = graph.getHeight();
+    if (width == 0 || height == 0) {
+      return;
+    }
+    int reach = 0;
+    for (RowOperation operation : operations) {
+      reach += operation.getRadius();
+    }
+    if (parallelism == 1) {
+      new StreamJob(operations, graph, false).run(height, height, 1);
+    } else if (reach == 0) {
+      new StreamJob(operations, graph, false).run(height, bandHeight, parallelism);
+    } else {
+      new StreamJob(operations, graph, true)
+          .runWithheld(graph, Math.max(bandHeight, reach), parallelism);
+    }
+  }
+
+  /**
+   * Represents a part of a pipeline, which is either a run of operations streamed together or a
+   * mutator applied on it's own.
+   */
+  private static class Segment {
+    // INVARIANT: exactly one of operations and mutator is null.
+
+    private final List<RowOperation> operations;
+    private final Mutator mutator;
+
+    /**
+     * Constructs a segment of a pipeline.
+     *
+     * @param operations The operations streamed together, or null if this is a single mutator
+     * @param mutator    The mutator applied on it's own, or null if this is streamed
+     */
+    Segment(List<RowOperation> operations, Mutator mutator) {
+      this.operations = operations;
+      this.mutator = mutator;
+    }
+  }
+
+  /**
+   * Represents streaming bands of a graph through a run of operations.
+   */
+  private static class StreamJob extends RowBandJob {
+
+    private final List<RowOperation> operations;
+    private final FixedSizeGraph graph;
+    private final boolean withheld;
+
+    /**
+     * Constructs the job of streaming the given graph through the given operations.
+     *
+     * @param operations The operations to be applied, in order
+     * @param graph      The graph to be changed
+     * @param withheld   Whether the changed rows of each band are put into the array of the band,
+     *                   rather than written straight back to the graph
+     */
+    StreamJob(List<RowOperation> operations, FixedSizeGraph graph, boolean withheld) {
+      this.operations = operations;
+      this.graph = graph;
+      this.withheld = withheld;
+    }
+
+    @Override
+    void applyToBand(int top, int rows) {
+      int width = this.graph.getWidth();
+      int height = this.graph.getHeight();
+      // Built from the end, as each step must produce every row the step after it needs
+      RowStage first = new SinkStage(this.graph, this.withheld ? this.getOutput(top) : null, top);
+      int inputTop = top;
+      int inputEnd = top + rows;
+      for (int i = this.operations.size() - 1; i >= 0; i -= 1) {
+        RowOperation operation = this.operations.get(i);
+        first = operation.createStage(width, height, inputTop, inputEnd, first);
+        inputTop = Math.max(0, inputTop - operation.getRadius());
+        inputEnd = Math.min(height, inputEnd + operation.getRadius());
+      }
+      int[] row = new int[width];
+      for (int y = inputTop; y < inputEnd; y += 1) {
+        this.checkCancelled();
+        this.graph.readPixels(0, y, width, 1, row);
+        first.push(y, row);
+      }
+      first.finish();
+    }
+  }
+
+  /**
+   * Represents the last step of a chain, which stores every row it is given.
+   */
+  private static class SinkStage extends RowStage {
+
+    private final FixedSizeGraph graph;
+    private final int[] output;
+    private final int top;
+
+    /**
+     * Constructs the last step of a chain.
+     *
+     * @param graph  The graph the rows are written to, if there is no output array
+     * @param output The array the rows are put into, or null if they are written to the graph
+     * @param top    The y coordinate of the row put at the start of the output array
+     */
+    SinkStage(FixedSizeGraph graph, int[] output, int top) {
+      this.graph = graph;
+      this.output = output;
+      this.top = top;
+    }
+
+    @Override
+    void push(int y, int[] row) {
+      if (this.output == null) {
+        this.graph.writePixels(0, y, row.length, 1, row);
+      } else {
+        System.arraycopy(row, 0, this.output, (y - this.top) * row.length, row.length);
+      }
+    }
+
+    @Override
+    void finish() {
+      // Every row has already been stored
+    }
+  }
+}
@@ -0,0 +1,135 @@
+package mutators;
+
+import imageasgraph.FixedSizeGraph;
+
+/**
+ * Represents a change to the red, green and blue values of a pixel which depends only on those
+ * values, so that it can be applied to every pixel of a graph in one pass over bands of packed
+ * pixels. Transparent pixels count as having every color be 0, as they do for every mutator, and
+ * the opacity of every pixel is left as it was.
+ */
+public abstract class PointOperation extends RowOperation {
+
+  private static final int bandHeight = 64;
+
+  /**
+   * Applies this operation to the given colors.
+   *
+   * @param rgb The red, green and blue values of a pixel, packed into one integer
+   * @return The new red, green and blue values, packed the same way
+   */
+  public abstract int applyToColors(int rgb);
+
+  /**
+   * Returns the colors a transparent pixel is given by this operation, which by default is what
+   * it gives black, since that is how transparent pixels are seen.
+   *
+   * @return The packed red, green and blue values a transparent pixel is given
+   */
+  protected int applyToTransparent() {
+    return this.applyToColors(0);
+  }
+
+  /**
+   * Applies this operation to the given pixel, keeping it's opacity.
+   *
+   * @param argb The packed opacity, red, green and blue values of the pixel
+   * @return The packed values of the changed pixel
+   */
+  int applyToPixel(int argb) {
+    if ((argb >>> 24) == 0) {
+      return this.applyToTransparent();
+    }
+    return argb & 0xFF000000 | this.applyToColors(argb);
+  }
+
+  /**
+   * Applies this operation to every pixel of the given graph, sharing the bands of the graph
+   * between the given number of threads.
+   *
+   * @param graph       The graph to be changed
+   * @param parallelism The number of threads to use
+   * @throws IllegalArgumentException If the graph is null, or the parallelism is not positive
+   */
+  public void apply(FixedSizeGraph graph, int parallelism) throws IllegalArgumentException {
+    if (graph == null) {
+      throw new IllegalArgumentException("Null graph given.");
+    }
+    new PointJob(this, graph).run(graph.getHeight(), bandHeight, parallelism);
+  }
+
+  @Override
+  int getRadius() {
+    return 0;
+  }
+
+  @Override
+  RowStage createStage(int width, int height, int outputTop, int outputEnd, RowStage next) {
+    return new PointStage(this, next);
+  }
+
+  /**
+   * Represents a point operation as a step of a chain, which changes each row in place and passes
+   * it straight on.
+   */
+  private static class PointStage extends RowStage {
+
+    private final PointOperation operation;
+    private final RowStage next;
+
+    /**
+     * Constructs a step which applies the given operation.
+     *
+     * @param operation The operation to be applied
+     * @param next      The step the changed rows are passed on to
+     */
+    PointStage(PointOperation operation, RowStage next) {
+      this.operation = operation;
+      this.next = next;
+    }
+
+    @Override
+    void push(int y, int[] row) {
+      for (int x = 0; x < row.length; x += 1) {
+        row[x] = this.operation.applyToPixel(row[x]);
+      }
+      this.next.push(y, row);
+    }
+
+    @Override
+    void finish() {
+      this.next.finish();
+    }
+  }
+
+  /**
+   * Represents applying a point operation to a graph a band of rows at a time.
+   */
+  private static class PointJob extends RowBandJob {
+
+    private final PointOperation operation;
+    private final FixedSizeGraph graph;
+
+    /**
+     * Constructs the job of applying the given operation to the given graph.
+     *
+     * @param operation The operation to be applied
+     * @param graph     The graph it is applied to
+     */
+    PointJob(PointOperation operation, FixedSizeGraph graph) {
+      this.operation = operation;
+      this.graph = graph;
+    }
+
+    @Override
+    void applyToBand(int top, int rows) {
+      int width = this.graph.getWidth();
+      int[] band = new int[width * rows];
+      this.graph.readPixels(0, top, width, rows, band);
+      for (int i = 0; i < band.length; i += 1) {
+        band[i] = this.operation.applyToPixel(band[i]);
+      }
+      this.graph.writePixels(0, top, width, rows, band);
+    }
+  }
+}
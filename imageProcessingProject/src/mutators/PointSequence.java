@@ -0,0 +1,55 @@
+package mutators;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Represents several point operations applied one after another, fused so that every pixel is
+ * read and written once for all of them. Consecutive lookup tables are composed into one table.
+ */
+class PointSequence extends PointOperation {
+  // INVARIANT: operations is not empty, and no two lookup tables are next to each other in it.
+
+  private final PointOperation[] operations;
+
+  /**
+   * Constructs the sequence of the given operations, applied in the given order.
+   *
+   * @param operations The operations to be applied, of which there must be at least one
+   * @throws IllegalArgumentException If the list is null or empty, or any operation is null
+   */
+  PointSequence(List<PointOperation> operations) throws IllegalArgumentException {
+    if (operations == null || operations.isEmpty()) {
+      throw new IllegalArgumentException("No operations given.");
+    }
+    List<PointOperation> fused = new ArrayList<PointOperation>();
+    for (PointOperation operation : operations) {
+      if (operation == null) {
+        throw new IllegalArgumentException("Null operation given.");
+      }
+      int last = fused.size() - 1;
+      if (operation instanceof LookupTable && last >= 0
+          && fused.get(last) instanceof LookupTable) {
+        fused.set(last, ((LookupTable) fused.get(last)).then((LookupTable) operation));
+      } else {
+        fused.add(operation);
+      }
+    }
+    this.operations = fused.toArray(new PointOperation[0]);
+  }
+
+  @Override
+  public int applyToColors(int rgb) {
+    int result = rgb;
+    for (PointOperation operation : this.operations) {
+      result = operation.applyToColors(result);
+    }
+    return result;
+  }
+
+  @Override
+  protected int applyToTransparent() {
+    // A pixel stays transparent through every operation, so only the last one decides it's colors
+    return this.operations[this.operations.length - 1].applyToTransparent();
+  }
+}
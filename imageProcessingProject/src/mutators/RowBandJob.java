@@ -0,0 +1,253 @@
+package mutators;
+
+import imageasgraph.FixedSizeGraph;
+import imageasgraph.Utils;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Represents work done to an image one band of rows at a time, where no band depends on the work
+ * done to any other, so the bands can be worked on by several threads at once.
+ */
+abstract class RowBandJob {
+  // INVARIANT: requester is the thread which called run, once it has been called, and cancelled
+  // is only set once that thread has been interrupted while waiting for the bands. While
+  // runWithheld is running, outputs holds an array of bandHeight rows for each band of the group
+  // of bands starting at row groupTop, in order.
+
+  private Thread requester;
+  private volatile boolean cancelled;
+  private int[][] outputs;
+  private int groupTop;
+  private int bandHeight;
+
+  /**
+   * Does this job's work to the given band of rows.
+   *
+   * @param top  The y coordinate of the first row of the band
+   * @param rows The number of rows in the band
+   */
+  abstract void applyToBand(int top, int rows);
+
+  /**
+   * Stops this job part of the way through if it is no longer wanted, because the thread which
+   * asked for it has been interrupted. Every band is checked before it is started, and a job which
+   * works through a band a row at a time can check between rows too.
+   *
+   * @throws CancellationException If the job has been cancelled
+   */
+  void checkCancelled() throws CancellationException {
+    if (this.cancelled) {
+      throw new CancellationException("Cancelled");
+    }
+    if (this.requester != null) {
+      Utils.checkCancelled(this.requester);
+    }
+  }
+
+  /**
+   * Does this job's work to every row of an image, split into bands of at most the given height.
+   * With a parallelism of 1 the bands are done in order on the calling thread, otherwise they are
+   * shared between the threads of the shared pool of that many, and this returns once all are
+   * done. If the calling thread is interrupted no more bands are started, and this returns once
+   * those already started are done, leaving the rest of the image as it was.
+   *
+   * @param height      The number of rows in the image
+   * @param bandHeight  The greatest number of rows in any band
+   * @param parallelism The number of threads to use
+   * @throws IllegalArgumentException If the band height or parallelism is not positive, or the
+   *                                  work on any band throws one
+   * @throws CancellationException    If the calling thread is interrupted before every band is
+   *                                  done
+   */
+  void run(int height, int bandHeight, int parallelism)
+      throws IllegalArgumentException, CancellationException {
+    RowBandJob.checkArguments(bandHeight, parallelism);
+    this.requester = Thread.currentThread();
+    this.cancelled = false;
+    this.runRange(0, height, bandHeight, parallelism);
+  }
+
+  /**
+   * Does this job's work to every row of the given graph, for work which reads the rows of the
+   * bands next to the one it is on as they were before. Each band puts it's new rows into the
+   * array given by getOutput rather than into the graph. The bands are done a group of one per
+   * thread at a time, and each band is written to the graph once the bands on both sides of it are
+   * done, so only the rows of one group and one more band are kept at once. If the calling thread
+   * is interrupted no more bands are started, and the bands of the groups already done are left
+   * written to the graph.
+   *
+   * @param graph       The graph to be changed
+   * @param bandHeight  The greatest number of rows in any band, which must be at least the number
+   *                    of rows the work on a band reads above and below it
+   * @param parallelism The number of threads to use
+   * @throws IllegalArgumentException If the band height or parallelism is not positive, a band is
+   *                                  too large to keep in an array, or the work on any band throws
+   *                                  one
+   * @throws CancellationException    If the calling thread is interrupted before every band is
+   *                                  done
+   */
+  void runWithheld(FixedSizeGraph graph, int bandHeight, int parallelism)
+      throws IllegalArgumentException, CancellationException {
+    RowBandJob.checkArguments(bandHeight, parallelism);
+    int width = graph.getWidth();
+    int height = graph.getHeight();
+    if ((long) bandHeight * width > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Graph too wide to be split into bands");
+    }
+    this.requester = Thread.currentThread();
+    this.cancelled = false;
+    this.bandHeight = bandHeight;
+    int bands = (int) Math.min(parallelism, ((long) height + bandHeight - 1) / bandHeight);
+    this.outputs = new int[bands][bandHeight * width];
+    int[] pending = new int[bandHeight * width];
+    int pendingTop = -1;
+    int pendingRows = 0;
+    try {
+      for (int top = 0; top < height; top += bands * bandHeight) {
+        int end = (int) Math.min(height, top + (long) bands * bandHeight);
+        this.groupTop = top;
+        this.runRange(top, end, bandHeight, parallelism);
+        // The first band of this group has read the rows of the band held back from the last
+        if (pendingTop >= 0) {
+          graph.writePixels(0, pendingTop, width, pendingRows, pending);
+        }
+        int last = (end - 1 - top) / bandHeight;
+        for (int i = 0; i < last; i += 1) {
+          graph.writePixels(0, top + i * bandHeight, width, bandHeight, this.outputs[i]);
+        }
+        // The last band is held back until the first band of the next group has read it's rows
+        int[] spare = pending;
+        pending = this.outputs[last];
+        this.outputs[last] = spare;
+        pendingTop = top + last * bandHeight;
+        pendingRows = end - pendingTop;
+      }
+      if (pendingTop >= 0) {
+        graph.writePixels(0, pendingTop, width, pendingRows, pending);
+      }
+    } finally {
+      this.outputs = null;
+    }
+  }
+
+  /**
+   * Returns the array the band starting at the given row puts it's new rows into, while
+   * runWithheld is running.
+   *
+   * @param top The y coordinate of the first row of the band
+   * @return The array, of at least as many rows as are in the band
+   */
+  int[] getOutput(int top) {
+    return this.outputs[(top - this.groupTop) / this.bandHeight];
+  }
+
+  /**
+   * Checks that the given band height and parallelism can be used.
+   *
+   * @param bandHeight  The greatest number of rows in any band
+   * @param parallelism The number of threads to use
+   * @throws IllegalArgumentException If either is not positive
+   */
+  private static void checkArguments(int bandHeight, int parallelism)
+      throws IllegalArgumentException {
+    if (bandHeight <= 0) {
+      throw new IllegalArgumentException("Band height must be positive");
+    }
+    if (parallelism <= 0) {
+      throw new IllegalArgumentException("Parallelism must be positive");
+    }
+  }
+
+  /**
+   * Does this job's work to the given range of rows, split into bands of at most the given height
+   * starting from the first row of the range, in order on the calling thread or shared between
+   * the threads of the shared pool of the given number.
+   *
+   * @param top         The y coordinate of the first row of the range
+   * @param end         The y coordinate just past the last row of the range
+   * @param bandHeight  The greatest number of rows in any band
+   * @param parallelism The number of threads to use
+   * @throws CancellationException If the calling thread is interrupted before every band is done
+   */
+  private void runRange(int top, int end, int bandHeight, int parallelism)
+      throws CancellationException {
+    if (parallelism == 1) {
+      for (int bandTop = top; bandTop < end; bandTop += bandHeight) {
+        this.checkCancelled();
+        this.applyToBand(bandTop, Math.min(bandHeight, end - bandTop));
+      }
+      return;
+    }
+    this.checkCancelled();
+    ForkJoinTask<Void> bands =
+        Utils.getPool(parallelism).submit(new BandAction(this, top, end - top, bandHeight));
+    try {
+      // Waits for every started band even once interrupted, as they are still changing the image
+      while (true) {
+        try {
+          bands.get();
+          return;
+        } catch (InterruptedException e) {
+          this.cancelled = true;
+        }
+      }
+    } catch (ExecutionException e) {
+      // Bands cannot throw checked exceptions, so the cause is unchecked
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw (Error) e.getCause();
+    } finally {
+      if (this.cancelled) {
+        // Waiting for the bands cleared the interrupt, which the caller should still see
+        this.requester.interrupt();
+      }
+    }
+  }
+
+  /**
+   * Represents the work of a job on a range of rows, which is split in half until each part is no
+   * taller than one band.
+   */
+  private static class BandAction extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private final RowBandJob job;
+    private final int top;
+    private final int rows;
+    private final int bandHeight;
+
+    /**
+     * Constructs the work of the given job on the given range of rows.
+     *
+     * @param job        The job to be done
+     * @param top        The y coordinate of the first row of the range
+     * @param rows       The number of rows in the range
+     * @param bandHeight The greatest number of rows in any band
+     */
+    BandAction(RowBandJob job, int top, int rows, int bandHeight) {
+      this.job = job;
+      this.top = top;
+      this.rows = rows;
+      this.bandHeight = bandHeight;
+    }
+
+    @Override
+    protected void compute() {
+      if (this.rows <= this.bandHeight) {
+        this.job.checkCancelled();
+        this.job.applyToBand(this.top, this.rows);
+        return;
+      }
+      // Splits on a band boundary, so the bands are the same as when done in order
+      int bands = (this.rows + this.bandHeight - 1) / this.bandHeight;
+      int upperRows = (bands / 2) * this.bandHeight;
+      invokeAll(new BandAction(this.job, this.top, upperRows, this.bandHeight),
+          new BandAction(this.job, this.top + upperRows, this.rows - upperRows, this.bandHeight));
+    }
+  }
+}
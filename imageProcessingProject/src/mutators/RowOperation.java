@@ -0,0 +1,30 @@
+package mutators;
+
+/**
+ * Represents an operation on the colors of an image where each new row depends only on the rows
+ * within some radius of it, so that it can be streamed a row at a time as one step of a chain.
+ */
+abstract class RowOperation {
+
+  /**
+   * Returns the number of rows above and below a row that are needed to produce it.
+   *
+   * @return The radius of this operation
+   */
+  abstract int getRadius();
+
+  /**
+   * Creates a step which applies this operation to the rows it is given, producing the given range
+   * of rows and passing them on to the given step. It must be given every row of the graph within
+   * this operation's radius of that range.
+   *
+   * @param width     The width of every row
+   * @param height    The height of the whole graph the rows come from
+   * @param outputTop The y coordinate of the first row to be produced
+   * @param outputEnd The y coordinate just past the last row to be produced
+   * @param next      The step the produced rows are passed on to
+   * @return The created step
+   */
+  abstract RowStage createStage(int width, int height, int outputTop, int outputEnd,
+      RowStage next);
+}
@@ -0,0 +1,24 @@
+package mutators;
+
+/**
+ * Represents one step of a chain of work done to the rows of an image, which is given rows one at a
+ * time from top to bottom and passes each row it produces on to the next step as soon as it can,
+ * so that a whole chain only ever holds the few rows each step needs at once.
+ */
+abstract class RowStage {
+
+  /**
+   * Gives this step the next row of it's input. The row may be changed by this step, and is not
+   * used again by whatever gave it.
+   *
+   * @param y   The y coordinate of the row
+   * @param row The packed ARGB values of the row
+   */
+  abstract void push(int y, int[] row);
+
+  /**
+   * Tells this step that it has been given every row of it's input, so that it passes on any rows
+   * it has not yet produced, and then tells the next step the same.
+   */
+  abstract void finish();
+}
@@ -2,10 +2,16 @@ package scriptlanguage;
 
 import java.util.ArrayList;
 import java.util.List;
+import mutators.Mutator.BrightenTransform;
+import mutators.Mutator.GammaTransform;
+import mutators.Mutator.InvertTransform;
+import mutators.Mutator.LevelsTransform;
 import scriptlanguage.ParsedCommand.AddImageLayerCommand;
 import scriptlanguage.ParsedCommand.AddLayerCommand;
 import scriptlanguage.ParsedCommand.BasicBlendCommand;
+import scriptlanguage.ParsedCommand.BlendCommand;
 import scriptlanguage.ParsedCommand.BlurCommand;
+import scriptlanguage.ParsedCommand.ColorMatrixCommand;
 import scriptlanguage.ParsedCommand.CopyLayerCommand;
 import scriptlanguage.ParsedCommand.CreateCheckerBoardCommand;
 import scriptlanguage.ParsedCommand.CreateCopyCommand;
@@ -17,10 +23,12 @@ import scriptlanguage.ParsedCommand.GreyscaleCommand;
 import scriptlanguage.ParsedCommand.ImportNewLayeredImageCommand;
 import scriptlanguage.ParsedCommand.LoadCommand;
 import scriptlanguage.ParsedCommand.LoadLayerCommand;
+import scriptlanguage.ParsedCommand.LookupCommand;
 import scriptlanguage.ParsedCommand.MoveLayerCommand;
 import scriptlanguage.ParsedCommand.RemoveLayerByNameCommand;
 import scriptlanguage.ParsedCommand.SaveCommand;
 import scriptlanguage.ParsedCommand.SaveLayeredCommand;
+import scriptlanguage.ParsedCommand.SaveLayeredFileCommand;
 import scriptlanguage.ParsedCommand.SepiaCommand;
 import scriptlanguage.ParsedCommand.SharpenCommand;
 import scriptlanguage.ParsedCommand.UpdateColorCommand;
@@ -133,71 +141,68 @@ public enum Command {
       if (inputs.size() < 1) {
         throw new IllegalArgumentException("Invalid number of inputs");
       }
-      switch (inputs.get(0)) {
-        case "blur":
-          switch (inputs.size()) {
-            case 1:
-              if (currentImage == null) {
-                throw new IllegalArgumentException(
-                    "This command cannot be called with the given amount"
-                        + " of inputs, because there is no default image");
-              }
-              return new BlurCommand(currentImage, currentLayer);
-            case 2:
-              return new BlurCommand(inputs.get(1), currentLayer);
-            case 3:
-              return new BlurCommand(inputs.get(1), inputs.get(2));
-            default:
-              throw new IllegalArgumentException("Invalid number of inputs");
+      List<String> targets = inputs;
+      int parallelism = 1;
+      if (inputs.size() >= 3 && "--parallelism".equals(inputs.get(inputs.size() - 2))) {
+        parallelism = Command.convertIntegerInputs(inputs.size() - 1, inputs.size(), inputs)
+            .get(0);
+        targets = inputs.subList(0, inputs.size() - 2);
+      }
+      int numArguments = Command.countMutatorArguments(targets);
+      if (targets.size() <= numArguments) {
+        throw new IllegalArgumentException("Invalid number of inputs");
+      }
+      List<String> arguments = targets.subList(targets.size() - numArguments, targets.size());
+      targets = targets.subList(0, targets.size() - numArguments);
+      String image;
+      String layer;
+      switch (targets.size()) {
+        case 1:
+          if (currentImage == null) {
+            throw new IllegalArgumentException(
+                "This command cannot be called with the given amount"
+                    + " of inputs, because there is no default image");
           }
+          image = currentImage;
+          layer = currentLayer;
+          break;
+        case 2:
+          image = targets.get(1);
+          layer = currentLayer;
+          break;
+        case 3:
+          image = targets.get(1);
+          layer = targets.get(2);
+          break;
+        default:
+          throw new IllegalArgumentException("Invalid number of inputs");
+      }
+      switch (targets.get(0)) {
+        case "blur":
+          return new BlurCommand(image, layer, parallelism);
         case "sharpen":
-          switch (inputs.size()) {
-            case 1:
-              if (currentImage == null) {
-                throw new IllegalArgumentException(
-                    "This command cannot be called with the given amount"
-                        + " of inputs, because there is no default image");
-              }
-              return new SharpenCommand(currentImage, currentLayer);
-            case 2:
-              return new SharpenCommand(inputs.get(1), currentLayer);
-            case 3:
-              return new SharpenCommand(inputs.get(1), inputs.get(2));
-            default:
-              throw new IllegalArgumentException("Invalid number of inputs");
-          }
+          return new SharpenCommand(image, layer, parallelism);
         case "sepia":
-          switch (inputs.size()) {
-            case 1:
-              if (currentImage == null) {
-                throw new IllegalArgumentException(
-                    "This command cannot be called with the given amount"
-                        + " of inputs, because there is no default image");
-              }
-              return new SepiaCommand(currentImage, currentLayer);
-            case 2:
-              return new SepiaCommand(inputs.get(1), currentLayer);
-            case 3:
-              return new SepiaCommand(inputs.get(1), inputs.get(2));
-            default:
-              throw new IllegalArgumentException("Invalid number of inputs");
-          }
+          return new SepiaCommand(image, layer, parallelism);
         case "greyscale":
-          switch (inputs.size()) {
-            case 1:
-              if (currentImage == null) {
-                throw new IllegalArgumentException(
-                    "This command cannot be called with the given amount"
-                        + " of inputs, because there is no default image");
-              }
-              return new GreyscaleCommand(currentImage, currentLayer);
-            case 2:
-              return new GreyscaleCommand(inputs.get(1), currentLayer);
-            case 3:
-              return new GreyscaleCommand(inputs.get(1), inputs.get(2));
-            default:
-              throw new IllegalArgumentException("Invalid number of inputs");
-          }
+          return new GreyscaleCommand(image, layer, parallelism);
+        case "color-matrix":
+          return new ColorMatrixCommand(image, layer, Command.convertMatrixInputs(arguments),
+              parallelism);
+        case "brighten":
+          return new LookupCommand(image, layer,
+              new BrightenTransform(Command.convertIntegerInputs(0, 1, arguments).get(0)),
+              parallelism);
+        case "gamma":
+          return new LookupCommand(image, layer,
+              new GammaTransform(Command.convertDoubleInputs(0, 1, arguments).get(0)),
+              parallelism);
+        case "invert":
+          return new LookupCommand(image, layer, new InvertTransform(), parallelism);
+        case "levels":
+          List<Integer> points = Command.convertIntegerInputs(0, 2, arguments);
+          return new LookupCommand(image, layer, new LevelsTransform(points.get(0), points.get(1)),
+              parallelism);
         default:
           throw new IllegalArgumentException("Unsupported mutator");
       }
@@ -246,6 +251,25 @@ public enum Command {
       }
     }
   },
+  saveLayeredFile {
+    @Override
+    public ParsedCommand returnExecutable(List<String> inputs, String currentImage,
+        String currentLayer) throws IllegalArgumentException {
+      Command.assertNonNullInputs(inputs);
+      switch (inputs.size()) {
+        case 1:
+          if (currentImage == null) {
+            throw new IllegalArgumentException("This command cannot be called with the given amount"
+                + " of inputs, because there is no default image");
+          }
+          return new SaveLayeredFileCommand(currentImage, Command.decode(inputs.get(0)));
+        case 2:
+          return new SaveLayeredFileCommand(inputs.get(0), Command.decode(inputs.get(1)));
+        default:
+          throw new IllegalArgumentException("Invalid number of inputs");
+      }
+    }
+  },
   load {
     @Override
     public ParsedCommand returnExecutable(List<String> inputs, String currentImage,
@@ -367,24 +391,24 @@ public enum Command {
     public ParsedCommand returnExecutable(List<String> inputs, String currentImage,
         String currentLayer) {
       Command.assertNonNullInputs(inputs);
+      int parallelism = 1;
+      if (inputs.size() >= 5 && "--parallelism".equals(inputs.get(inputs.size() - 2))) {
+        parallelism = Command.convertIntegerInputs(inputs.size() - 1, inputs.size(), inputs)
+            .get(0);
+        inputs = inputs.subList(0, inputs.size() - 2);
+      }
       switch (inputs.size()) {
         case 3:
-          if ("basic".equals(inputs.get(0))) {
-            if (currentImage == null) {
-              throw new IllegalArgumentException(
-                  "This command cannot be called with the given amount"
-                      + " of inputs, because there is no default image");
-            }
-            return new BasicBlendCommand(currentImage, inputs.get(1),
-                Command.decode(inputs.get(2)));
+          if (currentImage == null) {
+            throw new IllegalArgumentException(
+                "This command cannot be called with the given amount"
+                    + " of inputs, because there is no default image");
           }
-          throw new IllegalArgumentException("Unsupported blend type");
+          return Command.blendCommand(currentImage, inputs.get(0), inputs.get(1),
+              Command.decode(inputs.get(2)), parallelism);
         case 4:
-          if ("basic".equals(inputs.get(1))) {
-            return new BasicBlendCommand(inputs.get(0), inputs.get(2),
-                Command.decode(inputs.get(3)));
-          }
-          throw new IllegalArgumentException("Unsupported blend type");
+          return Command.blendCommand(inputs.get(0), inputs.get(1), inputs.get(2),
+              Command.decode(inputs.get(3)), parallelism);
         default:
           throw new IllegalArgumentException("Invalid number of inputs");
       }
@@ -514,6 +538,101 @@ public enum Command {
     return intInputs;
   }
 
+  /**
+   * Given the name of a mutator followed by it's inputs, returns how many of the inputs at the end
+   * are arguments to the mutator rather than the names of the image and layer it is applied to.
+   *
+   * @param inputs The name of the mutator, followed by the rest of the inputs
+   * @return The number of arguments the mutator is given
+   */
+  private static int countMutatorArguments(List<String> inputs) {
+    switch (inputs.get(0)) {
+      case "color-matrix":
+        // At most 2 names come before the values, so 12 trailing numbers can only be a 3x4 matrix
+        return Command.countTrailingDoubles(inputs) >= 12 ? 12 : 9;
+      case "brighten":
+      case "gamma":
+        return 1;
+      case "levels":
+        return 2;
+      default:
+        return 0;
+    }
+  }
+
+  /**
+   * Given a list of inputs, returns a matrix of 3 rows made by converting the inputs to doubles in
+   * order, filling each row before starting the next, throwing an exception if any of the inputs
+   * cannot be parsed.
+   *
+   * @param inputs The inputs to be converted, of which there must be a multiple of 3
+   * @return The matrix of converted doubles
+   * @throws IllegalArgumentException If any of the given inputs cannot be properly parsed into
+   *                                  doubles, or if given a null list of inputs.
+   */
+  private static double[][] convertMatrixInputs(List<String> inputs)
+      throws IllegalArgumentException {
+    List<Double> values = Command.convertDoubleInputs(0, inputs.size(), inputs);
+    int columns = values.size() / 3;
+    double[][] matrix = new double[3][columns];
+    for (int i = 0; i < values.size(); i += 1) {
+      matrix[i / columns][i % columns] = values.get(i);
+    }
+    return matrix;
+  }
+
+  /**
+   * Given a list of inputs, returns a new list of doubles by converting all elements in the given
+   * list beginning at the start and going up to (but not including) the end index to doubles,
+   * throwing an exception if any of the inputs cannot be parsed.
+   *
+   * @param start  The start point for conversion
+   * @param end    The end point for conversion
+   * @param inputs The inputs to be converted
+   * @return The list of converted doubles
+   * @throws IllegalArgumentException If any of the given inputs cannot be properly parsed into
+   *                                  doubles, or if given a null list of inputs.
+   */
+  private static List<Double> convertDoubleInputs(int start, int end, List<String> inputs)
+      throws IllegalArgumentException {
+    if (inputs == null) {
+      throw new IllegalArgumentException("Null input");
+    }
+    List<Double> doubleInputs = new ArrayList<Double>();
+    for (int i = start; i < end; i += 1) {
+      try {
+        doubleInputs.add(Double.parseDouble(inputs.get(i)));
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("One of the number inputs is not a valid number");
+      }
+    }
+    return doubleInputs;
+  }
+
+  /**
+   * Given a list of inputs, returns how many of the inputs at the end of it, not counting the
+   * first, can be parsed into doubles.
+   *
+   * @param inputs The inputs to be counted
+   * @return The number of trailing inputs which are numbers
+   * @throws IllegalArgumentException If given a null list of inputs
+   */
+  private static int countTrailingDoubles(List<String> inputs) throws IllegalArgumentException {
+    if (inputs == null) {
+      throw new IllegalArgumentException("Null input");
+    }
+    int count = 0;
+    for (int i = inputs.size() - 1; i > 0; i -= 1) {
+      try {
+        Double.parseDouble(inputs.get(i));
+      } catch (NumberFormatException e) {
+        break;
+      }
+      count += 1;
+    }
+    return count;
+  }
+
   /**
    * Given a string, returns true if it can be parsed into an integer.
    *
@@ -544,4 +663,25 @@ public enum Command {
     return toDecode.replaceAll(">", " ");
   }
 
+  /**
+   * Returns a command which saves the given layered image as the result of a blend of the given
+   * type, which is a BasicBlendCommand for a basic blend.
+   *
+   * @param image       The name of the layered image to be blended
+   * @param blendType   The type of blend to be used
+   * @param outputType  The type of file to be outputted
+   * @param fileName    The name of the file to be outputted
+   * @param parallelism The number of threads to use
+   * @return The command
+   * @throws IllegalArgumentException If the blend type is not supported, or the parallelism is not
+   *                                  positive
+   */
+  private static ParsedCommand blendCommand(String image, String blendType, String outputType,
+      String fileName, int parallelism) throws IllegalArgumentException {
+    if ("basic".equals(blendType)) {
+      return new BasicBlendCommand(image, outputType, fileName, parallelism);
+    }
+    return new BlendCommand(image, blendType, outputType, fileName, parallelism);
+  }
+
 }
@@ -23,6 +23,7 @@ public class LanguageSyntaxImpl implements LanguageSyntax {
     temp.put("apply-mutator", Command.applyMutator);
     temp.put("save", Command.save);
     temp.put("save-layered", Command.saveLayered);
+    temp.put("save-layered-file", Command.saveLayeredFile);
     temp.put("load", Command.load);
     temp.put("set-current-layer", Command.setCurrentLayer);
     temp.put("add-layer", Command.addLayer);
@@ -1,18 +1,28 @@
 package scriptlanguage;
 
+import imageasgraph.FixedSizeGraph;
 import imageasgraph.GraphOfPixels;
 import imageasgraph.ImageToGraphConverter;
 import imageasgraph.OutputType;
 import imageinput.CheckerBoard;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import layeredimage.LayeredImage;
 import layeredimage.LayeredImageV0;
-import layeredimage.blend.BasicBlend;
+import layeredimage.blend.AbstractBlend;
+import mutators.Mutator;
+import mutators.Mutator.AbstractLookupTransformation;
 import mutators.Mutator.BlurFilter;
+import mutators.Mutator.ColorMatrixTransform;
 import mutators.Mutator.GreyscaleTransform;
 import mutators.Mutator.SepiaTransform;
 import mutators.Mutator.SharpenFilter;
+import mutators.MutatorPipeline;
 import pixel.SimplePixel;
 
 /**
@@ -41,6 +51,33 @@ public interface ParsedCommand {
    */
   void alterLanguageState(LanguageSyntax toAlter) throws IllegalArgumentException;
 
+  /**
+   * Represents a command which changes the pixels of one existing image, or layer of a layered
+   * image, in place, and which can tell which pixels it will change before it is executed.
+   */
+  interface PixelCommand extends ParsedCommand {
+
+    /**
+     * Returns the image or layer this command would change if executed with the given images.
+     *
+     * @param graphs        The graphs that currently exist
+     * @param layeredImages The layered images that currently exist
+     * @return The image or layer to be changed
+     * @throws IllegalArgumentException If given null inputs, or the image or layer does not exist
+     */
+    FixedSizeGraph getTarget(Map<String, GraphOfPixels> graphs,
+        Map<String, LayeredImage> layeredImages) throws IllegalArgumentException;
+
+    /**
+     * Returns a rectangle holding every pixel of the given target which this command may change.
+     *
+     * @param target The image or layer given by getTarget
+     * @return The region which may be changed
+     * @throws IllegalArgumentException If the target is null
+     */
+    Rectangle getTargetRegion(FixedSizeGraph target) throws IllegalArgumentException;
+  }
+
   /**
    * Represents a command which updates the visibility of an existing layer of an existing layered
    * image.
@@ -97,7 +134,7 @@ public interface ParsedCommand {
    * Represents a command which updates the color of a pixel within an image, or within a layer of a
    * layered image.
    */
-  class UpdateColorCommand implements ParsedCommand {
+  class UpdateColorCommand implements PixelCommand {
 
     private final String imageToUpdate;
     private final String layerToUpdate;
@@ -136,28 +173,40 @@ public interface ParsedCommand {
     }
 
     @Override
-    public void execute(Map<String, GraphOfPixels> graphs,
+    public FixedSizeGraph getTarget(Map<String, GraphOfPixels> graphs,
         Map<String, LayeredImage> layeredImages) throws IllegalArgumentException {
       if (graphs == null || layeredImages == null) {
         throw new IllegalArgumentException("Null inputs");
       }
       if (graphs.containsKey(imageToUpdate)) {
-        graphs.get(imageToUpdate).getPixelAt(pixelX, pixelY).updateColors(newColors);
-        graphs.get(imageToUpdate).getPixelAt(pixelX, pixelY).setOpacity(newOpacity);
+        return graphs.get(imageToUpdate);
       } else if (layeredImages.containsKey(imageToUpdate)) {
         if (layerToUpdate == null) {
           throw new IllegalArgumentException("Null layer");
         }
-        layeredImages.get(imageToUpdate).getLayer(layerToUpdate).getPixelAt(pixelX, pixelY)
-            .updateColors(newColors);
-        layeredImages.get(imageToUpdate).getLayer(layerToUpdate).getPixelAt(pixelX, pixelY)
-            .setOpacity(newOpacity);
+        return layeredImages.get(imageToUpdate).getLayer(layerToUpdate);
       } else {
         throw new IllegalArgumentException(
             "The image this command is supposed to modify does not exist");
       }
     }
 
+    @Override
+    public Rectangle getTargetRegion(FixedSizeGraph target) throws IllegalArgumentException {
+      if (target == null) {
+        throw new IllegalArgumentException("Null target");
+      }
+      return new Rectangle(pixelX, pixelY, 1, 1);
+    }
+
+    @Override
+    public void execute(Map<String, GraphOfPixels> graphs,
+        Map<String, LayeredImage> layeredImages) throws IllegalArgumentException {
+      FixedSizeGraph target = this.getTarget(graphs, layeredImages);
+      target.getPixelAt(pixelX, pixelY).updateColors(newColors);
+      target.getPixelAt(pixelX, pixelY).setOpacity(newOpacity);
+    }
+
     @Override
     public void alterLanguageState(LanguageSyntax toAlter) throws IllegalArgumentException {
       if (toAlter == null) {
@@ -204,6 +253,53 @@ public interface ParsedCommand {
     }
   }
 
+  /**
+   * Represents a command which saves a layered image as a single layered image file of a specified
+   * name.
+   */
+  class SaveLayeredFileCommand implements ParsedCommand {
+
+    private final String imageToSave;
+    private final String fileName;
+
+    /**
+     * Constructs a command which saves the layered image of the given name to the file of the
+     * given name.
+     *
+     * @param imageToSave The name of the layered image
+     * @param fileName    The name of the file
+     * @throws IllegalArgumentException If either input is null
+     */
+    public SaveLayeredFileCommand(String imageToSave, String fileName)
+        throws IllegalArgumentException {
+      if (imageToSave == null || fileName == null) {
+        throw new IllegalArgumentException("Null inputs");
+      }
+      this.imageToSave = imageToSave;
+      this.fileName = fileName;
+    }
+
+    @Override
+    public void execute(Map<String, GraphOfPixels> graphs,
+        Map<String, LayeredImage> layeredImages) throws IllegalArgumentException {
+      if (graphs == null || layeredImages == null) {
+        throw new IllegalArgumentException("Null inputs");
+      }
+      if (!layeredImages.containsKey(this.imageToSave)) {
+        throw new IllegalArgumentException("Image to save does not exist");
+      }
+      layeredImages.get(this.imageToSave).saveAsLayeredFile(this.fileName);
+    }
+
+    @Override
+    public void alterLanguageState(LanguageSyntax toAlter) throws IllegalArgumentException {
+      if (toAlter == null) {
+        throw new IllegalArgumentException("Null input");
+      }
+      // This command does not impact the current state of the language
+    }
+  }
+
   /**
    * Represents a command which saves either an image, or a layer of a layered image, as an image
    * file of a specified name and type.
@@ -826,32 +922,42 @@ public interface ParsedCommand {
   }
 
   /**
-   * Represents a command which saves an existing layered image as the result of applying a basic
-   * blend to that image.
+   * Represents a command which saves an existing layered image as the result of applying a blend
+   * of one of the types given by AbstractBlend.getBlendTypes to that image.
    */
-  class BasicBlendCommand implements ParsedCommand {
+  class BlendCommand implements ParsedCommand {
 
     private final String imageToBlend;
+    private final String blendType;
     private final OutputType outputType;
     private final String fileName;
+    private final int parallelism;
 
     /**
-     * Constructs a new BasicBlendCommand, which will blend an image of the given name and save it
-     * as a file of the given name and type.
+     * Constructs a new BlendCommand, which will blend an image of the given name with a blend of
+     * the given type, using the given number of threads, and save it as a file of the given name
+     * and type.
      *
      * @param imageToBlend The name of the layered image to be blended
+     * @param blendType    The type of blend to be used
      * @param outputType   The type of file to be outputted
      * @param fileName     The name of the file to be outputted
-     * @throws IllegalArgumentException If given a null input
+     * @param parallelism  The number of threads to use
+     * @throws IllegalArgumentException If given a null input, the blend type is not supported, or
+     *                                  the parallelism is not positive
      */
-    public BasicBlendCommand(String imageToBlend, String outputType, String fileName)
-        throws IllegalArgumentException {
-      if (imageToBlend == null || outputType == null || fileName == null) {
+    public BlendCommand(String imageToBlend, String blendType, String outputType,
+        String fileName, int parallelism) throws IllegalArgumentException {
+      if (imageToBlend == null || blendType == null || outputType == null || fileName == null) {
         throw new IllegalArgumentException("Null input");
       }
+      // Fails now, rather than when executed, if the type or parallelism are not valid
+      AbstractBlend.createBlend(blendType, parallelism);
       this.imageToBlend = imageToBlend;
+      this.blendType = blendType;
       this.outputType = OutputType.convertString(outputType);
       this.fileName = fileName;
+      this.parallelism = parallelism;
     }
 
     @Override
@@ -865,7 +971,8 @@ public interface ParsedCommand {
             "The layered image this command is supposed to blend does"
                 + " not exist");
       }
-      layeredImages.get(imageToBlend).saveAsImage(new BasicBlend(), outputType, fileName);
+      layeredImages.get(imageToBlend).saveAsImage(
+          AbstractBlend.createBlend(this.blendType, this.parallelism), outputType, fileName);
     }
 
     @Override
@@ -878,54 +985,87 @@ public interface ParsedCommand {
   }
 
   /**
-   * Represents a command to apply a sepia transformation to either a graph of pixels or layer of a
-   * layered image.
+   * Represents a command which saves an existing layered image as the result of applying a basic
+   * blend to that image.
    */
-  class SharpenCommand implements ParsedCommand {
+  class BasicBlendCommand extends BlendCommand {
 
-    private final String imageToUpdate;
-    private final String layerToUpdate;
+    /**
+     * Constructs a new BasicBlendCommand, which will blend an image of the given name on one
+     * thread and save it as a file of the given name and type.
+     *
+     * @param imageToBlend The name of the layered image to be blended
+     * @param outputType   The type of file to be outputted
+     * @param fileName     The name of the file to be outputted
+     * @throws IllegalArgumentException If given a null input
+     */
+    public BasicBlendCommand(String imageToBlend, String outputType, String fileName)
+        throws IllegalArgumentException {
+      this(imageToBlend, outputType, fileName, 1);
+    }
+
+    /**
+     * Constructs a new BasicBlendCommand, which will blend an image of the given name using the
+     * given number of threads and save it as a file of the given name and type.
+     *
+     * @param imageToBlend The name of the layered image to be blended
+     * @param outputType   The type of file to be outputted
+     * @param fileName     The name of the file to be outputted
+     * @param parallelism  The number of threads to use
+     * @throws IllegalArgumentException If given a null input, or the parallelism is not positive
+     */
+    public BasicBlendCommand(String imageToBlend, String outputType, String fileName,
+        int parallelism) throws IllegalArgumentException {
+      super(imageToBlend, "basic", outputType, fileName, parallelism);
+    }
+  }
+
+  /**
+   * Represents a command to apply a sharpening filter to either a graph of pixels or layer of a
+   * layered image.
+   */
+  class SharpenCommand extends ApplyMutatorCommand {
 
     /**
      * Constructs a new SharpenCommand, to be applied to an existing GraphOfPixels or layer of an
-     * existing layered image.
+     * existing layered image on one thread.
      *
-     * @param imageToUpdate The name of the image to be applied to
-     * @param layerToUpdate The name of the layer to be applied to, may be null if applied to a
+     * @param imageToUpdate The name of the image to be sharpened, or the layered image which
+     *                      contains the layer to be sharpened
+     * @param layerToUpdate The name of the layer to be sharpened, may be null if applied to a
      *                      non-layered image
      * @throws IllegalArgumentException If given a null imageToUpdate
      */
     public SharpenCommand(String imageToUpdate, String layerToUpdate)
         throws IllegalArgumentException {
-      if (imageToUpdate == null) {
-        throw new IllegalArgumentException("Null image name");
-      }
-      this.imageToUpdate = imageToUpdate;
-      this.layerToUpdate = layerToUpdate;
+      super(imageToUpdate, layerToUpdate, 1);
+    }
+
+    /**
+     * Constructs a new SharpenCommand, to be applied to an existing GraphOfPixels or layer of an
+     * existing layered image using the given number of threads.
+     *
+     * @param imageToUpdate The name of the image to be sharpened, or the layered image which
+     *                      contains the layer to be sharpened
+     * @param layerToUpdate The name of the layer to be sharpened, may be null if applied to a
+     *                      non-layered image
+     * @param parallelism   The number of threads to use
+     * @throws IllegalArgumentException If given a null imageToUpdate, or the parallelism is not
+     *                                  positive
+     */
+    public SharpenCommand(String imageToUpdate, String layerToUpdate, int parallelism)
+        throws IllegalArgumentException {
+      super(imageToUpdate, layerToUpdate, parallelism);
     }
 
     @Override
-    public void execute(Map<String, GraphOfPixels> graphs,
-        Map<String, LayeredImage> layeredImages) throws IllegalArgumentException {
-      if (graphs == null || layeredImages == null) {
-        throw new IllegalArgumentException("Null inputs");
-      }
-      if (graphs.containsKey(imageToUpdate)) {
-        graphs.get(imageToUpdate).applyMutator(new SharpenFilter());
-      } else if (layeredImages.containsKey(imageToUpdate)) {
-        layeredImages.get(imageToUpdate).getLayer(layerToUpdate).applyMutator(new SharpenFilter());
-      } else {
-        throw new IllegalArgumentException("The image this command is supposed to sharpen does"
-            + " not exist");
-      }
+    protected Mutator createMutator() {
+      return new SharpenFilter();
     }
 
     @Override
-    public void alterLanguageState(LanguageSyntax toAlter) throws IllegalArgumentException {
-      // This command does not impact the current state of the language
-      if (toAlter == null) {
-        throw new IllegalArgumentException("Null input");
-      }
+    protected String getMissingImageMessage() {
+      return "The image this command is supposed to sharpen does not exist";
     }
   }
 
@@ -1026,57 +1166,50 @@ public interface ParsedCommand {
   }
 
   /**
-   * Represents a command to apply a blur filter to either a graph of pixels or layer of a layered
-   * image.
+   * Represents a command to apply a blur filter to either a graph of pixels or layer of a
+   * layered image.
    */
-  class BlurCommand implements ParsedCommand {
-
-    private String imageToUpdate;
-    private String layerToUpdate;
+  class BlurCommand extends ApplyMutatorCommand {
 
     /**
-     * Constructs a new BlurCommand, to be applied to either an existing image or existing layer of
-     * and existing image.
+     * Constructs a new BlurCommand, to be applied to an existing GraphOfPixels or layer of an
+     * existing layered image on one thread.
      *
-     * @param imageToUpdate The name of the image to be blurred, or the layeredImage which contains
-     *                      the layer to be blurred.
-     * @param layerToUpdate The name of the layer to be blurred, might be null if this command is
-     *                      applied to a non-layered image.
+     * @param imageToUpdate The name of the image to be blurred, or the layered image which
+     *                      contains the layer to be blurred
+     * @param layerToUpdate The name of the layer to be blurred, may be null if applied to a
+     *                      non-layered image
      * @throws IllegalArgumentException If given a null imageToUpdate
      */
     public BlurCommand(String imageToUpdate, String layerToUpdate) throws IllegalArgumentException {
-      if (imageToUpdate == null) {
-        throw new IllegalArgumentException("Null input");
-      }
-      this.imageToUpdate = imageToUpdate;
-      this.layerToUpdate = layerToUpdate;
+      super(imageToUpdate, layerToUpdate, 1);
+    }
+
+    /**
+     * Constructs a new BlurCommand, to be applied to an existing GraphOfPixels or layer of an
+     * existing layered image using the given number of threads.
+     *
+     * @param imageToUpdate The name of the image to be blurred, or the layered image which
+     *                      contains the layer to be blurred
+     * @param layerToUpdate The name of the layer to be blurred, may be null if applied to a
+     *                      non-layered image
+     * @param parallelism   The number of threads to use
+     * @throws IllegalArgumentException If given a null imageToUpdate, or the parallelism is not
+     *                                  positive
+     */
+    public BlurCommand(String imageToUpdate, String layerToUpdate, int parallelism)
+        throws IllegalArgumentException {
+      super(imageToUpdate, layerToUpdate, parallelism);
     }
 
     @Override
-    public void execute(Map<String, GraphOfPixels> graphs,
-        Map<String, LayeredImage> layeredImages) throws IllegalArgumentException {
-      if (graphs == null || layeredImages == null) {
-        throw new IllegalArgumentException("Null inputs");
-      }
-      if (graphs.containsKey(imageToUpdate)) {
-        graphs.get(imageToUpdate).applyMutator(new BlurFilter());
-      } else if (layeredImages.containsKey(imageToUpdate)) {
-        if (layerToUpdate == null) {
-          throw new IllegalArgumentException("Null layer to be blurred");
-        }
-        layeredImages.get(imageToUpdate).getLayer(layerToUpdate).applyMutator(new BlurFilter());
-      } else {
-        throw new IllegalArgumentException(
-            "The image this command is trying to blur does not exist");
-      }
+    protected Mutator createMutator() {
+      return new BlurFilter();
     }
 
     @Override
-    public void alterLanguageState(LanguageSyntax toAlter) throws IllegalArgumentException {
-      // This command does not impact the current state of the language
-      if (toAlter == null) {
-        throw new IllegalArgumentException("Null input");
-      }
+    protected String getMissingImageMessage() {
+      return "The image this command is trying to blur does not exist";
     }
   }
 
@@ -1084,103 +1217,378 @@ public interface ParsedCommand {
    * Represents a command to apply a greyscale transformation to either a graph of pixels or layer
    * of a layered image.
    */
-  class GreyscaleCommand implements ParsedCommand {
-
-    private String imageToUpdate;
-    private String layerToUpdate;
+  class GreyscaleCommand extends ApplyMutatorCommand {
 
     /**
      * Constructs a new GreyscaleCommand, to be applied to an existing GraphOfPixels or layer of an
-     * existing layered image.
+     * existing layered image on one thread.
      *
-     * @param imageToUpdate The name of the image to be applied to
-     * @param layerToUpdate The name of the layer to be applied to, may be null if applied to a
+     * @param imageToUpdate The name of the image to be made greyscale, or the layered image which
+     *                      contains the layer to be made greyscale
+     * @param layerToUpdate The name of the layer to be made greyscale, may be null if applied to a
      *                      non-layered image
      * @throws IllegalArgumentException If given a null imageToUpdate
      */
     public GreyscaleCommand(String imageToUpdate, String layerToUpdate)
         throws IllegalArgumentException {
-      if (imageToUpdate == null) {
-        throw new IllegalArgumentException("Null image name");
-      }
-      this.imageToUpdate = imageToUpdate;
-      this.layerToUpdate = layerToUpdate;
+      super(imageToUpdate, layerToUpdate, 1);
+    }
+
+    /**
+     * Constructs a new GreyscaleCommand, to be applied to an existing GraphOfPixels or layer of an
+     * existing layered image using the given number of threads.
+     *
+     * @param imageToUpdate The name of the image to be made greyscale, or the layered image which
+     *                      contains the layer to be made greyscale
+     * @param layerToUpdate The name of the layer to be made greyscale, may be null if applied to a
+     *                      non-layered image
+     * @param parallelism   The number of threads to use
+     * @throws IllegalArgumentException If given a null imageToUpdate, or the parallelism is not
+     *                                  positive
+     */
+    public GreyscaleCommand(String imageToUpdate, String layerToUpdate, int parallelism)
+        throws IllegalArgumentException {
+      super(imageToUpdate, layerToUpdate, parallelism);
     }
 
     @Override
-    public void execute(Map<String, GraphOfPixels> graphs,
-        Map<String, LayeredImage> layeredImages) throws IllegalArgumentException {
-      if (graphs == null || layeredImages == null) {
-        throw new IllegalArgumentException("Null inputs");
+    protected Mutator createMutator() {
+      return new GreyscaleTransform();
+    }
+
+    @Override
+    protected String getMissingImageMessage() {
+      return "The image this command is supposed to Greyscale does not exist";
+    }
+  }
+
+  /**
+   * Represents a command to apply a sepia transformation to either a graph of pixels or layer of a
+   * layered image.
+   */
+  class SepiaCommand extends ApplyMutatorCommand {
+
+    /**
+     * Constructs a new SepiaCommand, to be applied to an existing GraphOfPixels or layer of an
+     * existing layered image on one thread.
+     *
+     * @param imageToUpdate The name of the image to be made sepia, or the layered image which
+     *                      contains the layer to be made sepia
+     * @param layerToUpdate The name of the layer to be made sepia, may be null if applied to a
+     *                      non-layered image
+     * @throws IllegalArgumentException If given a null imageToUpdate
+     */
+    public SepiaCommand(String imageToUpdate, String layerToUpdate)
+        throws IllegalArgumentException {
+      super(imageToUpdate, layerToUpdate, 1);
+    }
+
+    /**
+     * Constructs a new SepiaCommand, to be applied to an existing GraphOfPixels or layer of an
+     * existing layered image using the given number of threads.
+     *
+     * @param imageToUpdate The name of the image to be made sepia, or the layered image which
+     *                      contains the layer to be made sepia
+     * @param layerToUpdate The name of the layer to be made sepia, may be null if applied to a
+     *                      non-layered image
+     * @param parallelism   The number of threads to use
+     * @throws IllegalArgumentException If given a null imageToUpdate, or the parallelism is not
+     *                                  positive
+     */
+    public SepiaCommand(String imageToUpdate, String layerToUpdate, int parallelism)
+        throws IllegalArgumentException {
+      super(imageToUpdate, layerToUpdate, parallelism);
+    }
+
+    @Override
+    protected Mutator createMutator() {
+      return new SepiaTransform();
+    }
+
+    @Override
+    protected String getMissingImageMessage() {
+      return "The image this command is supposed to blur does not exit";
+    }
+  }
+
+  /**
+   * Represents a command to apply any color matrix to either a graph of pixels or layer of a
+   * layered image.
+   */
+  class ColorMatrixCommand extends ApplyMutatorCommand {
+
+    private final ColorMatrixTransform transform;
+
+    /**
+     * Constructs a new ColorMatrixCommand, to be applied to an existing GraphOfPixels or layer of
+     * an existing layered image on one thread.
+     *
+     * @param imageToUpdate The name of the image to be transformed, or the layered image which
+     *                      contains the layer to be transformed
+     * @param layerToUpdate The name of the layer to be transformed, may be null if applied to a
+     *                      non-layered image
+     * @param matrix        The rows for red, green and blue in that order, each of 3 values, or of
+     *                      4 values where the last is an offset
+     * @throws IllegalArgumentException If given a null imageToUpdate, or the matrix is not 3 rows
+     *                                  of 3 or 4 values
+     */
+    public ColorMatrixCommand(String imageToUpdate, String layerToUpdate, double[][] matrix)
+        throws IllegalArgumentException {
+      this(imageToUpdate, layerToUpdate, matrix, 1);
+    }
+
+    /**
+     * Constructs a new ColorMatrixCommand, to be applied to an existing GraphOfPixels or layer of
+     * an existing layered image using the given number of threads.
+     *
+     * @param imageToUpdate The name of the image to be transformed, or the layered image which
+     *                      contains the layer to be transformed
+     * @param layerToUpdate The name of the layer to be transformed, may be null if applied to a
+     *                      non-layered image
+     * @param matrix        The rows for red, green and blue in that order, each of 3 values, or of
+     *                      4 values where the last is an offset
+     * @param parallelism   The number of threads to use
+     * @throws IllegalArgumentException If given a null imageToUpdate, the matrix is not 3 rows of 3
+     *                                  or 4 values, or the parallelism is not positive
+     */
+    public ColorMatrixCommand(String imageToUpdate, String layerToUpdate, double[][] matrix,
+        int parallelism) throws IllegalArgumentException {
+      super(imageToUpdate, layerToUpdate, parallelism);
+      this.transform = new ColorMatrixTransform(matrix);
+    }
+
+    @Override
+    protected Mutator createMutator() {
+      return this.transform;
+    }
+
+    @Override
+    protected String getMissingImageMessage() {
+      return "The image this command is supposed to transform does not exist";
+    }
+  }
+
+  /**
+   * Represents a command to apply a lookup table transformation, such as brightening, gamma,
+   * inverting or levels, to either a graph of pixels or layer of a layered image.
+   */
+  class LookupCommand extends ApplyMutatorCommand {
+
+    private final AbstractLookupTransformation transform;
+
+    /**
+     * Constructs a new LookupCommand, to be applied to an existing GraphOfPixels or layer of an
+     * existing layered image using the given number of threads.
+     *
+     * @param imageToUpdate The name of the image to be transformed, or the layered image which
+     *                      contains the layer to be transformed
+     * @param layerToUpdate The name of the layer to be transformed, may be null if applied to a
+     *                      non-layered image
+     * @param transform     The transformation to be applied
+     * @param parallelism   The number of threads to use
+     * @throws IllegalArgumentException If given a null imageToUpdate or transform, or the
+     *                                  parallelism is not positive
+     */
+    public LookupCommand(String imageToUpdate, String layerToUpdate,
+        AbstractLookupTransformation transform, int parallelism) throws IllegalArgumentException {
+      super(imageToUpdate, layerToUpdate, parallelism);
+      if (transform == null) {
+        throw new IllegalArgumentException("Null transformation");
       }
-      if (graphs.containsKey(imageToUpdate)) {
-        graphs.get(imageToUpdate).applyMutator(new GreyscaleTransform());
-      } else if (layeredImages.containsKey(imageToUpdate)) {
-        if (layerToUpdate == null) {
-          throw new IllegalArgumentException("Null layer");
+      this.transform = transform;
+    }
+
+    @Override
+    protected Mutator createMutator() {
+      return this.transform;
+    }
+
+    @Override
+    protected String getMissingImageMessage() {
+      return "The image this command is supposed to transform does not exist";
+    }
+  }
+
+  /**
+   * Represents several commands which apply mutators to the same graph of pixels or layer of a
+   * layered image, run as one pipeline so the image is passed over as few times as possible.
+   */
+  class PipelineCommand extends ApplyMutatorCommand {
+
+    private final List<ApplyMutatorCommand> commands;
+
+    /**
+     * Constructs a new PipelineCommand, which has the same effect as running the given commands in
+     * order.
+     *
+     * @param commands The commands to be run, which must all have the same target
+     * @throws IllegalArgumentException If the list is null or empty, any command is null, or the
+     *                                  commands do not all have the same target
+     */
+    public PipelineCommand(List<ApplyMutatorCommand> commands) throws IllegalArgumentException {
+      super(PipelineCommand.firstOf(commands).imageToUpdate, commands.get(0).layerToUpdate,
+          commands.get(0).parallelism);
+      for (ApplyMutatorCommand command : commands) {
+        if (command == null) {
+          throw new IllegalArgumentException("Null command");
         }
-        layeredImages.get(imageToUpdate).getLayer(layerToUpdate)
-            .applyMutator(new GreyscaleTransform());
-      } else {
-        throw new IllegalArgumentException(
-            "The image this command is supposed to Greyscale does not"
-                + " exist");
+        if (!this.hasSameTarget(command)) {
+          throw new IllegalArgumentException("Commands must all have the same target");
+        }
+      }
+      this.commands = new ArrayList<ApplyMutatorCommand>(commands);
+    }
+
+    /**
+     * Returns the first of the given commands, checking that there is one.
+     *
+     * @param commands The commands to be run
+     * @return The first command
+     * @throws IllegalArgumentException If the list is null or empty, or the first command is null
+     */
+    private static ApplyMutatorCommand firstOf(List<ApplyMutatorCommand> commands)
+        throws IllegalArgumentException {
+      if (commands == null || commands.isEmpty() || commands.get(0) == null) {
+        throw new IllegalArgumentException("No commands given");
       }
+      return commands.get(0);
     }
 
     @Override
-    public void alterLanguageState(LanguageSyntax toAlter) throws IllegalArgumentException {
-      // This command does not impact the current state of the language
-      if (toAlter == null) {
-        throw new IllegalArgumentException("Null input");
+    protected Mutator createMutator() {
+      List<Mutator> mutators = new ArrayList<Mutator>();
+      for (ApplyMutatorCommand command : this.commands) {
+        mutators.add(command.createMutator());
       }
+      return new MutatorPipeline(mutators);
+    }
+
+    @Override
+    protected String getMissingImageMessage() {
+      // Reported as the first of the commands would have been on it's own
+      return this.commands.get(0).getMissingImageMessage();
     }
   }
 
   /**
-   * Represents a command to apply a sepia transformation to either a graph of pixels or layer of a
-   * layered image.
+   * Represents a command to apply a mutator to either a graph of pixels or layer of a layered
+   * image, sharing the work between some number of threads.
    */
-  class SepiaCommand implements ParsedCommand {
+  abstract class ApplyMutatorCommand implements PixelCommand {
 
-    private String imageToUpdate;
-    private String layerToUpdate;
+    private final String imageToUpdate;
+    private final String layerToUpdate;
+    private final int parallelism;
 
     /**
-     * Constructs a new SepiaCommand, to be applied to an existing GraphOfPixels or layer of an
+     * Constructs a new command to apply a mutator to an existing GraphOfPixels or layer of an
      * existing layered image.
      *
-     * @param imageToUpdate The name of the image to be applied to
+     * @param imageToUpdate The name of the image to be applied to, or the layered image which
+     *                      contains the layer to be applied to
      * @param layerToUpdate The name of the layer to be applied to, may be null if applied to a
      *                      non-layered image
-     * @throws IllegalArgumentException If given a null imageToUpdate
+     * @param parallelism   The number of threads to use
+     * @throws IllegalArgumentException If given a null imageToUpdate, or the parallelism is not
+     *                                  positive
      */
-    public SepiaCommand(String imageToUpdate, String layerToUpdate)
+    protected ApplyMutatorCommand(String imageToUpdate, String layerToUpdate, int parallelism)
         throws IllegalArgumentException {
       if (imageToUpdate == null) {
         throw new IllegalArgumentException("Null image name");
       }
+      if (parallelism <= 0) {
+        throw new IllegalArgumentException("Parallelism must be positive");
+      }
       this.imageToUpdate = imageToUpdate;
       this.layerToUpdate = layerToUpdate;
+      this.parallelism = parallelism;
+    }
+
+    /**
+     * Creates the mutator this command applies.
+     *
+     * @return The mutator to be applied
+     */
+    protected abstract Mutator createMutator();
+
+    /**
+     * Returns the message given when the image this command is to change does not exist.
+     *
+     * @return The message
+     */
+    protected abstract String getMissingImageMessage();
+
+    /**
+     * Returns whether the given command applies it's mutator to the same image or layer as this
+     * one, using the same number of threads, so that the two can be applied as one pipeline.
+     *
+     * @param other The command to be compared to
+     * @return Whether the commands have the same target
+     * @throws IllegalArgumentException If the given command is null
+     */
+    public boolean hasSameTarget(ApplyMutatorCommand other) throws IllegalArgumentException {
+      if (other == null) {
+        throw new IllegalArgumentException("Null command");
+      }
+      return this.imageToUpdate.equals(other.imageToUpdate)
+          && Objects.equals(this.layerToUpdate, other.layerToUpdate)
+          && this.parallelism == other.parallelism;
+    }
+
+    /**
+     * Returns a quick, low resolution preview of the layered image this command changes, as it
+     * would look after this command, without executing it.
+     *
+     * @param layeredImages The layered images that currently exist
+     * @param maxPixels     The greatest number of pixels the preview may have
+     * @return The preview
+     * @throws IllegalArgumentException If the layered images are null, this command does not
+     *                                  change a layer of one of them, or maxPixels is not positive
+     */
+    public BufferedImage preview(Map<String, LayeredImage> layeredImages, int maxPixels)
+        throws IllegalArgumentException {
+      if (layeredImages == null) {
+        throw new IllegalArgumentException("Null inputs");
+      }
+      if (!layeredImages.containsKey(imageToUpdate) || layerToUpdate == null) {
+        throw new IllegalArgumentException("Only a layer of a layered image can be previewed");
+      }
+      return layeredImages.get(imageToUpdate).getPreview(layerToUpdate, this.createMutator(),
+          maxPixels);
     }
 
     @Override
-    public void execute(Map<String, GraphOfPixels> graphs,
+    public FixedSizeGraph getTarget(Map<String, GraphOfPixels> graphs,
         Map<String, LayeredImage> layeredImages) throws IllegalArgumentException {
       if (graphs == null || layeredImages == null) {
         throw new IllegalArgumentException("Null inputs");
       }
       if (graphs.containsKey(imageToUpdate)) {
-        graphs.get(imageToUpdate).applyMutator(new SepiaTransform());
+        return graphs.get(imageToUpdate);
       } else if (layeredImages.containsKey(imageToUpdate)) {
         if (layerToUpdate == null) {
           throw new IllegalArgumentException("Null layer");
         }
-        layeredImages.get(imageToUpdate).getLayer(layerToUpdate).applyMutator(new SepiaTransform());
+        return layeredImages.get(imageToUpdate).getLayer(layerToUpdate);
       } else {
-        throw new IllegalArgumentException(
-            "The image this command is supposed to blur does not exit");
+        throw new IllegalArgumentException(this.getMissingImageMessage());
+      }
+    }
+
+    @Override
+    public Rectangle getTargetRegion(FixedSizeGraph target) throws IllegalArgumentException {
+      if (target == null) {
+        throw new IllegalArgumentException("Null target");
       }
+      // Mutators may change every pixel, and the history only keeps the tiles which did change
+      return new Rectangle(0, 0, target.getWidth(), target.getHeight());
+    }
+
+    @Override
+    public void execute(Map<String, GraphOfPixels> graphs,
+        Map<String, LayeredImage> layeredImages) throws IllegalArgumentException {
+      this.getTarget(graphs, layeredImages).applyMutator(this.createMutator(), this.parallelism);
     }
 
     @Override
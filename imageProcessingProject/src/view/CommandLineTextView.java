@@ -38,6 +38,6 @@ public class CommandLineTextView implements View {
 
   @Override
   public void showView() {
-    new ProcessingController(this, new InputStreamReader(System.in)).run();
+    new ProcessingController(this, new InputStreamReader(System.in), true).run();
   }
 }
@@ -50,7 +50,7 @@ public interface ErrorView extends View {
 
     @Override
     public void showView() {
-      new ProcessingController(this, new InputStreamReader(System.in)).run();
+      new ProcessingController(this, new InputStreamReader(System.in), true).run();
     }
   }
 }
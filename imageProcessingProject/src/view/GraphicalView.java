@@ -2,15 +2,27 @@ package view;
 
 import controller.ImageProcessingController;
 import controller.ProcessingController;
+import imageasgraph.ImagePyramid;
 import java.awt.BorderLayout;
+import java.awt.Component;
+import java.awt.Graphics;
+import java.awt.Insets;
+import java.awt.Rectangle;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import javax.swing.BoxLayout;
 import javax.swing.ButtonGroup;
+import javax.swing.Icon;
 import javax.swing.ImageIcon;
 import javax.swing.JButton;
 import javax.swing.JFileChooser;
@@ -21,6 +33,7 @@ import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.JProgressBar;
 import javax.swing.JRadioButton;
 import javax.swing.JScrollPane;
 import javax.swing.SwingUtilities;
@@ -34,6 +47,8 @@ import layeredimage.blend.AbstractBlend;
  */
 public class GraphicalView extends JFrame implements View, ActionListener {
 
+  private static final int maxZoom = 4;
+
   private final ImageProcessingController controller;
   private ViewModel display;
   private String currentImageName;
@@ -41,6 +56,7 @@ public class GraphicalView extends JFrame implements View, ActionListener {
 
   private JPanel mainPanel;
   private ImageIcon imagePanel;
+  private JLabel imageHolder;
   private JPanel layerSelectors;
   private JMenu layerMenu;
   private JMenuItem newLayer;
@@ -53,6 +69,12 @@ public class GraphicalView extends JFrame implements View, ActionListener {
   private JPanel layerShowers;
   private JPanel layerHiders;
   private JMenu tabs;
+  private JPanel statusPanel;
+  private JProgressBar progress;
+  private final ExecutorService executor;
+  private Future<?> running;
+  private int zoom;
+  private ZoomedIcon zoomedIcon;
 
   /**
    * Constructs a new graphical view - initializes all unchanging JFrame components as well as the
@@ -108,6 +130,14 @@ public class GraphicalView extends JFrame implements View, ActionListener {
     applySepia.addActionListener(this);
     applyMutator.add(applySepia);
     edit.add(applyMutator);
+    JMenuItem undo = new JMenuItem("Undo");
+    undo.setActionCommand("Undo");
+    undo.addActionListener(this);
+    edit.add(undo);
+    JMenuItem redo = new JMenuItem("Redo");
+    redo.setActionCommand("Redo");
+    redo.addActionListener(this);
+    edit.add(redo);
     menuBar.add(edit);
 
     layerMenu = new JMenu("Layer");
@@ -128,8 +158,23 @@ public class GraphicalView extends JFrame implements View, ActionListener {
     tabs = new JMenu("Current Images");
     menuBar.add(tabs);
 
+    JMenu viewMenu = new JMenu("View");
+    JMenuItem zoomIn = new JMenuItem("Zoom In");
+    zoomIn.setActionCommand("Zoom In");
+    zoomIn.addActionListener(this);
+    viewMenu.add(zoomIn);
+    JMenuItem zoomOut = new JMenuItem("Zoom Out");
+    zoomOut.setActionCommand("Zoom Out");
+    zoomOut.addActionListener(this);
+    viewMenu.add(zoomOut);
+    JMenuItem actualSize = new JMenuItem("Actual Size");
+    actualSize.setActionCommand("Actual Size");
+    actualSize.addActionListener(this);
+    viewMenu.add(actualSize);
+    menuBar.add(viewMenu);
+
     imagePanel = new ImageIcon();
-    JLabel imageHolder = new JLabel();
+    imageHolder = new JLabel();
     imageHolder.setLayout(new BorderLayout());
     imageHolder.setIcon(imagePanel);
     JScrollPane imageScrollPane = new JScrollPane(imageHolder);
@@ -199,8 +244,24 @@ public class GraphicalView extends JFrame implements View, ActionListener {
     mainPanel.add(rightScrollPane, BorderLayout.EAST);
     mainPanel.add(leftScrollPane, BorderLayout.WEST);
     mainPanel.add(menuBar, BorderLayout.NORTH);
+
+    statusPanel = new JPanel();
+    statusPanel.setLayout(new BoxLayout(statusPanel, BoxLayout.LINE_AXIS));
+    progress = new JProgressBar();
+    progress.setStringPainted(true);
+    statusPanel.add(progress);
+    JButton cancel = new JButton("Cancel");
+    cancel.setActionCommand("Cancel Command");
+    cancel.addActionListener(this);
+    statusPanel.add(cancel);
+    statusPanel.setVisible(false);
+    mainPanel.add(statusPanel, BorderLayout.SOUTH);
     add(mainScrollPane);
     this.controller = new ProcessingController(this);
+    this.executor = Executors.newSingleThreadExecutor(new DaemonThreads());
+    this.running = null;
+    this.zoom = 0;
+    this.zoomedIcon = null;
   }
 
   @Override
@@ -208,9 +269,25 @@ public class GraphicalView extends JFrame implements View, ActionListener {
     if (message == null) {
       throw new IllegalArgumentException("Null Message");
     }
+    if (!SwingUtilities.isEventDispatchThread()) {
+      SwingUtilities.invokeLater(new ShowMessage(this, message));
+      return;
+    }
     JOptionPane.showMessageDialog(GraphicalView.this, message, "Error", JOptionPane.ERROR_MESSAGE);
   }
 
+  @Override
+  public void renderProgress(int linesRun) throws IllegalArgumentException {
+    if (linesRun < 0) {
+      throw new IllegalArgumentException("Negative progress");
+    }
+    if (!SwingUtilities.isEventDispatchThread()) {
+      SwingUtilities.invokeLater(new ShowProgress(this, linesRun));
+      return;
+    }
+    this.progress.setValue(linesRun);
+  }
+
   @Override
   public void showView() {
     this.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
@@ -229,18 +306,7 @@ public class GraphicalView extends JFrame implements View, ActionListener {
 
       String commandToExecute =
           "create-layered-image " + f.getName() + " " + f.getPath().replaceAll(" ", ">");
-      this.controller.runCommands(commandToExecute);
-      try {
-        this.display = controller.getReferenceToImage(f.getName());
-      } catch (IllegalArgumentException exception) {
-        this.renderException(exception.getMessage());
-      }
-      this.currentImageName = f.getName();
-      this.currentLayerName = null;
-      this.imagePanel.setImage(this.display.getImageRepresentation());
-      this.updateLayerButtons();
-      this.updateTabs();
-      SwingUtilities.updateComponentTreeUI(mainPanel);
+      this.runInBackground(commandToExecute, f.getName(), false);
     }
   }
 
@@ -251,9 +317,7 @@ public class GraphicalView extends JFrame implements View, ActionListener {
     if (!(this.currentImageName == null || this.currentLayerName == null)) {
       String commandToExecute =
           "apply-mutator blur " + this.currentImageName + " " + this.currentLayerName;
-      this.controller.runCommands(commandToExecute);
-      this.imagePanel.setImage(this.display.getImageRepresentation());
-      SwingUtilities.updateComponentTreeUI(mainPanel);
+      this.runInBackground(commandToExecute, null, false, true);
     }
   }
 
@@ -265,9 +329,7 @@ public class GraphicalView extends JFrame implements View, ActionListener {
     if (!(this.currentImageName == null || this.currentLayerName == null)) {
       String commandToExecute =
           "apply-mutator sharpen " + this.currentImageName + " " + this.currentLayerName;
-      this.controller.runCommands(commandToExecute);
-      this.imagePanel.setImage(this.display.getImageRepresentation());
-      SwingUtilities.updateComponentTreeUI(mainPanel);
+      this.runInBackground(commandToExecute, null, false, true);
     }
   }
 
@@ -279,9 +341,7 @@ public class GraphicalView extends JFrame implements View, ActionListener {
     if (!(this.currentImageName == null || this.currentLayerName == null)) {
       String commandToExecute =
           "apply-mutator greyscale " + this.currentImageName + " " + this.currentLayerName;
-      this.controller.runCommands(commandToExecute);
-      this.imagePanel.setImage(this.display.getImageRepresentation());
-      SwingUtilities.updateComponentTreeUI(mainPanel);
+      this.runInBackground(commandToExecute, null, false, true);
     }
   }
 
@@ -293,9 +353,7 @@ public class GraphicalView extends JFrame implements View, ActionListener {
     if (!(this.currentImageName == null || this.currentLayerName == null)) {
       String commandToExecute =
           "apply-mutator sepia " + this.currentImageName + " " + this.currentLayerName;
-      this.controller.runCommands(commandToExecute);
-      this.imagePanel.setImage(this.display.getImageRepresentation());
-      SwingUtilities.updateComponentTreeUI(mainPanel);
+      this.runInBackground(commandToExecute, null, false, true);
     }
   }
 
@@ -314,9 +372,7 @@ public class GraphicalView extends JFrame implements View, ActionListener {
             "save " + this.currentImageName + " " + this.currentLayerName + " "
                 + f.getName().substring(f.getName().lastIndexOf(".") + 1) + " "
                 + f.getPath().replaceAll(" ", ">").substring(0, f.getPath().lastIndexOf("."));
-        this.controller.runCommands(commandToExecute);
-        this.updateLayerButtons();
-        SwingUtilities.updateComponentTreeUI(mainPanel);
+        this.runInBackground(commandToExecute, null, false);
       }
     }
   }
@@ -327,9 +383,7 @@ public class GraphicalView extends JFrame implements View, ActionListener {
   private void handleAddNewLayer() {
     String newLayer = JOptionPane.showInputDialog("Enter the name of the new layer");
     String commandToExecute = "add-layer " + this.currentImageName + " " + newLayer;
-    this.controller.runCommands(commandToExecute);
-    this.updateLayerButtons();
-    SwingUtilities.updateComponentTreeUI(mainPanel);
+    this.runInBackground(commandToExecute, null, false);
   }
 
   /**
@@ -346,10 +400,7 @@ public class GraphicalView extends JFrame implements View, ActionListener {
       String commandToExecute =
           "add-image-as-layer " + this.currentImageName + " " + newLayer + " "
               + f.getPath().replaceAll(" ", ">");
-      this.controller.runCommands(commandToExecute);
-      this.imagePanel.setImage(this.display.getImageRepresentation());
-      this.updateLayerButtons();
-      SwingUtilities.updateComponentTreeUI(mainPanel);
+      this.runInBackground(commandToExecute, null, false);
     }
   }
 
@@ -365,9 +416,7 @@ public class GraphicalView extends JFrame implements View, ActionListener {
 
         String commandToExecute =
             "save-layered " + this.currentImageName + " " + f.getPath().replaceAll(" ", ">");
-        this.controller.runCommands(commandToExecute);
-        this.updateLayerButtons();
-        SwingUtilities.updateComponentTreeUI(mainPanel);
+        this.runInBackground(commandToExecute, null, false);
       }
     }
   }
@@ -391,11 +440,163 @@ public class GraphicalView extends JFrame implements View, ActionListener {
                 + blendType + " "
                 + f.getName().substring(f.getName().lastIndexOf(".") + 1) + " "
                 + f.getPath().replaceAll(" ", ">").substring(0, f.getPath().lastIndexOf("."));
-        this.controller.runCommands(commandToExecute);
-        this.updateLayerButtons();
-        SwingUtilities.updateComponentTreeUI(mainPanel);
+        this.runInBackground(commandToExecute, null, false);
+      }
+    }
+  }
+
+  /**
+   * Handles a user request to undo the latest change, or redo the latest undone one, then shows
+   * the images as they are afterwards, which may no longer include the image or layer that was
+   * being edited.
+   *
+   * @param isUndo Whether to undo rather than redo
+   */
+  private void handleHistory(boolean isUndo) {
+    boolean done = isUndo ? this.controller.undo() : this.controller.redo();
+    if (!done) {
+      this.renderException("Nothing to " + (isUndo ? "undo" : "redo"));
+      return;
+    }
+    this.refresh(null, false);
+  }
+
+  /**
+   * Handles a user request to zoom the current image in or out by a factor of two, or back to it's
+   * actual size. Zooming out shows a level of the image's pyramid, and zooming in stretches each
+   * pixel of the image, so either way only the pixels in view are drawn.
+   *
+   * @param change How many times to double the size the image is shown at, which is negative to
+   *               halve it instead, or 0 to show it at it's actual size
+   */
+  private void handleZoom(int change) {
+    if (this.display == null) {
+      return;
+    }
+    if (change == 0) {
+      this.zoom = 0;
+    } else {
+      int minZoom = 1 - this.display.getImagePyramid().getNumLevels();
+      this.zoom = Math.max(minZoom, Math.min(maxZoom, this.zoom + change));
+    }
+    this.showImage();
+  }
+
+  /**
+   * Runs the given commands on the controller on a background thread, so that the window keeps
+   * responding while they run, showing how far through them it is and letting the user cancel
+   * them. Only one set of commands is run at once, and the window is refreshed once they are done.
+   *
+   * @param commands    The commands to be run
+   * @param imageToShow The name of the image to show once they are done if it exists, or null to
+   *                    keep showing the current image
+   * @param showFirst   Whether to show the first image once they are done, whatever is given
+   */
+  private void runInBackground(String commands, String imageToShow, boolean showFirst) {
+    this.runInBackground(commands, imageToShow, showFirst, false);
+  }
+
+  /**
+   * Runs the given commands on the controller on a background thread, as above, first showing a
+   * quick, low resolution preview of their result in place of the image if asked to and if the
+   * controller can preview them.
+   *
+   * @param commands    The commands to be run
+   * @param imageToShow The name of the image to show once they are done if it exists, or null to
+   *                    keep showing the current image
+   * @param showFirst   Whether to show the first image once they are done, whatever is given
+   * @param preview     Whether to show a preview of the result while they run
+   */
+  private void runInBackground(String commands, String imageToShow, boolean showFirst,
+      boolean preview) {
+    if (this.running != null) {
+      this.renderException("Another command is still running, wait for it or cancel it");
+      return;
+    }
+    int lines = commands.split("\n").length;
+    this.progress.setIndeterminate(lines <= 1);
+    this.progress.setMaximum(lines);
+    this.progress.setValue(0);
+    this.statusPanel.setVisible(true);
+    this.running = this.executor.submit(new CommandJob(this, commands, imageToShow, showFirst,
+        preview));
+  }
+
+  /**
+   * Stops showing the progress of the commands which were running, now that they are done or
+   * have been cancelled, and shows the images as they are afterwards.
+   *
+   * @param imageToShow The name of the image to show if it exists, or null to keep showing the
+   *                    current image
+   * @param showFirst   Whether to show the first image, whatever is given
+   */
+  private void finishCommand(String imageToShow, boolean showFirst) {
+    this.running = null;
+    this.statusPanel.setVisible(false);
+    if (this.imageHolder.getIcon() != this.imagePanel) {
+      // The preview covered all of the image, so all of it is drawn again
+      this.imageHolder.setIcon(this.imagePanel);
+      this.imageHolder.repaint();
+    }
+    this.refresh(imageToShow, showFirst);
+  }
+
+  /**
+   * Shows the given preview of the result of the commands being run in place of the current image,
+   * stretched to the size the image is shown at, until they are done. A preview which is no
+   * smaller than the image gains nothing over waiting for the image itself, and is not shown.
+   *
+   * @param preview The preview
+   */
+  private void showPreview(BufferedImage preview) {
+    BufferedImage image = this.imagePanel.getImage() instanceof BufferedImage
+        ? (BufferedImage) this.imagePanel.getImage() : null;
+    if (this.running == null || image == null || preview.getWidth() >= image.getWidth()) {
+      return;
+    }
+    Icon shown = this.imageHolder.getIcon();
+    this.imageHolder.setIcon(new ScaledIcon(preview, shown.getIconWidth(),
+        shown.getIconHeight()));
+    this.imageHolder.repaint();
+  }
+
+  /**
+   * Shows the images as they are after commands were run or undone, which may no longer include
+   * the image or layer that was being edited.
+   *
+   * @param imageToShow The name of the image to show if it exists, or null to keep showing the
+   *                    current image
+   * @param showFirst   Whether to show the first image, whatever is given
+   */
+  private void refresh(String imageToShow, boolean showFirst) {
+    List<String> names = this.controller.getLayeredImageNames();
+    if (showFirst && names.size() != 0) {
+      imageToShow = names.get(0);
+    }
+    if (imageToShow != null && names.contains(imageToShow)) {
+      if (!imageToShow.equals(this.currentImageName)) {
+        this.currentLayerName = null;
+      }
+      this.currentImageName = imageToShow;
+    }
+    if (!names.contains(this.currentImageName)) {
+      this.currentImageName = null;
+      this.currentLayerName = null;
+      this.display = null;
+      if (names.size() != 0) {
+        this.currentImageName = names.get(0);
       }
     }
+    if (this.currentImageName != null) {
+      this.display = this.controller.getReferenceToImage(this.currentImageName);
+      if (!this.display.getLayerNames().contains(this.currentLayerName)) {
+        this.currentLayerName = null;
+      }
+      this.showImage();
+      this.updateLayerButtons();
+    }
+    this.updateTabs();
+    SwingUtilities.updateComponentTreeUI(mainPanel);
   }
 
   /**
@@ -421,15 +622,7 @@ public class GraphicalView extends JFrame implements View, ActionListener {
         commandToExecute.append(scanner.nextLine()).append("\n");
       }
       System.out.println(commandToExecute);
-      this.controller.runCommands(commandToExecute.toString());
-      if (controller.getLayeredImageNames().size() != 0) {
-        this.currentImageName = (controller.getLayeredImageNames().get(0));
-        this.display = controller.getReferenceToImage(currentImageName);
-        this.imagePanel.setImage(this.display.getImageRepresentation());
-      }
-      this.updateLayerButtons();
-      this.updateTabs();
-      SwingUtilities.updateComponentTreeUI(mainPanel);
+      this.runInBackground(commandToExecute.toString(), null, true);
     }
   }
 
@@ -438,6 +631,16 @@ public class GraphicalView extends JFrame implements View, ActionListener {
     if (e == null) {
       throw new IllegalArgumentException("Null action");
     }
+    if (e.getActionCommand().equals("Cancel Command")) {
+      if (this.running != null) {
+        this.running.cancel(true);
+      }
+      return;
+    }
+    if (this.running != null) {
+      this.renderException("Another command is still running, wait for it or cancel it");
+      return;
+    }
     switch (e.getActionCommand()) {
       case "Load File":
         this.handleLoadFile();
@@ -472,6 +675,21 @@ public class GraphicalView extends JFrame implements View, ActionListener {
       case "Execute Script":
         this.handleExecuteScript();
         break;
+      case "Undo":
+        this.handleHistory(true);
+        break;
+      case "Redo":
+        this.handleHistory(false);
+        break;
+      case "Zoom In":
+        this.handleZoom(1);
+        break;
+      case "Zoom Out":
+        this.handleZoom(-1);
+        break;
+      case "Actual Size":
+        this.handleZoom(0);
+        break;
       default:
         this.handleLayerCommand(e);
         this.handleTabCommand(e);
@@ -502,7 +720,7 @@ public class GraphicalView extends JFrame implements View, ActionListener {
             this.renderException(exception.getMessage());
           }
           this.currentLayerName = null;
-          this.imagePanel.setImage(this.display.getImageRepresentation());
+          this.showImage();
           this.updateLayerButtons();
           SwingUtilities.updateComponentTreeUI(mainPanel);
           return;
@@ -529,7 +747,7 @@ public class GraphicalView extends JFrame implements View, ActionListener {
       for (String layerName : display.getLayerNames()) {
         if (commandSecondPart.equals(layerName)) {
           this.currentLayerName = layerName;
-          this.imagePanel.setImage(this.display.getImageRepresentation());
+          this.showImage();
           SwingUtilities.updateComponentTreeUI(mainPanel);
           return;
         }
@@ -548,10 +766,7 @@ public class GraphicalView extends JFrame implements View, ActionListener {
           if (counter != 0) {
             String commandToExecute =
                 "move-layer " + this.currentImageName + " " + layerName + " " + (counter - 1);
-            this.controller.runCommands(commandToExecute);
-            this.updateLayerButtons();
-            this.imagePanel.setImage(this.display.getImageRepresentation());
-            SwingUtilities.updateComponentTreeUI(mainPanel);
+            this.runInBackground(commandToExecute, null, false);
             return;
           }
         }
@@ -571,10 +786,7 @@ public class GraphicalView extends JFrame implements View, ActionListener {
           if (counter != display.getLayerNames().size() - 1) {
             String commandToExecute =
                 "move-layer " + this.currentImageName + " " + layerName + " " + (counter + 1);
-            this.controller.runCommands(commandToExecute);
-            this.updateLayerButtons();
-            this.imagePanel.setImage(this.display.getImageRepresentation());
-            SwingUtilities.updateComponentTreeUI(mainPanel);
+            this.runInBackground(commandToExecute, null, false);
             return;
           }
         }
@@ -596,10 +808,7 @@ public class GraphicalView extends JFrame implements View, ActionListener {
           }
           String commandToExecute =
               "copy-layer " + this.currentImageName + " " + newLayer + " " + layerName;
-          this.controller.runCommands(commandToExecute);
-          this.updateLayerButtons();
-          this.imagePanel.setImage(this.display.getImageRepresentation());
-          SwingUtilities.updateComponentTreeUI(mainPanel);
+          this.runInBackground(commandToExecute, null, false);
           return;
         }
       }
@@ -615,10 +824,7 @@ public class GraphicalView extends JFrame implements View, ActionListener {
         if (commandSecondPart.equals(layerName)) {
           String commandToExecute =
               "update-visibility " + this.currentImageName + " " + layerName + " true";
-          this.controller.runCommands(commandToExecute);
-          this.updateLayerButtons();
-          this.imagePanel.setImage(this.display.getImageRepresentation());
-          SwingUtilities.updateComponentTreeUI(mainPanel);
+          this.runInBackground(commandToExecute, null, false);
           return;
         }
       }
@@ -634,16 +840,51 @@ public class GraphicalView extends JFrame implements View, ActionListener {
         if (commandSecondPart.equals(layerName)) {
           String commandToExecute =
               "update-visibility " + this.currentImageName + " " + layerName + " false";
-          this.controller.runCommands(commandToExecute);
-          this.updateLayerButtons();
-          this.imagePanel.setImage(this.display.getImageRepresentation());
-          SwingUtilities.updateComponentTreeUI(mainPanel);
+          this.runInBackground(commandToExecute, null, false);
           return;
         }
       }
     }
   }
 
+  /**
+   * Shows the current image representation of the currently displaying image, at the current
+   * zoom. If it is the image already shown at the same zoom, only the region of it which changed
+   * is drawn again, rather than the whole image.
+   */
+  private void showImage() {
+    BufferedImage image = this.display.getImageRepresentation();
+    Rectangle changed = this.display.getChangedRegion();
+    Icon shown = this.imagePanel;
+    if (this.zoom != 0) {
+      ImagePyramid pyramid = this.display.getImagePyramid();
+      if (this.zoomedIcon == null || !this.zoomedIcon.shows(pyramid, this.zoom)) {
+        this.zoomedIcon = new ZoomedIcon(pyramid, this.zoom);
+      }
+      shown = this.zoomedIcon;
+      changed = this.zoomedIcon.scale(changed);
+    }
+    if (image != this.imagePanel.getImage() || shown != this.imageHolder.getIcon()) {
+      this.imagePanel.setImage(image);
+      this.imageHolder.setIcon(shown);
+      this.imageHolder.revalidate();
+      this.imageHolder.repaint();
+    } else if (!changed.isEmpty()) {
+      Insets insets = this.imageHolder.getInsets();
+      Rectangle view = new Rectangle(insets.left, insets.top,
+          this.imageHolder.getWidth() - insets.left - insets.right,
+          this.imageHolder.getHeight() - insets.top - insets.bottom);
+      Rectangle icon = new Rectangle();
+      SwingUtilities.layoutCompoundLabel(this.imageHolder,
+          this.imageHolder.getFontMetrics(this.imageHolder.getFont()), null, shown,
+          this.imageHolder.getVerticalAlignment(), this.imageHolder.getHorizontalAlignment(),
+          this.imageHolder.getVerticalTextPosition(), this.imageHolder.getHorizontalTextPosition(),
+          view, icon, new Rectangle(), this.imageHolder.getIconTextGap());
+      this.imageHolder.repaint(icon.x + changed.x, icon.y + changed.y, changed.width,
+          changed.height);
+    }
+  }
+
   /**
    * Refreshes the currently available layer menu buttons and freestanding buttons, so that they
    * match the currently existing layers of the currently displaying image.
@@ -729,4 +970,298 @@ public class GraphicalView extends JFrame implements View, ActionListener {
       tabs.add(nextName);
     }
   }
+
+  /**
+   * Represents commands run on the controller of a view on a background thread, which tells the
+   * view to show the result on the event dispatch thread once they are done, even if they fail or
+   * are cancelled part of the way through.
+   */
+  private static class CommandJob implements Runnable {
+
+    private final GraphicalView view;
+    private final String commands;
+    private final String imageToShow;
+    private final boolean showFirst;
+    private final boolean preview;
+
+    /**
+     * Constructs the job of running the given commands on the controller of the given view.
+     *
+     * @param view        The view whose controller runs the commands
+     * @param commands    The commands to be run
+     * @param imageToShow The name of the image to show once they are done, or null
+     * @param showFirst   Whether to show the first image once they are done
+     * @param preview     Whether to show a preview of the result before running them
+     */
+    CommandJob(GraphicalView view, String commands, String imageToShow, boolean showFirst,
+        boolean preview) {
+      this.view = view;
+      this.commands = commands;
+      this.imageToShow = imageToShow;
+      this.showFirst = showFirst;
+      this.preview = preview;
+    }
+
+    @Override
+    public void run() {
+      try {
+        if (this.preview) {
+          BufferedImage shown = this.view.controller.previewCommand(this.commands);
+          if (shown != null) {
+            SwingUtilities.invokeLater(new ShowPreview(this.view, shown));
+          }
+        }
+        this.view.controller.runCommands(this.commands);
+      } finally {
+        SwingUtilities.invokeLater(new FinishCommand(this.view, this.imageToShow,
+            this.showFirst));
+      }
+    }
+  }
+
+  /**
+   * Represents showing the result of commands which were run on a background thread, on the event
+   * dispatch thread.
+   */
+  private static class FinishCommand implements Runnable {
+
+    private final GraphicalView view;
+    private final String imageToShow;
+    private final boolean showFirst;
+
+    /**
+     * Constructs the showing of the result of commands run on the controller of the given view.
+     *
+     * @param view        The view whose controller ran the commands
+     * @param imageToShow The name of the image to show, or null
+     * @param showFirst   Whether to show the first image
+     */
+    FinishCommand(GraphicalView view, String imageToShow, boolean showFirst) {
+      this.view = view;
+      this.imageToShow = imageToShow;
+      this.showFirst = showFirst;
+    }
+
+    @Override
+    public void run() {
+      this.view.finishCommand(this.imageToShow, this.showFirst);
+    }
+  }
+
+  /**
+   * Represents showing a preview made on a background thread, on the event dispatch thread.
+   */
+  private static class ShowPreview implements Runnable {
+
+    private final GraphicalView view;
+    private final BufferedImage preview;
+
+    /**
+     * Constructs the showing of the given preview by the given view.
+     *
+     * @param view    The view which shows the preview
+     * @param preview The preview
+     */
+    ShowPreview(GraphicalView view, BufferedImage preview) {
+      this.view = view;
+      this.preview = preview;
+    }
+
+    @Override
+    public void run() {
+      this.view.showPreview(this.preview);
+    }
+  }
+
+  /**
+   * Represents an icon which draws a small image stretched to a larger size, so that a preview
+   * takes up the same space as the image it stands in for.
+   */
+  private static class ScaledIcon implements Icon {
+
+    private final BufferedImage image;
+    private final int width;
+    private final int height;
+
+    /**
+     * Constructs an icon drawing the given image at the given size.
+     *
+     * @param image  The image to be drawn
+     * @param width  The width to draw it at
+     * @param height The height to draw it at
+     */
+    ScaledIcon(BufferedImage image, int width, int height) {
+      this.image = image;
+      this.width = width;
+      this.height = height;
+    }
+
+    @Override
+    public void paintIcon(Component c, Graphics g, int x, int y) {
+      g.drawImage(this.image, x, y, this.width, this.height, null);
+    }
+
+    @Override
+    public int getIconWidth() {
+      return this.width;
+    }
+
+    @Override
+    public int getIconHeight() {
+      return this.height;
+    }
+  }
+
+  /**
+   * Represents an icon which draws an image at a zoom, reading only the pixels of the level of the
+   * image's pyramid that are in view. Zooming out by a factor of two draws the next level of the
+   * pyramid, and zooming in draws each pixel of the image as a square.
+   */
+  private static class ZoomedIcon implements Icon {
+
+    private final ImagePyramid pyramid;
+    private final int zoom;
+    private final int level;
+    private final int scale;
+
+    /**
+     * Constructs an icon drawing the image of the given pyramid at the given zoom.
+     *
+     * @param pyramid The pyramid of the image
+     * @param zoom    How many times the image's size is doubled, or halved if negative
+     */
+    ZoomedIcon(ImagePyramid pyramid, int zoom) {
+      this.pyramid = pyramid;
+      this.zoom = zoom;
+      this.level = Math.min(Math.max(0, -zoom), pyramid.getNumLevels() - 1);
+      this.scale = 1 << Math.max(0, zoom);
+    }
+
+    /**
+     * Returns whether this icon draws the image of the given pyramid at the given zoom.
+     *
+     * @param pyramid The pyramid of the image
+     * @param zoom    The zoom
+     * @return Whether this icon draws it so
+     */
+    boolean shows(ImagePyramid pyramid, int zoom) {
+      return this.pyramid == pyramid && this.zoom == zoom;
+    }
+
+    /**
+     * Returns the region of this icon which shows the given region of the image.
+     *
+     * @param region The region of the image at it's actual size
+     * @return The region of this icon
+     */
+    Rectangle scale(Rectangle region) {
+      if (region.isEmpty()) {
+        return new Rectangle();
+      }
+      int left = region.x >> this.level;
+      int top = region.y >> this.level;
+      int right = (region.x + region.width + (1 << this.level) - 1) >> this.level;
+      int bottom = (region.y + region.height + (1 << this.level) - 1) >> this.level;
+      return new Rectangle(left * this.scale, top * this.scale, (right - left) * this.scale,
+          (bottom - top) * this.scale);
+    }
+
+    @Override
+    public void paintIcon(Component c, Graphics g, int x, int y) {
+      Rectangle area = new Rectangle(x, y, this.getIconWidth(), this.getIconHeight());
+      Rectangle clip = g.getClipBounds();
+      if (clip != null) {
+        area = area.intersection(clip);
+      }
+      if (area.isEmpty()) {
+        return;
+      }
+      // Only the pixels of the level under the area being drawn, which is what is in view, are read
+      int left = (area.x - x) / this.scale;
+      int top = (area.y - y) / this.scale;
+      int right = (area.x + area.width - x + this.scale - 1) / this.scale;
+      int bottom = (area.y + area.height - y + this.scale - 1) / this.scale;
+      int[] pixels = new int[(right - left) * (bottom - top)];
+      this.pyramid.readLevel(this.level, left, top, right - left, bottom - top, pixels);
+      BufferedImage region = new BufferedImage(right - left, bottom - top,
+          BufferedImage.TYPE_INT_ARGB);
+      region.getRaster().setDataElements(0, 0, right - left, bottom - top, pixels);
+      g.drawImage(region, x + left * this.scale, y + top * this.scale,
+          (right - left) * this.scale, (bottom - top) * this.scale, null);
+    }
+
+    @Override
+    public int getIconWidth() {
+      return this.pyramid.getLevelWidth(this.level) * this.scale;
+    }
+
+    @Override
+    public int getIconHeight() {
+      return this.pyramid.getLevelHeight(this.level) * this.scale;
+    }
+  }
+
+  /**
+   * Represents showing a message given from a background thread, on the event dispatch thread.
+   */
+  private static class ShowMessage implements Runnable {
+
+    private final GraphicalView view;
+    private final String message;
+
+    /**
+     * Constructs the showing of the given message by the given view.
+     *
+     * @param view    The view which shows the message
+     * @param message The message
+     */
+    ShowMessage(GraphicalView view, String message) {
+      this.view = view;
+      this.message = message;
+    }
+
+    @Override
+    public void run() {
+      this.view.renderException(this.message);
+    }
+  }
+
+  /**
+   * Represents showing progress given from a background thread, on the event dispatch thread.
+   */
+  private static class ShowProgress implements Runnable {
+
+    private final GraphicalView view;
+    private final int linesRun;
+
+    /**
+     * Constructs the showing of the given progress by the given view.
+     *
+     * @param view     The view which shows the progress
+     * @param linesRun The number of lines which have been run
+     */
+    ShowProgress(GraphicalView view, int linesRun) {
+      this.view = view;
+      this.linesRun = linesRun;
+    }
+
+    @Override
+    public void run() {
+      this.view.renderProgress(this.linesRun);
+    }
+  }
+
+  /**
+   * Represents a source of the threads commands are run on in the background, which do not keep
+   * the program running once the window has been closed.
+   */
+  private static class DaemonThreads implements ThreadFactory {
+
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, "image-processing-commands");
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
 }
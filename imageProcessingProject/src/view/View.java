@@ -13,6 +13,19 @@ public interface View {
    */
   void renderException(String message) throws IllegalArgumentException;
 
+  /**
+   * Renders how far through the commands it was given a controller is, as each line is reached.
+   * Views which only show what goes wrong do not show it.
+   *
+   * @param linesRun The number of lines which have been run
+   * @throws IllegalArgumentException If the number is negative
+   */
+  default void renderProgress(int linesRun) throws IllegalArgumentException {
+    if (linesRun < 0) {
+      throw new IllegalArgumentException("Negative progress");
+    }
+  }
+
   /**
    * Start up the view and begin taking scripts.
    */
@@ -0,0 +1,3354 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import controller.ProcessingController;
+import imageasgraph.AbstractGraphOfPixels;
+import imageasgraph.FixedSizeGraph;
+import imageasgraph.GraphFactory;
+import imageasgraph.GraphOfPixels;
+import imageasgraph.ImagePyramid;
+import imageasgraph.ImageToGraphConverter;
+import imageasgraph.ImageTransfer;
+import imageasgraph.InputType;
+import imageasgraph.MappedGraphOfPixels;
+import imageasgraph.Node;
+import imageasgraph.Node.EmptyNode;
+import imageasgraph.OutputType;
+import imageasgraph.PixelCursor;
+import imageasgraph.TiledGraphOfPixels;
+import imageasgraph.Utils;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import layeredimage.LayeredImage;
+import layeredimage.LayeredImageFile;
+import layeredimage.LayeredImageV0;
+import layeredimage.blend.AbstractBlend;
+import layeredimage.blend.BasicBlend;
+import layeredimage.blend.BlendMode;
+import layeredimage.blend.ModeBlend;
+import mutators.ColorMatrix;
+import mutators.Convolution;
+import mutators.LookupCompiler;
+import mutators.LookupTable;
+import mutators.Mutator;
+import mutators.Mutator.BlurFilter;
+import mutators.Mutator.BrightenTransform;
+import mutators.Mutator.ColorMatrixTransform;
+import mutators.Mutator.GammaTransform;
+import mutators.Mutator.GreyscaleTransform;
+import mutators.Mutator.InvertTransform;
+import mutators.Mutator.KernelFilter;
+import mutators.Mutator.LevelsTransform;
+import mutators.Mutator.LookupTransform;
+import mutators.Mutator.SepiaTransform;
+import mutators.Mutator.SharpenFilter;
+import mutators.MutatorPipeline;
+import mutators.matrices.Matrix;
+import mutators.matrices.MatrixImpl;
+import org.junit.Test;
+import pixel.SimplePixel;
+import scriptlanguage.LanguageSyntax;
+import scriptlanguage.LanguageSyntaxImpl;
+import scriptlanguage.ParsedCommand;
+import scriptlanguage.ParsedCommand.BlendCommand;
+import scriptlanguage.ParsedCommand.ColorMatrixCommand;
+import scriptlanguage.ParsedCommand.GreyscaleCommand;
+import scriptlanguage.ParsedCommand.LookupCommand;
+import scriptlanguage.ParsedCommand.SharpenCommand;
+import view.View;
+
+/**
+ * Tests functionality added to make the program handle large images quickly and with less memory.
+ */
+public class TestPerformanceFunctionality {
+
+  /**
+   * Asserts that every pixel of the two given graphs has the same colors and opacity.
+   *
+   * @param expected The graph with the expected pixels
+   * @param actual   The graph with the actual pixels
+   */
+  private static void assertSamePixels(GraphOfPixels expected, GraphOfPixels actual) {
+    assertEquals(expected.getWidth(), actual.getWidth());
+    assertEquals(expected.getHeight(), actual.getHeight());
+    Iterator<Node> expectedIter = expected.iterator();
+    Iterator<Node> actualIter = actual.iterator();
+    while (expectedIter.hasNext()) {
+      Node expectedNode = expectedIter.next();
+      Node actualNode = actualIter.next();
+      assertEquals(expectedNode.getOpacity(), actualNode.getOpacity());
+      assertEquals(expectedNode.getRed(), actualNode.getRed());
+      assertEquals(expectedNode.getGreen(), actualNode.getGreen());
+      assertEquals(expectedNode.getBlue(), actualNode.getBlue());
+    }
+    assertFalse(actualIter.hasNext());
+  }
+
+  /**
+   * Loads the given file as a graph stored in the manner described by the given factory.
+   *
+   * @param factory  The way the graph should be stored
+   * @param fileName The file to be loaded
+   * @return The loaded graph
+   */
+  private static GraphOfPixels loadWith(GraphFactory factory, String fileName) {
+    GraphFactory previous = ImageToGraphConverter.getGraphFactory();
+    ImageToGraphConverter.setGraphFactory(factory);
+    try {
+      return ImageToGraphConverter.convertImage(fileName);
+    } finally {
+      ImageToGraphConverter.setGraphFactory(previous);
+    }
+  }
+
+  /**
+   * Creates a graph of the given size, stored in the manner described by the given factory, with
+   * pixels of random colors and opacities, some of which are transparent.
+   *
+   * @param factory The way the graph should be stored
+   * @param width   The width of the graph
+   * @param height  The height of the graph
+   * @param seed    The seed for the random colors
+   * @return The created graph
+   */
+  private static GraphOfPixels randomGraph(GraphFactory factory, int width, int height,
+      long seed) {
+    GraphFactory previous = ImageToGraphConverter.getGraphFactory();
+    ImageToGraphConverter.setGraphFactory(factory);
+    GraphOfPixels graph;
+    try {
+      graph = ImageToGraphConverter.createTransparentGraph(width, height);
+    } finally {
+      ImageToGraphConverter.setGraphFactory(previous);
+    }
+    Random random = new Random(seed);
+    for (Node n : graph) {
+      n.updateColors(new SimplePixel(random.nextInt(256), random.nextInt(256),
+          random.nextInt(256)));
+      n.setOpacity(random.nextInt(4) == 0 ? 0 : random.nextInt(256));
+    }
+    return graph;
+  }
+
+  /**
+   * Computes the colors the given kernel should give the pixel at the given coordinates, by
+   * walking from it to each of it's neighbors as filters used to.
+   *
+   * @param graph  The graph the pixel is in
+   * @param x      The x coordinate of the pixel
+   * @param y      The y coordinate of the pixel
+   * @param kernel The kernel, as rows from top to bottom
+   * @return The expected red, green and blue values
+   */
+  private static int[] expectedFilter(GraphOfPixels graph, int x, int y, double[][] kernel) {
+    int r = kernel.length / 2;
+    double red = 0.0;
+    double green = 0.0;
+    double blue = 0.0;
+    Node n = graph.getPixelAt(x, y);
+    for (int i = -r; i <= r; i += 1) {
+      for (int j = r; j >= -r; j -= 1) {
+        double k = kernel[Math.abs(j - r)][i + r];
+        red += k * n.getNearby(i, j).getRed();
+        green += k * n.getNearby(i, j).getGreen();
+        blue += k * n.getNearby(i, j).getBlue();
+      }
+    }
+    return new int[]{
+        new SimplePixel(Utils.roundDouble(red), 0, 0).getRed(),
+        new SimplePixel(0, Utils.roundDouble(green), 0).getGreen(),
+        new SimplePixel(0, 0, Utils.roundDouble(blue)).getBlue()};
+  }
+
+  /**
+   * Asserts that applying the given filter to a random graph gives the same colors as walking
+   * the neighbors of every pixel with the given kernel.
+   *
+   * @param factory The way the graph should be stored
+   * @param width   The width of the graph
+   * @param height  The height of the graph
+   * @param filter  The filter to be applied
+   * @param kernel  The kernel of that filter, as rows from top to bottom
+   */
+  private static void assertFilterMatchesWalk(GraphFactory factory, int width, int height,
+      Mutator filter, double[][] kernel) {
+    GraphOfPixels graph = randomGraph(factory, width, height, 7);
+    int[][][] expected = new int[height][width][];
+    for (int y = 0; y < height; y += 1) {
+      for (int x = 0; x < width; x += 1) {
+        expected[y][x] = expectedFilter(graph, x, y, kernel);
+      }
+    }
+    int[] opacities = new int[width * height];
+    graph.readPixels(0, 0, width, height, opacities);
+    graph.applyMutator(filter);
+    for (int y = 0; y < height; y += 1) {
+      for (int x = 0; x < width; x += 1) {
+        Node n = graph.getPixelAt(x, y);
+        assertEquals(opacities[y * width + x] >>> 24, n.getOpacity());
+        n.setOpacity(255);
+        assertEquals(expected[y][x][0], n.getRed());
+        assertEquals(expected[y][x][1], n.getGreen());
+        assertEquals(expected[y][x][2], n.getBlue());
+      }
+    }
+  }
+
+  /**
+   * Tests for graphs stored as a single array of packed pixels.
+   */
+  public static class TestRasterGraphOfPixels {
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSetNullFactory() {
+      ImageToGraphConverter.setGraphFactory(null);
+    }
+
+    @Test
+    public void testLoadMatchesLinked() {
+      assertSamePixels(loadWith(GraphFactory.linked, "outputImages/example.png"),
+          loadWith(GraphFactory.raster, "outputImages/example.png"));
+      assertSamePixels(loadWith(GraphFactory.linked, "outputImages/example.ppm"),
+          loadWith(GraphFactory.raster, "outputImages/example.ppm"));
+    }
+
+    @Test
+    public void testMutatorsMatchLinked() {
+      GraphOfPixels linked = loadWith(GraphFactory.linked, "outputImages/example.png");
+      GraphOfPixels raster = loadWith(GraphFactory.raster, "outputImages/example.png");
+      linked.applyMutator(new BlurFilter());
+      raster.applyMutator(new BlurFilter());
+      linked.applyMutator(new SepiaTransform());
+      raster.applyMutator(new SepiaTransform());
+      assertSamePixels(linked, raster);
+    }
+
+    @Test
+    public void testNeighbors() {
+      GraphOfPixels raster = loadWith(GraphFactory.raster, "outputImages/example.png");
+      assertEquals(raster.getPixelAt(1, 0), raster.getPixelAt(0, 0).getRight());
+      assertEquals(raster.getPixelAt(0, 1), raster.getPixelAt(0, 0).getBelow());
+      assertEquals(raster.getPixelAt(0, 0), raster.getPixelAt(1, 1).getNearby(-1, 1));
+      assertEquals(new EmptyNode(), raster.getPixelAt(0, 0).getLeft());
+      assertEquals(new EmptyNode(), raster.getPixelAt(0, 0).getAbove());
+      assertEquals(new EmptyNode(),
+          raster.getPixelAt(raster.getWidth() - 1, 0).getNearby(1, 0));
+    }
+
+    @Test
+    public void testInsertRowAndColumn() {
+      ImageToGraphConverter.setGraphFactory(GraphFactory.raster);
+      GraphOfPixels raster;
+      try {
+        raster = ImageToGraphConverter.createEmptyGraph();
+      } finally {
+        ImageToGraphConverter.setGraphFactory(GraphFactory.linked);
+      }
+      raster.getPixelAt(0, 0).updateColors(new SimplePixel(10, 20, 30));
+      raster.insertColumn(0);
+      raster.insertRow(0);
+      assertEquals(2, raster.getWidth());
+      assertEquals(2, raster.getHeight());
+      assertEquals(10, raster.getPixelAt(0, 0).getRed());
+      assertEquals(30, raster.getPixelAt(0, 0).getBlue());
+      assertEquals(255, raster.getPixelAt(1, 0).getRed());
+      assertEquals(255, raster.getPixelAt(0, 1).getGreen());
+      assertEquals(255, raster.getPixelAt(1, 1).getOpacity());
+    }
+
+    @Test
+    public void testTransparentPixelsKeepColors() {
+      ImageToGraphConverter.setGraphFactory(GraphFactory.raster);
+      GraphOfPixels raster;
+      try {
+        raster = ImageToGraphConverter.createTransparentGraph(2, 2);
+      } finally {
+        ImageToGraphConverter.setGraphFactory(GraphFactory.linked);
+      }
+      Node n = raster.getPixelAt(1, 1);
+      assertTrue(n.isTransparent());
+      n.updateColors(new SimplePixel(300, 5, -4));
+      assertEquals(0, n.getRed());
+      n.setOpacity(255);
+      assertEquals(255, n.getRed());
+      assertEquals(5, n.getGreen());
+      assertEquals(0, n.getBlue());
+      n.editColors(-55, 10, 7);
+      assertEquals(200, n.getRed());
+      assertEquals(15, n.getGreen());
+      assertEquals(7, n.getBlue());
+    }
+  }
+
+  /**
+   * Tests for graphs stored in a file mapped into memory.
+   */
+  public static class TestMappedGraphOfPixels {
+
+    @Test
+    public void testLoadMatchesRaster() {
+      for (String fileName : new String[]{"outputImages/example.png", "outputImages/birb.jpg",
+          "outputImages/example.ppm", "transparent.png"}) {
+        GraphOfPixels mapped = loadWith(GraphFactory.mapped, fileName);
+        assertTrue(mapped instanceof MappedGraphOfPixels);
+        assertSamePixels(loadWith(GraphFactory.raster, fileName), mapped);
+      }
+    }
+
+    @Test
+    public void testMutatorsMatchRaster() {
+      GraphOfPixels mapped = loadWith(GraphFactory.mapped, "outputImages/example.png");
+      GraphOfPixels raster = loadWith(GraphFactory.raster, "outputImages/example.png");
+      for (GraphOfPixels graph : new GraphOfPixels[]{mapped, raster}) {
+        graph.applyMutator(new BlurFilter());
+        graph.applyMutator(new SharpenFilter(), 3);
+        graph.applyMutator(new SepiaTransform());
+        graph.applyMutator(new GammaTransform(1.8));
+      }
+      assertSamePixels(raster, mapped);
+    }
+
+    @Test
+    public void testCopyKeepsStoredValues() {
+      GraphOfPixels original = randomGraph(GraphFactory.raster, 30, 20, 41);
+      ImageToGraphConverter.setGraphFactory(GraphFactory.mapped);
+      GraphOfPixels copy;
+      try {
+        copy = ImageToGraphConverter.createCopyOfGraph(original);
+      } finally {
+        ImageToGraphConverter.setGraphFactory(GraphFactory.linked);
+      }
+      assertTrue(copy instanceof MappedGraphOfPixels);
+      int[] expected = new int[30 * 20];
+      int[] actual = new int[30 * 20];
+      original.readPixels(0, 0, 30, 20, expected);
+      copy.readPixels(0, 0, 30, 20, actual);
+      assertTrue(Arrays.equals(expected, actual));
+    }
+
+    @Test
+    public void testInsertRowAndColumn() {
+      GraphOfPixels mapped = randomGraph(GraphFactory.mapped, 5, 4, 42);
+      GraphOfPixels raster = randomGraph(GraphFactory.raster, 5, 4, 42);
+      for (GraphOfPixels graph : new GraphOfPixels[]{mapped, raster}) {
+        graph.insertRow(1);
+        graph.insertColumn(4);
+        graph.insertColumn(0);
+        graph.insertRow(4);
+      }
+      assertEquals(7, mapped.getWidth());
+      assertEquals(6, mapped.getHeight());
+      assertSamePixels(raster, mapped);
+    }
+
+    @Test
+    public void testNeighbors() {
+      GraphOfPixels mapped = randomGraph(GraphFactory.mapped, 4, 3, 43);
+      assertEquals(mapped.getPixelAt(1, 0), mapped.getPixelAt(0, 0).getRight());
+      assertEquals(mapped.getPixelAt(0, 1), mapped.getPixelAt(0, 0).getBelow());
+      assertEquals(mapped.getPixelAt(0, 0), mapped.getPixelAt(1, 1).getNearby(-1, 1));
+      assertEquals(new EmptyNode(), mapped.getPixelAt(0, 0).getAbove());
+      assertEquals(new EmptyNode(), mapped.getPixelAt(3, 2).getNearby(0, -1));
+    }
+
+    @Test
+    public void testTransparentGraph() {
+      ImageToGraphConverter.setGraphFactory(GraphFactory.mapped);
+      GraphOfPixels mapped;
+      try {
+        mapped = ImageToGraphConverter.createTransparentGraph(3, 2);
+      } finally {
+        ImageToGraphConverter.setGraphFactory(GraphFactory.linked);
+      }
+      Node n = mapped.getPixelAt(2, 1);
+      assertTrue(n.isTransparent());
+      n.setOpacity(255);
+      assertEquals(255, n.getRed());
+      n.editColors(-55, 0, 0);
+      assertEquals(200, n.getRed());
+    }
+  }
+
+  /**
+   * Tests for graphs stored as tiles which are shared between copies until changed.
+   */
+  public static class TestTiledGraphOfPixels {
+
+    /**
+     * Returns the number of bytes the calling thread allocates creating a tiled transparent graph
+     * of the given size, then copying it the given number of times.
+     *
+     * @param width  The width of the graph
+     * @param height The height of the graph
+     * @param copies The number of copies
+     * @return The number of bytes allocated
+     */
+    private static long bytesAllocatedCreating(int width, int height, int copies) {
+      com.sun.management.ThreadMXBean bean =
+          (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+      long threadId = Thread.currentThread().getId();
+      GraphFactory previous = ImageToGraphConverter.getGraphFactory();
+      ImageToGraphConverter.setGraphFactory(GraphFactory.tiled);
+      try {
+        long before = bean.getThreadAllocatedBytes(threadId);
+        GraphOfPixels graph = ImageToGraphConverter.createTransparentGraph(width, height);
+        for (int i = 0; i < copies; i += 1) {
+          graph = ImageToGraphConverter.createCopyOfGraph(graph);
+        }
+        long after = bean.getThreadAllocatedBytes(threadId);
+        assertEquals(0, graph.getPixelAt(width - 1, height - 1).getOpacity());
+        return after - before;
+      } finally {
+        ImageToGraphConverter.setGraphFactory(previous);
+      }
+    }
+
+    /**
+     * Returns a tiled copy of the given graph, made while the converter creates tiled graphs.
+     *
+     * @param original The graph to be copied
+     * @return The copy
+     */
+    private static GraphOfPixels tiledCopy(GraphOfPixels original) {
+      GraphFactory previous = ImageToGraphConverter.getGraphFactory();
+      ImageToGraphConverter.setGraphFactory(GraphFactory.tiled);
+      try {
+        return ImageToGraphConverter.createCopyOfGraph(original);
+      } finally {
+        ImageToGraphConverter.setGraphFactory(previous);
+      }
+    }
+
+    @Test
+    public void testEmptyAndCopiedGraphsStoreNoPixels() {
+      // A raster graph of this size would need 64 megabytes for each of them
+      assertTrue(bytesAllocatedCreating(4000, 4000, 10) < 1000000);
+    }
+
+    @Test
+    public void testMatchesRaster() {
+      GraphOfPixels tiled = randomGraph(GraphFactory.tiled, 150, 70, 44);
+      GraphOfPixels raster = randomGraph(GraphFactory.raster, 150, 70, 44);
+      assertTrue(tiled instanceof TiledGraphOfPixels);
+      int[] band = new int[130 * 66];
+      randomGraph(GraphFactory.raster, 130, 66, 45).readPixels(0, 0, 130, 66, band);
+      int[] empty = new int[64 * 64];
+      Arrays.fill(empty, 0x00FFFFFF);
+      for (GraphOfPixels graph : new GraphOfPixels[]{tiled, raster}) {
+        graph.writePixels(13, 3, 130, 66, band);
+        graph.writePixels(64, 0, 64, 64, empty);
+        graph.getPixelAt(70, 5).setOpacity(90);
+        graph.getPixelAt(149, 69).editColors(10, -10, 3);
+        graph.applyMutator(new SharpenFilter(), 3);
+      }
+      assertSamePixels(raster, tiled);
+      int[] expected = new int[150 * 70];
+      int[] actual = new int[150 * 70];
+      raster.readPixels(0, 0, 150, 70, expected);
+      tiled.readPixels(0, 0, 150, 70, actual);
+      assertTrue(Arrays.equals(expected, actual));
+    }
+
+    @Test
+    public void testCopiesShareUntilChanged() {
+      GraphOfPixels original = randomGraph(GraphFactory.tiled, 100, 90, 46);
+      int[] before = new int[100 * 90];
+      original.readPixels(0, 0, 100, 90, before);
+      GraphOfPixels copy = tiledCopy(original);
+      GraphOfPixels second = tiledCopy(copy);
+      copy.getPixelAt(3, 4).setOpacity(17);
+      copy.applyMutator(new GreyscaleTransform(), 4);
+      original.getPixelAt(99, 89).setOpacity(18);
+      int[] after = new int[100 * 90];
+      second.readPixels(0, 0, 100, 90, after);
+      assertTrue(Arrays.equals(before, after));
+      assertEquals(18, original.getPixelAt(99, 89).getOpacity());
+      assertEquals(17, copy.getPixelAt(3, 4).getOpacity());
+      assertEquals(before[4 * 100 + 3] >>> 24, original.getPixelAt(3, 4).getOpacity());
+      GraphOfPixels greyscale = randomGraph(GraphFactory.raster, 100, 90, 46);
+      greyscale.getPixelAt(3, 4).setOpacity(17);
+      greyscale.applyMutator(new GreyscaleTransform());
+      assertSamePixels(greyscale, copy);
+    }
+
+    @Test
+    public void testCopyLayerOfLayeredImage() {
+      GraphFactory previous = ImageToGraphConverter.getGraphFactory();
+      ImageToGraphConverter.setGraphFactory(GraphFactory.tiled);
+      try {
+        LayeredImage image = new LayeredImageV0(300, 200);
+        image.addLayer("a");
+        image.getLayer("a").getPixelAt(250, 150).setOpacity(255);
+        image.addLayer("b", "a");
+        image.getLayer("b").getPixelAt(250, 150).setOpacity(40);
+        image.getLayer("b").getPixelAt(0, 0).setOpacity(41);
+        assertEquals(255, image.getLayer("a").getPixelAt(250, 150).getOpacity());
+        assertEquals(0, image.getLayer("a").getPixelAt(0, 0).getOpacity());
+        assertEquals(40, image.getLayer("b").getPixelAt(250, 150).getOpacity());
+        assertEquals(41, image.getLayer("b").getPixelAt(0, 0).getOpacity());
+      } finally {
+        ImageToGraphConverter.setGraphFactory(previous);
+      }
+    }
+
+    @Test
+    public void testInsertRowAndColumn() {
+      GraphOfPixels tiled = randomGraph(GraphFactory.tiled, 65, 64, 47);
+      GraphOfPixels raster = randomGraph(GraphFactory.raster, 65, 64, 47);
+      for (GraphOfPixels graph : new GraphOfPixels[]{tiled, raster}) {
+        graph.insertRow(63);
+        graph.insertColumn(10);
+        graph.insertColumn(0);
+      }
+      assertEquals(67, tiled.getWidth());
+      assertEquals(65, tiled.getHeight());
+      assertSamePixels(raster, tiled);
+    }
+
+    @Test
+    public void testNeighbors() {
+      GraphOfPixels tiled = randomGraph(GraphFactory.tiled, 70, 3, 48);
+      assertEquals(tiled.getPixelAt(64, 0), tiled.getPixelAt(63, 0).getRight());
+      assertEquals(tiled.getPixelAt(0, 1), tiled.getPixelAt(0, 0).getBelow());
+      assertEquals(tiled.getPixelAt(0, 0), tiled.getPixelAt(1, 1).getNearby(-1, 1));
+      assertEquals(new EmptyNode(), tiled.getPixelAt(0, 0).getAbove());
+      assertEquals(new EmptyNode(), tiled.getPixelAt(69, 2).getNearby(1, 0));
+    }
+  }
+
+  /**
+   * Tests for moving pixels between graphs and BufferedImages in bulk.
+   */
+  public static class TestImageTransfer {
+
+    @Test
+    public void testConvertMatchesGetRGB() {
+      int[] types = {BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_INT_RGB,
+          BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_4BYTE_ABGR,
+          BufferedImage.TYPE_BYTE_GRAY, BufferedImage.TYPE_INT_ARGB_PRE};
+      Random random = new Random(51);
+      for (int type : types) {
+        BufferedImage image = new BufferedImage(300, 250, type);
+        for (int y = 0; y < 250; y += 1) {
+          for (int x = 0; x < 300; x += 1) {
+            image.setRGB(x, y, random.nextInt());
+          }
+        }
+        for (GraphFactory factory : GraphFactory.values()) {
+          GraphFactory previous = ImageToGraphConverter.getGraphFactory();
+          ImageToGraphConverter.setGraphFactory(factory);
+          GraphOfPixels graph;
+          try {
+            graph = ImageToGraphConverter.convertBufferedImage(image);
+          } finally {
+            ImageToGraphConverter.setGraphFactory(previous);
+          }
+          int[] actual = new int[300 * 250];
+          graph.readPixels(0, 0, 300, 250, actual);
+          assertTrue(Arrays.equals(image.getRGB(0, 0, 300, 250, null, 0, 300), actual));
+        }
+      }
+    }
+
+    @Test
+    public void testToBufferedImage() {
+      for (GraphFactory factory : GraphFactory.values()) {
+        GraphOfPixels graph = randomGraph(factory, 70, 1200, 52);
+        BufferedImage withAlpha = ImageTransfer.toBufferedImage(graph, true);
+        BufferedImage noAlpha = ImageTransfer.toBufferedImage(graph, false);
+        for (int y = 0; y < 1200; y += 1) {
+          for (int x = 0; x < 70; x += 1) {
+            Node n = graph.getPixelAt(x, y);
+            int rgb = n.getRed() << 16 | n.getGreen() << 8 | n.getBlue();
+            assertEquals(n.getOpacity() << 24 | rgb, withAlpha.getRGB(x, y));
+            assertEquals(0xFF000000 | rgb, noAlpha.getRGB(x, y));
+          }
+        }
+      }
+    }
+
+    @Test
+    public void testRasterViewSharesPixels() {
+      GraphOfPixels graph = randomGraph(GraphFactory.raster, 20, 10, 53);
+      graph.getPixelAt(5, 6).updateColors(new SimplePixel(4, 5, 6));
+      graph.getPixelAt(5, 6).setOpacity(0);
+      int[] before = new int[200];
+      graph.readPixels(0, 0, 20, 10, before);
+      BufferedImage view = ImageTransfer.viewOf(graph);
+      assertEquals(BufferedImage.TYPE_INT_ARGB, view.getType());
+      assertTrue(Arrays.equals(before, view.getRGB(0, 0, 20, 10, null, 0, 20)));
+      // Showing the graph leaves the colors under it's transparent pixels as they were
+      int[] after = new int[200];
+      graph.readPixels(0, 0, 20, 10, after);
+      assertTrue(Arrays.equals(before, after));
+      graph.getPixelAt(3, 4).setOpacity(255);
+      graph.getPixelAt(3, 4).updateColors(new SimplePixel(1, 2, 3));
+      assertEquals(0xFF010203, view.getRGB(3, 4));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConvertNullImage() {
+      ImageToGraphConverter.convertBufferedImage(null);
+    }
+  }
+
+  /**
+   * Tests for counting the changes made to a graph, and for the blended image a layered image keeps
+   * for display.
+   */
+  public static class TestCompositeCache {
+
+    /**
+     * Creates a layered image whose layers, from the top down, hold random pixels, a third of which
+     * are transparent, stored in the manner of the given factory.
+     *
+     * @param factory The factory which stores the layers
+     * @param names   The names of the layers, from the top down
+     * @return The layered image
+     */
+    static LayeredImage randomLayers(GraphFactory factory, String... names) {
+      GraphFactory previous = ImageToGraphConverter.getGraphFactory();
+      ImageToGraphConverter.setGraphFactory(factory);
+      LayeredImage image = new LayeredImageV0(90, 800);
+      try {
+        for (int i = names.length - 1; i >= 0; i -= 1) {
+          image.addLayer(names[i]);
+          int[] argb = new int[90 * 800];
+          randomGraph(GraphFactory.raster, 90, 800, 60 + i).readPixels(0, 0, 90, 800, argb);
+          image.getLayer(names[i]).writePixels(0, 0, 90, 800, argb);
+        }
+      } finally {
+        ImageToGraphConverter.setGraphFactory(previous);
+      }
+      return image;
+    }
+
+    /**
+     * Asserts that the image the given layered image shows is what a BasicBlend of it gives.
+     *
+     * @param image The layered image
+     * @return The image it shows
+     */
+    static BufferedImage assertShowsBlend(LayeredImage image) {
+      BufferedImage expected = ImageTransfer.toBufferedImage(new BasicBlend().blend(image), true);
+      BufferedImage actual = image.getImageRepresentation();
+      assertTrue(Arrays.equals(expected.getRGB(0, 0, 90, 800, null, 0, 90),
+          actual.getRGB(0, 0, 90, 800, null, 0, 90)));
+      return actual;
+    }
+
+    @Test
+    public void testModificationCount() {
+      for (GraphFactory factory : GraphFactory.values()) {
+        AbstractGraphOfPixels graph = (AbstractGraphOfPixels) randomGraph(factory, 5, 4, 61);
+        long count = graph.getModificationCount();
+        graph.readPixels(0, 0, 5, 4, new int[20]);
+        graph.getPixelAt(1, 1).getRed();
+        assertEquals(count, graph.getModificationCount());
+        graph.getPixelAt(1, 1).updateColors(new SimplePixel(1, 2, 3));
+        assertTrue(graph.getModificationCount() > count);
+        count = graph.getModificationCount();
+        graph.getPixelAt(2, 3).editColors(-1, 0, 0);
+        assertTrue(graph.getModificationCount() > count);
+        count = graph.getModificationCount();
+        graph.getPixelAt(0, 0).setOpacity(0);
+        assertTrue(graph.getModificationCount() > count);
+        count = graph.getModificationCount();
+        graph.writePixels(0, 0, 1, 1, new int[1]);
+        assertTrue(graph.getModificationCount() > count);
+        count = graph.getModificationCount();
+        graph.applyMutator(new InvertTransform());
+        assertTrue(graph.getModificationCount() > count);
+        count = graph.getModificationCount();
+        graph.insertRow(0);
+        assertTrue(graph.getModificationCount() > count);
+        count = graph.getModificationCount();
+        graph.getPixelAt(0, 1).setOpacity(3);
+        assertTrue(graph.getModificationCount() > count);
+      }
+    }
+
+    @Test
+    public void testUnchangedImageIsReused() {
+      for (GraphFactory factory : GraphFactory.values()) {
+        LayeredImage image = randomLayers(factory, "a", "b");
+        BufferedImage first = assertShowsBlend(image);
+        assertTrue(first == image.getImageRepresentation());
+        image.getLayer("b").getPixelAt(0, 0).getOpacity();
+        assertTrue(first == image.getImageRepresentation());
+      }
+    }
+
+    @Test
+    public void testChangesAreShown() {
+      for (GraphFactory factory : GraphFactory.values()) {
+        LayeredImage image = randomLayers(factory, "a", "b", "c");
+        assertShowsBlend(image);
+        image.setVisibility("a", false);
+        assertShowsBlend(image);
+        image.getLayer("b").getPixelAt(40, 700).setOpacity(0);
+        assertShowsBlend(image);
+        image.getLayer("c").applyMutator(new GreyscaleTransform());
+        assertShowsBlend(image);
+        image.setVisibility("a", true);
+        assertShowsBlend(image);
+        image.moveLayer("c", 0);
+        assertShowsBlend(image);
+        image.getLayer("a").getPixelAt(89, 799).updateColors(new SimplePixel(9, 8, 7));
+        image.getLayer("a").getPixelAt(89, 799).setOpacity(255);
+        assertShowsBlend(image);
+        image.removeLayer("c");
+        assertShowsBlend(image);
+        image.addLayer("d", "b");
+        assertShowsBlend(image);
+        image.moveLayer("d", 2);
+        image.getLayer("d").applyMutator(new InvertTransform());
+        assertShowsBlend(image);
+        image.setVisibility("a", false);
+        image.setVisibility("b", false);
+        image.setVisibility("d", false);
+        assertShowsBlend(image);
+      }
+    }
+
+    @Test
+    public void testLayersOfAnotherSize() throws IOException {
+      LayeredImage image = randomLayers(GraphFactory.raster, "a");
+      assertShowsBlend(image);
+      File file = File.createTempFile("smallLayer", "");
+      file.deleteOnExit();
+      randomGraph(GraphFactory.raster, 30, 20, 62).writeToFile(OutputType.ppm, file.getPath());
+      new File(file.getPath() + ".ppm").deleteOnExit();
+      image.loadImageAsLayer("small", file.getPath() + ".ppm");
+      BufferedImage expected = ImageTransfer.toBufferedImage(new BasicBlend().blend(image), true);
+      assertTrue(Arrays.equals(expected.getRGB(0, 0, 90, 800, null, 0, 90),
+          image.getImageRepresentation().getRGB(0, 0, 90, 800, null, 0, 90)));
+    }
+  }
+
+  /**
+   * Tests for the regions graphs and layered images report as changed.
+   */
+  public static class TestChangedRegions {
+
+    @Test
+    public void testNodeEdits() {
+      for (GraphFactory factory : GraphFactory.values()) {
+        GraphOfPixels graph = randomGraph(factory, 30, 20, 70);
+        long count = graph.getModificationCount();
+        assertTrue(graph.getChangedRegion(count).isEmpty());
+        graph.getPixelAt(4, 7).updateColors(new SimplePixel(1, 2, 3));
+        assertEquals(new Rectangle(4, 7, 1, 1), graph.getChangedRegion(count));
+        graph.getPixelAt(9, 2).editColors(1, 1, 1);
+        graph.getPixelAt(6, 11).setOpacity(0);
+        assertEquals(new Rectangle(4, 2, 6, 10), graph.getChangedRegion(count));
+        long later = graph.getModificationCount();
+        graph.getPixelAt(29, 19).getRed();
+        assertTrue(graph.getChangedRegion(later).isEmpty());
+        graph.getPixelAt(29, 19).getNearby(-1, 1).setOpacity(4);
+        assertEquals(new Rectangle(28, 18, 1, 1), graph.getChangedRegion(later));
+        assertEquals(new Rectangle(4, 2, 25, 17), graph.getChangedRegion(count));
+      }
+    }
+
+    @Test
+    public void testWritesMutatorsAndInsertions() {
+      for (GraphFactory factory : GraphFactory.values()) {
+        GraphOfPixels graph = randomGraph(factory, 30, 20, 71);
+        long count = graph.getModificationCount();
+        graph.writePixels(3, 5, 4, 2, new int[8]);
+        assertEquals(new Rectangle(3, 5, 4, 2), graph.getChangedRegion(count));
+        count = graph.getModificationCount();
+        graph.applyMutator(new BlurFilter(), 2);
+        assertEquals(new Rectangle(0, 0, 30, 20), graph.getChangedRegion(count));
+        count = graph.getModificationCount();
+        graph.insertColumn(4);
+        graph.getPixelAt(10, 10).setOpacity(1);
+        assertEquals(new Rectangle(0, 0, 31, 20), graph.getChangedRegion(count));
+        count = graph.getModificationCount();
+        graph.getPixelAt(10, 10).setOpacity(2);
+        assertEquals(new Rectangle(10, 10, 1, 1), graph.getChangedRegion(count));
+        count = graph.getModificationCount();
+        graph.insertRow(2);
+        graph.getPixelAt(30, 20).setOpacity(3);
+        count = graph.getModificationCount();
+        graph.getPixelAt(30, 20).setOpacity(4);
+        assertEquals(new Rectangle(30, 20, 1, 1), graph.getChangedRegion(count));
+      }
+    }
+
+    @Test
+    public void testOldChangesAreWholeGraph() {
+      GraphOfPixels graph = randomGraph(GraphFactory.linked, 10, 10, 72);
+      long count = graph.getModificationCount();
+      for (int i = 0; i < 100; i += 1) {
+        graph.getPixelAt(5, 5).setOpacity(i);
+        assertEquals(new Rectangle(5, 5, 1, 1),
+            graph.getChangedRegion(graph.getModificationCount() - 1));
+      }
+      assertEquals(new Rectangle(0, 0, 10, 10), graph.getChangedRegion(count));
+    }
+
+    @Test
+    public void testPipelineRegion() {
+      GraphOfPixels graph = randomGraph(GraphFactory.raster, 8, 3, 73);
+      Mutator pipeline = new MutatorPipeline(
+          Arrays.asList(new GreyscaleTransform(), new SharpenFilter()));
+      assertEquals(new Rectangle(0, 0, 8, 3), pipeline.getAffectedRegion(graph));
+    }
+
+    @Test
+    public void testLayeredImageRegion() {
+      for (GraphFactory factory : GraphFactory.values()) {
+        LayeredImage image = TestCompositeCache.randomLayers(factory, "a", "b");
+        image.getImageRepresentation();
+        assertEquals(new Rectangle(0, 0, 90, 800), image.getChangedRegion());
+        image.getImageRepresentation();
+        assertTrue(image.getChangedRegion().isEmpty());
+        image.getLayer("b").getPixelAt(50, 600).setOpacity(255);
+        image.getLayer("b").getPixelAt(52, 640).setOpacity(255);
+        image.getImageRepresentation();
+        assertEquals(new Rectangle(50, 600, 3, 41), image.getChangedRegion());
+        TestCompositeCache.assertShowsBlend(image);
+        image.setVisibility("a", false);
+        image.getImageRepresentation();
+        assertEquals(new Rectangle(0, 0, 90, 800), image.getChangedRegion());
+      }
+    }
+
+    @Test
+    public void testUnchangedLayersAreNotSavedAgain() throws IOException {
+      LayeredImage image = TestCompositeCache.randomLayers(GraphFactory.raster, "a", "b");
+      File directory = Files.createTempDirectory("layered").toFile();
+      directory.deleteOnExit();
+      image.saveAsLayeredImage(directory.getPath());
+      File first = new File(directory, "a.png");
+      File second = new File(directory, "b.png");
+      first.deleteOnExit();
+      second.deleteOnExit();
+      new File(directory, "layerdata.txt").deleteOnExit();
+      long time = first.lastModified();
+      byte[] written = Files.readAllBytes(second.toPath());
+      Files.write(first.toPath(), written);
+      assertTrue(first.setLastModified(time));
+      image.getLayer("b").getPixelAt(0, 0).setOpacity(255);
+      image.saveAsLayeredImage(directory.getPath());
+      assertTrue(Arrays.equals(written, Files.readAllBytes(first.toPath())));
+      assertFalse(Arrays.equals(written, Files.readAllBytes(second.toPath())));
+      LayeredImage loaded = new LayeredImageV0(directory.getPath());
+      assertEquals(image.getLayer("b").getPixelAt(0, 0).getOpacity(),
+          loaded.getLayer("b").getPixelAt(0, 0).getOpacity());
+    }
+  }
+
+  /**
+   * Tests for blending the layers of an image a tile at a time.
+   */
+  public static class TestTiledBlend {
+
+    /**
+     * Computes the blend of the given layered image a pixel at a time, taking each pixel from the
+     * highest visible layer where it is not transparent.
+     *
+     * @param image The layered image
+     * @return The packed pixels of the blend, in row-major order
+     */
+    private static int[] expectedBlend(LayeredImage image) {
+      int width = image.getWidth();
+      int height = image.getHeight();
+      int[] expected = new int[width * height];
+      boolean anyVisible = false;
+      for (int i = 0; i < image.getNumLayers(); i += 1) {
+        anyVisible = anyVisible || image.getVisibility(i);
+      }
+      for (int y = 0; y < height; y += 1) {
+        for (int x = 0; x < width; x += 1) {
+          expected[y * width + x] = anyVisible ? 0 : 0x00FFFFFF;
+          for (int i = 0; i < image.getNumLayers(); i += 1) {
+            Node n = image.getLayer(i).getPixelAt(x, y);
+            if (image.getVisibility(i) && n.getOpacity() != 0) {
+              expected[y * width + x] = n.getOpacity() << 24 | n.getRed() << 16
+                  | n.getGreen() << 8 | n.getBlue();
+              break;
+            }
+          }
+        }
+      }
+      return expected;
+    }
+
+    /**
+     * Asserts that blending the given layered image with the given parallelism gives the same
+     * pixels as blending it a pixel at a time.
+     *
+     * @param image       The layered image
+     * @param parallelism The number of threads to blend with
+     */
+    private static void assertBlends(LayeredImage image, int parallelism) {
+      int width = image.getWidth();
+      int height = image.getHeight();
+      int[] actual = new int[width * height];
+      new BasicBlend(parallelism).blend(image).readPixels(0, 0, width, height, actual);
+      assertTrue(Arrays.equals(expectedBlend(image), actual));
+    }
+
+    @Test
+    public void testMatchesPixelByPixel() {
+      for (GraphFactory factory : GraphFactory.values()) {
+        LayeredImage image = TestCompositeCache.randomLayers(factory, "a", "b", "c");
+        assertBlends(image, 1);
+        assertBlends(image, 3);
+        image.setVisibility("a", false);
+        assertBlends(image, 1);
+        assertBlends(image, 3);
+        image.moveLayer("c", 0);
+        assertBlends(image, 2);
+      }
+    }
+
+    @Test
+    public void testOpaqueTopLayer() {
+      for (GraphFactory factory : GraphFactory.values()) {
+        LayeredImage image = TestCompositeCache.randomLayers(factory, "a", "b");
+        int[] top = new int[90 * 800];
+        image.getLayer("a").readPixels(0, 0, 90, 800, top);
+        for (int i = 0; i < top.length; i += 1) {
+          top[i] |= 0xFF000000;
+        }
+        image.getLayer("a").writePixels(0, 0, 90, 800, top);
+        int[] actual = new int[90 * 800];
+        new BasicBlend(2).blend(image).readPixels(0, 0, 90, 800, actual);
+        assertTrue(Arrays.equals(top, actual));
+      }
+    }
+
+    @Test
+    public void testTransparentLayersAreSeenOnceChanged() {
+      for (GraphFactory factory : GraphFactory.values()) {
+        LayeredImage image = TestCompositeCache.randomLayers(factory, "a", "b");
+        int[] hidden = new int[90 * 800];
+        Arrays.fill(hidden, 0x00123456);
+        image.getLayer("a").writePixels(0, 0, 90, 800, hidden);
+        assertBlends(image, 1);
+        image.getLayer("a").getPixelAt(70, 700).setOpacity(200);
+        image.getLayer("a").writePixels(0, 0, 2, 1, new int[]{0xFF010203, 0x80040506});
+        assertBlends(image, 1);
+        image.getLayer("a").applyMutator(new InvertTransform());
+        assertBlends(image, 3);
+      }
+    }
+
+    @Test
+    public void testNothingVisible() {
+      LayeredImage image = TestCompositeCache.randomLayers(GraphFactory.raster, "a");
+      image.setVisibility("a", false);
+      assertBlends(image, 1);
+      assertBlends(new LayeredImageV0(5, 7), 2);
+    }
+
+    @Test
+    public void testScriptParallelism() throws IOException {
+      LayeredImage image = TestCompositeCache.randomLayers(GraphFactory.raster, "a", "b");
+      Map<String, LayeredImage> layeredImages = new HashMap<String, LayeredImage>();
+      layeredImages.put("img", image);
+      File file = File.createTempFile("tiledBlend", "");
+      file.deleteOnExit();
+      new File(file.getPath() + ".png").deleteOnExit();
+      new LanguageSyntaxImpl().parseCommand("save-as-image img basic png " + file.getPath()
+          + " --parallelism 3").execute(new HashMap<String, GraphOfPixels>(), layeredImages);
+      int[] actual = new int[90 * 800];
+      ImageToGraphConverter.convertImage(file.getPath() + ".png")
+          .readPixels(0, 0, 90, 800, actual);
+      assertTrue(Arrays.equals(expectedBlend(image), actual));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidParallelism() {
+      new BasicBlend(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testScriptInvalidParallelism() {
+      new LanguageSyntaxImpl().parseCommand("save-as-image img basic png out --parallelism 0");
+    }
+  }
+
+  /**
+   * Tests for blending layers with a blend mode, compositing each over the layers beneath.
+   */
+  public static class TestBlendModes {
+
+    /**
+     * Mixes one color value of a layer with the same value beneath it as the given mode should,
+     * with both values scaled from 0 to 1.
+     *
+     * @param mode     The mode
+     * @param backdrop The value beneath
+     * @param source   The value of the layer
+     * @return The mixed value
+     */
+    private static double expectedMix(BlendMode mode, double backdrop, double source) {
+      switch (mode) {
+        case multiply:
+          return backdrop * source;
+        case screen:
+          return backdrop + source - backdrop * source;
+        case overlay:
+          return backdrop <= 0.5 ? 2 * backdrop * source
+              : 1 - 2 * (1 - backdrop) * (1 - source);
+        case darken:
+          return Math.min(backdrop, source);
+        case lighten:
+          return Math.max(backdrop, source);
+        case add:
+          return Math.min(1, backdrop + source);
+        default:
+          return source;
+      }
+    }
+
+    /**
+     * Asserts that blending the given layered image with the given mode gives each pixel within 1
+     * of compositing the visible layers from the bottom up in floating point. As each layer's
+     * result is rounded before the next is composited over it, this only holds for up to two
+     * visible layers.
+     *
+     * @param image       The layered image
+     * @param mode        The mode
+     * @param parallelism The number of threads to blend with
+     */
+    private static void assertComposites(LayeredImage image, BlendMode mode, int parallelism) {
+      int width = image.getWidth();
+      int height = image.getHeight();
+      int[] actual = new int[width * height];
+      new ModeBlend(mode, parallelism).blend(image).readPixels(0, 0, width, height, actual);
+      int[] layer = new int[width * height];
+      double[][] expected = new double[width * height][4];
+      for (int i = image.getNumLayers() - 1; i >= 0; i -= 1) {
+        if (!image.getVisibility(i)) {
+          continue;
+        }
+        image.getLayer(i).readPixels(0, 0, width, height, layer);
+        for (int p = 0; p < layer.length; p += 1) {
+          double sourceAlpha = (layer[p] >>> 24) / 255.0;
+          double backdropAlpha = expected[p][0];
+          double alpha = sourceAlpha + backdropAlpha * (1 - sourceAlpha);
+          for (int c = 1; c < 4 && alpha > 0; c += 1) {
+            double source = (layer[p] >> (24 - 8 * c) & 0xFF) / 255.0;
+            double backdrop = expected[p][c];
+            expected[p][c] = (sourceAlpha * (1 - backdropAlpha) * source
+                + sourceAlpha * backdropAlpha * expectedMix(mode, backdrop, source)
+                + (1 - sourceAlpha) * backdropAlpha * backdrop) / alpha;
+          }
+          expected[p][0] = alpha;
+        }
+      }
+      for (int p = 0; p < actual.length; p += 1) {
+        if (expected[p][0] == 0) {
+          assertEquals(0, actual[p]);
+          continue;
+        }
+        for (int c = 0; c < 4; c += 1) {
+          assertEquals(expected[p][c] * 255, actual[p] >> (24 - 8 * c) & 0xFF, 1.0);
+        }
+      }
+    }
+
+    @Test
+    public void testEveryMode() {
+      LayeredImage image = TestCompositeCache.randomLayers(GraphFactory.raster, "a", "b", "c");
+      image.setVisibility("b", false);
+      for (BlendMode mode : BlendMode.values()) {
+        assertComposites(image, mode, 1);
+      }
+    }
+
+    @Test
+    public void testEveryFactoryAndParallelism() {
+      for (GraphFactory factory : GraphFactory.values()) {
+        LayeredImage image = TestCompositeCache.randomLayers(factory, "a", "b");
+        assertComposites(image, BlendMode.over, 1);
+        assertComposites(image, BlendMode.overlay, 3);
+        image.setVisibility("b", false);
+        assertComposites(image, BlendMode.screen, 2);
+      }
+    }
+
+    @Test
+    public void testOverOpaqueAndTransparent() {
+      LayeredImage image = new LayeredImageV0(2, 1);
+      image.addLayer("bottom");
+      image.addLayer("top");
+      image.getLayer("bottom").writePixels(0, 0, 2, 1, new int[]{0xFF0000FF, 0xFF0000FF});
+      image.getLayer("top").writePixels(0, 0, 2, 1, new int[]{0x00FF0000, 0x80FF0000});
+      int[] actual = new int[2];
+      new ModeBlend(BlendMode.over).blend(image).readPixels(0, 0, 2, 1, actual);
+      assertEquals(0xFF0000FF, actual[0]);
+      assertEquals(0xFF80007F, actual[1]);
+      image.getLayer("top").writePixels(0, 0, 1, 1, new int[]{0xFF00FF00});
+      new ModeBlend(BlendMode.over).blend(image).readPixels(0, 0, 2, 1, actual);
+      assertEquals(0xFF00FF00, actual[0]);
+    }
+
+    @Test
+    public void testLayersOfAnotherSize() throws IOException {
+      LayeredImage image = TestCompositeCache.randomLayers(GraphFactory.raster, "a");
+      File file = File.createTempFile("smallModeLayer", "");
+      file.deleteOnExit();
+      randomGraph(GraphFactory.raster, 30, 20, 80).writeToFile(OutputType.ppm, file.getPath());
+      new File(file.getPath() + ".ppm").deleteOnExit();
+      image.loadImageAsLayer("small", file.getPath() + ".ppm");
+      image.moveLayer("small", 0);
+      int[] actual = new int[90 * 800];
+      new ModeBlend(BlendMode.over).blend(image).readPixels(0, 0, 90, 800, actual);
+      int[] below = new int[90 * 800];
+      image.getLayer("a").readPixels(0, 0, 90, 800, below);
+      assertEquals(image.getLayer("small").getPixelAt(29, 19).getBlue(),
+          actual[19 * 90 + 29] & 0xFF);
+      assertEquals(below[20 * 90 + 29] >>> 24 == 0 ? 0 : below[20 * 90 + 29],
+          actual[20 * 90 + 29]);
+      assertEquals(below[19 * 90 + 30] >>> 24 == 0 ? 0 : below[19 * 90 + 30],
+          actual[19 * 90 + 30]);
+    }
+
+    @Test
+    public void testBlendTypes() {
+      assertEquals(Arrays.asList("basic", "over", "multiply", "screen", "overlay", "darken",
+          "lighten", "add"), Arrays.asList(AbstractBlend.getBlendTypes()));
+      assertTrue(AbstractBlend.createBlend("basic", 1) instanceof BasicBlend);
+      assertTrue(AbstractBlend.createBlend("darken", 2) instanceof ModeBlend);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownBlendType() {
+      AbstractBlend.createBlend("burn", 1);
+    }
+
+    @Test
+    public void testScriptBlendType() throws IOException {
+      LayeredImage image = TestCompositeCache.randomLayers(GraphFactory.raster, "a", "b");
+      Map<String, LayeredImage> layeredImages = new HashMap<String, LayeredImage>();
+      layeredImages.put("img", image);
+      File file = File.createTempFile("modeBlend", "");
+      file.deleteOnExit();
+      new File(file.getPath() + ".png").deleteOnExit();
+      LanguageSyntax language = new LanguageSyntaxImpl();
+      language.setCurrentImage("img");
+      ParsedCommand command = language.parseCommand("save-as-image multiply png "
+          + file.getPath() + " --parallelism 2");
+      assertTrue(command instanceof BlendCommand);
+      command.execute(new HashMap<String, GraphOfPixels>(), layeredImages);
+      int[] expected = new int[90 * 800];
+      new ModeBlend(BlendMode.multiply).blend(image).readPixels(0, 0, 90, 800, expected);
+      int[] actual = new int[90 * 800];
+      ImageToGraphConverter.convertImage(file.getPath() + ".png")
+          .readPixels(0, 0, 90, 800, actual);
+      assertTrue(Arrays.equals(expected, actual));
+    }
+  }
+
+  /**
+   * Tests for reading and writing the layers of layered-image files on several threads.
+   */
+  public static class TestLayerIO {
+
+    /**
+     * Asserts that the given layered images have the same size, and the same layers at each
+     * position, with the same pixels and visibility, where transparent pixels may hide any color.
+     *
+     * @param expected The expected layered image
+     * @param actual   The actual layered image
+     */
+    private static void assertSameLayers(LayeredImage expected, LayeredImage actual) {
+      assertEquals(expected.getWidth(), actual.getWidth());
+      assertEquals(expected.getHeight(), actual.getHeight());
+      assertEquals(expected.getNumLayers(), actual.getNumLayers());
+      for (int i = 0; i < expected.getNumLayers(); i += 1) {
+        assertEquals(expected.getVisibility(i), actual.getVisibility(i));
+        int[] expectedPixels = new int[expected.getWidth() * expected.getHeight()];
+        int[] actualPixels = new int[expectedPixels.length];
+        expected.getLayer(i).readPixels(0, 0, expected.getWidth(), expected.getHeight(),
+            expectedPixels);
+        actual.getLayer(i).readPixels(0, 0, expected.getWidth(), expected.getHeight(),
+            actualPixels);
+        for (int p = 0; p < expectedPixels.length; p += 1) {
+          if (expectedPixels[p] >>> 24 != 0 || actualPixels[p] >>> 24 != 0) {
+            assertEquals(expectedPixels[p], actualPixels[p]);
+          }
+        }
+      }
+    }
+
+    /**
+     * Creates a new temporary directory, which is deleted along with the files of the given names
+     * in it when the tests finish.
+     *
+     * @param names The names of the files which will be in it
+     * @return The directory
+     * @throws IOException If it cannot be created
+     */
+    private static File layeredDirectory(String... names) throws IOException {
+      File directory = Files.createTempDirectory("parallelLayers").toFile();
+      directory.deleteOnExit();
+      new File(directory, "layerdata.txt").deleteOnExit();
+      for (String name : names) {
+        new File(directory, name + ".png").deleteOnExit();
+      }
+      return directory;
+    }
+
+    @Test
+    public void testParallelSaveAndLoad() throws IOException {
+      for (GraphFactory factory : GraphFactory.values()) {
+        LayeredImage image = TestCompositeCache.randomLayers(factory, "a", "b", "c", "d", "e");
+        image.setVisibility("c", false);
+        File serial = layeredDirectory("a", "b", "c", "d", "e");
+        File parallel = layeredDirectory("a", "b", "c", "d", "e");
+        image.saveAsLayeredImage(serial.getPath(), 1);
+        image.saveAsLayeredImage(parallel.getPath(), 3);
+        assertTrue(Arrays.equals(
+            Files.readAllBytes(new File(serial, "layerdata.txt").toPath()),
+            Files.readAllBytes(new File(parallel, "layerdata.txt").toPath())));
+        for (String name : Arrays.asList("a", "b", "c", "d", "e")) {
+          assertTrue(Arrays.equals(
+              Files.readAllBytes(new File(serial, name + ".png").toPath()),
+              Files.readAllBytes(new File(parallel, name + ".png").toPath())));
+        }
+        GraphFactory previous = ImageToGraphConverter.getGraphFactory();
+        ImageToGraphConverter.setGraphFactory(factory);
+        try {
+          assertSameLayers(image, new LayeredImageV0(parallel.getPath(), 4));
+          assertSameLayers(image, new LayeredImageV0(serial.getPath(), 1));
+        } finally {
+          ImageToGraphConverter.setGraphFactory(previous);
+        }
+      }
+    }
+
+    @Test
+    public void testParallelSaveOnlyWritesChangedLayers() throws IOException {
+      LayeredImage image = TestCompositeCache.randomLayers(GraphFactory.raster, "a", "b", "c");
+      File directory = layeredDirectory("a", "b", "c");
+      image.saveAsLayeredImage(directory.getPath(), 2);
+      File first = new File(directory, "a.png");
+      long time = first.lastModified();
+      byte[] written = Files.readAllBytes(new File(directory, "b.png").toPath());
+      Files.write(first.toPath(), written);
+      assertTrue(first.setLastModified(time));
+      image.getLayer("c").getPixelAt(1, 1).setOpacity(255);
+      image.saveAsLayeredImage(directory.getPath(), 2);
+      assertTrue(Arrays.equals(written, Files.readAllBytes(first.toPath())));
+      assertEquals(255, new LayeredImageV0(directory.getPath(), 2).getLayer("c")
+          .getPixelAt(1, 1).getOpacity());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingLayerFile() throws IOException {
+      LayeredImage image = TestCompositeCache.randomLayers(GraphFactory.raster, "a", "b", "c");
+      File directory = layeredDirectory("a", "b", "c");
+      image.saveAsLayeredImage(directory.getPath(), 3);
+      assertTrue(new File(directory, "b.png").delete());
+      new LayeredImageV0(directory.getPath(), 3);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidLoadParallelism() {
+      new LayeredImageV0("outputImages/exampleLayeredImage", 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidSaveParallelism() {
+      new LayeredImageV0(3, 3).saveAsLayeredImage("outputImages/neverWritten", 0);
+    }
+  }
+
+  /**
+   * Tests for saving layered images as single files, and reading parts of those files.
+   */
+  public static class TestLayeredImageFile {
+
+    /**
+     * Returns every packed pixel of the given graph, including the colors of transparent pixels.
+     *
+     * @param graph The graph
+     * @return It's packed pixels
+     */
+    private static int[] pixelsOf(FixedSizeGraph graph) {
+      int[] pixels = new int[graph.getWidth() * graph.getHeight()];
+      graph.readPixels(0, 0, graph.getWidth(), graph.getHeight(), pixels);
+      return pixels;
+    }
+
+    /**
+     * Creates the name of a new temporary file, which is deleted when the tests finish.
+     *
+     * @return The name of the file
+     * @throws IOException If it cannot be created
+     */
+    private static String layeredFile() throws IOException {
+      File file = File.createTempFile("layered", ".lif");
+      file.deleteOnExit();
+      return file.getPath();
+    }
+
+    @Test
+    public void testSaveAndLoad() throws IOException {
+      for (GraphFactory factory : GraphFactory.values()) {
+        LayeredImage image = TestCompositeCache.randomLayers(factory, "a", "b", "c");
+        image.setVisibility("b", false);
+        String fileName = layeredFile();
+        image.saveAsLayeredFile(fileName);
+        LayeredImage loaded = new LayeredImageV0(fileName, 2);
+        assertEquals(90, loaded.getWidth());
+        assertEquals(800, loaded.getHeight());
+        assertEquals(Arrays.asList("a", "b", "c"), loaded.getLayerNames());
+        assertTrue(loaded.getVisibility("a"));
+        assertFalse(loaded.getVisibility("b"));
+        for (String name : Arrays.asList("a", "b", "c")) {
+          assertTrue(Arrays.equals(pixelsOf(image.getLayer(name)),
+              pixelsOf(loaded.getLayer(name))));
+        }
+      }
+    }
+
+    @Test
+    public void testReadOneLayer() throws IOException {
+      LayeredImage image = TestCompositeCache.randomLayers(GraphFactory.raster, "a", "b", "c");
+      String fileName = layeredFile();
+      image.saveAsLayeredFile(fileName);
+      LayeredImageFile file = new LayeredImageFile(fileName);
+      assertEquals(3, file.getNumLayers());
+      assertEquals("c", file.getLayerName(2));
+      assertTrue(Arrays.equals(pixelsOf(image.getLayer("b")), pixelsOf(file.readLayer(1))));
+    }
+
+    @Test
+    public void testReadRegion() throws IOException {
+      LayeredImage image = TestCompositeCache.randomLayers(GraphFactory.raster, "a", "b");
+      String fileName = layeredFile();
+      image.saveAsLayeredFile(fileName);
+      LayeredImageFile file = new LayeredImageFile(fileName);
+      // Spans the edges between the second, third and fourth rows of tiles
+      GraphOfPixels region = file.readRegion(0, 7, 250, 60, 300);
+      int[] expected = new int[60 * 300];
+      image.getLayer("a").readPixels(7, 250, 60, 300, expected);
+      assertTrue(Arrays.equals(expected, pixelsOf(region)));
+    }
+
+    @Test
+    public void testReadThumbnail() throws IOException {
+      LayeredImage image = TestCompositeCache.randomLayers(GraphFactory.raster, "a", "b");
+      String fileName = layeredFile();
+      image.saveAsLayeredFile(fileName);
+      GraphOfPixels thumbnail = new LayeredImageFile(fileName).readThumbnail();
+      assertEquals(14, thumbnail.getWidth());
+      assertEquals(128, thumbnail.getHeight());
+      FixedSizeGraph blended = new BasicBlend().blend(image);
+      int[] row = new int[90];
+      blended.readPixels(0, (int) (2.5 * 800 / 128), 90, 1, row);
+      int[] thumbnailRow = new int[14];
+      thumbnail.readPixels(0, 2, 14, 1, thumbnailRow);
+      assertEquals(row[(int) (4.5 * 90 / 14)], thumbnailRow[4]);
+    }
+
+    @Test
+    public void testScriptSaveAndLoad() throws IOException {
+      String fileName = layeredFile();
+      ProcessingController controller = new ProcessingController(new StringReader(
+          "create-layered-image img 4 3\nadd-layer img a\nupdate-color img a 1 2 90 10 20 30\n"
+              + "save-layered-file img " + fileName + "\ncreate-layered-image copy " + fileName),
+          new StringBuilder());
+      controller.run();
+      LayeredImage copy = (LayeredImage) controller.getReferenceToImage("copy");
+      assertEquals(4, copy.getWidth());
+      assertEquals(90, copy.getLayer("a").getPixelAt(1, 2).getOpacity());
+      assertEquals(20, copy.getLayer("a").getPixelAt(1, 2).getGreen());
+    }
+
+    @Test
+    public void testFailedSaveKeepsOldFile() throws IOException {
+      LayeredImage image = TestCompositeCache.randomLayers(GraphFactory.raster, "a", "b");
+      String fileName = layeredFile();
+      image.saveAsLayeredFile(fileName);
+      LayeredImage replacement = TestCompositeCache.randomLayers(GraphFactory.raster, "c");
+      // The blend for the thumbnail could not be mapped to a file by the interrupted thread
+      GraphFactory previous = ImageToGraphConverter.getGraphFactory();
+      ImageToGraphConverter.setGraphFactory(GraphFactory.raster);
+      Thread.currentThread().interrupt();
+      try {
+        replacement.saveAsLayeredFile(fileName);
+        fail("The file was written although the thread was interrupted");
+      } catch (CancellationException e) {
+        // Expected, as the thread was interrupted
+      } finally {
+        assertTrue(Thread.interrupted());
+        ImageToGraphConverter.setGraphFactory(previous);
+      }
+      LayeredImageFile file = new LayeredImageFile(fileName);
+      assertEquals(2, file.getNumLayers());
+      assertTrue(Arrays.equals(pixelsOf(image.getLayer("b")), pixelsOf(file.readLayer(1))));
+      // The partly written file is not left behind
+      File target = new File(fileName).getAbsoluteFile();
+      for (String name : target.getParentFile().list()) {
+        assertFalse(name.startsWith(target.getName() + ".save"));
+      }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNotLayeredFile() {
+      new LayeredImageFile("res/birb.jpg");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRegionOutOfBounds() throws IOException {
+      LayeredImage image = TestCompositeCache.randomLayers(GraphFactory.raster, "a");
+      String fileName = layeredFile();
+      image.saveAsLayeredFile(fileName);
+      new LayeredImageFile(fileName).readRegion(0, 50, 0, 41, 10);
+    }
+  }
+
+  /**
+   * Tests for undoing and redoing the commands run by a controller.
+   */
+  public static class TestCommandHistory {
+
+    /**
+     * Returns every packed pixel of the given layer of the layered image named "img".
+     *
+     * @param controller The controller holding the image
+     * @param layerName  The name of the layer
+     * @return It's packed pixels
+     */
+    private static int[] pixelsOf(ProcessingController controller, String layerName) {
+      FixedSizeGraph layer = ((LayeredImage) controller.getReferenceToImage("img"))
+          .getLayer(layerName);
+      int[] pixels = new int[layer.getWidth() * layer.getHeight()];
+      layer.readPixels(0, 0, layer.getWidth(), layer.getHeight(), pixels);
+      return pixels;
+    }
+
+    /**
+     * Gives every pixel of the given layer of the layered image named "img" a different color,
+     * with the given opacity, so that no tile of it is all the same.
+     *
+     * @param controller The controller holding the image
+     * @param layerName  The name of the layer
+     * @param opacity    The opacity of every pixel
+     */
+    private static void fillLayer(ProcessingController controller, String layerName,
+        int opacity) {
+      FixedSizeGraph layer = ((LayeredImage) controller.getReferenceToImage("img"))
+          .getLayer(layerName);
+      int[] pixels = new int[layer.getWidth() * layer.getHeight()];
+      for (int i = 0; i < pixels.length; i += 1) {
+        pixels[i] = opacity << 24 | (i * 7919) & 0xFFFFFF;
+      }
+      layer.writePixels(0, 0, layer.getWidth(), layer.getHeight(), pixels);
+    }
+
+    /**
+     * Creates a controller which has run the given script, keeping up to 256 megabytes of history
+     * as a controller for a user would rather than none as one for a script does.
+     *
+     * @param script The script to be run
+     * @param output Where the controller writes errors to
+     * @return The controller
+     */
+    private static ProcessingController runScript(String script, Appendable output) {
+      ProcessingController controller = new ProcessingController(new StringReader(script),
+          output);
+      controller.setHistoryBudget(256L << 20);
+      controller.run();
+      return controller;
+    }
+
+    @Test
+    public void testUndoRedoPixels() {
+      ProcessingController controller = runScript("create-layered-image img 150 130\n"
+          + "add-layer img a\nupdate-color img a 70 65 255 200 10 30\n"
+          + "update-color img a 3 2 255 0 90 250\n", new StringBuilder());
+      int[] before = pixelsOf(controller, "a");
+      controller.runCommands("apply-mutator blur img a\napply-mutator sepia img a");
+      int[] after = pixelsOf(controller, "a");
+      assertFalse(Arrays.equals(before, after));
+      assertTrue(controller.undo());
+      assertTrue(Arrays.equals(before, pixelsOf(controller, "a")));
+      assertTrue(controller.redo());
+      assertTrue(Arrays.equals(after, pixelsOf(controller, "a")));
+      controller.runCommands("undo\nundo");
+      assertEquals(255, pixelsOf(controller, "a")[65 * 150 + 70] >>> 24);
+      assertEquals(0, pixelsOf(controller, "a")[2 * 150 + 3] >>> 24);
+    }
+
+    @Test
+    public void testUndoLayers() {
+      ProcessingController controller = runScript("create-layered-image img 5 4\n"
+          + "add-layer img a\nadd-layer img b\nupdate-color img a 1 1 255 1 2 3\n",
+          new StringBuilder());
+      LayeredImage image = (LayeredImage) controller.getReferenceToImage("img");
+      FixedSizeGraph a = image.getLayer("a");
+      List<List<String>> names = new ArrayList<List<String>>();
+      String[] commands = {"move-layer img a 1", "update-visibility img b false",
+          "remove-layer img a", "copy-layer img c b"};
+      for (String command : commands) {
+        names.add(image.getLayerNames());
+        controller.runCommands(command);
+      }
+      List<String> last = image.getLayerNames();
+      for (int i = commands.length - 1; i >= 0; i -= 1) {
+        assertTrue(controller.undo());
+        assertEquals(names.get(i), image.getLayerNames());
+        assertEquals(i < 2, image.getVisibility("b"));
+      }
+      assertTrue(a == image.getLayer("a"));
+      controller.runCommands("redo\nredo\nredo\nredo");
+      assertEquals(last, image.getLayerNames());
+      assertFalse(image.getVisibility("b"));
+    }
+
+    @Test
+    public void testUndoImages() {
+      ProcessingController controller = runScript("create-layered-image img 5 4\n"
+          + "create-image transparent t 3 3\n", new StringBuilder());
+      assertEquals(Arrays.asList("img"), controller.getLayeredImageNames());
+      controller.runCommands("undo\nundo");
+      assertEquals(0, controller.getLayeredImageNames().size());
+      StringBuilder output = new StringBuilder();
+      runScript("create-layered-image img 5 4\nundo\nundo\nredo\nredo\nredo", output);
+      assertEquals("Invalid line 2: Nothing to undo\nInvalid line 4: Nothing to redo\n"
+          + "Invalid line 5: Nothing to redo\n", output.toString());
+    }
+
+    @Test
+    public void testNewCommandClearsRedo() {
+      ProcessingController controller = runScript("create-layered-image img 5 4\n"
+          + "add-layer img a\nupdate-color img a 1 1 255 1 2 3\nundo\n"
+          + "update-color img a 2 2 255 4 5 6\n", new StringBuilder());
+      assertFalse(controller.redo());
+      assertEquals(0, pixelsOf(controller, "a")[6] >>> 24);
+      assertEquals(255, pixelsOf(controller, "a")[12] >>> 24);
+    }
+
+    @Test
+    public void testFailedCommandsNotRecorded() {
+      ProcessingController controller = runScript("create-layered-image img 5 4\n"
+          + "add-layer img a\nupdate-color img a 9 9 255 1 2 3\nremove-layer img b\n"
+          + "update-color img a 1 1 255 1 2 3\nupdate-color img a 1 1 255 1 2 3\n",
+          new StringBuilder());
+      assertTrue(controller.undo());
+      assertEquals(0, pixelsOf(controller, "a")[6] >>> 24);
+      assertTrue(controller.undo());
+      assertEquals(0, controller.getReferenceToImage("img").getLayerNames().size());
+    }
+
+    @Test
+    public void testKeepsOnlyChangedTiles() {
+      ProcessingController controller = runScript("create-layered-image img 256 256\n"
+          + "add-layer img a\n", new StringBuilder());
+      int[] before = pixelsOf(controller, "a");
+      // Each command changes pixels in one 64 by 64 tile, of 16 kilobytes, of a 256 kilobyte layer
+      // whose other tiles are all one color
+      controller.setHistoryBudget(40000);
+      controller.runCommands("update-color img a 10 10 255 200 100 50\n"
+          + "apply-mutator invert img a");
+      assertEquals(255 - 200, (pixelsOf(controller, "a")[10 * 256 + 10] >> 16) & 255);
+      assertTrue(controller.undo());
+      assertTrue(controller.undo());
+      assertTrue(Arrays.equals(before, pixelsOf(controller, "a")));
+    }
+
+    @Test
+    public void testBudgetEvictsOldest() {
+      ProcessingController controller = runScript("create-layered-image img 256 256\n"
+          + "add-layer img a\n", new StringBuilder());
+      fillLayer(controller, "a", 0);
+      controller.setHistoryBudget(40000);
+      controller.runCommands("update-color img a 10 10 255 1 1 1\n"
+          + "update-color img a 100 10 255 2 2 2\nupdate-color img a 200 10 255 3 3 3");
+      assertTrue(controller.undo());
+      assertTrue(controller.undo());
+      assertFalse(controller.undo());
+      assertEquals(255, pixelsOf(controller, "a")[10 * 256 + 10] >>> 24);
+      assertEquals(0, pixelsOf(controller, "a")[10 * 256 + 100] >>> 24);
+      controller.runCommands("create-image checkerboard board 32 64 255 0 0 0 0 255\n"
+          + "update-color board 0 0 255 1 1 1\napply-mutator invert board");
+      assertFalse(controller.undo());
+    }
+
+    @Test
+    public void testMutatorOverBudgetClearsHistory() {
+      ProcessingController controller = runScript("create-layered-image img 512 512\n"
+          + "add-layer img a\n", new StringBuilder());
+      fillLayer(controller, "a", 255);
+      // Every tile of the layer has colors, so it's pixels would take a megabyte to keep
+      controller.setHistoryBudget(100000);
+      controller.runCommands("update-color img a 0 0 255 90 90 90\n"
+          + "apply-mutator greyscale img a");
+      int[] after = pixelsOf(controller, "a");
+      assertEquals((after[1] >> 16) & 255, (after[1] >> 8) & 255);
+      assertEquals((after[1] >> 16) & 255, after[1] & 255);
+      assertFalse(controller.undo());
+      assertEquals(90, (pixelsOf(controller, "a")[0] >> 16) & 255);
+    }
+
+    @Test
+    public void testScriptKeepsNoPixels() {
+      StringBuilder output = new StringBuilder();
+      ProcessingController controller = new ProcessingController(new StringReader(
+          "create-layered-image img 5 4\nadd-layer img a\nupdate-color img a 1 1 255 1 2 3\n"
+              + "apply-mutator blur img a\nundo\n"), output);
+      controller.run();
+      assertEquals("Invalid line 4: Nothing to undo\n", output.toString());
+      assertEquals(255, pixelsOf(controller, "a")[6] >>> 24);
+      controller.setHistoryBudget(256L << 20);
+      controller.runCommands("update-color img a 2 2 255 4 5 6");
+      assertTrue(controller.undo());
+      assertEquals(0, pixelsOf(controller, "a")[12] >>> 24);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeBudget() {
+      runScript("", new StringBuilder()).setHistoryBudget(-1);
+    }
+  }
+
+  /**
+   * Tests for cancelling mutators, the reading of images and scripts part of the way through, by
+   * interrupting the thread they are run for.
+   */
+  public static class TestCancellation {
+
+    /**
+     * Represents a view which interrupts the thread running a script once it reaches a given line,
+     * and keeps every message it is given.
+     */
+    private static class InterruptingView implements View {
+
+      private final int interruptAt;
+      private final StringBuilder messages;
+
+      /**
+       * Constructs a view which interrupts the script it is shown the progress of at the given
+       * line.
+       *
+       * @param interruptAt The number of lines run once the script should be interrupted
+       */
+      InterruptingView(int interruptAt) {
+        this.interruptAt = interruptAt;
+        this.messages = new StringBuilder();
+      }
+
+      @Override
+      public void renderException(String message) {
+        this.messages.append(message);
+      }
+
+      @Override
+      public void renderProgress(int linesRun) {
+        if (linesRun == this.interruptAt) {
+          Thread.currentThread().interrupt();
+        }
+      }
+
+      @Override
+      public void showView() {
+        // Nothing is shown
+      }
+    }
+
+    /**
+     * Asserts that applying the given mutator on a thread which has been interrupted stops it
+     * without changing the graph, for each way a graph can be stored and a number of threads.
+     *
+     * @param mutator The mutator
+     */
+    private static void assertCancelled(Mutator mutator) {
+      for (GraphFactory factory : GraphFactory.values()) {
+        for (int parallelism = 1; parallelism <= 3; parallelism += 2) {
+          GraphOfPixels graph = randomGraph(factory, 40, 300, 7);
+          int[] before = new int[40 * 300];
+          graph.readPixels(0, 0, 40, 300, before);
+          Thread.currentThread().interrupt();
+          try {
+            graph.applyMutator(mutator, parallelism);
+            fail("The mutator was not cancelled");
+          } catch (CancellationException e) {
+            // Expected, as the thread was interrupted
+          } finally {
+            Thread.interrupted();
+          }
+          int[] after = new int[40 * 300];
+          graph.readPixels(0, 0, 40, 300, after);
+          assertTrue(Arrays.equals(before, after));
+        }
+      }
+    }
+
+    @Test
+    public void testMutatorsCancelled() {
+      assertCancelled(new BlurFilter());
+      assertCancelled(new SepiaTransform());
+      assertCancelled(new InvertTransform());
+      assertCancelled(new MutatorPipeline(Arrays.asList(new BlurFilter(), new SharpenFilter(),
+          new GreyscaleTransform())));
+    }
+
+    /**
+     * Represents blurring a graph on it's own thread, which keeps whether it was cancelled and
+     * whether the thread still knew it was interrupted afterwards.
+     */
+    private static class BlurRun implements Runnable {
+
+      private final GraphOfPixels graph;
+      private RuntimeException failure;
+      private boolean interrupted;
+
+      /**
+       * Constructs the blurring of the given graph.
+       *
+       * @param graph The graph to be blurred
+       */
+      BlurRun(GraphOfPixels graph) {
+        this.graph = graph;
+      }
+
+      @Override
+      public void run() {
+        try {
+          this.graph.applyMutator(new BlurFilter(), 3);
+        } catch (RuntimeException e) {
+          this.failure = e;
+        }
+        this.interrupted = Thread.currentThread().isInterrupted();
+      }
+    }
+
+    @Test
+    public void testInterruptedWhileWaiting() throws InterruptedException {
+      BlurRun blur = new BlurRun(randomGraph(GraphFactory.raster, 900, 900, 5));
+      Thread thread = new Thread(blur);
+      thread.start();
+      Thread.sleep(5);
+      thread.interrupt();
+      thread.join();
+      // It may have finished before being interrupted, but is never stopped any other way, and
+      // the thread still knows it was interrupted once it has been stopped
+      assertTrue(blur.failure == null
+          || blur.failure instanceof CancellationException && blur.interrupted);
+    }
+
+    /**
+     * Represents loading a layered image on another thread, keeping whatever stopped it.
+     */
+    private static class LoadRun implements Runnable {
+
+      private final String fileName;
+      private RuntimeException failure;
+      private boolean interrupted;
+
+      /**
+       * Constructs the loading of the layered image of the given name.
+       *
+       * @param fileName The name of the layered image
+       */
+      LoadRun(String fileName) {
+        this.fileName = fileName;
+      }
+
+      @Override
+      public void run() {
+        try {
+          new LayeredImageV0(this.fileName, 3);
+        } catch (RuntimeException e) {
+          this.failure = e;
+        }
+        this.interrupted = Thread.currentThread().isInterrupted();
+      }
+    }
+
+    @Test
+    public void testLayerLoadCancelled() throws IOException {
+      File directory = TestLayerIO.layeredDirectory("a", "b", "c", "d");
+      TestCompositeCache.randomLayers(GraphFactory.raster, "a", "b", "c", "d")
+          .saveAsLayeredImage(directory.getPath(), 2);
+      Thread.currentThread().interrupt();
+      try {
+        new LayeredImageV0(directory.getPath(), 3);
+        fail("The layers were read although the thread was interrupted");
+      } catch (CancellationException e) {
+        // Expected, as the thread was interrupted
+      } finally {
+        assertTrue(Thread.interrupted());
+      }
+    }
+
+    @Test
+    public void testLayerLoadInterruptedWhileWaiting() throws IOException, InterruptedException {
+      File directory = TestLayerIO.layeredDirectory("a", "b", "c", "d");
+      TestCompositeCache.randomLayers(GraphFactory.raster, "a", "b", "c", "d")
+          .saveAsLayeredImage(directory.getPath(), 2);
+      LoadRun load = new LoadRun(directory.getPath());
+      Thread thread = new Thread(load);
+      thread.start();
+      Thread.sleep(5);
+      thread.interrupt();
+      thread.join();
+      // It may have finished before being interrupted, but is never stopped any other way, and
+      // the thread still knows it was interrupted once it has been stopped
+      assertTrue(load.failure == null
+          || load.failure instanceof CancellationException && load.interrupted);
+    }
+
+    @Test
+    public void testBlendCancelled() {
+      LayeredImage image = TestCompositeCache.randomLayers(GraphFactory.raster, "a", "b");
+      // A mapped output could not be created by the interrupted thread, so the blend never starts
+      GraphFactory previous = ImageToGraphConverter.getGraphFactory();
+      ImageToGraphConverter.setGraphFactory(GraphFactory.raster);
+      Thread.currentThread().interrupt();
+      try {
+        new BasicBlend(2).blend(image);
+        fail("The layers were blended although the thread was interrupted");
+      } catch (CancellationException e) {
+        // Expected, as the thread was interrupted
+      } finally {
+        assertTrue(Thread.interrupted());
+        ImageToGraphConverter.setGraphFactory(previous);
+      }
+    }
+
+    @Test
+    public void testMutatorsRunOnceNotInterrupted() {
+      GraphOfPixels graph = randomGraph(GraphFactory.raster, 20, 20, 3);
+      graph.applyMutator(new InvertTransform(), 2);
+      assertFalse(Thread.currentThread().isInterrupted());
+    }
+
+    @Test(expected = CancellationException.class)
+    public void testReadingCancelled() throws IOException {
+      File file = File.createTempFile("cancelled", ".ppm");
+      file.deleteOnExit();
+      Files.write(file.toPath(), "P3 2 1 255\n1 2 3 4 5 6\n".getBytes(StandardCharsets.US_ASCII));
+      Thread.currentThread().interrupt();
+      try {
+        ImageToGraphConverter.convertPPM(file.getPath());
+      } finally {
+        Thread.interrupted();
+      }
+    }
+
+    @Test
+    public void testScriptCancelled() {
+      InterruptingView view = new InterruptingView(4);
+      ProcessingController controller = new ProcessingController(view, new StringReader(
+          "create-layered-image img 30 20\nadd-layer img a\nupdate-color img a 1 1 255 9 9 9\n"
+              + "apply-mutator blur img a\nadd-layer img b\nadd-layer img c\n"));
+      try {
+        controller.run();
+      } finally {
+        assertTrue(Thread.interrupted());
+      }
+      assertEquals("Cancelled at line 4\n", view.messages.toString());
+      LayeredImage image = (LayeredImage) controller.getReferenceToImage("img");
+      assertEquals(Arrays.asList("a"), image.getLayerNames());
+      assertEquals(9, image.getLayer("a").getPixelAt(1, 1).getRed());
+      assertEquals(0, image.getLayer("a").getPixelAt(2, 1).getOpacity());
+      assertTrue(controller.undo());
+      assertEquals(0, image.getLayer("a").getPixelAt(1, 1).getOpacity());
+      assertFalse(controller.redo() && controller.redo());
+    }
+  }
+
+  /**
+   * Tests for the lower resolution levels of an image pyramid and previews made from them.
+   */
+  public static class TestImagePyramid {
+
+    /**
+     * Computes the level after the given one by averaging each square of up to four pixels of it,
+     * weighted by their opacities, one pixel at a time.
+     *
+     * @param argb   The packed pixels of the level
+     * @param width  The width of the level
+     * @param height The height of the level
+     * @return The packed pixels of the next level
+     */
+    private static int[] shrink(int[] argb, int width, int height) {
+      int w = (width + 1) / 2;
+      int h = (height + 1) / 2;
+      int[] result = new int[w * h];
+      for (int y = 0; y < h; y += 1) {
+        for (int x = 0; x < w; x += 1) {
+          int count = 0;
+          int alpha = 0;
+          int[] colors = new int[3];
+          for (int j = 2 * y; j < Math.min(2 * y + 2, height); j += 1) {
+            for (int i = 2 * x; i < Math.min(2 * x + 2, width); i += 1) {
+              int pixel = argb[j * width + i];
+              count += 1;
+              alpha += pixel >>> 24;
+              for (int c = 0; c < 3; c += 1) {
+                colors[c] += (pixel >>> 24) * ((pixel >> (16 - 8 * c)) & 0xFF);
+              }
+            }
+          }
+          if (alpha != 0) {
+            result[y * w + x] = Math.round((float) alpha / count) << 24
+                | Math.round((float) colors[0] / alpha) << 16
+                | Math.round((float) colors[1] / alpha) << 8
+                | Math.round((float) colors[2] / alpha);
+          }
+        }
+      }
+      return result;
+    }
+
+    /**
+     * Returns the packed pixels of the given level of the given pyramid.
+     *
+     * @param pyramid The pyramid
+     * @param level   The level
+     * @return The pixels
+     */
+    private static int[] level(ImagePyramid pyramid, int level) {
+      int[] argb = new int[pyramid.getLevelWidth(level) * pyramid.getLevelHeight(level)];
+      pyramid.readLevel(level, 0, 0, pyramid.getLevelWidth(level), pyramid.getLevelHeight(level),
+          argb);
+      return argb;
+    }
+
+    /**
+     * Computes the preview of the given layered image with the given mutator applied to the given
+     * layer at the given level, from new pyramids of every layer.
+     *
+     * @param image     The layered image
+     * @param layerName The layer the mutator is applied to
+     * @param mutator   The mutator
+     * @param level     The level of the preview
+     * @return The packed pixels of the preview
+     */
+    private static int[] expectedPreview(LayeredImage image, String layerName, Mutator mutator,
+        int level) {
+      int[] result = null;
+      for (String name : image.getLayerNames()) {
+        ImagePyramid pyramid = new ImagePyramid(image.getLayer(name));
+        int[] argb = level(pyramid, level);
+        if (name.equals(layerName)) {
+          GraphOfPixels mutated = pyramid.copyLevel(level);
+          mutated.applyMutator(mutator);
+          mutated.readPixels(0, 0, pyramid.getLevelWidth(level), pyramid.getLevelHeight(level),
+              argb);
+        }
+        if (result == null) {
+          result = new int[argb.length];
+        }
+        for (int i = 0; i < argb.length && image.getVisibility(name); i += 1) {
+          if ((result[i] >>> 24) == 0 && (argb[i] >>> 24) != 0) {
+            result[i] = argb[i];
+          }
+        }
+      }
+      return result;
+    }
+
+    /**
+     * Returns the packed pixels of the given image.
+     *
+     * @param image The image
+     * @return The pixels
+     */
+    private static int[] pixels(BufferedImage image) {
+      return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+    }
+
+    @Test
+    public void testLevelSizes() {
+      ImagePyramid pyramid = new ImagePyramid(randomGraph(GraphFactory.raster, 13, 5, 1));
+      assertEquals(5, pyramid.getNumLevels());
+      int[] widths = new int[]{13, 7, 4, 2, 1};
+      int[] heights = new int[]{5, 3, 2, 1, 1};
+      for (int level = 0; level < 5; level += 1) {
+        assertEquals(widths[level], pyramid.getLevelWidth(level));
+        assertEquals(heights[level], pyramid.getLevelHeight(level));
+      }
+      assertEquals(0, pyramid.chooseLevel(65));
+      assertEquals(2, pyramid.chooseLevel(20));
+      assertEquals(4, pyramid.chooseLevel(0));
+      assertEquals(1, new ImagePyramid(randomGraph(GraphFactory.raster, 1, 1, 1)).getNumLevels());
+    }
+
+    @Test
+    public void testLevelsAverageWeightedByOpacity() {
+      for (GraphFactory factory : GraphFactory.values()) {
+        GraphOfPixels graph = randomGraph(factory, 23, 9, 4);
+        ImagePyramid pyramid = new ImagePyramid(graph);
+        int[] expected = new int[23 * 9];
+        graph.readPixels(0, 0, 23, 9, expected);
+        assertArrayEquals(expected, level(pyramid, 0));
+        for (int level = 1; level < pyramid.getNumLevels(); level += 1) {
+          expected = shrink(expected, pyramid.getLevelWidth(level - 1),
+              pyramid.getLevelHeight(level - 1));
+          assertArrayEquals(expected, level(pyramid, level));
+        }
+      }
+    }
+
+    @Test
+    public void testLevelsFollowChanges() {
+      for (GraphFactory factory : GraphFactory.values()) {
+        GraphOfPixels graph = randomGraph(factory, 150, 97, 8);
+        ImagePyramid pyramid = new ImagePyramid(graph);
+        level(pyramid, 1);
+        int[] patch = new int[13 * 7];
+        randomGraph(GraphFactory.raster, 13, 7, 9).readPixels(0, 0, 13, 7, patch);
+        graph.writePixels(67, 45, 13, 7, patch);
+        graph.getPixelAt(149, 96).setOpacity(255);
+        ImagePyramid fresh = new ImagePyramid(graph);
+        for (int level = 0; level < pyramid.getNumLevels(); level += 1) {
+          assertArrayEquals(level(fresh, level), level(pyramid, level));
+        }
+      }
+    }
+
+    @Test
+    public void testCopiedLevelIsSeparate() {
+      GraphOfPixels graph = randomGraph(GraphFactory.raster, 20, 20, 2);
+      ImagePyramid pyramid = new ImagePyramid(graph);
+      int[] before = level(pyramid, 1);
+      GraphOfPixels copy = pyramid.copyLevel(1);
+      assertEquals(10, copy.getWidth());
+      copy.applyMutator(new InvertTransform());
+      assertArrayEquals(before, level(pyramid, 1));
+    }
+
+    @Test
+    public void testPreview() {
+      for (GraphFactory factory : GraphFactory.values()) {
+        LayeredImage image = TestCompositeCache.randomLayers(factory, "a", "b", "c");
+        image.setVisibility("c", false);
+        int[] layer = new int[90 * 800];
+        image.getLayer("b").readPixels(0, 0, 90, 800, layer);
+        BufferedImage preview = image.getPreview("b", new GreyscaleTransform(), 90 * 800 / 4);
+        assertEquals(45, preview.getWidth());
+        assertEquals(400, preview.getHeight());
+        assertArrayEquals(expectedPreview(image, "b", new GreyscaleTransform(), 1),
+            pixels(preview));
+        int[] after = new int[90 * 800];
+        image.getLayer("b").readPixels(0, 0, 90, 800, after);
+        assertArrayEquals(layer, after);
+      }
+    }
+
+    @Test
+    public void testPreviewFollowsChanges() {
+      LayeredImage image = TestCompositeCache.randomLayers(GraphFactory.tiled, "a", "b");
+      image.getPreview("a", new SepiaTransform(), 1200);
+      int[] patch = new int[30 * 30];
+      image.getLayer("a").writePixels(10, 100, 30, 30, patch);
+      image.addLayer("c", "b");
+      image.moveLayer("c", 0);
+      BufferedImage preview = image.getPreview("a", new SepiaTransform(), 1200);
+      assertEquals(12, preview.getWidth());
+      assertArrayEquals(expectedPreview(image, "a", new SepiaTransform(), 3), pixels(preview));
+    }
+
+    @Test
+    public void testPreviewCommand() {
+      ProcessingController controller = new ProcessingController(new StringReader(
+          "create-layered-image img 30 20\nadd-layer img a\nupdate-color img a 1 1 255 9 9 9\n"
+              + "create-image transparent single 30 20\n"), new StringBuilder());
+      controller.setHistoryBudget(256L << 20);
+      controller.run();
+      BufferedImage preview = controller.previewCommand("apply-mutator greyscale img a");
+      assertEquals(30, preview.getWidth());
+      assertEquals(0xFF090909, preview.getRGB(1, 1));
+      assertEquals(null, controller.previewCommand("add-layer img b"));
+      assertEquals(null, controller.previewCommand("apply-mutator blur img nope"));
+      assertEquals(null, controller.previewCommand("apply-mutator blur single"));
+      assertEquals(null, controller.previewCommand(null));
+      LayeredImage image = (LayeredImage) controller.getReferenceToImage("img");
+      assertEquals(Arrays.asList("a"), image.getLayerNames());
+      // Previews are not kept in the history, which only holds the four commands of the script
+      int undone = 0;
+      while (controller.undo()) {
+        undone += 1;
+      }
+      assertEquals(4, undone);
+    }
+
+    @Test
+    public void testImageLevelsFollowMarkedChanges() {
+      GraphOfPixels graph = randomGraph(GraphFactory.raster, 61, 40, 12);
+      BufferedImage image = ImageTransfer.toBufferedImage(graph, true);
+      ImagePyramid pyramid = new ImagePyramid(image);
+      ImagePyramid ofGraph = new ImagePyramid(graph);
+      assertTrue(pyramid.isOf(image));
+      assertEquals(7, pyramid.getNumLevels());
+      assertArrayEquals(pixels(image), level(pyramid, 0));
+      for (int level = 1; level < pyramid.getNumLevels(); level += 1) {
+        assertArrayEquals(level(ofGraph, level), level(pyramid, level));
+      }
+      image.setRGB(30, 7, 0x80FF0000);
+      image.setRGB(31, 8, 0xFF00FF00);
+      pyramid.markChanged(new Rectangle(30, 7, 2, 2));
+      ImagePyramid fresh = new ImagePyramid(image);
+      for (int level = 0; level < pyramid.getNumLevels(); level += 1) {
+        assertArrayEquals(level(fresh, level), level(pyramid, level));
+      }
+    }
+
+    @Test
+    public void testShownImagePyramid() {
+      for (GraphFactory factory : GraphFactory.values()) {
+        LayeredImage image = TestCompositeCache.randomLayers(factory, "a", "b");
+        ImagePyramid pyramid = image.getImagePyramid();
+        assertTrue(pyramid.isOf(image.getImageRepresentation()));
+        level(pyramid, 3);
+        image.getLayer("a").writePixels(20, 300, 40, 3, new int[40 * 3]);
+        image.getLayer("b").getPixelAt(89, 799).setOpacity(0);
+        BufferedImage shown = image.getImageRepresentation();
+        assertTrue(pyramid == image.getImagePyramid());
+        ImagePyramid fresh = new ImagePyramid(shown);
+        for (int level = 0; level < pyramid.getNumLevels(); level += 1) {
+          assertArrayEquals(level(fresh, level), level(pyramid, level));
+        }
+      }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testGraphChangesNotMarked() {
+      new ImagePyramid(randomGraph(GraphFactory.raster, 4, 4, 2)).markChanged(new Rectangle(1, 1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNullImagePyramid() {
+      new ImagePyramid((BufferedImage) null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPreviewNullMutator() {
+      TestCompositeCache.randomLayers(GraphFactory.raster, "a").getPreview("a", null, 10);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPreviewMissingLayer() {
+      TestCompositeCache.randomLayers(GraphFactory.raster, "a")
+          .getPreview("b", new InvertTransform(), 10);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPreviewNoPixels() {
+      TestCompositeCache.randomLayers(GraphFactory.raster, "a")
+          .getPreview("a", new InvertTransform(), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNullGraphPyramid() {
+      new ImagePyramid((FixedSizeGraph) null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testReadOutsideLevel() {
+      new ImagePyramid(randomGraph(GraphFactory.raster, 20, 20, 2))
+          .readLevel(1, 5, 5, 6, 1, new int[6]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testReadMissingLevel() {
+      new ImagePyramid(randomGraph(GraphFactory.raster, 20, 20, 2)).getLevelWidth(6);
+    }
+  }
+
+  /**
+   * Tests for accessing pixels of a graph of linked nodes.
+   */
+  public static class TestGraphIndex {
+
+    /**
+     * Returns the least time, in nanoseconds, taken by a few runs of many accesses to the pixel at
+     * the given coordinates.
+     *
+     * @param graph The graph to access
+     * @param x     The x coordinate of the pixel
+     * @param y     The y coordinate of the pixel
+     * @return The fastest time taken
+     */
+    private static long timeAccesses(GraphOfPixels graph, int x, int y) {
+      long best = Long.MAX_VALUE;
+      int checksum = 0;
+      for (int run = 0; run < 5; run += 1) {
+        long start = System.nanoTime();
+        for (int i = 0; i < 200000; i += 1) {
+          checksum += graph.getPixelAt(x, y).getOpacity();
+        }
+        best = Math.min(best, System.nanoTime() - start);
+      }
+      assertEquals(0, checksum);
+      return best;
+    }
+
+    @Test
+    public void testIndexMatchesLinks() {
+      GraphOfPixels graph = ImageToGraphConverter.createTransparentGraph(6, 4);
+      graph.insertRow(1);
+      graph.insertColumn(3);
+      graph.insertColumn(0);
+      graph.insertRow(4);
+      for (int y = 0; y < graph.getHeight(); y += 1) {
+        for (int x = 0; x < graph.getWidth(); x += 1) {
+          assertEquals(graph.getPixelAt(0, 0).getNearby(x, -y), graph.getPixelAt(x, y));
+        }
+      }
+      assertEquals(255, graph.getPixelAt(1, 2).getOpacity());
+      assertEquals(255, graph.getPixelAt(5, 0).getOpacity());
+      assertEquals(255, graph.getPixelAt(0, 5).getOpacity());
+      assertEquals(0, graph.getPixelAt(0, 0).getOpacity());
+    }
+
+    @Test
+    public void testGetPixelAtConstantTime() {
+      // Spans 4000 pixels along each axis, since a full 4000x4000 graph of linked nodes needs more
+      // memory than a test should use, and the cost of walking grows with each axis separately.
+      GraphOfPixels wide = ImageToGraphConverter.createTransparentGraph(4000, 2);
+      GraphOfPixels tall = ImageToGraphConverter.createTransparentGraph(2, 4000);
+      long near = Math.min(timeAccesses(wide, 0, 0), timeAccesses(tall, 0, 0));
+      long farX = timeAccesses(wide, 3999, 1);
+      long farY = timeAccesses(tall, 1, 3999);
+      assertTrue(farX < near * 10 + 50000000L);
+      assertTrue(farY < near * 10 + 50000000L);
+    }
+  }
+
+  /**
+   * Tests for building whole graphs at once from arrays of pixels.
+   */
+  public static class TestGraphBuilding {
+
+    /**
+     * Asserts that every node of the given graph is linked to the nodes at the neighboring
+     * coordinates, and that the nodes on the edges are linked to empty nodes.
+     *
+     * @param graph The graph to be checked
+     */
+    private static void assertWellLinked(GraphOfPixels graph) {
+      for (int y = 0; y < graph.getHeight(); y += 1) {
+        for (int x = 0; x < graph.getWidth(); x += 1) {
+          Node n = graph.getPixelAt(x, y);
+          assertEquals(x == 0 ? new EmptyNode() : graph.getPixelAt(x - 1, y), n.getLeft());
+          assertEquals(y == 0 ? new EmptyNode() : graph.getPixelAt(x, y - 1), n.getAbove());
+          assertEquals(x == graph.getWidth() - 1 ? new EmptyNode() : graph.getPixelAt(x + 1, y),
+              n.getRight());
+          assertEquals(y == graph.getHeight() - 1 ? new EmptyNode() : graph.getPixelAt(x, y + 1),
+              n.getBelow());
+        }
+      }
+    }
+
+    @Test
+    public void testLoadedGraphsWellLinked() {
+      assertWellLinked(loadWith(GraphFactory.linked, "outputImages/example.png"));
+      assertWellLinked(loadWith(GraphFactory.linked, "outputImages/example.ppm"));
+      assertWellLinked(ImageToGraphConverter.createTransparentGraph(5, 3));
+    }
+
+    @Test
+    public void testCopyKeepsTransparentColors() {
+      for (GraphFactory factory : GraphFactory.values()) {
+        GraphOfPixels original = loadWith(factory, "outputImages/example.png");
+        original.getPixelAt(1, 0).updateColors(new SimplePixel(12, 34, 56));
+        original.getPixelAt(1, 0).setOpacity(0);
+        original.getPixelAt(0, 1).setOpacity(100);
+        GraphOfPixels copy = ImageToGraphConverter.createCopyOfGraph(original);
+        assertSamePixels(original, copy);
+        assertEquals(0, original.getPixelAt(1, 0).getOpacity());
+        assertEquals(0, copy.getPixelAt(1, 0).getRed());
+        copy.getPixelAt(1, 0).setOpacity(255);
+        assertEquals(12, copy.getPixelAt(1, 0).getRed());
+        assertEquals(34, copy.getPixelAt(1, 0).getGreen());
+        assertEquals(56, copy.getPixelAt(1, 0).getBlue());
+        assertEquals(100, copy.getPixelAt(0, 1).getOpacity());
+      }
+    }
+
+    @Test
+    public void testTransparentGraphKeepsWhite() {
+      GraphOfPixels graph = ImageToGraphConverter.createTransparentGraph(3, 2);
+      for (Node n : graph) {
+        assertTrue(n.isTransparent());
+        n.setOpacity(255);
+        assertEquals(255, n.getRed());
+        assertEquals(255, n.getGreen());
+        assertEquals(255, n.getBlue());
+      }
+    }
+  }
+
+  /**
+   * Tests for iterating over graphs, with and without coordinates.
+   */
+  public static class TestIteration {
+
+    /**
+     * Returns the number of bytes allocated by this thread while iterating over every pixel of the
+     * given graph.
+     *
+     * @param graph The graph to iterate over
+     * @return The number of bytes allocated
+     */
+    private static long bytesAllocatedIterating(GraphOfPixels graph) {
+      com.sun.management.ThreadMXBean bean =
+          (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+      long threadId = Thread.currentThread().getId();
+      int count = 0;
+      long before = bean.getThreadAllocatedBytes(threadId);
+      for (Node n : graph) {
+        count += n.getOpacity();
+      }
+      long after = bean.getThreadAllocatedBytes(threadId);
+      assertEquals(0, count);
+      return after - before;
+    }
+
+    @Test
+    public void testLinkedIterationDoesNotAllocate() {
+      GraphFactory previous = ImageToGraphConverter.getGraphFactory();
+      ImageToGraphConverter.setGraphFactory(GraphFactory.linked);
+      GraphOfPixels graph;
+      try {
+        graph = ImageToGraphConverter.createTransparentGraph(500, 400);
+      } finally {
+        ImageToGraphConverter.setGraphFactory(previous);
+      }
+      bytesAllocatedIterating(graph);
+      // Allows for the iterator itself and anything the measuring allocates, but not one object
+      // for each of the 200,000 pixels.
+      assertTrue(bytesAllocatedIterating(graph) < 200000);
+    }
+
+    @Test
+    public void testCursorCoordinates() {
+      for (GraphFactory factory : GraphFactory.values()) {
+        GraphOfPixels graph = loadWith(factory, "outputImages/example.png");
+        graph.insertColumn(1);
+        graph.insertRow(0);
+        PixelCursor cursor = graph.cursor();
+        assertEquals(-1, cursor.getX());
+        assertEquals(-1, cursor.getY());
+        int count = 0;
+        while (cursor.hasNext()) {
+          Node n = cursor.next();
+          assertEquals(count % graph.getWidth(), cursor.getX());
+          assertEquals(count / graph.getWidth(), cursor.getY());
+          assertEquals(graph.getPixelAt(cursor.getX(), cursor.getY()), n);
+          count += 1;
+        }
+        assertEquals(graph.getWidth() * graph.getHeight(), count);
+      }
+    }
+  }
+
+  /**
+   * Tests for reading and writing regions of graphs.
+   */
+  public static class TestPixelRegions {
+
+    @Test
+    public void testFiltersMatchNeighborWalk() {
+      double[][] blur = {
+          {0.0625, 0.125, 0.0625},
+          {0.125, 0.25, 0.125},
+          {0.0625, 0.125, 0.0625}};
+      double[][] sharpen = {
+          {-0.125, -0.125, -0.125, -0.125, -0.125},
+          {-0.125, 0.25, 0.25, 0.25, -0.125},
+          {-0.125, 0.25, 1.0, 0.25, -0.125},
+          {-0.125, 0.25, 0.25, 0.25, -0.125},
+          {-0.125, -0.125, -0.125, -0.125, -0.125}};
+      for (GraphFactory factory : GraphFactory.values()) {
+        assertFilterMatchesWalk(factory, 13, 9, new BlurFilter(), blur);
+        assertFilterMatchesWalk(factory, 13, 9, new SharpenFilter(), sharpen);
+      }
+    }
+
+    @Test
+    public void testReadWritePixels() {
+      for (GraphFactory factory : GraphFactory.values()) {
+        GraphOfPixels graph = randomGraph(factory, 6, 5, 3);
+        int[] region = new int[6];
+        graph.readPixels(2, 1, 3, 2, region);
+        Node n = graph.getPixelAt(3, 2);
+        int stored = region[4];
+        assertEquals(stored >>> 24, n.getOpacity());
+        n.setOpacity(255);
+        assertEquals((stored >> 16) & 0xFF, n.getRed());
+        assertEquals(stored & 0xFF, n.getBlue());
+
+        graph.writePixels(4, 3, 2, 1, new int[]{0x00102030, 0x80405060});
+        assertEquals(0, graph.getPixelAt(4, 3).getOpacity());
+        assertEquals(0, graph.getPixelAt(4, 3).getRed());
+        graph.getPixelAt(4, 3).setOpacity(1);
+        assertEquals(0x10, graph.getPixelAt(4, 3).getRed());
+        assertEquals(0x80, graph.getPixelAt(5, 3).getOpacity());
+        assertEquals(0x50, graph.getPixelAt(5, 3).getGreen());
+      }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testReadPixelsOutOfBounds() {
+      ImageToGraphConverter.createTransparentGraph(4, 4).readPixels(2, 2, 3, 1, new int[3]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWritePixelsShortArray() {
+      ImageToGraphConverter.createTransparentGraph(4, 4).writePixels(0, 0, 2, 2, new int[3]);
+    }
+  }
+
+  /**
+   * Tests for applying kernels of any size, whole or as separate passes along rows and columns.
+   */
+  public static class TestConvolution {
+
+    @Test
+    public void testDetectsSeparableKernels() {
+      assertTrue(new Convolution(new double[][]{
+          {0.0625, 0.125, 0.0625},
+          {0.125, 0.25, 0.125},
+          {0.0625, 0.125, 0.0625}}).isSeparable());
+      assertTrue(new Convolution(new double[][]{{2.0}}).isSeparable());
+      assertFalse(new Convolution(new double[][]{
+          {0.0, -1.0, 0.0},
+          {-1.0, 5.0, -1.0},
+          {0.0, -1.0, 0.0}}).isSeparable());
+      assertFalse(new Convolution(new double[][]{
+          {0.0, 0.0, 0.0},
+          {0.0, 0.0, 0.0},
+          {0.0, 0.0, 0.0}}).isSeparable());
+    }
+
+    @Test
+    public void testSeparableMatchesWholeKernel() {
+      double[] binomial = {1.0 / 16, 4.0 / 16, 6.0 / 16, 4.0 / 16, 1.0 / 16};
+      double[][] kernel = new double[5][5];
+      for (int row = 0; row < 5; row += 1) {
+        for (int col = 0; col < 5; col += 1) {
+          kernel[row][col] = binomial[row] * binomial[col];
+        }
+      }
+      assertTrue(new Convolution(kernel).isSeparable());
+      for (GraphFactory factory : GraphFactory.values()) {
+        // Tall enough to be split into more than one band
+        assertFilterMatchesWalk(factory, 11, 150, new KernelFilter(kernel), kernel);
+      }
+    }
+
+    @Test
+    public void testLargeKernelAcrossBands() {
+      double[][] kernel = new double[9][9];
+      for (int row = 0; row < 9; row += 1) {
+        for (int col = 0; col < 9; col += 1) {
+          kernel[row][col] = (row == 4 || col == 4) ? 0.0625 : 0.0;
+        }
+      }
+      assertFalse(new Convolution(kernel).isSeparable());
+      assertFilterMatchesWalk(GraphFactory.raster, 6, 140, new KernelFilter(kernel), kernel);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEvenKernel() {
+      new KernelFilter(new double[][]{{1.0, 0.0}, {0.0, 1.0}});
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNonSquareKernel() {
+      new KernelFilter(new double[][]{{1.0, 0.0, 1.0}, {0.0, 1.0, 0.0}, {1.0, 0.0}});
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNullKernel() {
+      new Convolution(null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNullGraph() {
+      new Convolution(new double[][]{{1.0}}).apply(null);
+    }
+  }
+
+  /**
+   * Tests for applying mutators with several threads at once.
+   */
+  public static class TestParallelMutators {
+
+    /**
+     * Asserts that applying the mutator made by the given command to a random graph with several
+     * threads gives exactly the same pixels as applying it with one.
+     *
+     * @param factory The way the graph should be stored
+     * @param mutator The mutator to be applied
+     */
+    private static void assertParallelMatchesSerial(GraphFactory factory, Mutator mutator) {
+      GraphOfPixels serial = randomGraph(factory, 37, 300, 5);
+      GraphOfPixels parallel = randomGraph(factory, 37, 300, 5);
+      serial.applyMutator(mutator);
+      parallel.applyMutator(mutator, 4);
+      int[] expected = new int[37 * 300];
+      int[] actual = new int[37 * 300];
+      serial.readPixels(0, 0, 37, 300, expected);
+      parallel.readPixels(0, 0, 37, 300, actual);
+      for (int i = 0; i < expected.length; i += 1) {
+        assertEquals(expected[i], actual[i]);
+      }
+    }
+
+    @Test
+    public void testParallelMatchesSerial() {
+      for (GraphFactory factory : GraphFactory.values()) {
+        assertParallelMatchesSerial(factory, new BlurFilter());
+        assertParallelMatchesSerial(factory, new SharpenFilter());
+        assertParallelMatchesSerial(factory, new SepiaTransform());
+        assertParallelMatchesSerial(factory, new GreyscaleTransform());
+      }
+    }
+
+    @Test
+    public void testParallelAcrossGroupsOfBands() {
+      // Several groups of two bands of 64 rows, ending part of the way through a band
+      double[][] edges = {
+          {1, 0, -1, 0, 1},
+          {0, 2, 0, -2, 0},
+          {-1, 0, 4, 0, -1},
+          {0, -2, 0, 2, 0},
+          {1, 0, -1, 0, 1}};
+      Mutator pipeline = new MutatorPipeline(Arrays.asList(new BlurFilter(),
+          new SharpenFilter(), new GreyscaleTransform()));
+      for (GraphFactory factory : GraphFactory.values()) {
+        for (Mutator mutator : new Mutator[]{new BlurFilter(), new KernelFilter(edges),
+            pipeline}) {
+          GraphOfPixels serial = randomGraph(factory, 23, 517, 4);
+          GraphOfPixels parallel = randomGraph(factory, 23, 517, 4);
+          serial.applyMutator(mutator);
+          parallel.applyMutator(mutator, 2);
+          assertSamePixels(serial, parallel);
+        }
+      }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testZeroParallelism() {
+      ImageToGraphConverter.createTransparentGraph(3, 3).applyMutator(new BlurFilter(), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParallelNullMutator() {
+      ImageToGraphConverter.createTransparentGraph(3, 3).applyMutator(null, 2);
+    }
+
+    @Test
+    public void testScriptParallelism() {
+      LanguageSyntax language = new LanguageSyntaxImpl();
+      ParsedCommand command = language.parseCommand("apply-mutator sharpen img --parallelism 3");
+      assertTrue(command instanceof SharpenCommand);
+      Map<String, GraphOfPixels> graphs = new HashMap<String, GraphOfPixels>();
+      graphs.put("img", randomGraph(GraphFactory.linked, 20, 90, 9));
+      GraphOfPixels expected = randomGraph(GraphFactory.linked, 20, 90, 9);
+      expected.applyMutator(new SharpenFilter());
+      command.execute(graphs, new HashMap<String, LayeredImage>());
+      assertSamePixels(expected, graphs.get("img"));
+      language.setCurrentImage("img");
+      assertTrue(language.parseCommand("apply-mutator greyscale --parallelism 2")
+          instanceof GreyscaleCommand);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testScriptInvalidParallelism() {
+      new LanguageSyntaxImpl().parseCommand("apply-mutator blur img --parallelism 0");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testScriptNonIntegerParallelism() {
+      new LanguageSyntaxImpl().parseCommand("apply-mutator blur img --parallelism many");
+    }
+
+    @Test
+    public void testPoolsShared() {
+      int parallelism = ForkJoinPool.getCommonPoolParallelism() + 3;
+      ForkJoinPool pool = Utils.getPool(parallelism);
+      assertEquals(parallelism, pool.getParallelism());
+      randomGraph(GraphFactory.raster, 20, 90, 9).applyMutator(new BlurFilter(), parallelism);
+      assertTrue(pool == Utils.getPool(parallelism));
+      assertFalse(pool.isShutdown());
+      assertTrue(ForkJoinPool.commonPool()
+          == Utils.getPool(ForkJoinPool.getCommonPoolParallelism()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testZeroPool() {
+      Utils.getPool(0);
+    }
+  }
+
+  /**
+   * Tests for applying color matrices to packed pixels.
+   */
+  public static class TestColorMatrix {
+
+    private static final double[][] sepia = {
+        {0.393, 0.769, 0.189},
+        {0.349, 0.686, 0.168},
+        {0.272, 0.534, 0.131}};
+
+    /**
+     * Computes the colors the given matrix should give the given colors, by multiplying a
+     * MatrixImpl as color transformations used to.
+     *
+     * @param matrix The 3x3 matrix to be applied
+     * @param rgb    The packed red, green and blue values
+     * @return The packed transformed values
+     */
+    private static int expectedColors(double[][] matrix, int rgb) {
+      ArrayList<Double> values = new ArrayList<Double>();
+      for (double[] row : matrix) {
+        for (double value : row) {
+          values.add(value);
+        }
+      }
+      Matrix colors = new MatrixImpl(new ArrayList<Double>(Arrays.asList(
+          ((rgb >> 16) & 0xFF) + 0.0, ((rgb >> 8) & 0xFF) + 0.0, (rgb & 0xFF) + 0.0)), 1, 3);
+      Matrix result = new MatrixImpl(values, 3, 3).matrixMultiply(colors);
+      return Utils.clampColor(Utils.roundDouble(result.getValue(0, 0))) << 16
+          | Utils.clampColor(Utils.roundDouble(result.getValue(0, 1))) << 8
+          | Utils.clampColor(Utils.roundDouble(result.getValue(0, 2)));
+    }
+
+    @Test
+    public void testMatchesMatrixMultiplication() {
+      ColorMatrix matrix = new ColorMatrix(sepia);
+      Random random = new Random(11);
+      for (int i = 0; i < 5000; i += 1) {
+        int rgb = random.nextInt(0x1000000);
+        assertEquals(expectedColors(sepia, rgb), matrix.applyToColors(rgb));
+      }
+      assertEquals(expectedColors(sepia, 0xFFFFFF), matrix.applyToColors(0xFFFFFF));
+      assertEquals(0, matrix.applyToColors(0));
+    }
+
+    @Test
+    public void testTransformMatchesSepia() {
+      for (GraphFactory factory : GraphFactory.values()) {
+        GraphOfPixels expected = randomGraph(factory, 30, 70, 3);
+        GraphOfPixels actual = randomGraph(factory, 30, 70, 3);
+        expected.applyMutator(new SepiaTransform());
+        actual.applyMutator(new ColorMatrixTransform(sepia));
+        assertSamePixels(expected, actual);
+      }
+    }
+
+    @Test
+    public void testOffsets() {
+      ColorMatrix matrix = new ColorMatrix(new double[][]{
+          {1, 0, 0, 20},
+          {0, 1, 0, -20.4},
+          {0, 0.5, 0, 0.5}});
+      assertEquals(255 << 16 | 0 << 8 | 6, matrix.applyToColors(250 << 16 | 10 << 8));
+      assertEquals(30 << 16 | 80 << 8 | 51, matrix.applyToColors(10 << 16 | 100 << 8 | 7));
+    }
+
+    @Test
+    public void testTransparentPixels() {
+      GraphOfPixels graph = ImageToGraphConverter.createTransparentGraph(2, 2);
+      graph.getPixelAt(1, 1).setOpacity(255);
+      graph.applyMutator(new ColorMatrixTransform(new double[][]{
+          {1, 0, 0, 5}, {0, 1, 0, 6}, {0, 0, 1, 7}}));
+      assertEquals(0, graph.getPixelAt(0, 0).getOpacity());
+      assertEquals(0, graph.getPixelAt(0, 0).getRed());
+      assertEquals(255, graph.getPixelAt(1, 1).getOpacity());
+      assertEquals(255, graph.getPixelAt(1, 1).getRed());
+      graph.getPixelAt(0, 0).setOpacity(255);
+      assertEquals(5, graph.getPixelAt(0, 0).getRed());
+      assertEquals(6, graph.getPixelAt(0, 0).getGreen());
+      assertEquals(7, graph.getPixelAt(0, 0).getBlue());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNullMatrix() {
+      new ColorMatrix(null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTooFewRows() {
+      new ColorMatrix(new double[][]{{1, 0, 0}, {0, 1, 0}});
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTooManyColumns() {
+      new ColorMatrix(new double[][]{{1, 0, 0, 0, 0}, {0, 1, 0, 0, 0}, {0, 0, 1, 0, 0}});
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnevenRows() {
+      new ColorMatrixTransform(new double[][]{{1, 0, 0}, {0, 1, 0, 0}, {0, 0, 1}});
+    }
+
+    @Test
+    public void testScriptColorMatrix() {
+      LanguageSyntax language = new LanguageSyntaxImpl();
+      ParsedCommand command = language.parseCommand("apply-mutator color-matrix img "
+          + "0.393 0.769 0.189 0.349 0.686 0.168 0.272 0.534 0.131");
+      assertTrue(command instanceof ColorMatrixCommand);
+      Map<String, GraphOfPixels> graphs = new HashMap<String, GraphOfPixels>();
+      graphs.put("img", randomGraph(GraphFactory.linked, 12, 9, 4));
+      GraphOfPixels expected = randomGraph(GraphFactory.linked, 12, 9, 4);
+      expected.applyMutator(new SepiaTransform());
+      command.execute(graphs, new HashMap<String, LayeredImage>());
+      assertSamePixels(expected, graphs.get("img"));
+
+      graphs.put("7", graphs.get("img"));
+      language.parseCommand("apply-mutator color-matrix 7 1 0 0 9 0 1 0 9 0 0 1 9 --parallelism 2")
+          .execute(graphs, new HashMap<String, LayeredImage>());
+      expected.applyMutator(new ColorMatrixTransform(new double[][]{
+          {1, 0, 0, 9}, {0, 1, 0, 9}, {0, 0, 1, 9}}));
+      assertSamePixels(expected, graphs.get("7"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testScriptTooFewValues() {
+      new LanguageSyntaxImpl().parseCommand("apply-mutator color-matrix img 1 0 0 0 1 0 0 0");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testScriptNonNumericValue() {
+      new LanguageSyntaxImpl().parseCommand("apply-mutator color-matrix img 1 0 0 0 1 0 0 0 x");
+    }
+  }
+
+  /**
+   * Tests for lookup table transformations, and compiling chains of them into one.
+   */
+  public static class TestLookupTables {
+
+    /**
+     * Returns a table where every value maps to itself.
+     *
+     * @return The identity table
+     */
+    private static int[] identity() {
+      int[] table = new int[256];
+      for (int i = 0; i < 256; i += 1) {
+        table[i] = i;
+      }
+      return table;
+    }
+
+    @Test
+    public void testBrightenMatchesEditColors() {
+      for (GraphFactory factory : GraphFactory.values()) {
+        GraphOfPixels expected = randomGraph(factory, 25, 40, 8);
+        GraphOfPixels actual = randomGraph(factory, 25, 40, 8);
+        for (Node n : expected) {
+          if (n.getOpacity() > 0) {
+            n.editColors(70, -30, 300);
+          }
+        }
+        actual.applyMutator(new BrightenTransform(70, -30, 300));
+        assertSamePixels(expected, actual);
+      }
+    }
+
+    @Test
+    public void testTables() {
+      LookupTable gamma = new GammaTransform(2).getTable();
+      assertEquals(0, gamma.lookup(0, 0));
+      assertEquals(128, gamma.lookup(1, 64));
+      assertEquals(255, gamma.lookup(2, 255));
+      LookupTable invert = new InvertTransform().getTable();
+      assertEquals(255, invert.lookup(0, 0));
+      assertEquals(155, invert.lookup(2, 100));
+      LookupTable levels = new LevelsTransform(16, 235).getTable();
+      assertEquals(0, levels.lookup(0, 0));
+      assertEquals(0, levels.lookup(0, 16));
+      assertEquals(128, levels.lookup(1, 126));
+      assertEquals(255, levels.lookup(2, 235));
+      assertEquals(255, levels.lookup(2, 255));
+      LookupTable brighten = new BrightenTransform(Integer.MAX_VALUE).getTable();
+      assertEquals(255, brighten.lookup(0, 0));
+      assertEquals(0x0A141E, new LookupTable(identity()).applyToColors(0x0A141E));
+    }
+
+    @Test
+    public void testThen() {
+      LookupTable composed = new BrightenTransform(10).getTable()
+          .then(new InvertTransform().getTable());
+      assertEquals(245, composed.lookup(0, 0));
+      assertEquals(0, composed.lookup(1, 250));
+      LookupTable undone = new InvertTransform().getTable().then(new InvertTransform().getTable());
+      for (int i = 0; i < 256; i += 1) {
+        assertEquals(i, undone.lookup(2, i));
+      }
+    }
+
+    @Test
+    public void testTableIsCopied() {
+      int[] values = identity();
+      LookupTable table = new LookupTable(values);
+      values[5] = 0;
+      assertEquals(5, table.lookup(0, 5));
+    }
+
+    @Test
+    public void testCompile() {
+      Mutator single = new InvertTransform();
+      List<Mutator> chain = Arrays.asList(new BrightenTransform(-20), new GammaTransform(1.8),
+          new LevelsTransform(5, 240), new BlurFilter(), single);
+      List<Mutator> compiled = LookupCompiler.compile(chain);
+      assertEquals(3, compiled.size());
+      assertTrue(compiled.get(0) instanceof LookupTransform);
+      assertTrue(compiled.get(1) instanceof BlurFilter);
+      assertTrue(compiled.get(2) == single);
+      for (GraphFactory factory : GraphFactory.values()) {
+        GraphOfPixels expected = randomGraph(factory, 20, 30, 12);
+        GraphOfPixels actual = randomGraph(factory, 20, 30, 12);
+        for (Mutator m : chain) {
+          expected.applyMutator(m);
+        }
+        for (Mutator m : compiled) {
+          actual.applyMutator(m, 2);
+        }
+        assertSamePixels(expected, actual);
+      }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCompileNullMutator() {
+      LookupCompiler.compile(Arrays.asList(new InvertTransform(), null));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testShortTable() {
+      new LookupTable(new int[255]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTableValueOutOfRange() {
+      int[] table = identity();
+      table[3] = 256;
+      new LookupTable(identity(), table, identity());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidGamma() {
+      new GammaTransform(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidLevels() {
+      new LevelsTransform(200, 100);
+    }
+
+    @Test
+    public void testScriptLookups() {
+      LanguageSyntax language = new LanguageSyntaxImpl();
+      Map<String, GraphOfPixels> graphs = new HashMap<String, GraphOfPixels>();
+      graphs.put("img", randomGraph(GraphFactory.linked, 12, 9, 6));
+      GraphOfPixels expected = randomGraph(GraphFactory.linked, 12, 9, 6);
+      String[] commands = {"apply-mutator brighten img -30", "apply-mutator gamma img 2.2",
+          "apply-mutator invert img --parallelism 2", "apply-mutator levels img 16 235"};
+      for (String command : commands) {
+        ParsedCommand parsed = language.parseCommand(command);
+        assertTrue(parsed instanceof LookupCommand);
+        parsed.execute(graphs, new HashMap<String, LayeredImage>());
+      }
+      expected.applyMutator(new BrightenTransform(-30));
+      expected.applyMutator(new GammaTransform(2.2));
+      expected.applyMutator(new InvertTransform());
+      expected.applyMutator(new LevelsTransform(16, 235));
+      assertSamePixels(expected, graphs.get("img"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testScriptMissingArgument() {
+      new LanguageSyntaxImpl().parseCommand("apply-mutator levels 16");
+    }
+  }
+
+  /**
+   * Tests for applying chains of mutators as fused, streamed pipelines.
+   */
+  public static class TestMutatorPipeline {
+
+    /**
+     * Represents a mutator which cannot be streamed, as it changes each pixel based on where it
+     * is.
+     */
+    private static class PositionMutator implements Mutator {
+
+      @Override
+      public void apply(GraphOfPixels graph) {
+        this.apply(graph, 1);
+      }
+
+      @Override
+      public void apply(GraphOfPixels graph, int parallelism) {
+        PixelCursor cursor = graph.cursor();
+        while (cursor.hasNext()) {
+          Node n = cursor.next();
+          n.updateColors(new SimplePixel((cursor.getX() * 7) % 256, n.getGreen(),
+              (cursor.getY() * 5) % 256));
+        }
+      }
+
+      @Override
+      public Rectangle getAffectedRegion(GraphOfPixels graph) {
+        return new Rectangle(0, 0, graph.getWidth(), graph.getHeight());
+      }
+    }
+
+    /**
+     * Asserts that applying the given mutators as a pipeline changes a random graph of the given
+     * size exactly as applying them one after another does, including the colors hidden behind
+     * transparent pixels.
+     *
+     * @param factory     The way the graph should be stored
+     * @param width       The width of the graph
+     * @param height      The height of the graph
+     * @param parallelism The number of threads the pipeline uses
+     * @param mutators    The mutators to be applied
+     */
+    private static void assertPipelineMatches(GraphFactory factory, int width, int height,
+        int parallelism, Mutator... mutators) {
+      GraphOfPixels expected = randomGraph(factory, width, height, width * 31 + height);
+      GraphOfPixels actual = randomGraph(factory, width, height, width * 31 + height);
+      for (Mutator m : mutators) {
+        expected.applyMutator(m);
+      }
+      actual.applyMutator(new MutatorPipeline(Arrays.asList(mutators)), parallelism);
+      int[] expectedPixels = new int[width * height];
+      int[] actualPixels = new int[width * height];
+      expected.readPixels(0, 0, width, height, expectedPixels);
+      actual.readPixels(0, 0, width, height, actualPixels);
+      for (int i = 0; i < expectedPixels.length; i += 1) {
+        assertEquals(expectedPixels[i], actualPixels[i]);
+      }
+    }
+
+    @Test
+    public void testMatchesSequential() {
+      double[][] edges = {{0, -1, 0}, {-1, 5, -1}, {0, -1, 0}};
+      int[][] sizes = {{1, 1}, {7, 1}, {1, 6}, {5, 2}, {9, 3}, {13, 140}};
+      for (GraphFactory factory : GraphFactory.values()) {
+        for (int[] size : sizes) {
+          for (int parallelism = 1; parallelism <= 3; parallelism += 2) {
+            assertPipelineMatches(factory, size[0], size[1], parallelism, new BlurFilter(),
+                new BlurFilter(), new SharpenFilter(), new SepiaTransform());
+            assertPipelineMatches(factory, size[0], size[1], parallelism,
+                new BrightenTransform(40), new GammaTransform(0.7), new KernelFilter(edges),
+                new InvertTransform(), new GreyscaleTransform(), new LevelsTransform(10, 200));
+            assertPipelineMatches(factory, size[0], size[1], parallelism, new SharpenFilter(),
+                new PositionMutator(), new BlurFilter(), new ColorMatrixTransform(
+                    new double[][]{{1, 0, 0, -40}, {0, 1, 0, 30}, {0.5, 0, 0.5, 0}}));
+          }
+        }
+      }
+    }
+
+    @Test
+    public void testPasses() {
+      assertEquals(1, new MutatorPipeline(Arrays.asList(new BlurFilter(), new BlurFilter(),
+          new SharpenFilter(), new SepiaTransform())).getNumPasses());
+      assertEquals(3, new MutatorPipeline(Arrays.asList(new InvertTransform(), new BlurFilter(),
+          new PositionMutator(), new GammaTransform(2))).getNumPasses());
+      assertEquals(0, new MutatorPipeline(new ArrayList<Mutator>()).getNumPasses());
+    }
+
+    @Test
+    public void testNestedPipelines() {
+      Mutator blur = new BlurFilter();
+      Mutator sepia = new SepiaTransform();
+      Mutator invert = new InvertTransform();
+      MutatorPipeline inner = new MutatorPipeline(Arrays.asList(blur, sepia));
+      MutatorPipeline outer = new MutatorPipeline(Arrays.asList(inner, invert));
+      assertEquals(Arrays.asList(blur, sepia, invert), outer.getMutators());
+      assertEquals(1, outer.getNumPasses());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNullMutators() {
+      new MutatorPipeline(null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNullMutator() {
+      new MutatorPipeline(Arrays.asList(new BlurFilter(), null));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNullGraph() {
+      new MutatorPipeline(Arrays.asList((Mutator) new BlurFilter())).apply(null);
+    }
+
+    /**
+     * Runs the given script on a new controller, and returns the pixels of the layer named "a" of
+     * the layered image named "img" afterwards.
+     *
+     * @param script The script to be run
+     * @param output Where the controller writes errors to
+     * @return The packed ARGB values of the layer
+     */
+    private static int[] runScript(String script, Appendable output) {
+      ProcessingController controller = new ProcessingController(new StringReader(script),
+          output);
+      controller.run();
+      FixedSizeGraph layer = ((LayeredImage) controller.getReferenceToImage("img")).getLayer("a");
+      int[] pixels = new int[layer.getWidth() * layer.getHeight()];
+      layer.readPixels(0, 0, layer.getWidth(), layer.getHeight(), pixels);
+      return pixels;
+    }
+
+    @Test
+    public void testControllerBatchesMutators() {
+      String setup = "create-layered-image img 6 5\nadd-layer img a\n"
+          + "update-color img a 0 0 255 200 10 30\nupdate-color img a 3 2 255 0 90 250\n"
+          + "update-color img a 5 4 120 70 70 70\n";
+      String[] mutators = {"apply-mutator blur img a", "apply-mutator blur img a",
+          "apply-mutator sharpen img a", "apply-mutator sepia img a"};
+      StringBuilder batched = new StringBuilder(setup);
+      StringBuilder separate = new StringBuilder(setup);
+      for (String line : mutators) {
+        batched.append(line).append("\n# comments do not break a batch\n");
+        separate.append(line).append("\nset-current-layer a\n");
+      }
+      StringBuilder batchedOutput = new StringBuilder();
+      int[] expected = runScript(separate.toString(), new StringBuilder());
+      int[] actual = runScript(batched.toString(), batchedOutput);
+      assertEquals(30, actual.length);
+      for (int i = 0; i < expected.length; i += 1) {
+        assertEquals(expected[i], actual[i]);
+      }
+      assertEquals("", batchedOutput.toString());
+    }
+
+    @Test
+    public void testControllerBatchErrors() {
+      StringBuilder output = new StringBuilder();
+      new ProcessingController(new StringReader(
+          "apply-mutator blur nope\napply-mutator sepia nope\napply-mutator sharpen nope\n"
+              + "apply-mutator greyscale nope\ncreate-image empty x"), output).run();
+      // Each line keeps the message it's own command has always given
+      assertEquals("Invalid line 0: The image this command is trying to blur does not exist\n"
+          + "Invalid line 1: The image this command is supposed to blur does not exit\n"
+          + "Invalid line 2: The image this command is supposed to sharpen does not exist\n"
+          + "Invalid line 3: The image this command is supposed to Greyscale does not exist\n",
+          output.toString());
+    }
+
+    /**
+     * Represents a view which keeps every message it is given, and the progress it is shown, in
+     * the order it is given them.
+     */
+    private static class LoggingView implements View {
+
+      private final StringBuilder log;
+
+      /**
+       * Constructs a view with an empty log.
+       */
+      LoggingView() {
+        this.log = new StringBuilder();
+      }
+
+      @Override
+      public void renderException(String message) {
+        this.log.append(message);
+      }
+
+      @Override
+      public void renderProgress(int linesRun) {
+        this.log.append("[").append(linesRun).append("]");
+      }
+
+      @Override
+      public void showView() {
+        // Nothing is shown
+      }
+    }
+
+    @Test
+    public void testInteractiveLinesNotBatched() {
+      String script = "apply-mutator blur nope\ncreate-layered-image img 3 3\nadd-layer img a\n"
+          + "update-color img a 1 1 255 9 9 9\napply-mutator blur img a\n"
+          + "apply-mutator sepia img a\n";
+      LoggingView typed = new LoggingView();
+      ProcessingController controller = new ProcessingController(typed,
+          new StringReader(script), true);
+      controller.run();
+      // The error of each typed line is shown before the next line is read
+      assertEquals("[0]Invalid line 0: The image this command is trying to blur does not "
+          + "exist\n[1][2][3][4][5][6]", typed.log.toString());
+      // Each typed mutator is undone on it's own
+      assertTrue(controller.undo());
+      assertTrue(controller.undo());
+      LayeredImage image = (LayeredImage) controller.getReferenceToImage("img");
+      assertEquals(9, image.getLayer("a").getPixelAt(1, 1).getRed());
+      assertEquals(0, image.getLayer("a").getPixelAt(0, 0).getOpacity());
+
+      LoggingView read = new LoggingView();
+      new ProcessingController(read, new StringReader("apply-mutator blur nope\nquit\n")).run();
+      assertEquals("[0][1]Invalid line 0: The image this command is trying to blur does not "
+          + "exist\nImage Processor Quit", read.log.toString());
+    }
+  }
+
+  /**
+   * Tests for reading ppm files by streaming their tokens.
+   */
+  public static class TestPPMReading {
+
+    /**
+     * Writes the given text to a new temporary ppm file, and returns it's name.
+     *
+     * @param contents The contents of the file
+     * @return The name of the file
+     * @throws IOException If the file cannot be written
+     */
+    private static String writeTemp(String contents) throws IOException {
+      File file = File.createTempFile("streamed", ".ppm");
+      file.deleteOnExit();
+      Files.write(file.toPath(), contents.getBytes(StandardCharsets.US_ASCII));
+      return file.getPath();
+    }
+
+    @Test
+    public void testComments() throws IOException {
+      GraphOfPixels graph = ImageToGraphConverter.convertPPM(writeTemp(
+          "P3# magic then a comment\r\n\n  2 #width\n1\t255\n"
+              + "# a whole line\n10 20 30#right after a value\n 300 -4 7"));
+      assertEquals(2, graph.getWidth());
+      assertEquals(1, graph.getHeight());
+      assertEquals(255, graph.getPixelAt(0, 0).getOpacity());
+      assertEquals(10, graph.getPixelAt(0, 0).getRed());
+      assertEquals(20, graph.getPixelAt(0, 0).getGreen());
+      assertEquals(30, graph.getPixelAt(0, 0).getBlue());
+      assertEquals(255, graph.getPixelAt(1, 0).getRed());
+      assertEquals(0, graph.getPixelAt(1, 0).getGreen());
+      assertEquals(7, graph.getPixelAt(1, 0).getBlue());
+    }
+
+    @Test
+    public void testLargerThanBuffer() throws IOException {
+      for (GraphFactory factory : GraphFactory.values()) {
+        GraphOfPixels original = randomGraph(factory, 150, 140, 21);
+        for (Node n : original) {
+          n.setOpacity(255);
+        }
+        File file = File.createTempFile("streamedLarge", "");
+        file.deleteOnExit();
+        original.writeToFile(OutputType.ppm, file.getPath());
+        new File(file.getPath() + ".ppm").deleteOnExit();
+        assertSamePixels(original, ImageToGraphConverter.convertPPM(file.getPath() + ".ppm"));
+      }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongMagic() throws IOException {
+      ImageToGraphConverter.convertPPM(writeTemp("P4 1 1 255 0 0 0"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTruncated() throws IOException {
+      ImageToGraphConverter.convertPPM(writeTemp("P3 2 1 255 0 0 0 1 1"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNotANumber() throws IOException {
+      ImageToGraphConverter.convertPPM(writeTemp("P3 1 1 255 0 1x 0"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidSize() throws IOException {
+      ImageToGraphConverter.convertPPM(writeTemp("P3 0 1 255"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testOverflow() throws IOException {
+      ImageToGraphConverter.convertPPM(writeTemp("P3 1 1 255 0 99999999999 0"));
+    }
+  }
+
+  /**
+   * Tests reading and writing binary ppm files, pgm files and pam files.
+   */
+  public static class TestBinaryFormats {
+
+    /**
+     * Writes the given header followed by the given bytes to a new temporary file with the given
+     * extension, and returns it's name.
+     *
+     * @param extension The extension of the file
+     * @param header    The text the file starts with
+     * @param values    The bytes after the header
+     * @return The name of the file
+     * @throws IOException If the file cannot be written
+     */
+    private static String writeTemp(String extension, String header, int... values)
+        throws IOException {
+      File file = File.createTempFile("binary", "." + extension);
+      file.deleteOnExit();
+      byte[] headerBytes = header.getBytes(StandardCharsets.US_ASCII);
+      byte[] contents = Arrays.copyOf(headerBytes, headerBytes.length + values.length);
+      for (int i = 0; i < values.length; i += 1) {
+        contents[headerBytes.length + i] = (byte) values[i];
+      }
+      Files.write(file.toPath(), contents);
+      return file.getPath();
+    }
+
+    /**
+     * Writes the given graph to a new temporary file of the given type, and returns the name of
+     * the written file.
+     *
+     * @param graph     The graph to be written
+     * @param type      The type of file to be written
+     * @param extension The extension the written file is given
+     * @return The name of the written file
+     * @throws IOException If the file cannot be created
+     */
+    private static String writeGraph(GraphOfPixels graph, OutputType type, String extension)
+        throws IOException {
+      File file = File.createTempFile("binaryWritten", "");
+      file.deleteOnExit();
+      graph.writeToFile(type, file.getPath());
+      new File(file.getPath() + "." + extension).deleteOnExit();
+      return file.getPath() + "." + extension;
+    }
+
+    @Test
+    public void testConvertStrings() {
+      assertEquals(OutputType.rawppm, OutputType.convertString("rawppm"));
+      assertEquals(OutputType.pgm, OutputType.convertString("pgm"));
+      assertEquals(OutputType.pam, OutputType.convertString("pam"));
+      assertEquals(InputType.pgm, InputType.convertString("pgm"));
+      assertEquals(InputType.pam, InputType.convertString("pam"));
+    }
+
+    @Test
+    public void testRawPPMRoundTrip() throws IOException {
+      for (GraphFactory factory : GraphFactory.values()) {
+        GraphOfPixels original = randomGraph(factory, 200, 150, 31);
+        for (Node n : original) {
+          n.setOpacity(255);
+        }
+        String fileName = writeGraph(original, OutputType.rawppm, "ppm");
+        assertEquals(200 * 150 * 3, new File(fileName).length()
+            - "P6\n# Generated from project\n200 150\n255\n".length());
+        assertSamePixels(original, loadWith(factory, fileName));
+      }
+    }
+
+    @Test
+    public void testTextPPMUnchanged() throws IOException {
+      for (GraphFactory factory : GraphFactory.values()) {
+        GraphOfPixels graph = randomGraph(factory, 2, 1, 5);
+        graph.getPixelAt(0, 0).updateColors(new SimplePixel(1, 22, 255));
+        graph.getPixelAt(0, 0).setOpacity(255);
+        graph.getPixelAt(1, 0).setOpacity(0);
+        String written = new String(Files.readAllBytes(
+            new File(writeGraph(graph, OutputType.ppm, "ppm")).toPath()),
+            StandardCharsets.US_ASCII);
+        assertEquals("P3\n# Generated from project\n2 1\n255\n1\n22\n255\n0\n0\n0\n",
+            written);
+      }
+    }
+
+    @Test
+    public void testPAMKeepsOpacity() throws IOException {
+      for (GraphFactory factory : GraphFactory.values()) {
+        GraphOfPixels original = randomGraph(factory, 90, 70, 32);
+        assertSamePixels(original, loadWith(factory, writeGraph(original, OutputType.pam, "pam")));
+      }
+    }
+
+    @Test
+    public void testPGMWritesGreyValues() throws IOException {
+      GraphOfPixels original = randomGraph(GraphFactory.raster, 40, 30, 33);
+      for (Node n : original) {
+        n.setOpacity(255);
+      }
+      GraphOfPixels read = ImageToGraphConverter.convertImage(
+          writeGraph(original, OutputType.pgm, "pgm"));
+      original.applyMutator(new GreyscaleTransform());
+      assertSamePixels(original, read);
+    }
+
+    @Test
+    public void testReadsWideSamples() throws IOException {
+      GraphOfPixels graph = ImageToGraphConverter.convertPPM(writeTemp("ppm",
+          "P6 # sixteen bits\n2 1 1000\n", 0x03, 0xE8, 0x01, 0xF4, 0x00, 0x00,
+          0x07, 0xD0, 0x00, 0x02, 0x00, 0x64));
+      assertEquals(255, graph.getPixelAt(0, 0).getRed());
+      assertEquals(128, graph.getPixelAt(0, 0).getGreen());
+      assertEquals(0, graph.getPixelAt(0, 0).getBlue());
+      assertEquals(255, graph.getPixelAt(1, 0).getRed());
+      assertEquals(1, graph.getPixelAt(1, 0).getGreen());
+      assertEquals(26, graph.getPixelAt(1, 0).getBlue());
+    }
+
+    @Test
+    public void testReadsPGM() throws IOException {
+      GraphOfPixels binary = ImageToGraphConverter.convertPGM(writeTemp("pgm",
+          "P5\n2 1\n15\n", 15, 5));
+      assertEquals(255, binary.getPixelAt(0, 0).getGreen());
+      assertEquals(85, binary.getPixelAt(1, 0).getRed());
+      assertEquals(85, binary.getPixelAt(1, 0).getBlue());
+      GraphOfPixels text = ImageToGraphConverter.convertPGM(writeTemp("pgm",
+          "P2 2 1 255 7 # a comment\n 200"));
+      assertEquals(7, text.getPixelAt(0, 0).getBlue());
+      assertEquals(200, text.getPixelAt(1, 0).getRed());
+      assertEquals(255, text.getPixelAt(1, 0).getOpacity());
+    }
+
+    @Test
+    public void testReadsGreyPAMWithOpacity() throws IOException {
+      GraphOfPixels graph = ImageToGraphConverter.convertImage(writeTemp("pam",
+          "P7\nWIDTH 2\nHEIGHT 1\nDEPTH 2\nMAXVAL 255\nTUPLTYPE GRAYSCALE_ALPHA\nENDHDR\n",
+          90, 255, 40, 0));
+      assertEquals(90, graph.getPixelAt(0, 0).getRed());
+      assertEquals(255, graph.getPixelAt(0, 0).getOpacity());
+      assertEquals(0, graph.getPixelAt(1, 0).getOpacity());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTruncatedBinary() throws IOException {
+      ImageToGraphConverter.convertPPM(writeTemp("ppm", "P6 2 1 255\n", 1, 2, 3, 4, 5));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidMaxValue() throws IOException {
+      ImageToGraphConverter.convertPGM(writeTemp("pgm", "P5 1 1 70000\n", 1, 2));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPAMMissingDepth() throws IOException {
+      ImageToGraphConverter.convertPAM(writeTemp("pam",
+          "P7\nWIDTH 1\nHEIGHT 1\nMAXVAL 255\nENDHDR\n", 1, 2, 3));
+    }
+  }
+}